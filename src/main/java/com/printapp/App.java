@@ -1,14 +1,31 @@
 package com.printapp;
 
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.JobStatus;
 import com.printapp.model.PrintConfig;
 import com.printapp.model.PrintJobDto;
 import com.printapp.model.PrintJobRecord;
+import com.printapp.model.SpoolReport;
 import com.printapp.service.ApiService;
+import com.printapp.service.HotFolderService;
+import com.printapp.service.JobFileService;
+import com.printapp.service.JobLeaseService;
+import com.printapp.service.JobPreparationService;
+import com.printapp.service.JobStatusReporter;
+import com.printapp.service.LanUploadService;
+import com.printapp.service.PrintScheduler;
+import com.printapp.service.PrinterPoolService;
 import com.printapp.service.PrinterService;
 import com.printapp.service.QrCodeService;
+import com.printapp.service.ResourceGovernor;
+import com.printapp.service.SettingsService;
+import com.printapp.service.ThumbnailService;
 import com.printapp.service.WebSocketClientService;
+import com.printapp.trace.JobTimeline;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
@@ -23,19 +40,41 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class App extends Application {
 
-    private final PrinterService printerService = new PrinterService();
-    private final ApiService apiService = new ApiService();
+    private static final Logger log = Log.get("App");
+
+    private final SettingsService settingsService = new SettingsService();
+    private final PrinterService printerService = new PrinterService(settingsService);
+    private final ApiService apiService = new ApiService(settingsService);
     private final QrCodeService qrCodeService = new QrCodeService();
+    private final JobFileService jobFileService = new JobFileService(apiService, settingsService);
+    private final ThumbnailService thumbnailService = new ThumbnailService();
+    private final PrinterPoolService printerPoolService = new PrinterPoolService(settingsService);
+    private final JobPreparationService jobPreparationService = new JobPreparationService();
+    private final JobLeaseService jobLeaseService = new JobLeaseService(apiService, settingsService);
+    private final PrintScheduler printScheduler = new PrintScheduler(printerService, jobPreparationService,
+            settingsService);
+    private final JobStatusReporter jobStatusReporter = new JobStatusReporter(apiService, settingsService);
+    private final HotFolderService hotFolderService = new HotFolderService(settingsService, printScheduler);
+    private final LanUploadService lanUploadService = new LanUploadService(settingsService, printScheduler);
     private final ObservableList<PrintJobRecord> printJobs = FXCollections.observableArrayList();
+    // Listed jobs holding a pool assignment that have not been queued yet; FX thread only
+    private final Set<Integer> routedJobs = new HashSet<>();
     private List<String> availablePrinters;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
     private WebSocketClientService webSocketClientService;
+    private volatile boolean refreshDeferred;
 
     @Override
     public void start(Stage primaryStage) {
@@ -46,11 +85,23 @@ public class App extends Application {
             primaryStage.getIcons()
                     .add(new javafx.scene.image.Image(getClass().getResourceAsStream("/icons/app_icon.png")));
         } catch (Exception e) {
-            System.out.println("No icon found at /icons/app_icon.png, using default.");
+            log.info("No icon found at /icons/app_icon.png, using default.");
         }
 
         // Load available printers
         availablePrinters = printerService.getAvailablePrinters();
+        ResourceGovernor.get().start(settingsService);
+        ResourceGovernor.get().addListener(pressure -> {
+            if (pressure != ResourceGovernor.Pressure.CRITICAL && refreshDeferred) {
+                Platform.runLater(this::handleRefresh);
+            }
+        });
+        printerPoolService.start();
+        printScheduler.addStartListener(jobId -> jobStatusReporter.report(jobId, JobStatus.PRINTING));
+        printScheduler.setJobLeaseService(jobLeaseService);
+        jobStatusReporter.start();
+        hotFolderService.start();
+        lanUploadService.start();
 
         BorderPane mainLayout = new BorderPane();
         mainLayout.getStyleClass().add("root");
@@ -142,6 +193,10 @@ public class App extends Application {
                 comboBox.setOnAction(e -> {
                     if (getTableView() != null && getIndex() >= 0 && getIndex() < getTableView().getItems().size()) {
                         PrintJobRecord record = getTableView().getItems().get(getIndex());
+                        if (comboBox.getValue() != null && !comboBox.getValue().equals(record.getSelectedPrinter())) {
+                            printerPoolService.reassign(record.getSelectedPrinter(), comboBox.getValue());
+                            routedJobs.add(record.getId());
+                        }
                         record.setSelectedPrinter(comboBox.getValue());
                     }
                 });
@@ -167,8 +222,44 @@ public class App extends Application {
             }
         });
 
+        // Preview Column: thumbnails are only requested for rows the table actually shows
+        TableColumn<PrintJobRecord, File> previewCol = new TableColumn<>("Preview");
+        previewCol.setCellValueFactory(cellData -> cellData.getValue().uploadedFileProperty());
+        previewCol.setMinWidth(ThumbnailService.THUMBNAIL_SIZE + 16);
+        previewCol.setMaxWidth(ThumbnailService.THUMBNAIL_SIZE + 16);
+        previewCol.setCellFactory(column -> new TableCell<>() {
+            private final ImageView imageView = new ImageView();
+            {
+                imageView.setFitWidth(ThumbnailService.THUMBNAIL_SIZE);
+                imageView.setFitHeight(ThumbnailService.THUMBNAIL_SIZE);
+                imageView.setPreserveRatio(true);
+                setAlignment(Pos.CENTER);
+            }
+
+            @Override
+            protected void updateItem(File item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    imageView.setImage(null);
+                    setGraphic(null);
+                    return;
+                }
+                setGraphic(imageView);
+                imageView.setImage(thumbnailService.getCached(item));
+                if (imageView.getImage() == null) {
+                    thumbnailService.thumbnail(item).thenAccept(image -> Platform.runLater(() -> {
+                        // The cell may have been reused for another row meanwhile
+                        if (item.equals(getItem())) {
+                            imageView.setImage(image);
+                        }
+                    }));
+                }
+            }
+        });
+
         // Upload Button Column
-        TableColumn<PrintJobRecord, Void> uploadCol = new TableColumn<>("Upload File");
+        TableColumn<PrintJobRecord, File> uploadCol = new TableColumn<>("Upload File");
+        uploadCol.setCellValueFactory(cellData -> cellData.getValue().uploadedFileProperty());
         uploadCol.setMinWidth(250);
         uploadCol.setCellFactory(column -> new TableCell<>() {
             private final Button btn = new Button("Upload");
@@ -181,7 +272,8 @@ public class App extends Application {
                     PrintJobRecord record = getTableView().getItems().get(getIndex());
                     FileChooser fileChooser = new FileChooser();
                     fileChooser.getExtensionFilters().addAll(
-                            new FileChooser.ExtensionFilter("Files", "*.pdf", "*.png", "*.jpg", "*.jpeg"));
+                            new FileChooser.ExtensionFilter("Files", "*.pdf", "*.png", "*.jpg", "*.jpeg",
+                                    "*.tif", "*.tiff", "*.gif", "*.bmp"));
                     File file = fileChooser.showOpenDialog(primaryStage);
                     if (file != null) {
                         record.setUploadedFile(file);
@@ -192,13 +284,12 @@ public class App extends Application {
             }
 
             @Override
-            protected void updateItem(Void item, boolean empty) {
+            protected void updateItem(File item, boolean empty) {
                 super.updateItem(item, empty);
                 if (empty) {
                     setGraphic(null);
                 } else {
-                    PrintJobRecord record = getTableView().getItems().get(getIndex());
-                    fileLabel.setText(record.getUploadedFile() != null ? record.getUploadedFile().getName() : "None");
+                    fileLabel.setText(item != null ? item.getName() : "None");
                     setGraphic(container);
                 }
             }
@@ -223,6 +314,8 @@ public class App extends Application {
                 if (empty) {
                     setGraphic(null);
                 } else {
+                    String spool = getTableView().getItems().get(getIndex()).getSpoolSummary();
+                    btn.setTooltip(spool == null || spool.isEmpty() ? null : new Tooltip("Last spool: " + spool));
                     setGraphic(btn);
                 }
             }
@@ -230,9 +323,15 @@ public class App extends Application {
 
         @SuppressWarnings("unchecked")
         ObservableList<TableColumn<PrintJobRecord, ?>> columns = FXCollections.observableArrayList(
-                idCol, copiesCol, colorCol, duplexCol, pagesCol, printerCol, uploadCol, printCol);
+                idCol, copiesCol, colorCol, duplexCol, pagesCol, printerCol, previewCol, uploadCol, printCol);
         table.getColumns().addAll(columns);
         centerContainer.getChildren().add(table);
+
+        // Move jobs off pool members that stop accepting work
+        printerPoolService.addAvailabilityListener(() -> Platform.runLater(() -> {
+            failoverPendingJobs();
+            table.refresh();
+        }));
         mainLayout.setCenter(centerContainer);
 
         // --- FOOTER ---
@@ -249,7 +348,7 @@ public class App extends Application {
         try {
             scene.getStylesheets().add(getClass().getResource("/styles/style.css").toExternalForm());
         } catch (Exception e) {
-            System.out.println("CSS not found, falling back to basic styles.");
+            log.info("CSS not found, falling back to basic styles.");
         }
 
         primaryStage.setScene(scene);
@@ -259,26 +358,46 @@ public class App extends Application {
         handleRefresh();
 
         // Start WebSocket connection for real-time updates
-        webSocketClientService = new WebSocketClientService(() -> {
+        webSocketClientService = new WebSocketClientService(settingsService, () -> {
             Platform.runLater(() -> {
-                System.out.println("[App] WebSocket triggered grid refresh.");
+                log.info("WebSocket triggered grid refresh.");
                 handleRefresh();
             });
         });
+        jobStatusReporter.useWebSocket(webSocketClientService);
         webSocketClientService.connect();
     }
 
     private void handleRefresh() {
+        if (ResourceGovernor.get().pressure() == ResourceGovernor.Pressure.CRITICAL) {
+            // The job list can carry whole files; fetch it once there is room
+            log.warn("Refresh deferred: station is short of memory or disk space.");
+            refreshDeferred = true;
+            return;
+        }
+        refreshDeferred = false;
         executorService.submit(() -> {
             try {
-                List<PrintJobDto> dtos = apiService.fetchPrintConfigs();
-                if (dtos == null) {
+                List<PrintJobDto> fetched = apiService.fetchPrintConfigs();
+                if (fetched == null) {
                     Platform.runLater(() -> showAlert("Refresh Error", "Failed to fetch latest data"));
                     return;
                 }
+                List<PrintJobDto> dtos = visibleJobs(fetched);
 
                 Platform.runLater(() -> {
+                    // Waiting jobs give their assignment back and are routed afresh; queued ones keep theirs
+                    for (PrintJobRecord previous : printJobs) {
+                        if (routedJobs.remove(previous.getId())) {
+                            printerPoolService.release(previous.getSelectedPrinter());
+                        }
+                    }
+                    printerPoolService.pruneAssignments();
                     printJobs.clear();
+                    List<Integer> jobIds = new ArrayList<>();
+                    // Only the head of the list is prepared ahead; with leasing on, peers share it
+                    int ahead = Math.min(JobPreparationService.MAX_PREPARED_JOBS,
+                            jobLeaseService.isEnabled() ? settingsService.getMaxLeasedJobs() : dtos.size());
                     for (PrintJobDto dto : dtos) {
                         PrintJobRecord record = new PrintJobRecord(
                                 dto.getId(),
@@ -286,23 +405,41 @@ public class App extends Application {
                                 dto.getColorMode(),
                                 dto.getDuplexMode(),
                                 dto.getPagesPerSheet());
+                        record.setBulk(dto.getBulk());
+                        record.setDocumentName(dto.getFileName());
+                        JobTimeline.attachShared(dto.getId());
+
+                        // Route to the least loaded capable pool member, if pools are configured
+                        String routed = printerPoolService.route(dto.getColorMode() == 10, dto.getDuplexMode() == 2);
+                        if (routed != null) {
+                            record.setSelectedPrinter(routed);
+                            routedJobs.add(record.getId());
+                        }
 
-                        // Handle mobile uploaded file if present
-                        if (dto.getFileBase64() != null && !dto.getFileBase64().isEmpty()) {
-                            try {
-                                File tempFile = saveBase64ToFile(dto.getFileBase64(), dto.getFileName());
-                                record.setUploadedFile(tempFile);
-                            } catch (Exception e) {
-                                System.err.println(
-                                        "Failed to save mobile file for ID " + dto.getId() + ": " + e.getMessage());
+                        // Inline files are ready now; referenced ones arrive when their download completes
+                        jobFileService.fetch(dto).whenComplete((file, error) -> {
+                            if (error != null) {
+                                log.warn("Failed to save mobile file for ID {}: {}", dto.getId(), error.getMessage());
+                            } else if (file != null) {
+                                Platform.runLater(() -> {
+                                    record.setUploadedFile(file);
+                                    // Printed before a restart and still waiting for off-peak time
+                                    if (printScheduler.hasRestoredDeferral(record.getId())) {
+                                        handlePrint(record);
+                                    }
+                                });
                             }
-                        }
+                        });
 
                         printJobs.add(record);
+                        jobIds.add(record.getId());
+                        schedulePreparation(record, jobIds.size() <= ahead);
                     }
+                    jobPreparationService.retainOnly(jobIds);
+                    jobFileService.retainOnly(jobIds);
                 });
             } catch (Exception e) {
-                e.printStackTrace();
+                log.error("Refresh failed: {}", e.getMessage(), e);
                 Platform.runLater(() -> showAlert("Refresh Error", "Failed to fetch latest data"));
             }
         });
@@ -316,6 +453,83 @@ public class App extends Application {
         if (executorService != null) {
             executorService.shutdown();
         }
+        printerPoolService.stop();
+        hotFolderService.stop();
+        lanUploadService.stop();
+        printScheduler.shutdown();
+        jobPreparationService.shutdown();
+        jobFileService.shutdown();
+        thumbnailService.shutdown();
+        jobLeaseService.shutdown();
+        jobStatusReporter.shutdown();
+        ResourceGovernor.get().stop();
+        settingsService.close();
+    }
+
+    /**
+     * Starts preparing the job in the background now, and again whenever any
+     * of its settings or its file change, if it is among the jobs prepared
+     * ahead or this station holds its lease.
+     */
+    private void schedulePreparation(PrintJobRecord record, boolean ahead) {
+        InvalidationListener reprepare = obs -> {
+            if (ahead || jobLeaseService.isEnabled() && jobLeaseService.holds(record.getId())) {
+                jobPreparationService.prepare(toPrintConfig(record));
+            }
+        };
+        record.copiesProperty().addListener(reprepare);
+        record.colorModeProperty().addListener(reprepare);
+        record.duplexModeProperty().addListener(reprepare);
+        record.pagesPerSheetProperty().addListener(reprepare);
+        record.selectedPrinterProperty().addListener(reprepare);
+        record.uploadedFileProperty().addListener(reprepare);
+        reprepare.invalidated(null);
+    }
+
+    /**
+     * Drops jobs a peer station has leased and gives back leases on jobs that
+     * left the list. Jobs are claimed only when they are printed. Runs on the
+     * background executor.
+     */
+    private List<PrintJobDto> visibleJobs(List<PrintJobDto> dtos) {
+        List<PrintJobDto> visible = new ArrayList<>();
+        Set<Integer> jobIds = new HashSet<>();
+        for (PrintJobDto dto : dtos) {
+            if (!jobLeaseService.isLeasedByPeer(dto)) {
+                visible.add(dto);
+                jobIds.add(dto.getId());
+            }
+        }
+
+        if (jobLeaseService.isEnabled()) {
+            jobLeaseService.retainOnly(jobIds);
+        }
+        return visible;
+    }
+
+    private PrintConfig toPrintConfig(PrintJobRecord record) {
+        PrintConfig config = PrintConfig.forJob(record.getId(), record.getCopies(), record.getColorMode(),
+                record.getDuplexMode(), record.getPagesPerSheet());
+        config.setSelectedPrinter(record.getSelectedPrinter());
+        config.setFileToPrint(record.getUploadedFile());
+        config.setBulk(record.getBulk());
+        config.setDocumentName(record.getDocumentName());
+        return config;
+    }
+
+    /**
+     * Re-routes jobs whose printer stopped accepting work to another member
+     * of the same pool.
+     */
+    private void failoverPendingJobs() {
+        for (PrintJobRecord record : printJobs) {
+            String current = record.getSelectedPrinter();
+            if (current == null || current.isEmpty() || printerPoolService.isAccepting(current)) {
+                continue;
+            }
+            record.setSelectedPrinter(printerPoolService.resolve(current,
+                    record.getColorMode() == 10, record.getDuplexMode() == 2));
+        }
     }
 
     private void handlePrint(PrintJobRecord record) {
@@ -324,31 +538,74 @@ public class App extends Application {
             return;
         }
 
-        try {
-            PrintConfig config = new PrintConfig();
-            config.setCopies(record.getCopies());
-            config.setColorMode(record.getColorMode() == 10 ? "Color" : "Black & White");
-            config.setSideOption(record.getDuplexMode() == 2 ? "Front and Back (Duplex)" : "Single Side");
-
-            String layoutStr;
-            switch (record.getPagesPerSheet()) {
-                case 2 -> layoutStr = "2 Pages per Sheet (1x2)";
-                case 4 -> layoutStr = "4 Pages per Sheet (1x4)";
-                default -> layoutStr = "1 Page per Sheet";
-            }
-            config.setLayout(layoutStr);
-            config.setSelectedPrinter(record.getSelectedPrinter());
-            config.setFileToPrint(record.getUploadedFile());
+        // Claiming the lease is a call to the backend; make it on the background executor
+        int jobId = record.getId();
+        CompletableFuture.supplyAsync(() -> jobLeaseService.acquire(jobId), executorService)
+                .whenComplete((acquired, error) -> Platform.runLater(() -> {
+                    if (error != null || !acquired) {
+                        showAlert("Job Unavailable", "Job " + jobId + " is being handled by another station.");
+                        handleRefresh();
+                        return;
+                    }
+                    dispatch(record);
+                }));
+    }
 
-            System.out.println("Printing ID: " + record.getId() + " - " + record.getUploadedFile().getName() + " on "
-                    + record.getSelectedPrinter());
-            printerService.print(config);
+    /**
+     * Queues a job whose lease this station holds.
+     */
+    private void dispatch(PrintJobRecord record) {
+        // From here the assignment belongs to the print and is released when it finishes
+        routedJobs.remove(record.getId());
+        String printer = printerPoolService.resolve(record.getSelectedPrinter(),
+                record.getColorMode() == 10, record.getDuplexMode() == 2);
+        record.setSelectedPrinter(printer);
+
+        PrintConfig config = toPrintConfig(record);
+        String fileName = record.getUploadedFile().getName();
+
+        CompletableFuture<SpoolReport> result;
+        // The job may leave the list while it prints; its file must stay until it is spooled
+        jobFileService.hold(record.getId());
+        try {
+            result = printScheduler.submit(config);
+        } catch (RejectedExecutionException ex) {
+            jobFileService.release(record.getId());
+            jobLeaseService.release(record.getId());
+            printerPoolService.release(printer);
+            showAlert("Printer Busy", ex.getMessage());
+            return;
+        }
 
-            showInfo("Success", "Print job sent successfully for " + record.getUploadedFile().getName());
+        log.info("Queued ID: {} - {} on {} ({} in queue)", record.getId(), fileName, printer,
+                printScheduler.queuedJobs(printer));
+        jobStatusReporter.report(record.getId(), JobStatus.CLAIMED);
+
+        result.whenComplete((report, error) -> {
+            jobFileService.release(record.getId());
+            printerPoolService.release(printer);
+            if (error instanceof CancellationException) {
+                // A deferred job another station took; it prints there
+                log.info("{}", error.getMessage());
+                return;
+            }
+            if (error == null) {
+                jobLeaseService.complete(record.getId());
+                jobStatusReporter.report(record.getId(), JobStatus.PRINTED);
+            } else {
+                jobLeaseService.release(record.getId());
+                jobStatusReporter.reportFailed(record.getId(), error);
+            }
 
-        } catch (Exception ex) {
-            showAlert("Print Error", "Failed to print: " + ex.getMessage());
-        }
+            Platform.runLater(() -> {
+                if (error == null) {
+                    record.setSpoolSummary(report.summary());
+                    showInfo("Success", "Print job sent successfully for " + fileName + "\n" + report.summary());
+                } else {
+                    showAlert("Print Error", "Failed to print: " + error.getMessage());
+                }
+            });
+        });
     }
 
     private void showAlert(String title, String message) {
@@ -368,11 +625,20 @@ public class App extends Application {
     }
 
     /**
-     * Creates a static QR code box for the header.
+     * Creates the QR code box for the header. With LAN uploads on it shows
+     * the station's own upload address, refreshed whenever its one-time
+     * token is used; otherwise the mobile app tagged with this station's
+     * printer IDs, refreshed when they are edited.
      */
     private VBox createHeaderQrBox() {
-        WritableImage qrImage = qrCodeService.generateQrImage(null, 100);
-        ImageView qrView = new ImageView(qrImage);
+        ImageView qrView = new ImageView(headerQrImage(lanUploadService.getScanUrl()));
+        lanUploadService.addScanUrlListener(url -> Platform.runLater(() -> qrView.setImage(headerQrImage(url))));
+        // The same change re-subscribes the WebSocket to the new printers' topics
+        settingsService.addListener(changedKeys -> {
+            if (changedKeys.contains("printerIds")) {
+                Platform.runLater(() -> qrView.setImage(headerQrImage(lanUploadService.getScanUrl())));
+            }
+        });
         qrView.setFitWidth(100);
         qrView.setFitHeight(100);
         qrView.setPreserveRatio(true);
@@ -388,27 +654,12 @@ public class App extends Application {
         return box;
     }
 
-    private File saveBase64ToFile(String base64Data, String fileName) throws Exception {
-        if (base64Data == null || base64Data.isEmpty())
-            return null;
-
-        // Remove data URI prefix if present
-        String pureBase64 = base64Data;
-        if (base64Data.contains(",")) {
-            pureBase64 = base64Data.split(",")[1];
+    private WritableImage headerQrImage(String lanUploadUrl) {
+        if (lanUploadUrl != null) {
+            return qrCodeService.generateQrImageForUrl(lanUploadUrl, 100);
         }
-
-        byte[] decodedBytes = java.util.Base64.getDecoder().decode(pureBase64);
-
-        // Use user's temp directory
-        String tempDir = System.getProperty("java.io.tmpdir");
-        File file = new File(tempDir, "print_upload_" + System.currentTimeMillis() + "_" + fileName);
-
-        try (java.io.FileOutputStream fos = new java.io.FileOutputStream(file)) {
-            fos.write(decodedBytes);
-        }
-
-        return file;
+        // Tag uploads with this station's printer IDs so they reach one of its topics
+        return qrCodeService.generateQrImage(settingsService.getPrinterIds(), 100);
     }
 
     public static void main(String[] args) {
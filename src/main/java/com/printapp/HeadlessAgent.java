@@ -0,0 +1,289 @@
+package com.printapp;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.JobStatus;
+import com.printapp.model.PrintConfig;
+import com.printapp.model.PrintJobDto;
+import com.printapp.service.ApiService;
+import com.printapp.service.AppPaths;
+import com.printapp.service.HotFolderService;
+import com.printapp.service.JobFileService;
+import com.printapp.service.JobLeaseService;
+import com.printapp.service.JobPreparationService;
+import com.printapp.service.JobStatusReporter;
+import com.printapp.service.PrintScheduler;
+import com.printapp.service.PrinterPoolService;
+import com.printapp.service.PrinterService;
+import com.printapp.service.ResourceGovernor;
+import com.printapp.service.SettingsService;
+import com.printapp.service.WebSocketClientService;
+import com.printapp.trace.JobTimeline;
+
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Print station without a screen: fetches jobs whenever the backend pings
+ * the WebSocket and prints them unattended on the routed printer.
+ *
+ * Uses the same services as the desktop app but none of JavaFX, so it can
+ * be compiled ahead of time with {@code mvn -Pnative package}. Printed job
+ * IDs are remembered in the data directory so a restart does not print a
+ * job twice.
+ */
+public class HeadlessAgent {
+
+    private static final Logger log = Log.get("Agent");
+
+    private static final String PRINTED_JOBS_FILE = "printed-jobs.txt";
+
+    private final SettingsService settingsService = new SettingsService();
+    private final ApiService apiService = new ApiService(settingsService);
+    private final JobFileService jobFileService = new JobFileService(apiService, settingsService);
+    private final PrinterService printerService = new PrinterService(settingsService);
+    private final PrinterPoolService printerPoolService = new PrinterPoolService(settingsService);
+    private final JobPreparationService jobPreparationService = new JobPreparationService();
+    private final JobLeaseService jobLeaseService = new JobLeaseService(apiService, settingsService);
+    private final PrintScheduler printScheduler = new PrintScheduler(printerService, jobPreparationService,
+            settingsService);
+    private final JobStatusReporter jobStatusReporter = new JobStatusReporter(apiService, settingsService);
+    private final HotFolderService hotFolderService = new HotFolderService(settingsService, printScheduler);
+    private final WebSocketClientService webSocketClientService;
+
+    // One fetch at a time; pings that arrive during a fetch are coalesced
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "agent-fetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File printedJobsFile = AppPaths.resolve(PRINTED_JOBS_FILE);
+    private final Set<Integer> printedJobs = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> activeJobs = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean refreshPending;
+    private volatile boolean refreshDeferred;
+
+    public HeadlessAgent() {
+        webSocketClientService = new WebSocketClientService(settingsService, this::requestRefresh);
+        jobStatusReporter.useWebSocket(webSocketClientService);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        HeadlessAgent agent = new HeadlessAgent();
+        Runtime.getRuntime().addShutdownHook(new Thread(agent::stop, "agent-shutdown"));
+        agent.start();
+        agent.stopped.await();
+    }
+
+    public void start() {
+        loadPrintedJobs();
+        log.info("Station {} starting, API {}", settingsService.getStationId(), settingsService.getApiBaseUrl());
+        ResourceGovernor.get().start(settingsService);
+        ResourceGovernor.get().addListener(pressure -> {
+            if (pressure != ResourceGovernor.Pressure.CRITICAL && refreshDeferred) {
+                requestRefresh();
+            }
+        });
+        printerPoolService.start();
+        printerPoolService.addAvailabilityListener(this::requestRefresh);
+        printScheduler.addStartListener(jobId -> jobStatusReporter.report(jobId, JobStatus.PRINTING));
+        printScheduler.setJobLeaseService(jobLeaseService);
+        jobStatusReporter.start();
+        hotFolderService.start();
+        requestRefresh();
+        webSocketClientService.connect();
+    }
+
+    public void stop() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        log.info("Shutting down.");
+        webSocketClientService.disconnect();
+        fetcher.shutdownNow();
+        hotFolderService.stop();
+        printScheduler.shutdown();
+        jobLeaseService.shutdown();
+        jobStatusReporter.shutdown();
+        jobPreparationService.shutdown();
+        jobFileService.shutdown();
+        printerPoolService.stop();
+        ResourceGovernor.get().stop();
+        settingsService.close();
+        stopped.countDown();
+    }
+
+    private void requestRefresh() {
+        if (ResourceGovernor.get().pressure() == ResourceGovernor.Pressure.CRITICAL) {
+            // The job list can carry whole files; fetch it once there is room
+            refreshDeferred = true;
+            return;
+        }
+        refreshDeferred = false;
+        if (refreshPending) {
+            return;
+        }
+        refreshPending = true;
+        fetcher.submit(() -> {
+            refreshPending = false;
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.warn("Refresh failed: {}", e.getMessage());
+            }
+        });
+    }
+
+    private void refresh() {
+        // Files of jobs printed or under way are not read off the wire again
+        List<PrintJobDto> jobs = apiService.fetchPrintConfigs(
+                jobId -> printedJobs.contains(jobId) || activeJobs.contains(jobId));
+        for (PrintJobDto dto : jobs) {
+            int jobId = dto.getId();
+            if (printedJobs.contains(jobId) || activeJobs.contains(jobId) || jobLeaseService.isLeasedByPeer(dto)) {
+                deleteQuietly(dto.getInlineFile());
+                continue;
+            }
+            if (!dto.hasInlineFile() && (dto.getFilePath() == null || dto.getFilePath().isBlank())) {
+                // Jobs without a file need someone at the desktop app to attach one
+                continue;
+            }
+            if (!jobLeaseService.acquire(jobId)) {
+                deleteQuietly(dto.getInlineFile());
+                continue;
+            }
+            JobTimeline.attachShared(jobId);
+            submit(dto);
+        }
+    }
+
+    private void submit(PrintJobDto dto) {
+        int jobId = dto.getId();
+        boolean needsColor = dto.getColorMode() == 10;
+        boolean needsDuplex = dto.getDuplexMode() == 2;
+
+        PrintConfig config = PrintConfig.forJob(jobId, dto.getCopies(), dto.getColorMode(), dto.getDuplexMode(),
+                dto.getPagesPerSheet());
+        config.setBulk(dto.getBulk());
+        config.setDocumentName(dto.getFileName());
+        String printer = choosePrinter(needsColor, needsDuplex);
+        if (printer == null) {
+            log.warn("No printer available for job {}.", jobId);
+            jobLeaseService.release(jobId);
+            deleteQuietly(dto.getInlineFile());
+            return;
+        }
+        config.setSelectedPrinter(printer);
+
+        activeJobs.add(jobId);
+        jobStatusReporter.report(jobId, JobStatus.CLAIMED);
+        jobFileService.fetch(dto).whenComplete((file, error) -> {
+            if (error != null || file == null) {
+                log.warn("Failed to get file for job {}: {}", jobId, error != null ? error.getMessage() : "no file");
+                deleteQuietly(dto.getInlineFile());
+                activeJobs.remove(jobId);
+                printerPoolService.release(printer);
+                jobLeaseService.release(jobId);
+                return;
+            }
+            config.setFileToPrint(file);
+            enqueue(config);
+        });
+    }
+
+    private void enqueue(PrintConfig config) {
+        int jobId = config.getJobId();
+        String printer = config.getSelectedPrinter();
+        try {
+            printScheduler.submit(config).whenComplete((report, error) -> {
+                activeJobs.remove(jobId);
+                printerPoolService.release(printer);
+                deleteQuietly(config.getFileToPrint());
+                if (error instanceof CancellationException) {
+                    // A deferred job another station took; it prints there
+                    log.info("{}", error.getMessage());
+                } else if (error == null) {
+                    jobLeaseService.complete(jobId);
+                    markPrinted(jobId);
+                    jobStatusReporter.report(jobId, JobStatus.PRINTED);
+                    log.info("Printed job {} on {}: {}", jobId, printer, report.summary());
+                } else {
+                    jobLeaseService.release(jobId);
+                    jobStatusReporter.reportFailed(jobId, error);
+                    log.warn("Job {} failed: {}", jobId, error.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Picked up again on the next ping once the queue has drained, with the file sent again
+            deleteQuietly(config.getFileToPrint());
+            activeJobs.remove(jobId);
+            printerPoolService.release(printer);
+            jobLeaseService.release(jobId);
+            log.warn("{}", e.getMessage());
+        }
+    }
+
+    /**
+     * Pool routing first, then the configured agent printer, then the
+     * system default.
+     */
+    private String choosePrinter(boolean needsColor, boolean needsDuplex) {
+        String routed = printerPoolService.route(needsColor, needsDuplex);
+        if (routed != null) {
+            return routed;
+        }
+        String configured = settingsService.getAgentPrinter();
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        PrintService defaultService = PrintServiceLookup.lookupDefaultPrintService();
+        return defaultService != null ? defaultService.getName() : null;
+    }
+
+    private void loadPrintedJobs() {
+        if (!printedJobsFile.isFile()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(printedJobsFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    printedJobs.add(Integer.parseInt(line.trim()));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Could not read {}: {}", printedJobsFile, e.getMessage());
+        }
+    }
+
+    private synchronized void markPrinted(int jobId) {
+        printedJobs.add(jobId);
+        try {
+            Files.writeString(printedJobsFile.toPath(), jobId + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("Could not record job {} as printed: {}", jobId, e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && !file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+}
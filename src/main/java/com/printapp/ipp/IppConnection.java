@@ -0,0 +1,334 @@
+package com.printapp.ipp;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * One persistent HTTP/1.1 connection to an IPP printer, shared by every
+ * request to it.
+ *
+ * Requests are pipelined: {@link #send} writes the request on the calling
+ * thread and returns without waiting for the answer, so a Get-Job-Attributes
+ * poll can go out while a large Print-Job is still being answered. Responses
+ * arrive in request order and are matched up by a reader thread. At most
+ * {@code pipelineDepth} requests are outstanding; further senders wait.
+ *
+ * If the connection breaks, every outstanding request fails and the next
+ * {@link #send} opens a new connection. Nothing is retried here because a
+ * Print-Job may already have been accepted.
+ */
+public final class IppConnection implements Closeable {
+
+    private static final Logger log = Log.get("Ipp");
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int COPY_BUFFER = 64 * 1024;
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final String CRLF = "\r\n";
+
+    private final URI printerUri;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final String path;
+    private final Semaphore pipeline;
+    private final Object writeLock = new Object();
+    private Session session;
+    private volatile boolean closed;
+
+    public IppConnection(URI printerUri, int pipelineDepth) {
+        String scheme = printerUri.getScheme() != null ? printerUri.getScheme().toLowerCase(Locale.ROOT) : "";
+        if (!scheme.equals("ipp") && !scheme.equals("ipps") && !scheme.equals("http") && !scheme.equals("https")) {
+            throw new IllegalArgumentException("Not an IPP printer URI: " + printerUri);
+        }
+        this.printerUri = printerUri;
+        this.host = printerUri.getHost();
+        this.secure = scheme.equals("ipps") || scheme.equals("https");
+        this.port = printerUri.getPort() > 0 ? printerUri.getPort()
+                : scheme.equals("http") ? 80 : scheme.equals("https") ? 443 : 631;
+        this.path = printerUri.getRawPath() != null && !printerUri.getRawPath().isEmpty()
+                ? printerUri.getRawPath()
+                : "/";
+        this.pipeline = new Semaphore(Math.max(1, pipelineDepth), true);
+    }
+
+    public URI getPrinterUri() {
+        return printerUri;
+    }
+
+    /**
+     * Sends a request followed by the contents of {@code document}, if any.
+     * The document is streamed from disk. Returns once the request is
+     * written; the future completes with the printer's response.
+     */
+    public CompletableFuture<IppMessage> send(IppMessage request, File document) throws IOException {
+        if (closed) {
+            throw new IOException("IPP connection to " + host + " is closed");
+        }
+        byte[] attributes = request.encode();
+        long contentLength = attributes.length + (document != null ? document.length() : 0);
+
+        try {
+            pipeline.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to send to " + host, e);
+        }
+
+        CompletableFuture<IppMessage> response = new CompletableFuture<>();
+        response.whenComplete((message, error) -> pipeline.release());
+        synchronized (writeLock) {
+            Session current;
+            try {
+                current = openSession();
+            } catch (IOException e) {
+                response.completeExceptionally(e);
+                throw e;
+            }
+            // Queue before writing so the reader can never see an answer it cannot match
+            current.outstanding.add(response);
+            try {
+                OutputStream out = current.out;
+                out.write(("POST " + path + " HTTP/1.1" + CRLF
+                        + "Host: " + host + ":" + port + CRLF
+                        + "Content-Type: application/ipp" + CRLF
+                        + "Content-Length: " + contentLength + CRLF
+                        + "User-Agent: ElitePrint" + CRLF
+                        + CRLF).getBytes(StandardCharsets.US_ASCII));
+                out.write(attributes);
+                if (document != null) {
+                    try (InputStream in = new FileInputStream(document)) {
+                        in.transferTo(out);
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                current.fail(e);
+                throw e;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Fails everything outstanding and drops the connection. The next
+     * {@link #send} reconnects.
+     */
+    public void reset() {
+        synchronized (writeLock) {
+            if (session != null) {
+                session.fail(new IOException("IPP connection to " + host + " was reset"));
+                session = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reset();
+    }
+
+    private Session openSession() throws IOException {
+        if (session != null && !session.broken) {
+            return session;
+        }
+        Socket socket = secure ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        session = new Session(socket);
+        log.debug("Connected to {}", printerUri);
+        return session;
+    }
+
+    /**
+     * One socket and the requests written to it that are still unanswered.
+     */
+    private final class Session implements Runnable {
+        final Socket socket;
+        final OutputStream out;
+        final InputStream in;
+        final ConcurrentLinkedQueue<CompletableFuture<IppMessage>> outstanding = new ConcurrentLinkedQueue<>();
+        volatile boolean broken;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), COPY_BUFFER);
+            this.in = new BufferedInputStream(socket.getInputStream(), COPY_BUFFER);
+            Thread reader = new Thread(this, "ipp-reader-" + host);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!broken) {
+                    boolean keepAlive = readResponse();
+                    if (!keepAlive) {
+                        fail(new IOException(host + " closed the connection"));
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Reads one HTTP response and completes the oldest outstanding
+         * request with it. Returns false if the server closes afterwards.
+         */
+        private boolean readResponse() throws IOException {
+            String statusLine;
+            long contentLength;
+            boolean chunked;
+            boolean keepAlive;
+            int status;
+            do {
+                statusLine = readLine();
+                if (statusLine == null) {
+                    throw new IOException(host + " closed the connection");
+                }
+                if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                    throw new IOException("Bad HTTP status line from " + host + ": " + statusLine);
+                }
+                status = Integer.parseInt(statusLine.substring(9, 12));
+                contentLength = -1;
+                chunked = false;
+                keepAlive = !statusLine.startsWith("HTTP/1.0");
+                String line;
+                while ((line = readLine()) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    String value = line.substring(colon + 1).trim();
+                    if (name.equals("content-length")) {
+                        contentLength = Long.parseLong(value);
+                    } else if (name.equals("transfer-encoding")) {
+                        chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                    } else if (name.equals("connection")) {
+                        keepAlive = !value.equalsIgnoreCase("close");
+                    }
+                }
+                // Interim 100 Continue responses carry no body
+            } while (status / 100 == 1);
+
+            byte[] body = chunked ? readChunked() : contentLength >= 0 ? readFixed(contentLength) : readToEnd();
+            if (contentLength < 0 && !chunked) {
+                keepAlive = false;
+            }
+
+            CompletableFuture<IppMessage> response = outstanding.poll();
+            if (response == null) {
+                throw new IOException("Unexpected response from " + host + ": " + statusLine);
+            }
+            if (status != 200) {
+                response.completeExceptionally(new IOException("HTTP " + status + " from " + host));
+            } else {
+                try {
+                    response.complete(IppMessage.decode(new ByteArrayInputStream(body)));
+                } catch (IOException e) {
+                    response.completeExceptionally(e);
+                }
+            }
+            return keepAlive;
+        }
+
+        void fail(IOException error) {
+            broken = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+            CompletableFuture<IppMessage> response;
+            while ((response = outstanding.poll()) != null) {
+                response.completeExceptionally(error);
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int end = line.length();
+                    if (end > 0 && line.charAt(end - 1) == '\r') {
+                        line.setLength(end - 1);
+                    }
+                    return line.toString();
+                }
+                if (line.length() >= MAX_HEADER_LINE) {
+                    throw new IOException("HTTP header line too long from " + host);
+                }
+                line.append((char) c);
+            }
+            return line.length() > 0 ? line.toString() : null;
+        }
+
+        private byte[] readFixed(long length) throws IOException {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("IPP response too large: " + length);
+            }
+            byte[] body = in.readNBytes((int) length);
+            if (body.length < length) {
+                throw new IOException(host + " closed the connection mid-response");
+            }
+            return body;
+        }
+
+        private byte[] readChunked() throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                String sizeLine = readLine();
+                if (sizeLine == null) {
+                    throw new IOException(host + " closed the connection mid-response");
+                }
+                int semicolon = sizeLine.indexOf(';');
+                long size = Long.parseLong((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+                if (size == 0) {
+                    // Trailers end with an empty line
+                    String trailer;
+                    while ((trailer = readLine()) != null && !trailer.isEmpty()) {
+                        // Ignored
+                    }
+                    return body.toByteArray();
+                }
+                body.write(readFixed(size));
+                readLine();
+            }
+        }
+
+        private byte[] readToEnd() throws IOException {
+            return in.readAllBytes();
+        }
+    }
+}
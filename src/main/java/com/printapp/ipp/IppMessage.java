@@ -0,0 +1,375 @@
+package com.printapp.ipp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An IPP request or response (RFC 8010): version, operation or status code,
+ * request ID and attribute groups. Document data is not part of the message;
+ * it follows the encoded attributes on the wire.
+ *
+ * Values are held as Java objects by value tag: integers and enums as
+ * {@link Integer}, booleans as {@link Boolean}, resolutions and ranges as
+ * {@code int[]}, strings of every kind as {@link String}, out-of-band values
+ * as null and anything else as raw {@code byte[]}. Collections are not
+ * modelled; their members decode as extra values of the collection
+ * attribute, which is enough to skip them.
+ */
+public final class IppMessage {
+
+    public static final int VERSION_1_1 = 0x0101;
+    public static final int VERSION_2_0 = 0x0200;
+
+    // Operations
+    public static final int PRINT_JOB = 0x0002;
+    public static final int CANCEL_JOB = 0x0008;
+    public static final int GET_JOB_ATTRIBUTES = 0x0009;
+    public static final int GET_PRINTER_ATTRIBUTES = 0x000B;
+
+    // Status codes
+    public static final int CLIENT_ERROR_NOT_FOUND = 0x0406;
+    public static final int CLIENT_ERROR_DOCUMENT_FORMAT_NOT_SUPPORTED = 0x040A;
+    public static final int SERVER_ERROR_VERSION_NOT_SUPPORTED = 0x0503;
+    public static final int SERVER_ERROR_BUSY = 0x0507;
+
+    // Delimiter tags
+    public static final int OPERATION_ATTRIBUTES = 0x01;
+    public static final int JOB_ATTRIBUTES = 0x02;
+    public static final int END_OF_ATTRIBUTES = 0x03;
+    public static final int PRINTER_ATTRIBUTES = 0x04;
+    public static final int UNSUPPORTED_ATTRIBUTES = 0x05;
+
+    // Value tags
+    public static final int INTEGER = 0x21;
+    public static final int BOOLEAN = 0x22;
+    public static final int ENUM = 0x23;
+    public static final int RESOLUTION = 0x32;
+    public static final int RANGE_OF_INTEGER = 0x33;
+    public static final int TEXT_WITH_LANGUAGE = 0x35;
+    public static final int NAME_WITH_LANGUAGE = 0x36;
+    public static final int TEXT = 0x41;
+    public static final int NAME = 0x42;
+    public static final int KEYWORD = 0x44;
+    public static final int URI = 0x45;
+    public static final int CHARSET = 0x47;
+    public static final int NATURAL_LANGUAGE = 0x48;
+    public static final int MIME_MEDIA_TYPE = 0x49;
+
+    /**
+     * One named attribute and its values, all of one value tag.
+     */
+    public static final class Attribute {
+        private final int valueTag;
+        private final String name;
+        private final List<Object> values = new ArrayList<>(1);
+
+        Attribute(int valueTag, String name) {
+            this.valueTag = valueTag;
+            this.name = name;
+        }
+
+        public int getValueTag() {
+            return valueTag;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * Attributes under one delimiter tag, in wire order.
+     */
+    public static final class Group {
+        private final int tag;
+        private final List<Attribute> attributes = new ArrayList<>();
+
+        Group(int tag) {
+            this.tag = tag;
+        }
+
+        public int getTag() {
+            return tag;
+        }
+
+        public List<Attribute> getAttributes() {
+            return attributes;
+        }
+    }
+
+    private final int version;
+    private final int code;
+    private final int requestId;
+    private final List<Group> groups = new ArrayList<>();
+
+    /**
+     * @param code the operation of a request or the status of a response
+     */
+    public IppMessage(int version, int code, int requestId) {
+        this.version = version;
+        this.code = code;
+        this.requestId = requestId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * True for a response whose status is one of the successful-ok codes.
+     */
+    public boolean isSuccess() {
+        return code < 0x0100;
+    }
+
+    /**
+     * Starts a new attribute group; following {@link #add} calls go into it.
+     */
+    public IppMessage beginGroup(int tag) {
+        groups.add(new Group(tag));
+        return this;
+    }
+
+    /**
+     * Adds an attribute with one or more values to the current group.
+     */
+    public IppMessage add(int valueTag, String name, Object... values) {
+        if (groups.isEmpty()) {
+            throw new IllegalStateException("No attribute group started");
+        }
+        Attribute attribute = new Attribute(valueTag, name);
+        Collections.addAll(attribute.values, values);
+        groups.get(groups.size() - 1).attributes.add(attribute);
+        return this;
+    }
+
+    /**
+     * First attribute of that name in the first group with that tag, or null.
+     */
+    public Attribute attribute(int groupTag, String name) {
+        for (Group group : groups) {
+            if (group.tag != groupTag) {
+                continue;
+            }
+            for (Attribute attribute : group.attributes) {
+                if (attribute.name.equals(name)) {
+                    return attribute;
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<Object> values(int groupTag, String name) {
+        Attribute attribute = attribute(groupTag, name);
+        return attribute != null ? attribute.values : Collections.emptyList();
+    }
+
+    public Object value(int groupTag, String name) {
+        List<Object> values = values(groupTag, name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    public int intValue(int groupTag, String name, int defaultValue) {
+        Object value = value(groupTag, name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    /**
+     * The status-message a printer may attach to an error, or an empty string.
+     */
+    public String statusMessage() {
+        Object message = value(OPERATION_ATTRIBUTES, "status-message");
+        return message instanceof String ? (String) message : "";
+    }
+
+    // =============================
+    // Encoding
+    // =============================
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(version);
+            out.writeShort(code);
+            out.writeInt(requestId);
+            for (Group group : groups) {
+                out.writeByte(group.tag);
+                for (Attribute attribute : group.attributes) {
+                    boolean first = true;
+                    for (Object value : attribute.values) {
+                        writeValue(out, attribute.valueTag, first ? attribute.name : "", value);
+                        first = false;
+                    }
+                }
+            }
+            out.writeByte(END_OF_ATTRIBUTES);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeValue(DataOutputStream out, int valueTag, String name, Object value) throws IOException {
+        out.writeByte(valueTag);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(nameBytes.length);
+        out.write(nameBytes);
+
+        if (value instanceof Integer) {
+            out.writeShort(4);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeShort(1);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof int[] && valueTag == RESOLUTION) {
+            int[] resolution = (int[]) value;
+            out.writeShort(9);
+            out.writeInt(resolution[0]);
+            out.writeInt(resolution[1]);
+            out.writeByte(resolution[2]);
+        } else if (value instanceof int[]) {
+            int[] range = (int[]) value;
+            out.writeShort(8);
+            out.writeInt(range[0]);
+            out.writeInt(range[1]);
+        } else if (value instanceof byte[]) {
+            byte[] raw = (byte[]) value;
+            out.writeShort(raw.length);
+            out.write(raw);
+        } else if (value == null) {
+            out.writeShort(0);
+        } else {
+            byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(text.length);
+            out.write(text);
+        }
+    }
+
+    // =============================
+    // Decoding
+    // =============================
+
+    /**
+     * Reads a message up to and including its end-of-attributes tag, leaving
+     * any document data in the stream.
+     *
+     * @throws IOException if the stream ends early or the message is malformed
+     */
+    public static IppMessage decode(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        IppMessage message = new IppMessage(in.readUnsignedShort(), in.readUnsignedShort(), in.readInt());
+
+        Attribute current = null;
+        while (true) {
+            int tag = in.readUnsignedByte();
+            if (tag == END_OF_ATTRIBUTES) {
+                return message;
+            }
+            if (tag < 0x10) {
+                message.beginGroup(tag);
+                current = null;
+                continue;
+            }
+            if (message.groups.isEmpty()) {
+                throw new IOException("IPP attribute outside of a group");
+            }
+            String name = new String(readBytes(in, in.readUnsignedShort()), StandardCharsets.UTF_8);
+            Object value = readValue(tag, readBytes(in, in.readUnsignedShort()));
+            if (name.isEmpty()) {
+                // An additional value of the previous attribute
+                if (current == null) {
+                    throw new IOException("IPP value without an attribute name");
+                }
+                current.values.add(value);
+            } else {
+                current = new Attribute(tag, name);
+                current.values.add(value);
+                message.groups.get(message.groups.size() - 1).attributes.add(current);
+            }
+        }
+    }
+
+    private static Object readValue(int tag, byte[] raw) throws IOException {
+        switch (tag) {
+            case INTEGER:
+            case ENUM:
+                return raw.length == 4 ? toInt(raw, 0) : raw;
+            case BOOLEAN:
+                return raw.length == 1 ? raw[0] != 0 : raw;
+            case RESOLUTION:
+                return raw.length == 9 ? new int[] { toInt(raw, 0), toInt(raw, 4), raw[8] } : raw;
+            case RANGE_OF_INTEGER:
+                return raw.length == 8 ? new int[] { toInt(raw, 0), toInt(raw, 4) } : raw;
+            case TEXT_WITH_LANGUAGE:
+            case NAME_WITH_LANGUAGE:
+                return withoutLanguage(raw);
+            default:
+                if (tag >= 0x10 && tag <= 0x1F) {
+                    // Out-of-band: unsupported, unknown, no-value
+                    return null;
+                }
+                if (tag >= 0x40 && tag <= 0x5F) {
+                    return new String(raw, StandardCharsets.UTF_8);
+                }
+                return raw;
+        }
+    }
+
+    private static String withoutLanguage(byte[] raw) throws IOException {
+        if (raw.length < 4) {
+            throw new IOException("Truncated IPP string with language");
+        }
+        int languageLength = ((raw[0] & 0xFF) << 8) | (raw[1] & 0xFF);
+        int textAt = 2 + languageLength;
+        if (textAt + 2 > raw.length) {
+            throw new IOException("Truncated IPP string with language");
+        }
+        int textLength = ((raw[textAt] & 0xFF) << 8) | (raw[textAt + 1] & 0xFF);
+        if (textAt + 2 + textLength > raw.length) {
+            throw new IOException("Truncated IPP string with language");
+        }
+        return new String(raw, textAt + 2, textLength, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("IPP message ends inside an attribute", e);
+        }
+        return bytes;
+    }
+
+    private static int toInt(byte[] raw, int at) {
+        return ((raw[at] & 0xFF) << 24) | ((raw[at + 1] & 0xFF) << 16) | ((raw[at + 2] & 0xFF) << 8)
+                | (raw[at + 3] & 0xFF);
+    }
+}
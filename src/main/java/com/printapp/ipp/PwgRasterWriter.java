@@ -0,0 +1,177 @@
+package com.printapp.ipp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes pages as PWG Raster (PWG 5102.4), the raster format every IPP
+ * Everywhere printer accepts: a sync word, then per page a 1796-byte header
+ * followed by the pixels, compressed line by line.
+ *
+ * Pages are 8-bit sGray or sRGB. Each line group starts with a repeat count
+ * for identical lines, then runs of repeated pixels or literal pixels, which
+ * keeps mostly-white office pages small.
+ */
+public final class PwgRasterWriter implements Closeable {
+
+    private static final byte[] SYNC = "RaS2".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 1796;
+    private static final int COLOR_SPACE_SGRAY = 18;
+    private static final int COLOR_SPACE_SRGB = 19;
+    private static final int MAX_RUN = 128;
+    private static final int MAX_LINE_REPEAT = 256;
+
+    private final OutputStream out;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(64 * 1024);
+
+    public PwgRasterWriter(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(SYNC);
+    }
+
+    /**
+     * Appends one page.
+     *
+     * @param image         a TYPE_BYTE_GRAY page is written as sGray, anything
+     *                      else as sRGB
+     * @param widthPoints   page width in points
+     * @param heightPoints  page height in points
+     * @param pageSizeName  PWG media name, e.g. {@code iso_a4_210x297mm}
+     */
+    public void writePage(BufferedImage image, int dpi, double widthPoints, double heightPoints, int copies,
+            boolean duplex, String pageSizeName) throws IOException {
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        int bytesPerPixel = gray ? 1 : 3;
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        out.write(header(width, height, bytesPerPixel, gray, dpi, widthPoints, heightPoints, copies, duplex,
+                pageSizeName));
+
+        byte[] line = new byte[width * bytesPerPixel];
+        byte[] next = new byte[width * bytesPerPixel];
+        int[] rgb = gray ? null : new int[width];
+        byte[] grayPixels = gray ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+
+        int y = 0;
+        while (y < height) {
+            readLine(image, y, line, rgb, grayPixels);
+            int repeat = 1;
+            while (y + repeat < height && repeat < MAX_LINE_REPEAT) {
+                readLine(image, y + repeat, next, rgb, grayPixels);
+                if (!Arrays.equals(next, line)) {
+                    break;
+                }
+                repeat++;
+            }
+            encoded.reset();
+            encoded.write(repeat - 1);
+            encodeLine(line, bytesPerPixel);
+            encoded.writeTo(out);
+            y += repeat;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+
+    private static void readLine(BufferedImage image, int y, byte[] line, int[] rgb, byte[] grayPixels) {
+        int width = image.getWidth();
+        if (grayPixels != null) {
+            System.arraycopy(grayPixels, y * width, line, 0, width);
+            return;
+        }
+        image.getRGB(0, y, width, 1, rgb, 0, width);
+        for (int x = 0, i = 0; x < width; x++) {
+            int pixel = rgb[x];
+            line[i++] = (byte) (pixel >> 16);
+            line[i++] = (byte) (pixel >> 8);
+            line[i++] = (byte) pixel;
+        }
+    }
+
+    /**
+     * Run-length encodes one line in whole pixels: a count byte of 0..127
+     * repeats the next pixel 1..128 times, 129..255 introduces 128..2
+     * literal pixels.
+     */
+    private void encodeLine(byte[] line, int bytesPerPixel) {
+        int pixels = line.length / bytesPerPixel;
+        int x = 0;
+        while (x < pixels) {
+            int run = 1;
+            while (x + run < pixels && run < MAX_RUN && samePixel(line, x, x + run, bytesPerPixel)) {
+                run++;
+            }
+            if (run > 1 || x + 1 == pixels) {
+                encoded.write(run - 1);
+                encoded.write(line, x * bytesPerPixel, bytesPerPixel);
+                x += run;
+                continue;
+            }
+            // Literal run: up to the next pair of equal pixels
+            int literal = 1;
+            while (x + literal < pixels && literal < MAX_RUN
+                    && !(x + literal + 1 < pixels && samePixel(line, x + literal, x + literal + 1, bytesPerPixel))) {
+                literal++;
+            }
+            if (literal == 1) {
+                encoded.write(0);
+            } else {
+                encoded.write(257 - literal);
+            }
+            encoded.write(line, x * bytesPerPixel, literal * bytesPerPixel);
+            x += literal;
+        }
+    }
+
+    private static boolean samePixel(byte[] line, int a, int b, int bytesPerPixel) {
+        int i = a * bytesPerPixel;
+        int j = b * bytesPerPixel;
+        for (int k = 0; k < bytesPerPixel; k++) {
+            if (line[i + k] != line[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] header(int width, int height, int bytesPerPixel, boolean gray, int dpi, double widthPoints,
+            double heightPoints, int copies, boolean duplex, String pageSizeName) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        putString(header, 0, "PwgRaster");
+        header.putInt(272, duplex ? 1 : 0);
+        header.putInt(276, dpi);
+        header.putInt(280, dpi);
+        header.putInt(340, Math.max(1, copies));
+        header.putInt(352, (int) Math.round(widthPoints));
+        header.putInt(356, (int) Math.round(heightPoints));
+        header.putInt(372, width);
+        header.putInt(376, height);
+        header.putInt(384, 8);
+        header.putInt(388, 8 * bytesPerPixel);
+        header.putInt(392, width * bytesPerPixel);
+        header.putInt(396, 0);
+        header.putInt(400, gray ? COLOR_SPACE_SGRAY : COLOR_SPACE_SRGB);
+        header.putInt(420, bytesPerPixel);
+        // CrossFeedTransform and FeedTransform
+        header.putInt(456, 1);
+        header.putInt(460, 1);
+        putString(header, 1732, pageSizeName);
+        return header.array();
+    }
+
+    private static void putString(ByteBuffer header, int at, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        header.put(at, bytes, 0, Math.min(bytes.length, 63));
+    }
+}
@@ -0,0 +1,26 @@
+package com.printapp.log;
+
+/**
+ * Severity of a log event, lowest first.
+ */
+public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR;
+
+    /**
+     * Parses a level name, falling back to {@code fallback} for anything
+     * unrecognised.
+     */
+    public static Level parse(String name, Level fallback) {
+        if (name != null) {
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name.trim())) {
+                    return level;
+                }
+            }
+        }
+        return fallback;
+    }
+}
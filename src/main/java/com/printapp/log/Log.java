@@ -0,0 +1,75 @@
+package com.printapp.log;
+
+import java.io.File;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Entry point of the logging subsystem.
+ *
+ * Callers never touch the console or the disk: events are copied into a
+ * pre-allocated {@link LogRing} and a single daemon thread formats them and
+ * appends them to {@code ~/.elite-print/logs/elite-print.log}. A slow
+ * console or disk therefore cannot stall the FX or WebSocket threads.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>{@code eliteprint.log.level}: DEBUG, INFO (default), WARN or ERROR</li>
+ * <li>{@code eliteprint.log.console}: also echo events to stdout/stderr</li>
+ * </ul>
+ */
+public final class Log {
+
+    private static final int RING_CAPACITY = 8192;
+
+    private static final LogRing RING = new LogRing(RING_CAPACITY);
+    private static final Level THRESHOLD = Level.parse(System.getProperty("eliteprint.log.level"), Level.INFO);
+    private static final LogWriter WRITER = new LogWriter(RING, logDirectory(),
+            Boolean.getBoolean("eliteprint.log.console"));
+    private static final Thread WRITER_THREAD = new Thread(WRITER, "log-writer");
+
+    static {
+        WRITER_THREAD.setDaemon(true);
+        WRITER_THREAD.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    public static Logger get(String tag) {
+        return new Logger(tag);
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    /**
+     * Writes out everything still queued and stops the writer. Called on
+     * JVM shutdown; later events are dropped.
+     */
+    public static void shutdown() {
+        WRITER.stop();
+        LockSupport.unpark(WRITER_THREAD);
+        try {
+            WRITER_THREAD.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void publish(Level level, String tag, String template, int argCount, Object arg0, Object arg1,
+            Object arg2, Object arg3, int payloadLimit) {
+        RING.publish(level, tag, template, argCount, arg0, arg1, arg2, arg3, payloadLimit);
+    }
+
+    // Same location as AppPaths.dataDir(), resolved here so logging has no
+    // dependency on the service layer
+    private static File logDirectory() {
+        String override = System.getProperty("eliteprint.home");
+        File dataDir = override != null && !override.isBlank()
+                ? new File(override)
+                : new File(System.getProperty("user.home"), ".elite-print");
+        return new File(dataDir, "logs");
+    }
+}
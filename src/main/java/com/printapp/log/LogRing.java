@@ -0,0 +1,136 @@
+package com.printapp.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-size multi-producer, single-consumer queue of log events.
+ *
+ * All slots are allocated up front and reused. A producer claims the next
+ * sequence number, copies its event into that slot and publishes it; the
+ * consumer reads slots strictly in sequence order. Producers never wait:
+ * when the writer has fallen a full ring behind, new events are counted and
+ * dropped instead of blocking the calling thread.
+ */
+final class LogRing {
+
+    /**
+     * One reusable event. Fields are written by the producer that claimed
+     * the slot and become visible to the consumer through {@link #published}.
+     */
+    static final class Slot {
+        long time;
+        Level level;
+        String tag;
+        String thread;
+        String template;
+        Object arg0;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+        int argCount;
+        // Maximum characters of arg0 to write, or -1 for no limit
+        int payloadLimit;
+        volatile long published = -1;
+
+        void clear() {
+            tag = null;
+            thread = null;
+            template = null;
+            arg0 = null;
+            arg1 = null;
+            arg2 = null;
+            arg3 = null;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long consumed;
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Copies an event into the ring. Returns false if it was dropped
+     * because the ring is full.
+     */
+    boolean publish(Level level, String tag, String template, int argCount, Object arg0, Object arg1,
+            Object arg2, Object arg3, int payloadLimit) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.tag = tag;
+        slot.thread = Thread.currentThread().getName();
+        slot.template = template;
+        slot.argCount = argCount;
+        slot.arg0 = arg0;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        slot.arg3 = arg3;
+        slot.payloadLimit = payloadLimit;
+        slot.published = sequence;
+
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot holding the next unread event, or null if that event
+     * has not been published yet. Consumer thread only.
+     */
+    Slot peek() {
+        long next = consumed;
+        Slot slot = slots[(int) next & mask];
+        return slot.published == next ? slot : null;
+    }
+
+    /**
+     * Releases the slot returned by {@link #peek()} for reuse. Consumer
+     * thread only.
+     */
+    void advance(Slot slot) {
+        slot.clear();
+        consumed = consumed + 1;
+    }
+
+    /**
+     * Parks the consumer until a producer publishes or the timeout passes.
+     */
+    void await(long timeoutNanos) {
+        consumer = Thread.currentThread();
+        consumerParked = true;
+        if (peek() == null) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        consumerParked = false;
+    }
+
+    /**
+     * Number of events dropped since the last call.
+     */
+    long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+}
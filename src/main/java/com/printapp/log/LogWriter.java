@@ -0,0 +1,195 @@
+package com.printapp.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single background thread that drains the {@link LogRing}, formats
+ * events and appends them to a rolling log file. Files roll at
+ * {@value #MAX_FILE_BYTES} bytes and the last {@value #KEEP_FILES} are kept.
+ */
+final class LogWriter implements Runnable {
+
+    private static final long MAX_FILE_BYTES = 5L * 1024 * 1024;
+    private static final int KEEP_FILES = 5;
+    private static final String FILE_NAME = "elite-print.log";
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private final LogRing ring;
+    private final File directory;
+    private final boolean console;
+    private final StringBuilder line = new StringBuilder(256);
+
+    private Writer out;
+    private long fileBytes;
+    private volatile boolean running = true;
+
+    LogWriter(LogRing ring, File directory, boolean console) {
+        this.ring = ring;
+        this.directory = directory;
+        this.console = console;
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean stopping = !running;
+            int written = drain();
+            if (written > 0) {
+                flush();
+            } else if (stopping) {
+                break;
+            } else {
+                ring.await(IDLE_WAIT_NANOS);
+            }
+        }
+        close();
+    }
+
+    private int drain() {
+        int written = 0;
+        long dropped = ring.takeDropped();
+        if (dropped > 0) {
+            line.setLength(0);
+            line.append(TIME_FORMAT.format(Instant.now())).append(" WARN  [Log] ").append(dropped)
+                    .append(" event(s) dropped, writer could not keep up");
+            write(Level.WARN);
+            written++;
+        }
+
+        LogRing.Slot slot;
+        while ((slot = ring.peek()) != null) {
+            format(slot);
+            Level level = slot.level;
+            ring.advance(slot);
+            write(level);
+            written++;
+        }
+        return written;
+    }
+
+    private void format(LogRing.Slot slot) {
+        line.setLength(0);
+        line.append(TIME_FORMAT.format(Instant.ofEpochMilli(slot.time))).append(' ');
+        String level = slot.level.name();
+        line.append(level);
+        for (int i = level.length(); i < 6; i++) {
+            line.append(' ');
+        }
+        line.append('[').append(slot.tag).append("] ");
+
+        Object[] args = { slot.arg0, slot.arg1, slot.arg2, slot.arg3 };
+        int used = 0;
+        String template = slot.template;
+        int from = 0;
+        int at;
+        while (used < slot.argCount && (at = template.indexOf("{}", from)) >= 0) {
+            line.append(template, from, at);
+            appendArg(args[used], used == 0 ? slot.payloadLimit : -1);
+            used++;
+            from = at + 2;
+        }
+        line.append(template, from, template.length());
+        line.append(" (").append(slot.thread).append(')');
+
+        // A Throwable left over after the placeholders is printed with its stack trace
+        if (used < slot.argCount && args[slot.argCount - 1] instanceof Throwable) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) args[slot.argCount - 1]).printStackTrace(new PrintWriter(trace));
+            line.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+        }
+    }
+
+    private void appendArg(Object arg, int limit) {
+        String text = String.valueOf(arg);
+        if (limit >= 0 && text.length() > limit) {
+            line.append(text, 0, limit).append("... (").append(text.length()).append(" chars)");
+        } else {
+            line.append(text);
+        }
+    }
+
+    private void write(Level level) {
+        line.append(System.lineSeparator());
+        if (console) {
+            (level.compareTo(Level.WARN) >= 0 ? System.err : System.out).print(line);
+        }
+        try {
+            if (out == null || fileBytes > MAX_FILE_BYTES) {
+                roll();
+            }
+            out.append(line);
+            fileBytes += line.length();
+        } catch (IOException e) {
+            // Keep going without the file rather than lose the console output too
+            if (!console) {
+                System.err.print(line);
+            }
+            closeQuietly();
+        }
+    }
+
+    private void roll() throws IOException {
+        closeQuietly();
+        File current = new File(directory, FILE_NAME);
+        if (current.isFile() && current.length() > MAX_FILE_BYTES) {
+            for (int i = KEEP_FILES - 1; i >= 1; i--) {
+                File older = new File(directory, FILE_NAME + "." + i);
+                if (older.isFile()) {
+                    File target = new File(directory, FILE_NAME + "." + (i + 1));
+                    target.delete();
+                    older.renameTo(target);
+                }
+            }
+            current.renameTo(new File(directory, FILE_NAME + ".1"));
+        }
+        directory.mkdirs();
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current, true), StandardCharsets.UTF_8),
+                64 * 1024);
+        fileBytes = current.length();
+    }
+
+    private void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                closeQuietly();
+            }
+        }
+    }
+
+    private void close() {
+        flush();
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Already broken; the next write reopens
+            }
+            out = null;
+        }
+    }
+}
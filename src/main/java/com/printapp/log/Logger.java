@@ -0,0 +1,171 @@
+package com.printapp.log;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled logger for one component, named by a short tag such as
+ * {@code "WebSocket"}. Messages use {@code {}} placeholders:
+ *
+ * <pre>
+ * log.info("Job {} ready in {} ms", jobId, elapsed);
+ * log.error("Print failed for {}", fileName, exception);
+ * </pre>
+ *
+ * A disabled level returns before anything is allocated or copied, and
+ * formatting happens on the writer thread, so callers only pay for storing
+ * a few references. That holds for strings, boxed primitives, enums and
+ * other immutable values; any other argument (a builder, collection or
+ * buffer view that may change after the call) is turned into a string on
+ * the calling thread. A trailing Throwable argument is logged with its
+ * stack trace. Primitive arguments are boxed by the compiler at the call
+ * site; guard calls on hot paths with {@link #isDebugEnabled()}.
+ */
+public final class Logger {
+
+    // Payloads longer than this are cut, except for every n-th one
+    private static final int PAYLOAD_LIMIT = 200;
+    private static final int PAYLOAD_SAMPLE_EVERY = 100;
+
+    private final String tag;
+    private final AtomicLong payloads = new AtomicLong();
+
+    Logger(String tag) {
+        this.tag = tag;
+    }
+
+    public boolean isDebugEnabled() {
+        return Log.isEnabled(Level.DEBUG);
+    }
+
+    public boolean isEnabled(Level level) {
+        return Log.isEnabled(level);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, 0, null, null, null, null);
+    }
+
+    public void debug(String template, Object arg) {
+        log(Level.DEBUG, template, 1, arg, null, null, null);
+    }
+
+    public void debug(String template, Object arg0, Object arg1) {
+        log(Level.DEBUG, template, 2, arg0, arg1, null, null);
+    }
+
+    public void debug(String template, Object arg0, Object arg1, Object arg2) {
+        log(Level.DEBUG, template, 3, arg0, arg1, arg2, null);
+    }
+
+    public void debug(String template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(Level.DEBUG, template, 4, arg0, arg1, arg2, arg3);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, 0, null, null, null, null);
+    }
+
+    public void info(String template, Object arg) {
+        log(Level.INFO, template, 1, arg, null, null, null);
+    }
+
+    public void info(String template, Object arg0, Object arg1) {
+        log(Level.INFO, template, 2, arg0, arg1, null, null);
+    }
+
+    public void info(String template, Object arg0, Object arg1, Object arg2) {
+        log(Level.INFO, template, 3, arg0, arg1, arg2, null);
+    }
+
+    public void info(String template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(Level.INFO, template, 4, arg0, arg1, arg2, arg3);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, 0, null, null, null, null);
+    }
+
+    public void warn(String template, Object arg) {
+        log(Level.WARN, template, 1, arg, null, null, null);
+    }
+
+    public void warn(String template, Object arg0, Object arg1) {
+        log(Level.WARN, template, 2, arg0, arg1, null, null);
+    }
+
+    public void warn(String template, Object arg0, Object arg1, Object arg2) {
+        log(Level.WARN, template, 3, arg0, arg1, arg2, null);
+    }
+
+    public void warn(String template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(Level.WARN, template, 4, arg0, arg1, arg2, arg3);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, 0, null, null, null, null);
+    }
+
+    public void error(String template, Object arg) {
+        log(Level.ERROR, template, 1, arg, null, null, null);
+    }
+
+    public void error(String template, Object arg0, Object arg1) {
+        log(Level.ERROR, template, 2, arg0, arg1, null, null);
+    }
+
+    public void error(String template, Object arg0, Object arg1, Object arg2) {
+        log(Level.ERROR, template, 3, arg0, arg1, arg2, null);
+    }
+
+    public void error(String template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(Level.ERROR, template, 4, arg0, arg1, arg2, arg3);
+    }
+
+    /**
+     * Logs a message body or other bulky text through a one-placeholder
+     * template. The payload is cut to
+     * {@value #PAYLOAD_LIMIT} characters, except that one payload in
+     * {@value #PAYLOAD_SAMPLE_EVERY} is written in full. Only the part
+     * written is copied.
+     */
+    public void payload(Level level, String template, Object payload) {
+        if (!Log.isEnabled(level)) {
+            return;
+        }
+        int limit = payloads.getAndIncrement() % PAYLOAD_SAMPLE_EVERY == 0 ? -1 : PAYLOAD_LIMIT;
+        CharSequence text = payload instanceof CharSequence ? (CharSequence) payload : String.valueOf(payload);
+        String snapshot = limit >= 0 && text.length() > limit
+                ? text.subSequence(0, limit) + "... (" + text.length() + " chars)"
+                : text.toString();
+        Log.publish(level, tag, template, 1, snapshot, null, null, null, -1);
+    }
+
+    private void log(Level level, String template, int argCount, Object arg0, Object arg1, Object arg2,
+            Object arg3) {
+        if (!Log.isEnabled(level)) {
+            return;
+        }
+        Log.publish(level, tag, template, argCount, snapshot(arg0), snapshot(arg1), snapshot(arg2), snapshot(arg3),
+                -1);
+    }
+
+    /**
+     * The argument itself if it cannot change before the writer formats it,
+     * else its string form as of now.
+     */
+    private static Object snapshot(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+                || arg instanceof Boolean || arg instanceof Double || arg instanceof Float || arg instanceof Short
+                || arg instanceof Byte || arg instanceof Character || arg instanceof Enum || arg instanceof Throwable
+                || arg instanceof File || arg instanceof Path || arg instanceof URI || arg instanceof Instant
+                || arg instanceof Duration) {
+            return arg;
+        }
+        return String.valueOf(arg);
+    }
+}
@@ -0,0 +1,50 @@
+package com.printapp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * A bulk job held back for off-peak printer time, as kept in the local
+ * deferred-jobs file so it survives a restart.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DeferredJob {
+    private PrintConfig config;
+    private long cost;
+    private long deferredAt;
+
+    public DeferredJob() {
+    }
+
+    public DeferredJob(PrintConfig config, long cost, long deferredAt) {
+        this.config = config;
+        this.cost = cost;
+        this.deferredAt = deferredAt;
+    }
+
+    public PrintConfig getConfig() {
+        return config;
+    }
+
+    public void setConfig(PrintConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Estimated cost in page units, as used for queue ordering.
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    public void setCost(long cost) {
+        this.cost = cost;
+    }
+
+    public long getDeferredAt() {
+        return deferredAt;
+    }
+
+    public void setDeferredAt(long deferredAt) {
+        this.deferredAt = deferredAt;
+    }
+}
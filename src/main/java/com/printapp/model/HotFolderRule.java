@@ -0,0 +1,110 @@
+package com.printapp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * A watched folder whose files are printed with fixed settings, as defined
+ * in settings.json:
+ *
+ * <pre>
+ * "hotFolders": [
+ *   { "directory": "/srv/invoices", "printer": "HP-1", "copies": 1, "duplex": true },
+ *   { "directory": "/srv/labels", "printer": "Zebra", "pagesPerSheet": 1, "settleMs": 5000 }
+ * ]
+ * </pre>
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class HotFolderRule {
+    private String directory;
+    // Printer or print sink name; blank means the agent printer or system default
+    private String printer;
+    private int copies = 1;
+    private boolean color;
+    private boolean duplex;
+    private int pagesPerSheet = 1;
+    private long settleMs = 2000;
+    private Boolean bulk;
+
+    /**
+     * Builds the print settings for one file from this rule.
+     */
+    public PrintConfig toPrintConfig(int jobId) {
+        PrintConfig config = PrintConfig.forJob(jobId, Math.max(1, copies), color ? 10 : 0, duplex ? 2 : 1,
+                pagesPerSheet);
+        config.setBulk(bulk);
+        return config;
+    }
+
+    // Getters and Setters
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getPrinter() {
+        return printer;
+    }
+
+    public void setPrinter(String printer) {
+        this.printer = printer;
+    }
+
+    public int getCopies() {
+        return copies;
+    }
+
+    public void setCopies(int copies) {
+        this.copies = copies;
+    }
+
+    public boolean isColor() {
+        return color;
+    }
+
+    public void setColor(boolean color) {
+        this.color = color;
+    }
+
+    public boolean isDuplex() {
+        return duplex;
+    }
+
+    public void setDuplex(boolean duplex) {
+        this.duplex = duplex;
+    }
+
+    public int getPagesPerSheet() {
+        return pagesPerSheet;
+    }
+
+    public void setPagesPerSheet(int pagesPerSheet) {
+        this.pagesPerSheet = pagesPerSheet;
+    }
+
+    /**
+     * How long a file's size and modification time must stay unchanged
+     * before it is considered completely written.
+     */
+    public long getSettleMs() {
+        return settleMs;
+    }
+
+    public void setSettleMs(long settleMs) {
+        this.settleMs = settleMs;
+    }
+
+    /**
+     * Whether files from this folder wait for off-peak hours; null decides
+     * by size like other jobs.
+     */
+    public Boolean getBulk() {
+        return bulk;
+    }
+
+    public void setBulk(Boolean bulk) {
+        this.bulk = bulk;
+    }
+}
@@ -0,0 +1,18 @@
+package com.printapp.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Lifecycle transitions a station reports back to the backend for a job.
+ */
+public enum JobStatus {
+    CLAIMED,
+    PRINTING,
+    PRINTED,
+    FAILED;
+
+    @JsonValue
+    public String wireName() {
+        return name().toLowerCase();
+    }
+}
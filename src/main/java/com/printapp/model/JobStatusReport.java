@@ -0,0 +1,65 @@
+package com.printapp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One job status transition as sent to the backend and kept in the local
+ * outbox until the backend has accepted it.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobStatusReport {
+    private int jobId;
+    private JobStatus status;
+    private String reason;
+    private long at;
+
+    public JobStatusReport() {
+    }
+
+    public JobStatusReport(int jobId, JobStatus status, String reason, long at) {
+        this.jobId = jobId;
+        this.status = status;
+        this.reason = reason;
+        this.at = at;
+    }
+
+    public int getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(int jobId) {
+        this.jobId = jobId;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(JobStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * Why the job failed; null for other statuses.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    /**
+     * When the transition happened, in epoch milliseconds.
+     */
+    public long getAt() {
+        return at;
+    }
+
+    public void setAt(long at) {
+        this.at = at;
+    }
+}
@@ -0,0 +1,109 @@
+package com.printapp.model;
+
+import com.printapp.service.SharedResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The print-ready form of a job, built in the background by
+ * {@link com.printapp.service.JobPreparationService} before the operator
+ * clicks PRINT. Holds either a parsed PDF document, a decoded image, or for
+ * multi-page and very large images only their page count, since those are
+ * decoded page by page while printing.
+ *
+ * Whoever takes a prepared job out of the cache owns it and must close it.
+ */
+public class PreparedJob implements AutoCloseable {
+    private final int jobId;
+    private final String settingsKey;
+    private final File file;
+    private final PDDocument document;
+    private final BufferedImage image;
+    private final int pageCount;
+    private final String error;
+    private final long preparedAt = System.currentTimeMillis();
+
+    private PreparedJob(int jobId, String settingsKey, File file, PDDocument document, BufferedImage image,
+            int pageCount, String error) {
+        this.jobId = jobId;
+        this.settingsKey = settingsKey;
+        this.file = file;
+        this.document = document;
+        this.image = image;
+        this.pageCount = pageCount;
+        this.error = error;
+    }
+
+    /**
+     * @param key what the job was prepared from: its settings and the
+     *            content of its file
+     */
+    public static PreparedJob ofDocument(PrintConfig config, String key, PDDocument document) {
+        return new PreparedJob(config.getJobId(), key, config.getFileToPrint(), document, null,
+                document.getNumberOfPages(), null);
+    }
+
+    public static PreparedJob ofImage(PrintConfig config, String key, BufferedImage image) {
+        return new PreparedJob(config.getJobId(), key, config.getFileToPrint(), null, image, 1, null);
+    }
+
+    public static PreparedJob ofImagePages(PrintConfig config, String key, int pageCount) {
+        return new PreparedJob(config.getJobId(), key, config.getFileToPrint(), null, null, pageCount, null);
+    }
+
+    public static PreparedJob failed(PrintConfig config, String key, String error) {
+        return new PreparedJob(config.getJobId(), key, config.getFileToPrint(), null, null, 0, error);
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    public int getJobId() {
+        return jobId;
+    }
+
+    public String getSettingsKey() {
+        return settingsKey;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public PDDocument getDocument() {
+        return document;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getPreparedAt() {
+        return preparedAt;
+    }
+
+    @Override
+    public void close() {
+        if (document != null) {
+            try {
+                // Hands shared fonts and images back to the shared resource cache
+                SharedResourceCache.get().release(document);
+                document.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+}
@@ -3,14 +3,57 @@ package com.printapp.model;
 import java.io.File;
 
 public class PrintConfig {
+    private int jobId;
     private String selectedPrinter;
     private int copies = 1;
     private String layout = "1 Page per Sheet";
     private String sideOption = "Single Side";
     private String colorMode = "Black & White";
     private File fileToPrint;
+    // Null means classified by size; see PrintScheduler
+    private Boolean bulk;
+    // Name the customer gave the file; null means the spooled file's name
+    private String documentName;
+
+    /**
+     * Builds a config from the numeric job fields the backend sends:
+     * colour mode 10 = colour, sides 2 = duplex, pages per sheet 1/2/4.
+     */
+    public static PrintConfig forJob(int jobId, int copies, int colorMode, int duplexMode, int pagesPerSheet) {
+        PrintConfig config = new PrintConfig();
+        config.setJobId(jobId);
+        config.setCopies(copies);
+        config.setColorMode(colorMode == 10 ? "Color" : "Black & White");
+        config.setSideOption(duplexMode == 2 ? "Front and Back (Duplex)" : "Single Side");
+
+        String layoutStr;
+        switch (pagesPerSheet) {
+            case 2 -> layoutStr = "2 Pages per Sheet (1x2)";
+            case 4 -> layoutStr = "4 Pages per Sheet (1x4)";
+            default -> layoutStr = "1 Page per Sheet";
+        }
+        config.setLayout(layoutStr);
+        return config;
+    }
+
+    /**
+     * Identifies the settings that affect how this job is prepared and
+     * spooled. The file is not part of it: a prepared job is reused while
+     * this key and the file's content stay the same, wherever the file is.
+     */
+    public String settingsKey() {
+        return jobId + "|" + selectedPrinter + "|" + copies + "|" + layout + "|" + sideOption + "|" + colorMode;
+    }
 
     // Getters and Setters
+    public int getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(int jobId) {
+        this.jobId = jobId;
+    }
+
     public String getColorMode() {
         return colorMode;
     }
@@ -58,4 +101,20 @@ public class PrintConfig {
     public void setFileToPrint(File fileToPrint) {
         this.fileToPrint = fileToPrint;
     }
+
+    public Boolean getBulk() {
+        return bulk;
+    }
+
+    public void setBulk(Boolean bulk) {
+        this.bulk = bulk;
+    }
+
+    public String getDocumentName() {
+        return documentName;
+    }
+
+    public void setDocumentName(String documentName) {
+        this.documentName = documentName;
+    }
 }
@@ -1,8 +1,11 @@
 package com.printapp.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.io.File;
+
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class PrintJobDto {
     private int id;
@@ -26,12 +29,33 @@ public class PrintJobDto {
     @JsonProperty("file_name")
     private String fileName;
 
+    @JsonProperty("file_size")
+    private long fileSize;
+
+    @JsonProperty("file_sha256")
+    private String fileSha256;
+
     @JsonProperty("file_base64")
     private String fileBase64;
 
     @JsonProperty("created_at")
     private String createdAt;
 
+    @JsonProperty("leased_by")
+    private String leasedBy;
+
+    @JsonProperty("lease_expires_at")
+    private long leaseExpiresAt;
+
+    // True for reports and other runs that can wait for off-peak hours,
+    // false for jobs that must not; absent lets the station decide by size
+    private Boolean bulk;
+
+    // File content that arrived as raw bytes in a binary job list and was
+    // streamed to disk while the list was read
+    @JsonIgnore
+    private File inlineFile;
+
     // Getters and Setters
     public int getId() {
         return id;
@@ -97,6 +121,22 @@ public class PrintJobDto {
         this.fileName = fileName;
     }
 
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getFileSha256() {
+        return fileSha256;
+    }
+
+    public void setFileSha256(String fileSha256) {
+        this.fileSha256 = fileSha256;
+    }
+
     public String getFileBase64() {
         return fileBase64;
     }
@@ -105,6 +145,25 @@ public class PrintJobDto {
         this.fileBase64 = fileBase64;
     }
 
+    @JsonIgnore
+    public File getInlineFile() {
+        return inlineFile;
+    }
+
+    @JsonIgnore
+    public void setInlineFile(File inlineFile) {
+        this.inlineFile = inlineFile;
+    }
+
+    /**
+     * Whether the job list carried the file itself, as base64 or as raw
+     * bytes, rather than a reference to it.
+     */
+    @JsonIgnore
+    public boolean hasInlineFile() {
+        return inlineFile != null || (fileBase64 != null && !fileBase64.isEmpty());
+    }
+
     public String getCreatedAt() {
         return createdAt;
     }
@@ -112,4 +171,28 @@ public class PrintJobDto {
     public void setCreatedAt(String createdAt) {
         this.createdAt = createdAt;
     }
+
+    public String getLeasedBy() {
+        return leasedBy;
+    }
+
+    public void setLeasedBy(String leasedBy) {
+        this.leasedBy = leasedBy;
+    }
+
+    public long getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public Boolean getBulk() {
+        return bulk;
+    }
+
+    public void setBulk(Boolean bulk) {
+        this.bulk = bulk;
+    }
 }
@@ -11,6 +11,9 @@ public class PrintJobRecord {
     private final IntegerProperty pagesPerSheet;
     private final StringProperty selectedPrinter;
     private final ObjectProperty<File> uploadedFile;
+    private final StringProperty spoolSummary;
+    private Boolean bulk;
+    private String documentName;
 
     public PrintJobRecord(int id, int copies, int colorMode, int duplexMode, int pagesPerSheet) {
         this.id = new SimpleIntegerProperty(id);
@@ -20,6 +23,7 @@ public class PrintJobRecord {
         this.pagesPerSheet = new SimpleIntegerProperty(pagesPerSheet);
         this.selectedPrinter = new SimpleStringProperty("");
         this.uploadedFile = new SimpleObjectProperty<>(null);
+        this.spoolSummary = new SimpleStringProperty("");
     }
 
     public int getId() {
@@ -105,4 +109,32 @@ public class PrintJobRecord {
     public void setUploadedFile(File uploadedFile) {
         this.uploadedFile.set(uploadedFile);
     }
+
+    public String getSpoolSummary() {
+        return spoolSummary.get();
+    }
+
+    public StringProperty spoolSummaryProperty() {
+        return spoolSummary;
+    }
+
+    public void setSpoolSummary(String spoolSummary) {
+        this.spoolSummary.set(spoolSummary);
+    }
+
+    public Boolean getBulk() {
+        return bulk;
+    }
+
+    public void setBulk(Boolean bulk) {
+        this.bulk = bulk;
+    }
+
+    public String getDocumentName() {
+        return documentName;
+    }
+
+    public void setDocumentName(String documentName) {
+        this.documentName = documentName;
+    }
 }
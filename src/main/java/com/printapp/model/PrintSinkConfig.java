@@ -0,0 +1,144 @@
+package com.printapp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * A print destination that is not an OS printer, as defined in
+ * settings.json. It is offered alongside the system printers under its name:
+ *
+ * <pre>
+ * "printSinks": [
+ *   { "name": "To Disk", "type": "file", "directory": "/tmp/spool", "format": "pdf" },
+ *   { "name": "Virtual 40ppm", "type": "virtual", "pagesPerMinute": 40, "warmupMs": 8000, "queueLimit": 4 }
+ * ]
+ * </pre>
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PrintSinkConfig {
+    private String name;
+    // "file", "virtual" or "ipp"
+    private String type = "virtual";
+
+    // File sinks
+    private String directory;
+    // "pdf", "ps" or "png"
+    private String format = "pdf";
+
+    // IPP sinks
+    private String uri;
+    private int pipelineDepth = 4;
+
+    // All sinks
+    private int dpi = 300;
+
+    // Virtual sinks; queueLimit also applies to IPP sinks
+    private int pagesPerMinute = 30;
+    private long warmupMs = 5000;
+    private long sleepAfterMs = 60000;
+    private int queueLimit = 8;
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * Printer URI of an IPP sink, e.g. {@code ipp://host/ipp/print}.
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+    /**
+     * Requests an IPP sink may have in flight on its connection at once.
+     */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public void setDpi(int dpi) {
+        this.dpi = dpi;
+    }
+
+    public int getPagesPerMinute() {
+        return pagesPerMinute;
+    }
+
+    public void setPagesPerMinute(int pagesPerMinute) {
+        this.pagesPerMinute = pagesPerMinute;
+    }
+
+    /**
+     * Time the virtual engine takes to start printing after being idle.
+     */
+    public long getWarmupMs() {
+        return warmupMs;
+    }
+
+    public void setWarmupMs(long warmupMs) {
+        this.warmupMs = warmupMs;
+    }
+
+    /**
+     * Idle time after which the virtual engine needs to warm up again.
+     */
+    public long getSleepAfterMs() {
+        return sleepAfterMs;
+    }
+
+    public void setSleepAfterMs(long sleepAfterMs) {
+        this.sleepAfterMs = sleepAfterMs;
+    }
+
+    /**
+     * Jobs the virtual printer holds, or unfinished jobs an IPP printer is
+     * given, before new submissions have to wait.
+     */
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public void setQueueLimit(int queueLimit) {
+        this.queueLimit = queueLimit;
+    }
+}
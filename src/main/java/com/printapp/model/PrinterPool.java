@@ -0,0 +1,56 @@
+package com.printapp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named group of interchangeable printers, as defined in settings.json:
+ *
+ * <pre>
+ * "printerPools": [ { "name": "Front Desk", "printers": ["HP-1", "HP-2"] } ]
+ * </pre>
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PrinterPool {
+    private String name;
+    private List<String> printers = new ArrayList<>();
+
+    public PrinterPool() {
+    }
+
+    public PrinterPool(String name, List<String> printers) {
+        this.name = name;
+        this.printers = new ArrayList<>(printers);
+    }
+
+    public boolean contains(String printerName) {
+        if (printerName == null) {
+            return false;
+        }
+        for (String member : printers) {
+            if (member.equalsIgnoreCase(printerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getPrinters() {
+        return printers;
+    }
+
+    public void setPrinters(List<String> printers) {
+        this.printers = printers != null ? printers : new ArrayList<>();
+    }
+}
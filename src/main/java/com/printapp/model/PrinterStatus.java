@@ -0,0 +1,48 @@
+package com.printapp.model;
+
+/**
+ * Immutable snapshot of a printer's capabilities and load, taken by the
+ * background poller in {@link com.printapp.service.PrinterPoolService}.
+ */
+public class PrinterStatus {
+    private final String printerName;
+    private final boolean acceptingJobs;
+    private final int queuedJobCount;
+    private final boolean colorSupported;
+    private final boolean duplexSupported;
+    private final long polledAt;
+
+    public PrinterStatus(String printerName, boolean acceptingJobs, int queuedJobCount,
+            boolean colorSupported, boolean duplexSupported, long polledAt) {
+        this.printerName = printerName;
+        this.acceptingJobs = acceptingJobs;
+        this.queuedJobCount = queuedJobCount;
+        this.colorSupported = colorSupported;
+        this.duplexSupported = duplexSupported;
+        this.polledAt = polledAt;
+    }
+
+    public String getPrinterName() {
+        return printerName;
+    }
+
+    public boolean isAcceptingJobs() {
+        return acceptingJobs;
+    }
+
+    public int getQueuedJobCount() {
+        return queuedJobCount;
+    }
+
+    public boolean isColorSupported() {
+        return colorSupported;
+    }
+
+    public boolean isDuplexSupported() {
+        return duplexSupported;
+    }
+
+    public long getPolledAt() {
+        return polledAt;
+    }
+}
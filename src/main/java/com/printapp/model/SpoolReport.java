@@ -0,0 +1,149 @@
+package com.printapp.model;
+
+/**
+ * What a job cost to spool: how it was sent, how many bytes went to the
+ * spooler and how long that took. The baseline is what the same pages would
+ * have cost as full 24-bit colour at the printer's maximum resolution, so
+ * the two figures show the savings on slow links.
+ *
+ * Passthrough jobs report the size of the file sent. For rendered jobs the
+ * size is estimated from the uncompressed rasters handed to the sink; what
+ * the driver finally spools depends on its own compression.
+ */
+public class SpoolReport {
+    private final int jobId;
+    private final String printerName;
+    private String mode = "rendered";
+    private int pages;
+    private int rasterPages;
+    private int dpi;
+    private String imageType = "";
+    private long spoolBytes;
+    // True once setSpoolBytes recorded an actual size rather than raster estimates
+    private boolean spoolBytesMeasured;
+    private long baselineBytes;
+    private long durationMs;
+
+    public SpoolReport(int jobId, String printerName) {
+        this.jobId = jobId;
+        this.printerName = printerName;
+    }
+
+    public synchronized void addRasterPage(long bytes, long baseline) {
+        pages++;
+        rasterPages++;
+        spoolBytes += bytes;
+        baselineBytes += baseline;
+    }
+
+    public synchronized void addVectorPage(long baseline) {
+        pages++;
+        baselineBytes += baseline;
+    }
+
+    /**
+     * Percentage of the baseline that was avoided, or 0 if nothing is known.
+     */
+    public synchronized int savingsPercent() {
+        if (baselineBytes <= 0 || spoolBytes >= baselineBytes) {
+            return 0;
+        }
+        return (int) (100 - (spoolBytes * 100 / baselineBytes));
+    }
+
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mode).append(", ").append(pages).append(" page(s)");
+        if (rasterPages > 0) {
+            sb.append(", ").append(rasterPages).append(" raster @ ").append(dpi).append(" dpi ").append(imageType);
+        }
+        if (spoolBytesMeasured) {
+            sb.append(", ").append(spoolBytes / 1024).append(" KB spooled");
+        } else if (rasterPages > 0) {
+            sb.append(", ~").append(spoolBytes / 1024).append(" KB raster (estimated)");
+        }
+        if (baselineBytes > 0 && (spoolBytesMeasured || rasterPages > 0)) {
+            sb.append(" (").append(savingsPercent()).append("% under ").append(baselineBytes / 1024)
+                    .append(" KB baseline)");
+        }
+        sb.append(" in ").append(durationMs).append(" ms");
+        return sb.toString();
+    }
+
+    // Getters and Setters
+    public int getJobId() {
+        return jobId;
+    }
+
+    public String getPrinterName() {
+        return printerName;
+    }
+
+    public synchronized String getMode() {
+        return mode;
+    }
+
+    public synchronized void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public synchronized int getPages() {
+        return pages;
+    }
+
+    public synchronized void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    public synchronized int getRasterPages() {
+        return rasterPages;
+    }
+
+    public synchronized int getDpi() {
+        return dpi;
+    }
+
+    public synchronized void setDpi(int dpi) {
+        this.dpi = dpi;
+    }
+
+    public synchronized String getImageType() {
+        return imageType;
+    }
+
+    public synchronized void setImageType(String imageType) {
+        this.imageType = imageType;
+    }
+
+    public synchronized long getSpoolBytes() {
+        return spoolBytes;
+    }
+
+    /**
+     * Records the size actually sent, replacing any raster estimate.
+     */
+    public synchronized void setSpoolBytes(long spoolBytes) {
+        this.spoolBytes = spoolBytes;
+        this.spoolBytesMeasured = true;
+    }
+
+    public synchronized boolean isSpoolBytesMeasured() {
+        return spoolBytesMeasured;
+    }
+
+    public synchronized long getBaselineBytes() {
+        return baselineBytes;
+    }
+
+    public synchronized void setBaselineBytes(long baselineBytes) {
+        this.baselineBytes = baselineBytes;
+    }
+
+    public synchronized long getDurationMs() {
+        return durationMs;
+    }
+
+    public synchronized void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
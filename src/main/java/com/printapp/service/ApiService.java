@@ -1,41 +1,350 @@
 package com.printapp.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.JobStatusReport;
 import com.printapp.model.PrintJobDto;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
 
+/**
+ * HTTP client for the backend.
+ *
+ * The job list is content-negotiated: unless {@code wireFormat} is "json",
+ * CBOR and Smile are offered ahead of JSON and the response is read with the
+ * mapper matching its Content-Type, bound to the same {@link PrintJobDto}
+ * fields. In the binary formats a job's file may travel as a raw byte string
+ * under {@code file_content} (or {@code file_base64}); it is streamed from
+ * the parser straight to a file, without base64 and without holding it in
+ * memory, and handed on through {@link PrintJobDto#getInlineFile()}. The
+ * content of jobs the caller already knows is skipped rather than read.
+ */
 public class ApiService {
-    private static final String API_URL = "http://print-test-env-env.eba-9gvrcrjp.us-east-1.elasticbeanstalk.com/order/get-config";
+
+    private static final Logger log = Log.get("Api");
+    private static final String CONFIG_PATH = "/order/get-config";
+    private static final String LEASE_PATH = "/order/lease";
+    private static final String STATUS_PATH = "/order/status";
+    private static final Duration STATUS_TIMEOUT = Duration.ofSeconds(15);
+    private static final String METADATA_ONLY_QUERY = "?files=reference";
+
+    private static final String CBOR_TYPE = "application/cbor";
+    private static final String SMILE_TYPE = "application/x-jackson-smile";
+    private static final String BINARY_ACCEPT = CBOR_TYPE + ", " + SMILE_TYPE + ";q=0.9, application/json;q=0.8";
+    private static final Set<String> FILE_FIELDS = Set.of("file_content", "file_base64");
+    // Inline files nobody picked up, e.g. of jobs already printed, are swept after this
+    private static final long INLINE_FILE_TTL_MS = 10 * 60 * 1000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper cborMapper = new CBORMapper();
+    private final ObjectMapper smileMapper = new SmileMapper();
+    private final File inlineDir = AppPaths.resolve("inline/");
     private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final SettingsService settingsService;
+
+    public ApiService(SettingsService settingsService) {
+        this.settingsService = settingsService;
+    }
 
     public List<PrintJobDto> fetchPrintConfigs() {
-        try {
+        return fetchPrintConfigs(jobId -> false);
+    }
+
+    /**
+     * Fetches the job list without the file content of jobs for which
+     * {@code knownJobs} is true, e.g. ones already printed or in progress.
+     * Those come back with neither an inline file nor base64.
+     */
+    public List<PrintJobDto> fetchPrintConfigs(IntPredicate knownJobs) {
+        try (Span span = Span.begin(JobStage.FETCH, 0)) {
+            boolean binary = !"json".equalsIgnoreCase(settingsService.getWireFormat());
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(API_URL))
+                    .uri(URI.create(settingsService.getApiBaseUrl() + CONFIG_PATH
+                            + (settingsService.isFilesByReference() ? METADATA_ONLY_QUERY : "")))
+                    .header("Accept", binary ? BINARY_ACCEPT : "application/json")
                     .GET()
                     .build();
 
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            String contentType = response.headers().firstValue("Content-Type").orElse("")
+                    .toLowerCase(Locale.ROOT);
+
+            try (CountingInputStream body = new CountingInputStream(response.body())) {
+                if (response.statusCode() != 200) {
+                    span.detail("HTTP " + response.statusCode());
+                    log.warn("API Error: {}", response.statusCode());
+                    return Collections.emptyList();
+                }
+                ObjectMapper mapper = contentType.startsWith(CBOR_TYPE) ? cborMapper
+                        : contentType.startsWith(SMILE_TYPE) ? smileMapper
+                        : objectMapper;
+                List<PrintJobDto> jobs = readJobs(mapper, body, knownJobs);
+                span.bytes(body.count).detail("HTTP " + response.statusCode() + " "
+                        + (contentType.isEmpty() ? "application/json" : contentType));
+                return jobs;
+            }
+        } catch (Exception e) {
+            log.error("Exception while fetching API: {}", e.getMessage(), e);
+            return Collections.emptyList();
+        } finally {
+            sweepInlineFiles();
+        }
+    }
+
+    /**
+     * Reads a job list token by token so file content can be streamed to
+     * disk as it is parsed, or skipped for known jobs. Every other field is
+     * bound as usual.
+     */
+    private List<PrintJobDto> readJobs(ObjectMapper mapper, InputStream in, IntPredicate knownJobs)
+            throws IOException {
+        List<PrintJobDto> jobs = new ArrayList<>();
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Job list is not an array");
+            }
+            try {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    jobs.add(readJob(mapper, parser, knownJobs));
+                }
+            } catch (IOException | RuntimeException e) {
+                for (PrintJobDto job : jobs) {
+                    deleteQuietly(job.getInlineFile());
+                }
+                throw e;
+            }
+        }
+        return jobs;
+    }
+
+    private PrintJobDto readJob(ObjectMapper mapper, JsonParser parser, IntPredicate knownJobs) throws IOException {
+        ObjectNode fields = mapper.createObjectNode();
+        File content = null;
+        try {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (FILE_FIELDS.contains(name) && fields.hasNonNull("id") && knownJobs.test(fields.get("id").asInt())) {
+                    // Left unread, which skips it without decoding or buffering the content
+                    continue;
+                }
+                if (value == JsonToken.VALUE_EMBEDDED_OBJECT && FILE_FIELDS.contains(name)) {
+                    if (ResourceGovernor.get().diskPressure() == ResourceGovernor.Pressure.CRITICAL) {
+                        // Left unread, which skips it; the job is taken on a later refresh
+                        continue;
+                    }
+                    deleteQuietly(content);
+                    content = streamToFile(parser);
+                } else {
+                    fields.set(name, mapper.readTree(parser));
+                }
+            }
+            PrintJobDto dto = mapper.treeToValue(fields, PrintJobDto.class);
+            if (knownJobs.test(dto.getId())) {
+                // The content came before the ID
+                deleteQuietly(content);
+                content = null;
+                dto.setFileBase64(null);
+            }
+            dto.setInlineFile(content);
+            return dto;
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(content);
+            throw e;
+        }
+    }
+
+    private File streamToFile(JsonParser parser) throws IOException {
+        inlineDir.mkdirs();
+        File file = File.createTempFile("inline-", ".part", inlineDir);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            parser.readBinaryValue(out);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(file);
+            throw e;
+        }
+        return file;
+    }
+
+    private void sweepInlineFiles() {
+        File[] files = inlineDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - INLINE_FILE_TTL_MS;
+        for (File file : files) {
+            if (file.lastModified() < cutoff) {
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && !file.delete() && file.exists()) {
+            log.debug("Could not delete {}", file);
+        }
+    }
+
+    /**
+     * Counts the bytes read, for the wire size of the job list.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    // =============================
+    // Job Files
+    // =============================
+
+    /**
+     * Starts streaming a job file. {@code filePath} is either an absolute URL
+     * or a path on the API host. With a non-zero offset only the rest of the
+     * file is requested; the server answers 206 if it honoured the range and
+     * 200 with the whole file if it did not.
+     */
+    public HttpResponse<InputStream> openFile(String filePath, long offset) throws Exception {
+        String url = filePath.startsWith("http://") || filePath.startsWith("https://")
+                ? filePath
+                : settingsService.getApiBaseUrl() + (filePath.startsWith("/") ? "" : "/") + filePath;
+
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create(url)).GET();
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    // =============================
+    // Job Leases
+    // =============================
+
+    /**
+     * Asks the backend for an exclusive lease on a job. Granted when the job
+     * is unleased, already ours, or its previous lease has expired.
+     */
+    public boolean claimLease(int jobId, String stationId, int ttlSeconds) {
+        return postLease("", jobId, stationId, ttlSeconds);
+    }
+
+    /**
+     * Extends a lease we hold. Returns false if it was lost to another station.
+     */
+    public boolean renewLease(int jobId, String stationId, int ttlSeconds) {
+        return postLease("/renew", jobId, stationId, ttlSeconds);
+    }
+
+    public boolean releaseLease(int jobId, String stationId) {
+        return postLease("/release", jobId, stationId, 0);
+    }
+
+    private boolean postLease(String action, int jobId, String stationId, int ttlSeconds) {
+        try {
+            String body = objectMapper.writeValueAsString(Map.of(
+                    "jobId", jobId,
+                    "stationId", stationId,
+                    "ttlSeconds", ttlSeconds));
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(settingsService.getApiBaseUrl() + LEASE_PATH + action))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+
             HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
 
             if (response.statusCode() == 200) {
-                return objectMapper.readValue(response.body(), new TypeReference<List<PrintJobDto>>() {
-                });
-            } else {
-                System.err.println("API Error: " + response.statusCode());
-                return Collections.emptyList();
+                return true;
+            }
+            if (response.statusCode() != 409) {
+                log.warn("Lease API Error: {} for job {}", response.statusCode(), jobId);
             }
+            return false;
         } catch (Exception e) {
-            System.err.println("Exception while fetching API: " + e.getMessage());
-            e.printStackTrace();
-            return Collections.emptyList();
+            log.warn("Exception while calling lease API: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // =============================
+    // Job Status
+    // =============================
+
+    /**
+     * Sends a batch of job status transitions in one request. Returns true
+     * once the backend has accepted all of them.
+     */
+    public boolean postStatusReports(String stationId, List<JobStatusReport> reports) {
+        try {
+            String body = objectMapper.writeValueAsString(Map.of(
+                    "stationId", stationId,
+                    "reports", reports));
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(settingsService.getApiBaseUrl() + STATUS_PATH))
+                    .timeout(STATUS_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+            if (response.statusCode() / 100 == 2) {
+                return true;
+            }
+            log.warn("Status API Error: {} for {} report(s)", response.statusCode(), reports.size());
+            return false;
+        } catch (Exception e) {
+            log.warn("Exception while calling status API: {}", e.getMessage());
+            return false;
         }
     }
 }
@@ -0,0 +1,48 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import java.io.File;
+
+/**
+ * Locations of the files the app keeps between runs. Everything lives under
+ * one per-user directory ({@code ~/.elite-print} by default, overridable with
+ * the {@code eliteprint.home} system property) so nothing depends on the
+ * working directory the app was started from.
+ */
+public final class AppPaths {
+
+    private static final Logger log = Log.get("AppPaths");
+
+    private static final String HOME_PROPERTY = "eliteprint.home";
+
+    private AppPaths() {
+    }
+
+    public static File dataDir() {
+        String override = System.getProperty(HOME_PROPERTY);
+        File dir = override != null && !override.isBlank()
+                ? new File(override)
+                : new File(System.getProperty("user.home"), ".elite-print");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.warn("Could not create {}", dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    /**
+     * Returns a file or sub-directory inside the data directory. Directories
+     * named with a trailing slash are created on demand.
+     */
+    public static File resolve(String name) {
+        File file = new File(dataDir(), name);
+        if (name.endsWith("/") && !file.isDirectory() && !file.mkdirs()) {
+            log.warn("Could not create {}", file.getAbsolutePath());
+        }
+        return file;
+    }
+
+    public static File settingsFile() {
+        return resolve("settings.json");
+    }
+}
@@ -0,0 +1,159 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintConfig;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import javax.imageio.ImageIO;
+import javax.print.DocFlavor;
+import javax.print.PrintException;
+import javax.print.StreamPrintService;
+import javax.print.StreamPrintServiceFactory;
+import java.awt.print.PrinterJob;
+import java.awt.print.Printable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes spooled output to files instead of a printer, so the print path can
+ * run and be inspected on a machine without one.
+ *
+ * <ul>
+ * <li>{@code pdf}: PDFs are copied as they would be passed through;
+ * rendered pages are written as a PDF of page images, buffered in a
+ * scratch file rather than on the heap.</li>
+ * <li>{@code ps}: pages go through the JDK's PostScript stream printer,
+ * the same {@link PrinterJob} path a real driver sees.</li>
+ * <li>{@code png}: one image per rendered page.</li>
+ * </ul>
+ */
+public class FileSink implements PrintSink {
+
+    private static final Logger log = Log.get("FileSink");
+
+    private static final String POSTSCRIPT = "application/postscript";
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final String name;
+    private final File directory;
+    private final String format;
+    private final int dpi;
+
+    /**
+     * @param format "pdf", "ps" or "png"
+     */
+    public FileSink(String name, File directory, String format, int dpi) {
+        this.name = name;
+        this.directory = directory;
+        this.format = format != null ? format.toLowerCase() : "pdf";
+        this.dpi = dpi > 0 ? dpi : 300;
+        if (!this.format.equals("pdf") && !this.format.equals("ps") && !this.format.equals("png")) {
+            throw new IllegalArgumentException("Unknown file sink format: " + format);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int maxDpi() {
+        return dpi;
+    }
+
+    @Override
+    public boolean acceptsPdf() {
+        return format.equals("pdf");
+    }
+
+    @Override
+    public void sendPdf(File file, PrintConfig config, String jobName) throws Exception {
+        if (!acceptsPdf()) {
+            throw new PrintException(name + " does not take PDF as-is");
+        }
+        File target = outputFile(config, ".pdf");
+        Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        log.info("Wrote {} to {}", jobName, target);
+    }
+
+    @Override
+    public void sendPages(Printable printable, PrintConfig config, String jobName) throws Exception {
+        switch (format) {
+            case "ps" -> writePostScript(printable, config, jobName);
+            case "png" -> writeImages(printable, config, jobName);
+            default -> writePdf(printable, config, jobName);
+        }
+    }
+
+    private void writePostScript(Printable printable, PrintConfig config, String jobName) throws Exception {
+        StreamPrintServiceFactory[] factories = StreamPrintServiceFactory.lookupStreamPrintServiceFactories(
+                DocFlavor.SERVICE_FORMATTED.PRINTABLE, POSTSCRIPT);
+        if (factories.length == 0) {
+            throw new PrintException("No PostScript stream printer in this JVM");
+        }
+        File target = outputFile(config, ".ps");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+            StreamPrintService service = factories[0].getPrintService(out);
+            PrinterJob job = PrinterJob.getPrinterJob();
+            job.setPrintService(service);
+            job.setJobName(jobName);
+            job.setPrintable(printable, PageRasterizer.pageFormat());
+            job.print();
+            service.dispose();
+        }
+        log.info("Wrote {} to {}", jobName, target);
+    }
+
+    private void writeImages(Printable printable, PrintConfig config, String jobName) throws Exception {
+        String base = outputFile(config, "").getPath();
+        int pages = PageRasterizer.render(printable, dpi, isMono(config), (pageIndex, image) -> {
+            File page = new File(base + "-p" + (pageIndex + 1) + ".png");
+            if (!ImageIO.write(image, "png", page)) {
+                throw new PrintException("No PNG writer available");
+            }
+        });
+        log.info("Wrote {} as {} PNG page(s) to {}-p*.png", jobName, pages, base);
+    }
+
+    private void writePdf(Printable printable, PrintConfig config, String jobName) throws Exception {
+        File target = outputFile(config, ".pdf");
+        // Each page image goes to the scratch file as it is drawn; only one is on the heap at a time
+        try (PDDocument document = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+            int pages = PageRasterizer.render(printable, dpi, isMono(config), (pageIndex, image) -> {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                PDImageXObject pageImage = LosslessFactory.createFromImage(document, image);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.drawImage(pageImage, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+                }
+            });
+            document.save(target);
+            log.info("Wrote {} as {} rendered page(s) to {}", jobName, pages, target);
+        }
+    }
+
+    private File outputFile(PrintConfig config, String extension) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.warn("Could not create {}", directory);
+        }
+        return new File(directory, "job-" + config.getJobId() + "-" + LocalDateTime.now().format(STAMP) + extension);
+    }
+
+    private static boolean isMono(PrintConfig config) {
+        return "Black & White".equals(config.getColorMode());
+    }
+}
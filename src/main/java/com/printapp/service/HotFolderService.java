@@ -0,0 +1,484 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.HotFolderRule;
+import com.printapp.model.PrintConfig;
+
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prints files dropped into watched folders, for bulk work such as nightly
+ * invoice or label runs that never passes through the backend.
+ *
+ * Each folder in "hotFolders" is watched with a {@link WatchService}. A file
+ * is only taken once its size and modification time have stayed the same
+ * for the rule's {@code settleMs}, so half-written files are left alone. It
+ * is then claimed by an atomic move into the folder's {@code .processing}
+ * directory, which also keeps a second agent on the same share from taking
+ * it too. Claimed files are renamed to {@code <time>-<job>~<name>}, so a
+ * second file with the same name can be claimed while the first still
+ * prints; the original name is kept for display. Claimed files go to the {@link PrintScheduler} in batches no
+ * larger than the free space in the target printer's queue; the rest wait
+ * on disk. Printed files are deleted and failed ones moved to
+ * {@code .failed}, with a number added to the name instead of replacing an
+ * older failure.
+ *
+ * Memory stays bounded however many files arrive: at most 10,000 files per
+ * folder are tracked, and when that is exceeded, or the watch service
+ * reports lost events, the folder is listed again once it has drained. Files left in {@code .processing} by a
+ * crash are put back and printed again.
+ *
+ * Hot-folder jobs get {@link LocalJobIds}, so they never collide with, or
+ * are reported as, backend jobs.
+ */
+public class HotFolderService {
+
+    private static final Logger log = Log.get("HotFolder");
+
+    private static final String PROCESSING_DIR = ".processing";
+    private static final String FAILED_DIR = ".failed";
+    private static final Set<String> PRINTABLE = Set.of("pdf", "png", "jpg", "jpeg", "gif", "bmp", "tif", "tiff");
+    private static final int MAX_TRACKED = 10_000;
+    private static final long TICK_MS = 500;
+    // <time>-<job>~<original name>
+    private static final Pattern CLAIMED_NAME = Pattern.compile("[0-9a-z]+-\\d+~(.+)");
+    private static final int MAX_NAME_SUFFIX = 1000;
+
+    private final SettingsService settingsService;
+    private final PrintScheduler printScheduler;
+    // Claimed files handed to the scheduler and not finished yet
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private Watcher watcher;
+    private boolean started;
+
+    public HotFolderService(SettingsService settingsService, PrintScheduler printScheduler) {
+        this.settingsService = settingsService;
+        this.printScheduler = printScheduler;
+    }
+
+    /**
+     * Starts watching the configured folders and follows changes to them.
+     */
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            settingsService.addListener(changedKeys -> {
+                if (changedKeys.contains("hotFolders")) {
+                    restart();
+                }
+            });
+        }
+        restart();
+    }
+
+    public synchronized void stop() {
+        started = false;
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Files claimed from hot folders that have not finished printing.
+     */
+    public int inFlightFiles() {
+        return inFlight.size();
+    }
+
+    private synchronized void restart() {
+        if (!started) {
+            return;
+        }
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        List<HotFolderRule> rules = settingsService.getHotFolders();
+        if (rules.isEmpty()) {
+            return;
+        }
+        try {
+            watcher = new Watcher(rules);
+        } catch (IOException e) {
+            log.warn("Cannot watch hot folders: {}", e.getMessage());
+        }
+    }
+
+    private String printerFor(HotFolderRule rule) {
+        if (rule.getPrinter() != null && !rule.getPrinter().isBlank()) {
+            return rule.getPrinter();
+        }
+        String configured = settingsService.getAgentPrinter();
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        PrintService defaultService = PrintServiceLookup.lookupDefaultPrintService();
+        return defaultService != null ? defaultService.getName() : null;
+    }
+
+    /**
+     * True for names of files the print path can handle: PDFs and images,
+     * excluding hidden and temporary files.
+     */
+    static boolean isPrintable(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && !name.startsWith(".") && !name.startsWith("~")
+                && PRINTABLE.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Name a file is claimed under: unique per claim, yet still carrying the
+     * original name.
+     */
+    static String claimedName(int jobId, String originalName) {
+        return Long.toString(System.currentTimeMillis(), 36) + "-" + Math.abs((long) jobId) + "~" + originalName;
+    }
+
+    /**
+     * The name a file had before it was claimed.
+     */
+    static String originalName(Path claimed) {
+        String name = claimed.getFileName().toString();
+        Matcher matcher = CLAIMED_NAME.matcher(name);
+        return matcher.matches() ? matcher.group(1) : name;
+    }
+
+    /**
+     * Moves {@code file} into {@code dir} as {@code name}, or as
+     * "name (n).ext" if that is taken, so nothing already there is replaced.
+     */
+    static Path moveAside(Path file, Path dir, String name) throws IOException {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int n = 0; ; n++) {
+            Path target = dir.resolve(n == 0 ? name : base + " (" + n + ")" + extension);
+            try {
+                return Files.move(file, target);
+            } catch (FileAlreadyExistsException e) {
+                if (n >= MAX_NAME_SUFFIX) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // =============================
+    // Watching
+    // =============================
+
+    /**
+     * One thread and watch service for the current set of rules. Replaced
+     * as a whole when the rules change.
+     */
+    private final class Watcher implements Runnable {
+        private final WatchService watchService;
+        private final Map<WatchKey, Folder> folders = new HashMap<>();
+        private final Thread thread;
+        private volatile boolean closed;
+
+        Watcher(List<HotFolderRule> rules) throws IOException {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            for (HotFolderRule rule : rules) {
+                if (rule.getDirectory() == null || rule.getDirectory().isBlank()) {
+                    continue;
+                }
+                try {
+                    Folder folder = new Folder(rule);
+                    folders.put(folder.dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), folder);
+                    log.info("Watching {} for {}", folder.dir, printerFor(rule));
+                } catch (IOException e) {
+                    log.warn("Cannot watch {}: {}", rule.getDirectory(), e.getMessage());
+                }
+            }
+            this.thread = new Thread(this, "hot-folder");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        void close() {
+            closed = true;
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+
+        @Override
+        public void run() {
+            for (Folder folder : folders.values()) {
+                folder.recover();
+            }
+            try {
+                while (!closed) {
+                    WatchKey key = watchService.poll(TICK_MS, TimeUnit.MILLISECONDS);
+                    // Take every key that is ready, then act on all folders once
+                    while (key != null) {
+                        Folder folder = folders.get(key);
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (folder == null) {
+                                continue;
+                            }
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                folder.rescanNeeded = true;
+                            } else {
+                                folder.track(folder.dir.resolve((Path) event.context()));
+                            }
+                        }
+                        key.reset();
+                        key = watchService.poll();
+                    }
+                    for (Folder folder : folders.values()) {
+                        folder.tick();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException e) {
+                // Stopped or replaced
+            }
+        }
+    }
+
+    /**
+     * A file seen in a folder and how it looked when last checked.
+     */
+    private static final class Candidate {
+        long size = -1;
+        long modified = -1;
+        long unchangedSince = System.currentTimeMillis();
+    }
+
+    /**
+     * One watched folder. Only touched by its watcher thread, apart from
+     * the completion callbacks, which only move files.
+     */
+    private final class Folder {
+        final HotFolderRule rule;
+        final Path dir;
+        final Path processing;
+        final Path failed;
+        final Map<Path, Candidate> candidates = new HashMap<>();
+        boolean rescanNeeded = true;
+
+        Folder(HotFolderRule rule) throws IOException {
+            this.rule = rule;
+            this.dir = Paths.get(rule.getDirectory()).toAbsolutePath().normalize();
+            if (!Files.isDirectory(dir)) {
+                throw new NoSuchFileException(dir.toString(), null, "not a directory");
+            }
+            this.processing = Files.createDirectories(dir.resolve(PROCESSING_DIR));
+            this.failed = Files.createDirectories(dir.resolve(FAILED_DIR));
+        }
+
+        void track(Path file) {
+            if (candidates.containsKey(file) || !isPrintable(file.getFileName().toString())) {
+                return;
+            }
+            if (candidates.size() >= MAX_TRACKED) {
+                // Picked up by a listing once the backlog has drained
+                rescanNeeded = true;
+                return;
+            }
+            candidates.put(file, new Candidate());
+        }
+
+        /**
+         * Puts back files a previous run claimed but never finished.
+         */
+        void recover() {
+            int recovered = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(processing)) {
+                for (Path file : files) {
+                    if (!inFlight.contains(file) && Files.isRegularFile(file)) {
+                        moveAside(file, dir, originalName(file));
+                        recovered++;
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot recover claimed files in {}: {}", processing, e.getMessage());
+            }
+            if (recovered > 0) {
+                log.info("Put {} unfinished file(s) back into {}", recovered, dir);
+            }
+        }
+
+        void tick() {
+            if (rescanNeeded && candidates.size() < MAX_TRACKED / 2) {
+                rescan();
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            List<Path> settled = new ArrayList<>();
+            Iterator<Map.Entry<Path, Candidate>> it = candidates.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Candidate> entry = it.next();
+                Candidate candidate = entry.getValue();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // Gone, or taken by someone else
+                    it.remove();
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
+                    it.remove();
+                    continue;
+                }
+                long modified = attributes.lastModifiedTime().toMillis();
+                if (attributes.size() != candidate.size || modified != candidate.modified) {
+                    candidate.size = attributes.size();
+                    candidate.modified = modified;
+                    candidate.unchangedSince = now;
+                } else if (candidate.size > 0 && now - candidate.unchangedSince >= rule.getSettleMs()) {
+                    settled.add(entry.getKey());
+                }
+            }
+            if (!settled.isEmpty()) {
+                submitBatch(settled);
+            }
+        }
+
+        private void rescan() {
+            rescanNeeded = false;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    track(file);
+                }
+            } catch (IOException e) {
+                log.warn("Cannot list {}: {}", dir, e.getMessage());
+            }
+        }
+
+        /**
+         * Claims and queues settled files, oldest name first, as far as the
+         * target printer's queue has room.
+         */
+        private void submitBatch(List<Path> settled) {
+            String printer = printerFor(rule);
+            if (printer == null) {
+                log.warn("No printer for hot folder {}", dir);
+                return;
+            }
+            int room = settingsService.getPrinterQueueCapacity() - printScheduler.queuedJobs(printer)
+                    - printScheduler.deferredJobs(printer);
+            ResourceGovernor.Pressure pressure = ResourceGovernor.get().pressure();
+            if (pressure == ResourceGovernor.Pressure.CRITICAL) {
+                // Files wait in the folder until memory or disk is freed
+                return;
+            } else if (pressure == ResourceGovernor.Pressure.ELEVATED) {
+                room = Math.min(room, 1);
+            }
+            if (room <= 0) {
+                return;
+            }
+            Collections.sort(settled);
+            int submitted = 0;
+            for (Path file : settled) {
+                if (submitted >= room) {
+                    break;
+                }
+                int jobId = LocalJobIds.next();
+                String name = file.getFileName().toString();
+                Path claimed = processing.resolve(claimedName(jobId, name));
+                try {
+                    Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // Still open for writing on some platforms, or claimed elsewhere
+                    log.debug("Cannot claim {}: {}", file, e.getMessage());
+                    continue;
+                }
+                candidates.remove(file);
+                if (!submit(claimed, name, jobId, printer)) {
+                    break;
+                }
+                submitted++;
+            }
+            if (submitted > 0) {
+                log.info("Queued {} file(s) from {} on {}", submitted, dir, printer);
+            }
+        }
+
+        private boolean submit(Path claimed, String name, int jobId, String printer) {
+            PrintConfig config = rule.toPrintConfig(jobId);
+            config.setSelectedPrinter(printer);
+            config.setFileToPrint(claimed.toFile());
+            config.setDocumentName(name);
+            inFlight.add(claimed);
+            try {
+                printScheduler.submit(config).whenComplete((report, error) -> {
+                    if (error == null) {
+                        log.info("Printed {} on {}: {}", name, printer, report.summary());
+                        finish(claimed, null, name);
+                    } else if (error instanceof RejectedExecutionException) {
+                        // Scheduler shut down before the job started: print it next time
+                        finish(claimed, dir, name);
+                    } else {
+                        log.warn("Failed to print {}: {}", name, error.getMessage());
+                        finish(claimed, failed, name);
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                // Queue filled up meanwhile; the file waits for the next batch
+                finish(claimed, dir, name);
+                return false;
+            }
+        }
+
+        /**
+         * Deletes a claimed file, or moves it back to {@code target} under
+         * its original name without replacing a newer file.
+         */
+        private void finish(Path claimed, Path target, String name) {
+            try {
+                if (target == null) {
+                    Files.deleteIfExists(claimed);
+                } else {
+                    moveAside(claimed, target, name);
+                }
+            } catch (IOException e) {
+                log.warn("Cannot clean up {}: {}", claimed, e.getMessage());
+            } finally {
+                inFlight.remove(claimed);
+            }
+        }
+    }
+}
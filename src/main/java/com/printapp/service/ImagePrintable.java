@@ -0,0 +1,228 @@
+package com.printapp.service;
+
+import com.printapp.model.SpoolReport;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Prints an image file one frame per page, so multi-page TIFFs from fax and
+ * scanner workflows print in full. Other formats print their first frame
+ * only; the rest of a GIF's frames are animation, not pages.
+ *
+ * Frames are streamed through an {@link ImageReader} instead of being read
+ * whole. Each page is built at the resolution it will print at, using source
+ * subsampling. Frames stored in strips or tiles (most TIFFs) are decoded in
+ * horizontal bands with {@link ImageReadParam#setSourceRegion}, every band
+ * scaled into the page raster before the next one is read, so memory stays
+ * around one page raster plus one band. Formats without random access to
+ * rows, such as PNG and JPEG, would decode the frame again from the top for
+ * every band; they are read in one subsampled pass instead, which needs at
+ * most about four page rasters however large the frame is.
+ */
+class ImagePrintable implements Printable, Closeable {
+
+    static final Pattern IMAGE_FILE = Pattern.compile(".*\\.(png|jpg|jpeg|tif|tiff|gif|bmp)$");
+
+    // Decoded bytes allowed per band (ARGB worst case)
+    private static final long BAND_BYTES = 16L * 1024 * 1024;
+
+    private final File file;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int pageCount;
+    private final BufferedImage firstFrame;
+    private final SpoolOptimizer spoolOptimizer;
+    private final boolean mono;
+    private final int dpi;
+    private final int maxDpi;
+    private final SpoolReport report;
+
+    // The print system may ask for the same page more than once
+    private int lastPageIndex = -1;
+    private BufferedImage lastPage;
+
+    /**
+     * @param firstFrame an already decoded first frame to use instead of
+     *                   reading it again, or null
+     */
+    ImagePrintable(File file, BufferedImage firstFrame, SpoolOptimizer spoolOptimizer, boolean mono, int dpi,
+            int maxDpi, SpoolReport report) throws IOException {
+        this.file = file;
+        this.input = ImageIO.createImageInputStream(file);
+        this.reader = input != null ? readerFor(input) : null;
+        if (reader == null) {
+            if (input != null) {
+                input.close();
+            }
+            throw new IOException("Unreadable image: " + file.getName());
+        }
+        reader.setInput(input, false, true);
+        this.pageCount = pageCount(reader);
+        this.firstFrame = firstFrame;
+        this.spoolOptimizer = spoolOptimizer;
+        this.mono = mono;
+        this.dpi = dpi;
+        this.maxDpi = maxDpi;
+        this.report = report;
+    }
+
+    /**
+     * Number of pages in an image file: its frames for TIFF, else 1. Also 1
+     * if it cannot be read.
+     */
+    static int countFrames(File file) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = input != null ? readerFor(input) : null;
+            if (reader == null) {
+                return 1;
+            }
+            try {
+                reader.setInput(input, false, true);
+                return pageCount(reader);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
+        if (pageIndex < 0 || pageIndex >= pageCount) {
+            return NO_SUCH_PAGE;
+        }
+
+        try {
+            double areaWidth = pageFormat.getImageableWidth();
+            double areaHeight = pageFormat.getImageableHeight();
+
+            if (pageIndex != lastPageIndex) {
+                // Drop the previous page before building the next one
+                lastPage = null;
+                try (Span span = Span.begin(JobStage.RENDER, report.getJobId()).detail("frame " + (pageIndex + 1))) {
+                    lastPage = renderPage(pageIndex, areaWidth, areaHeight);
+                    span.bytes(SpoolOptimizer.rasterBytes(lastPage));
+                }
+                lastPageIndex = pageIndex;
+                report.setDpi(dpi);
+                report.setImageType(mono ? "GRAY" : "RGB");
+                report.addRasterPage(SpoolOptimizer.rasterBytes(lastPage),
+                        SpoolOptimizer.baselineBytes(areaWidth, areaHeight, maxDpi));
+            }
+
+            // Shrink to fit and centre, like the PDF path
+            double width = lastPage.getWidth() * 72.0 / dpi;
+            double height = lastPage.getHeight() * 72.0 / dpi;
+            double x = pageFormat.getImageableX() + (areaWidth - width) / 2;
+            double y = pageFormat.getImageableY() + (areaHeight - height) / 2;
+
+            Graphics2D g2d = (Graphics2D) graphics;
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(lastPage, (int) Math.round(x), (int) Math.round(y),
+                    (int) Math.round(width), (int) Math.round(height), null);
+            return PAGE_EXISTS;
+
+        } catch (IOException e) {
+            throw new PrinterException("Failed to read page " + (pageIndex + 1) + " of " + file.getName() + ": "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+
+    /**
+     * Builds one page at the print resolution, fitted into the imageable
+     * area with its aspect ratio kept.
+     */
+    private BufferedImage renderPage(int pageIndex, double areaWidth, double areaHeight) throws IOException {
+        if (pageIndex == 0 && firstFrame != null) {
+            return spoolOptimizer.downsample(firstFrame, areaWidth, areaHeight, dpi, mono);
+        }
+
+        int sourceWidth = reader.getWidth(pageIndex);
+        int sourceHeight = reader.getHeight(pageIndex);
+        double scale = Math.min(1.0, Math.min(areaWidth / 72.0 * dpi / sourceWidth,
+                areaHeight / 72.0 * dpi / sourceHeight));
+        int pageWidth = Math.max(1, (int) Math.round(sourceWidth * scale));
+        int pageHeight = Math.max(1, (int) Math.round(sourceHeight * scale));
+
+        // Skip whole source pixels while decoding; the bilinear scale below does the rest
+        int step = Math.max(1, (int) Math.floor(1.0 / scale));
+        int decodedWidth = (sourceWidth + step - 1) / step;
+        int bandRows = (int) Math.max(1, BAND_BYTES / (4L * decodedWidth)) * step;
+        int tileHeight = reader.getTileHeight(pageIndex);
+        if (tileHeight <= 0 || tileHeight >= sourceHeight) {
+            // No strips or tiles to seek to: one pass, as every band would decode from the top again
+            bandRows = sourceHeight;
+        } else {
+            // Whole strips per band, so none is decoded more than twice
+            bandRows = Math.max(bandRows, (tileHeight + step - 1) / step * step);
+        }
+
+        BufferedImage page = new BufferedImage(pageWidth, pageHeight,
+                mono ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = page.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(java.awt.Color.WHITE);
+            g.fillRect(0, 0, pageWidth, pageHeight);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (int top = 0; top < sourceHeight; top += bandRows) {
+                int rows = Math.min(bandRows, sourceHeight - top);
+                param.setSourceRegion(new Rectangle(0, top, sourceWidth, rows));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage band = reader.read(pageIndex, param);
+
+                int y0 = (int) Math.round(top * scale);
+                int y1 = (int) Math.round((top + rows) * scale);
+                g.drawImage(band, 0, y0, pageWidth, Math.max(1, y1 - y0), java.awt.Color.WHITE, null);
+            }
+        } finally {
+            g.dispose();
+        }
+        return page;
+    }
+
+    /**
+     * Pages in the image the reader is set to: its frames for TIFF, else 1.
+     */
+    static int pageCount(ImageReader reader) throws IOException {
+        String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+        return format.startsWith("tif") ? Math.max(1, reader.getNumImages(true)) : 1;
+    }
+
+    private static ImageReader readerFor(ImageInputStream input) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        return readers.hasNext() ? readers.next() : null;
+    }
+}
@@ -0,0 +1,400 @@
+package com.printapp.service;
+
+import com.printapp.ipp.IppConnection;
+import com.printapp.ipp.IppMessage;
+import com.printapp.ipp.PwgRasterWriter;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintConfig;
+
+import javax.print.PrintException;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Prints straight to a network printer over IPP, without the host's spooler
+ * or a driver.
+ *
+ * PDFs go out untouched when the printer lists {@code application/pdf};
+ * everything else is rendered to PWG Raster in a spool file first. Either
+ * way the document is streamed from disk in a Print-Job request over the
+ * printer's single persistent {@link IppConnection}. Sending returns as soon
+ * as the printer accepts the job, so the next one can be transferred while
+ * it prints; a poller follows it with Get-Job-Attributes and
+ * {@link #completion} completes when it reaches {@code completed}, or fails
+ * on {@code aborted} or {@code canceled}. At most {@code queueLimit}
+ * accepted jobs may be unfinished at once, so a burst waits here instead of
+ * filling the printer's memory.
+ *
+ * Requests are sent as IPP/2.0 and, if the printer answers
+ * server-error-version-not-supported, again as IPP/1.1 from then on.
+ */
+public class IppSink implements PrintSink {
+
+    private static final Logger log = Log.get("IppSink");
+
+    private static final String PDF = "application/pdf";
+    private static final String PWG_RASTER = "image/pwg-raster";
+    private static final String PAGE_SIZE_NAME = "iso_a4_210x297mm";
+    private static final long RESPONSE_TIMEOUT_MS = 120_000;
+    private static final long POLL_INTERVAL_MS = 2000;
+
+    // job-state values (RFC 8011)
+    private static final int JOB_CANCELED = 7;
+    private static final int JOB_ABORTED = 8;
+    private static final int JOB_COMPLETED = 9;
+
+    private final String name;
+    private final URI printerUri;
+    private final int defaultDpi;
+    private final IppConnection connection;
+    private final Semaphore activeSlots;
+    // IPP job ID -> job the printer is working on
+    private final Map<Integer, ActiveJob> activeJobs = new ConcurrentHashMap<>();
+    // Our job ID -> completion not yet picked up through completion()
+    private final Map<Integer, CompletableFuture<Void>> completions = new ConcurrentHashMap<>();
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final ScheduledExecutorService poller;
+    private volatile PrinterCapabilities capabilities;
+    private volatile int version = IppMessage.VERSION_2_0;
+
+    public IppSink(String name, URI printerUri, int dpi, int queueLimit, int pipelineDepth) {
+        this.name = name;
+        this.printerUri = printerUri;
+        this.defaultDpi = dpi > 0 ? dpi : 300;
+        this.connection = new IppConnection(printerUri, pipelineDepth);
+        this.activeSlots = new Semaphore(Math.max(1, queueLimit));
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ipp-poll-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        this.poller.scheduleWithFixedDelay(this::pollJobs, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The finest resolution the printer lists for PWG Raster that does not
+     * exceed the configured {@code dpi}, or its coarsest if all do.
+     */
+    @Override
+    public int maxDpi() {
+        PrinterCapabilities caps = capabilities();
+        if (caps == null || caps.rasterDpis.isEmpty()) {
+            return defaultDpi;
+        }
+        Integer listed = caps.rasterDpis.floor(defaultDpi);
+        return listed != null ? listed : caps.rasterDpis.first();
+    }
+
+    @Override
+    public boolean acceptsPdf() {
+        PrinterCapabilities caps = capabilities();
+        return caps != null && caps.formats.contains(PDF);
+    }
+
+    /**
+     * Jobs the printer has accepted that have not finished yet.
+     */
+    public int activeJobs() {
+        return activeJobs.size();
+    }
+
+    @Override
+    public void sendPdf(File file, PrintConfig config, String jobName) throws Exception {
+        printJob(file, PDF, config, jobName, true);
+    }
+
+    @Override
+    public void sendPages(Printable printable, PrintConfig config, String jobName) throws Exception {
+        PrinterCapabilities caps = capabilities();
+        if (caps != null && !caps.formats.isEmpty() && !caps.formats.contains(PWG_RASTER)) {
+            throw new PrintException(name + " takes neither PDF nor PWG Raster");
+        }
+
+        boolean mono = "Black & White".equals(config.getColorMode());
+        int dpi = maxDpi();
+        PageFormat format = PageRasterizer.pageFormat();
+        boolean duplex = "Front and Back (Duplex)".equals(config.getSideOption());
+        File spool = File.createTempFile("ipp-", ".pwg", AppPaths.resolve("spool/"));
+        try {
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(spool), 256 * 1024);
+                 PwgRasterWriter raster = new PwgRasterWriter(out)) {
+                PageRasterizer.render(printable, dpi, mono, (pageIndex, image) -> raster.writePage(image, dpi,
+                        format.getWidth(), format.getHeight(), 1, duplex, PAGE_SIZE_NAME));
+            }
+            printJob(spool, PWG_RASTER, config, jobName, false);
+        } finally {
+            if (!spool.delete()) {
+                spool.deleteOnExit();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> completion(int jobId) {
+        CompletableFuture<Void> completion = completions.remove(jobId);
+        return completion != null ? completion : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        connection.close();
+        for (ActiveJob job : activeJobs.values()) {
+            job.done.completeExceptionally(new IOException(name + " was closed before job " + job.jobId
+                    + " finished"));
+        }
+        activeJobs.clear();
+        completions.clear();
+    }
+
+    // =============================
+    // Print-Job
+    // =============================
+
+    private void printJob(File document, String documentFormat, PrintConfig config, String jobName,
+            boolean numberUp) throws Exception {
+        // Wait for room among the unfinished jobs before sending more
+        activeSlots.acquire();
+        IppMessage response;
+        try {
+            response = send(() -> printJobRequest(documentFormat, config, jobName, numberUp), document);
+        } catch (Exception e) {
+            activeSlots.release();
+            throw e;
+        }
+
+        if (!response.isSuccess()) {
+            activeSlots.release();
+            String detail = String.format("IPP status 0x%04x from %s %s", response.getCode(), name,
+                    response.statusMessage());
+            // The caller renders the job instead when the printer refuses the format
+            throw response.getCode() == IppMessage.CLIENT_ERROR_DOCUMENT_FORMAT_NOT_SUPPORTED
+                    ? new PrintException(detail.trim())
+                    : new IOException(detail.trim());
+        }
+        int ippJobId = response.intValue(IppMessage.JOB_ATTRIBUTES, "job-id", -1);
+        if (ippJobId < 0) {
+            // Nothing to follow; treat it as done
+            activeSlots.release();
+            return;
+        }
+        ActiveJob job = new ActiveJob(config.getJobId());
+        completions.put(config.getJobId(), job.done);
+        activeJobs.put(ippJobId, job);
+        log.info("{} accepted job {} as IPP job {} ({})", name, config.getJobId(), ippJobId, documentFormat);
+    }
+
+    private IppMessage printJobRequest(String documentFormat, PrintConfig config, String jobName,
+            boolean numberUp) {
+        IppMessage request = operation(IppMessage.PRINT_JOB)
+                .add(IppMessage.NAME, "requesting-user-name", System.getProperty("user.name", "elite-print"))
+                .add(IppMessage.NAME, "job-name", jobName)
+                .add(IppMessage.MIME_MEDIA_TYPE, "document-format", documentFormat)
+                .beginGroup(IppMessage.JOB_ATTRIBUTES)
+                .add(IppMessage.INTEGER, "copies", Math.max(1, config.getCopies()))
+                .add(IppMessage.KEYWORD, "sides", "Front and Back (Duplex)".equals(config.getSideOption())
+                        ? "two-sided-long-edge"
+                        : "one-sided");
+        if ("Black & White".equals(config.getColorMode())) {
+            request.add(IppMessage.KEYWORD, "print-color-mode", "monochrome");
+        } else if ("Color".equals(config.getColorMode())) {
+            request.add(IppMessage.KEYWORD, "print-color-mode", "color");
+        }
+        int pagesPerSheet = config.getLayout() != null && config.getLayout().startsWith("4") ? 4
+                : config.getLayout() != null && config.getLayout().startsWith("2") ? 2 : 1;
+        if (numberUp && pagesPerSheet > 1) {
+            request.add(IppMessage.INTEGER, "number-up", pagesPerSheet);
+        }
+        return request;
+    }
+
+    // =============================
+    // Completion
+    // =============================
+
+    /**
+     * Asks for the state of every unfinished job. All requests are written
+     * before any answer is read, so they share one round trip on the
+     * pipelined connection.
+     */
+    private void pollJobs() {
+        if (activeJobs.isEmpty()) {
+            return;
+        }
+        List<Integer> ippJobIds = new ArrayList<>(activeJobs.keySet());
+        List<CompletableFuture<IppMessage>> responses = new ArrayList<>(ippJobIds.size());
+        try {
+            for (Integer ippJobId : ippJobIds) {
+                responses.add(connection.send(operation(IppMessage.GET_JOB_ATTRIBUTES)
+                        .add(IppMessage.INTEGER, "job-id", ippJobId)
+                        .add(IppMessage.KEYWORD, "requested-attributes", "job-state", "job-state-reasons"), null));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                IppMessage response = await(responses.get(i));
+                if (response.getCode() == IppMessage.SERVER_ERROR_VERSION_NOT_SUPPORTED) {
+                    // Asked again as IPP/1.1 on the next round
+                    downgrade();
+                    continue;
+                }
+                handleJobState(ippJobIds.get(i), response);
+            }
+        } catch (Exception e) {
+            log.warn("Polling {} failed: {}", name, e.getMessage());
+        }
+    }
+
+    private void handleJobState(int ippJobId, IppMessage response) {
+        int state = response.isSuccess() ? response.intValue(IppMessage.JOB_ATTRIBUTES, "job-state", 0) : 0;
+        boolean gone = response.getCode() == IppMessage.CLIENT_ERROR_NOT_FOUND;
+        if (state < JOB_CANCELED && !gone) {
+            return;
+        }
+        ActiveJob job = activeJobs.remove(ippJobId);
+        if (job == null) {
+            return;
+        }
+        activeSlots.release();
+        if (state == JOB_COMPLETED || gone) {
+            log.info("{} finished job {} (IPP job {})", name, job.jobId, ippJobId);
+            job.done.complete(null);
+        } else {
+            String outcome = state == JOB_ABORTED ? "aborted" : "canceled";
+            List<Object> reasons = response.values(IppMessage.JOB_ATTRIBUTES, "job-state-reasons");
+            log.warn("{} {} job {}: {}", name, outcome, job.jobId, reasons);
+            job.done.completeExceptionally(new IOException(name + " " + outcome + " the job " + reasons));
+        }
+    }
+
+    // =============================
+    // Printer Attributes
+    // =============================
+
+    private PrinterCapabilities capabilities() {
+        PrinterCapabilities caps = capabilities;
+        if (caps != null) {
+            return caps;
+        }
+        try {
+            IppMessage response = send(() -> operation(IppMessage.GET_PRINTER_ATTRIBUTES)
+                    .add(IppMessage.KEYWORD, "requested-attributes", "document-format-supported",
+                            "pwg-raster-document-resolution-supported"), null);
+            if (!response.isSuccess()) {
+                log.warn("{} refused Get-Printer-Attributes: 0x{}", name, Integer.toHexString(response.getCode()));
+                return null;
+            }
+            caps = new PrinterCapabilities(response);
+            capabilities = caps;
+            log.info("{} takes {} at {} dpi", name, caps.formats, caps.rasterDpis);
+            return caps;
+        } catch (Exception e) {
+            log.warn("Cannot reach {} at {}: {}", name, printerUri, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sends a request and waits for its answer, repeating it once as
+     * IPP/1.1 if the printer does not speak 2.0.
+     */
+    private IppMessage send(Supplier<IppMessage> request, File document) throws Exception {
+        IppMessage response = await(connection.send(request.get(), document));
+        if (response.getCode() == IppMessage.SERVER_ERROR_VERSION_NOT_SUPPORTED && downgrade()) {
+            response = await(connection.send(request.get(), document));
+        }
+        return response;
+    }
+
+    /**
+     * Switches to IPP/1.1; false if already there.
+     */
+    private boolean downgrade() {
+        if (version == IppMessage.VERSION_1_1) {
+            return false;
+        }
+        version = IppMessage.VERSION_1_1;
+        log.info("{} does not support IPP/2.0; using IPP/1.1", name);
+        return true;
+    }
+
+    private IppMessage operation(int operation) {
+        return new IppMessage(version, operation, requestIds.incrementAndGet())
+                .beginGroup(IppMessage.OPERATION_ATTRIBUTES)
+                .add(IppMessage.CHARSET, "attributes-charset", "utf-8")
+                .add(IppMessage.NATURAL_LANGUAGE, "attributes-natural-language", "en")
+                .add(IppMessage.URI, "printer-uri", printerUri.toString());
+    }
+
+    private IppMessage await(CompletableFuture<IppMessage> response) throws Exception {
+        try {
+            return response.get(RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            // Later answers would be matched to the wrong requests
+            connection.reset();
+            throw new IOException(name + " did not answer within " + RESPONSE_TIMEOUT_MS + " ms");
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * What the printer told us it can take.
+     */
+    private static class PrinterCapabilities {
+        final List<String> formats = new ArrayList<>();
+        final TreeSet<Integer> rasterDpis = new TreeSet<>();
+
+        PrinterCapabilities(IppMessage response) {
+            for (Object format : response.values(IppMessage.PRINTER_ATTRIBUTES, "document-format-supported")) {
+                if (format instanceof String) {
+                    formats.add(((String) format).toLowerCase());
+                }
+            }
+            for (Object value : response.values(IppMessage.PRINTER_ATTRIBUTES,
+                    "pwg-raster-document-resolution-supported")) {
+                if (value instanceof int[]) {
+                    int[] resolution = (int[]) value;
+                    // Units 3 is dots per inch, 4 dots per centimetre
+                    int dpi = resolution[2] == 4 ? (int) Math.round(resolution[0] * 2.54) : resolution[0];
+                    if (dpi > 0) {
+                        rasterDpis.add(dpi);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A job the printer accepted and has not finished.
+     */
+    private static class ActiveJob {
+        final int jobId;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        ActiveJob(int jobId) {
+            this.jobId = jobId;
+        }
+    }
+}
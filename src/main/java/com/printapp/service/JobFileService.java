@@ -0,0 +1,382 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintJobDto;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns the file content of a job into a local file the printer path can
+ * read. Shared by the desktop UI and the headless agent.
+ *
+ * Files inlined in the job list are decoded, or just moved into place when
+ * a binary job list already streamed them to disk; files sent by reference are
+ * downloaded from their {@code file_path} on a small pool of threads,
+ * streamed straight to disk. An interrupted download is kept as a
+ * {@code .part} file and resumed with an HTTP Range request, and the result
+ * is checked against the job's size and SHA-256 before it is used. A job's
+ * file is only downloaded once, however often the list is refreshed.
+ */
+public class JobFileService {
+
+    private static final Logger log = Log.get("JobFile");
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ApiService apiService;
+    private final File downloadDir = AppPaths.resolve("downloads/");
+    private final ExecutorService downloader;
+    private final Map<Integer, CompletableFuture<File>> downloads = new HashMap<>();
+    // Jobs being printed, whose files outlive their place in the list; guarded by downloads
+    private final Set<Integer> held = new HashSet<>();
+
+    public JobFileService(ApiService apiService, SettingsService settingsService) {
+        this.apiService = apiService;
+        AtomicInteger threadCount = new AtomicInteger();
+        downloader = Executors.newFixedThreadPool(settingsService.getMaxParallelDownloads(), r -> {
+            Thread t = new Thread(r, "file-download-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the job's file once it is on disk, or null if the job has no
+     * file yet. Inline files are decoded on the caller's thread; referenced
+     * files complete later on a download thread.
+     */
+    public CompletableFuture<File> fetch(PrintJobDto dto) {
+        if (dto.getInlineFile() != null) {
+            try {
+                return adoptInlineFile(dto);
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        if (dto.getFileBase64() != null && !dto.getFileBase64().isEmpty()) {
+            synchronized (downloads) {
+                CompletableFuture<File> existing = downloads.get(dto.getId());
+                if (existing != null && existing.isDone() && !existing.isCompletedExceptionally()
+                        && existing.join().isFile()) {
+                    return existing;
+                }
+            }
+            try {
+                CompletableFuture<File> decoded = CompletableFuture.completedFuture(
+                        saveBase64ToFile(dto.getId(), dto.getFileBase64(), dto.getFileName()));
+                synchronized (downloads) {
+                    downloads.put(dto.getId(), decoded);
+                }
+                return decoded;
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        if (dto.getFilePath() == null || dto.getFilePath().isBlank()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        synchronized (downloads) {
+            CompletableFuture<File> existing = downloads.get(dto.getId());
+            if (existing != null && !existing.isCompletedExceptionally()
+                    && (!existing.isDone() || existing.join().isFile())) {
+                return existing;
+            }
+            CompletableFuture<File> download = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return download(dto);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, downloader);
+            downloads.put(dto.getId(), download);
+            return download;
+        }
+    }
+
+    /**
+     * Forgets downloads of jobs that have left the queue and deletes their
+     * files. Downloads still running for those jobs, and files of jobs held
+     * for printing, are left alone.
+     */
+    public void retainOnly(Collection<Integer> jobIds) {
+        synchronized (downloads) {
+            Iterator<Map.Entry<Integer, CompletableFuture<File>>> it = downloads.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, CompletableFuture<File>> entry = it.next();
+                if (jobIds.contains(entry.getKey()) || held.contains(entry.getKey()) || !entry.getValue().isDone()) {
+                    continue;
+                }
+                it.remove();
+                File file = entry.getValue().getNow(null);
+                if (file != null && !file.delete() && file.exists()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the job's file through {@link #retainOnly} while the job is
+     * printing, even if it drops out of the job list meanwhile.
+     */
+    public void hold(int jobId) {
+        synchronized (downloads) {
+            held.add(jobId);
+        }
+    }
+
+    /**
+     * Ends {@link #hold}; the file goes with the next {@link #retainOnly}
+     * that no longer lists the job.
+     */
+    public void release(int jobId) {
+        synchronized (downloads) {
+            held.remove(jobId);
+        }
+    }
+
+    public void shutdown() {
+        downloader.shutdownNow();
+    }
+
+    /**
+     * Decodes a job's base64 payload (optionally a data URI) into a file in
+     * the temp directory.
+     */
+    private File saveBase64ToFile(int jobId, String base64Data, String fileName) throws Exception {
+        if (base64Data == null || base64Data.isEmpty())
+            return null;
+
+        try (Span span = Span.begin(JobStage.DECODE, jobId)) {
+            File file = decodeBase64ToFile(base64Data, fileName);
+            span.bytes(file.length());
+            return file;
+        }
+    }
+
+    /**
+     * Moves a file the job list delivered as raw bytes into the downloads
+     * directory. It is already on disk, so nothing is decoded.
+     */
+    private CompletableFuture<File> adoptInlineFile(PrintJobDto dto) throws Exception {
+        File inline = dto.getInlineFile();
+        synchronized (downloads) {
+            CompletableFuture<File> existing = downloads.get(dto.getId());
+            if (existing != null && existing.isDone() && !existing.isCompletedExceptionally()
+                    && existing.join().isFile()) {
+                if (!existing.join().equals(inline) && !inline.delete() && inline.exists()) {
+                    inline.deleteOnExit();
+                }
+                return existing;
+            }
+        }
+
+        try (Span span = Span.begin(JobStage.DECODE, dto.getId()).detail("inline")) {
+            if (!matches(dto, inline)) {
+                Files.deleteIfExists(inline.toPath());
+                throw new IOException("Checksum mismatch for job " + dto.getId());
+            }
+            File target = new File(downloadDir, "job-" + dto.getId() + "-" + safeName(dto));
+            Files.move(inline.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dto.setInlineFile(target);
+            span.bytes(target.length());
+
+            CompletableFuture<File> adopted = CompletableFuture.completedFuture(target);
+            synchronized (downloads) {
+                downloads.put(dto.getId(), adopted);
+            }
+            return adopted;
+        }
+    }
+
+    private File decodeBase64ToFile(String base64Data, String fileName) throws Exception {
+
+        // Remove data URI prefix if present
+        String pureBase64 = base64Data;
+        if (base64Data.contains(",")) {
+            pureBase64 = base64Data.split(",")[1];
+        }
+
+        byte[] decodedBytes = Base64.getDecoder().decode(pureBase64);
+
+        // Use user's temp directory
+        String tempDir = System.getProperty("java.io.tmpdir");
+        File file = new File(tempDir, "print_upload_" + System.currentTimeMillis() + "_" + fileName);
+
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(decodedBytes);
+        }
+
+        return file;
+    }
+
+    // =============================
+    // Downloads
+    // =============================
+
+    private File download(PrintJobDto dto) throws Exception {
+        File target = new File(downloadDir, "job-" + dto.getId() + "-" + safeName(dto));
+        File part = new File(target.getPath() + ".part");
+
+        // Left over from an earlier run; trusted only if the job says what it should hold
+        if (verifiable(dto)) {
+            if (target.isFile() && matches(dto, target)) {
+                return target;
+            }
+        } else {
+            // Could be a different version of the file; fetch it whole and move it over the old one
+            Files.deleteIfExists(part.toPath());
+        }
+        // Fails now and is fetched again on a later refresh, once there is room
+        ResourceGovernor governor = ResourceGovernor.get();
+        if (governor.diskPressure() == ResourceGovernor.Pressure.CRITICAL) {
+            throw new IOException("Not enough free disk space to download job " + dto.getId());
+        }
+        governor.awaitHeapRelief();
+
+        try (Span span = Span.begin(JobStage.DECODE, dto.getId()).detail("download")) {
+            long start = System.currentTimeMillis();
+            IOException lastError = null;
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                try {
+                    long resumedFrom = transfer(dto, part);
+                    if (dto.getFileSize() > 0 && part.length() < dto.getFileSize()) {
+                        // Connection closed early; the next attempt resumes from here
+                        throw new IOException("Incomplete download: " + part.length() + " of "
+                                + dto.getFileSize() + " bytes");
+                    }
+                    if (!matches(dto, part)) {
+                        Files.deleteIfExists(part.toPath());
+                        throw new IOException("Checksum mismatch for " + dto.getFilePath());
+                    }
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    span.bytes(target.length());
+                    log.info("Job {}: downloaded {} bytes in {} ms", dto.getId(), target.length(),
+                            System.currentTimeMillis() - start);
+                    if (resumedFrom > 0) {
+                        log.info("Job {}: download resumed at byte {}", dto.getId(), resumedFrom);
+                    }
+                    return target;
+                } catch (IOException e) {
+                    lastError = e;
+                    log.warn("Download of job {} failed (attempt {}/{}): {}", dto.getId(), attempt, MAX_ATTEMPTS,
+                            e.getMessage());
+                    Thread.sleep(RETRY_DELAY_MS * attempt);
+                }
+            }
+            throw lastError;
+        }
+    }
+
+    /**
+     * Streams the file into {@code part}, continuing from whatever an earlier
+     * attempt left there. Returns the offset the transfer resumed from.
+     */
+    private long transfer(PrintJobDto dto, File part) throws Exception {
+        long offset = part.isFile() ? part.length() : 0;
+        if (dto.getFileSize() > 0 && offset >= dto.getFileSize()) {
+            return offset;
+        }
+
+        HttpResponse<InputStream> response = apiService.openFile(dto.getFilePath(), offset);
+        int status = response.statusCode();
+        if (status == 416) {
+            // Nothing left past our offset: the part file is already complete
+            response.body().close();
+            return offset;
+        }
+        if (status != 200 && status != 206) {
+            response.body().close();
+            throw new IOException("HTTP " + status + " for " + dto.getFilePath());
+        }
+
+        boolean append = status == 206 && offset > 0;
+        try (InputStream in = response.body();
+             OutputStream out = new FileOutputStream(part, append)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return append ? offset : 0;
+    }
+
+    /**
+     * True if the job announces a size or SHA-256 to check a file against.
+     */
+    private static boolean verifiable(PrintJobDto dto) {
+        return dto.getFileSize() > 0 || (dto.getFileSha256() != null && !dto.getFileSha256().isBlank());
+    }
+
+    /**
+     * True if the file has the size and SHA-256 the job announced. Jobs
+     * without them are accepted as they are.
+     */
+    private static boolean matches(PrintJobDto dto, File file) throws IOException {
+        if (dto.getFileSize() > 0 && file.length() != dto.getFileSize()) {
+            return false;
+        }
+        String expected = dto.getFileSha256();
+        return expected == null || expected.isBlank() || expected.equalsIgnoreCase(sha256(file));
+    }
+
+    static String sha256(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String safeName(PrintJobDto dto) {
+        String name = dto.getFileName();
+        if (name == null || name.isBlank()) {
+            String path = dto.getFilePath();
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            name = path.substring(path.lastIndexOf('/') + 1);
+        }
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,156 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintJobDto;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of the job lease protocol that lets several stations share
+ * one queue without printing the same job twice.
+ *
+ * A station claims a job with a TTL before preparing it, keeps renewing the
+ * lease while it works on it, and releases it if printing fails. Jobs leased
+ * by a peer are skipped until that lease expires, at which point any station
+ * may claim (steal) it. With leasing disabled in settings every call
+ * succeeds locally and nothing is sent to the backend.
+ */
+public class JobLeaseService {
+
+    private static final Logger log = Log.get("JobLease");
+
+    private final ApiService apiService;
+    private final SettingsService settingsService;
+    private final Map<Integer, ScheduledFuture<?>> held = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lease-renewer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public JobLeaseService(ApiService apiService, SettingsService settingsService) {
+        this.apiService = apiService;
+        this.settingsService = settingsService;
+    }
+
+    public boolean isEnabled() {
+        return settingsService.isLeasingEnabled();
+    }
+
+    public String getStationId() {
+        return settingsService.getStationId();
+    }
+
+    /**
+     * True if another station holds an unexpired lease on this job.
+     */
+    public boolean isLeasedByPeer(PrintJobDto dto) {
+        if (!isEnabled() || dto.getLeasedBy() == null || dto.getLeasedBy().isEmpty()) {
+            return false;
+        }
+        return !dto.getLeasedBy().equals(getStationId()) && dto.getLeaseExpiresAt() > System.currentTimeMillis();
+    }
+
+    public boolean holds(int jobId) {
+        return !isEnabled() || held.containsKey(jobId);
+    }
+
+    public int heldCount() {
+        return held.size();
+    }
+
+    public Set<Integer> heldJobIds() {
+        return held.keySet();
+    }
+
+    /**
+     * Claims the job and starts renewing the lease in the background.
+     * Returns false if a peer holds it.
+     */
+    public boolean acquire(int jobId) {
+        if (!isEnabled() || held.containsKey(jobId)) {
+            return true;
+        }
+        int ttl = settingsService.getLeaseTtlSeconds();
+        if (!apiService.claimLease(jobId, getStationId(), ttl)) {
+            return false;
+        }
+
+        // Renew at a third of the TTL so one missed renewal does not lose it
+        long period = Math.max(1, ttl / 3);
+        ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(() -> renew(jobId), period, period,
+                TimeUnit.SECONDS);
+        ScheduledFuture<?> previous = held.put(jobId, renewal);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Gives the job back so a peer can take it, e.g. after a failed print.
+     */
+    public void release(int jobId) {
+        ScheduledFuture<?> renewal = held.remove(jobId);
+        if (renewal == null) {
+            return;
+        }
+        renewal.cancel(false);
+        renewer.execute(() -> apiService.releaseLease(jobId, getStationId()));
+    }
+
+    /**
+     * Stops renewing after a successful print. The lease is left to expire
+     * rather than released, so peers do not pick the job up again while the
+     * backend catches up.
+     */
+    public void complete(int jobId) {
+        ScheduledFuture<?> renewal = held.remove(jobId);
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+    }
+
+    /**
+     * Releases every lease this station still holds that is not in the
+     * given set, e.g. jobs that disappeared from the queue.
+     */
+    public void retainOnly(Set<Integer> jobIds) {
+        for (Integer jobId : held.keySet()) {
+            if (!jobIds.contains(jobId)) {
+                release(jobId);
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (Integer jobId : held.keySet()) {
+            ScheduledFuture<?> renewal = held.remove(jobId);
+            if (renewal != null) {
+                renewal.cancel(false);
+                apiService.releaseLease(jobId, getStationId());
+            }
+        }
+        renewer.shutdownNow();
+    }
+
+    private void renew(int jobId) {
+        if (!held.containsKey(jobId)) {
+            return;
+        }
+        if (!apiService.renewLease(jobId, getStationId(), settingsService.getLeaseTtlSeconds())) {
+            log.warn("Lost lease on job {} to another station.", jobId);
+            ScheduledFuture<?> renewal = held.remove(jobId);
+            if (renewal != null) {
+                renewal.cancel(false);
+            }
+        }
+    }
+}
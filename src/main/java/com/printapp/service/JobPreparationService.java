@@ -0,0 +1,342 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PreparedJob;
+import com.printapp.model.PrintConfig;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares jobs speculatively as soon as they arrive, so clicking PRINT does
+ * not have to wait for parsing, font resolution or image decoding.
+ *
+ * Work runs on low-priority daemon threads. Finished jobs are kept in a
+ * small LRU cache keyed by job ID; an entry is only handed out while the
+ * job's {@link PrintConfig#settingsKey()} and the SHA-256 of its file still
+ * match, so a file saved again under a new name on every refresh is not
+ * prepared again. Entries are dropped and closed when the job changes or
+ * falls out of the cache, and at most {@value #MAX_PREPARED_JOBS} jobs are
+ * being prepared at once.
+ */
+public class JobPreparationService {
+
+    private static final Logger log = Log.get("JobPreparation");
+
+    public static final int MAX_PREPARED_JOBS = 8;
+
+    private static final int MAX_CONTENT_HASHES = 64;
+
+    // Rendering the first page once at a tiny resolution resolves fonts and
+    // decodes its images without holding a full-size raster in memory
+    private static final float WARM_UP_DPI = 36;
+
+    // Larger images are left to the banded print path instead of being held decoded
+    private static final long MAX_PRELOAD_PIXELS = 24L * 1000 * 1000;
+
+    private final ExecutorService executor;
+    private final Map<Integer, Pending> inFlight = new HashMap<>();
+    // File path, length and modification time -> SHA-256, so an unchanged file is hashed once
+    private final Map<String, String> contentHashes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CONTENT_HASHES;
+        }
+    };
+    private final Map<Integer, PreparedJob> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PreparedJob> eldest) {
+            if (size() > MAX_PREPARED_JOBS) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public JobPreparationService() {
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "job-prep-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        // Decoded images are the largest entries; documents reload quickly
+        ResourceGovernor governor = ResourceGovernor.get();
+        governor.addShedder("prepared images", ResourceGovernor.Pressure.ELEVATED, () -> shed(false));
+        governor.addShedder("prepared jobs", ResourceGovernor.Pressure.CRITICAL, () -> shed(true));
+    }
+
+    /**
+     * Queues background preparation of a job unless an up-to-date result is
+     * already cached or being built. Nothing is prepared ahead while memory
+     * is short or {@value #MAX_PREPARED_JOBS} jobs are already being
+     * prepared; the job is then loaded when it prints. Returns straight
+     * away; the file is hashed on a preparation thread.
+     */
+    public void prepare(PrintConfig config) {
+        if (config.getFileToPrint() == null
+                || ResourceGovernor.get().heapPressure() != ResourceGovernor.Pressure.NORMAL) {
+            return;
+        }
+        executor.execute(() -> {
+            String key = keyOf(config);
+            Pending next;
+            synchronized (this) {
+                PreparedJob cached = cache.get(config.getJobId());
+                if (cached != null && cached.getSettingsKey().equals(key)) {
+                    return;
+                }
+                Pending pending = inFlight.get(config.getJobId());
+                if (pending != null && pending.key.equals(key)) {
+                    return;
+                }
+                if (pending == null && inFlight.size() >= MAX_PREPARED_JOBS) {
+                    return;
+                }
+                invalidate(config.getJobId());
+                next = new Pending(key);
+                inFlight.put(config.getJobId(), next);
+            }
+            PreparedJob result;
+            try {
+                result = doPrepare(config, key);
+            } catch (RuntimeException | Error e) {
+                next.future.completeExceptionally(e);
+                synchronized (this) {
+                    inFlight.remove(config.getJobId(), next);
+                }
+                throw e;
+            }
+            next.future.complete(complete(config, next, result));
+        });
+    }
+
+    /**
+     * Hands over the prepared form of a job, waiting for preparation that is
+     * already under way. Returns null if nothing matching the current
+     * settings exists. The caller owns the returned job and must close it.
+     */
+    public PreparedJob take(PrintConfig config) {
+        synchronized (this) {
+            // Nothing to match, so the file need not be hashed
+            if (config.getFileToPrint() == null
+                    || !cache.containsKey(config.getJobId()) && !inFlight.containsKey(config.getJobId())) {
+                return null;
+            }
+        }
+        String key = keyOf(config);
+        Pending pending;
+        synchronized (this) {
+            PreparedJob cached = cache.remove(config.getJobId());
+            if (cached != null) {
+                if (cached.getSettingsKey().equals(key)) {
+                    return cached;
+                }
+                cached.close();
+            }
+            pending = inFlight.get(config.getJobId());
+            if (pending == null || !pending.key.equals(key)) {
+                return null;
+            }
+            inFlight.remove(config.getJobId());
+            pending.claimed = true;
+        }
+
+        try {
+            return pending.future.get();
+        } catch (Exception e) {
+            log.warn("Preparation of job {} failed: {}", config.getJobId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Drops any prepared or in-progress result for this job.
+     */
+    public synchronized void invalidate(int jobId) {
+        PreparedJob cached = cache.remove(jobId);
+        if (cached != null) {
+            cached.close();
+        }
+        // An in-flight task that is no longer registered closes its own result
+        inFlight.remove(jobId);
+    }
+
+    /**
+     * Drops results for jobs that are no longer in the queue.
+     */
+    public synchronized void retainOnly(Collection<Integer> jobIds) {
+        Iterator<Map.Entry<Integer, PreparedJob>> it = cache.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, PreparedJob> entry = it.next();
+            if (!jobIds.contains(entry.getKey())) {
+                entry.getValue().close();
+                it.remove();
+            }
+        }
+        inFlight.keySet().retainAll(jobIds);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (this) {
+            cache.values().forEach(PreparedJob::close);
+            cache.clear();
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * Frees memory held by prepared jobs: those holding a decoded image, or
+     * all of them.
+     */
+    private synchronized void shed(boolean all) {
+        int dropped = 0;
+        Iterator<PreparedJob> it = cache.values().iterator();
+        while (it.hasNext()) {
+            PreparedJob prepared = it.next();
+            if (all || prepared.getImage() != null) {
+                prepared.close();
+                it.remove();
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.info("Dropped {} prepared job(s) to free memory", dropped);
+        }
+    }
+
+    private PreparedJob complete(PrintConfig config, Pending pending, PreparedJob result) {
+        synchronized (this) {
+            if (inFlight.get(config.getJobId()) == pending) {
+                inFlight.remove(config.getJobId());
+                cache.put(config.getJobId(), result);
+            } else if (!pending.claimed) {
+                // Invalidated while we were working
+                result.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The job's settings plus the SHA-256 of its file, or its path if the
+     * file cannot be read.
+     */
+    private String keyOf(PrintConfig config) {
+        File file = config.getFileToPrint();
+        String fileKey = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        String hash;
+        synchronized (contentHashes) {
+            hash = contentHashes.get(fileKey);
+        }
+        if (hash == null) {
+            try {
+                hash = JobFileService.sha256(file);
+            } catch (IOException e) {
+                return config.settingsKey() + "|" + file.getAbsolutePath();
+            }
+            synchronized (contentHashes) {
+                contentHashes.put(fileKey, hash);
+            }
+        }
+        return config.settingsKey() + "|" + hash;
+    }
+
+    private PreparedJob doPrepare(PrintConfig config, String key) {
+        File file = config.getFileToPrint();
+        if (!file.isFile()) {
+            return PreparedJob.failed(config, key, "File not found: " + file.getName());
+        }
+
+        long start = System.currentTimeMillis();
+        String fileName = file.getName().toLowerCase();
+        try (Span span = Span.begin(JobStage.PREPARE, config.getJobId())) {
+            span.bytes(file.length());
+            PreparedJob prepared;
+            if (fileName.endsWith(".pdf")) {
+                PDDocument document = PDDocument.load(file, ResourceGovernor.get().pdfMemory(file));
+                SharedResourceCache.get().attach(document);
+                try {
+                    if (document.getNumberOfPages() == 0) {
+                        throw new IOException("PDF has no pages");
+                    }
+                    new PDFRenderer(document).renderImageWithDPI(0, WARM_UP_DPI, ImageType.GRAY);
+                } catch (Exception | Error e) {
+                    // Hand the shared resources back before the document goes
+                    SharedResourceCache.get().release(document);
+                    document.close();
+                    throw e;
+                }
+                prepared = PreparedJob.ofDocument(config, key, document);
+            } else if (ImagePrintable.IMAGE_FILE.matcher(fileName).matches()) {
+                prepared = prepareImage(config, key, file);
+            } else {
+                return PreparedJob.failed(config, key, "Unsupported file format. Only PDF and Images supported.");
+            }
+
+            log.info("Job {} ready: {} page(s) in {} ms", config.getJobId(), prepared.getPageCount(),
+                    System.currentTimeMillis() - start);
+            return prepared;
+        } catch (Exception e) {
+            return PreparedJob.failed(config, key, "Failed to read " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes small single-frame images ahead of time. Multi-page and very
+     * large images are only checked for readability; they are decoded in
+     * bands, page by page, while printing.
+     */
+    private PreparedJob prepareImage(PrintConfig config, String key, File file) throws Exception {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return PreparedJob.failed(config, key, "Unreadable image: " + file.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                int frames = ImagePrintable.pageCount(reader);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (frames > 1 || pixels > MAX_PRELOAD_PIXELS) {
+                    return PreparedJob.ofImagePages(config, key, frames);
+                }
+                return PreparedJob.ofImage(config, key, reader.read(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static class Pending {
+        final String key;
+        final CompletableFuture<PreparedJob> future = new CompletableFuture<>();
+        boolean claimed;
+
+        Pending(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintConfig;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.util.Matrix;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Marks a job's output so that stacks from a shared printer can be told
+ * apart: a small label with the job ID, the customer's file name and/or a QR
+ * code on every page, and optionally a separator sheet in front of the job.
+ *
+ * Both are laid out once per job as filled vector shapes, with text as glyph
+ * outlines. The rendered path fills those cached shapes on each page; for
+ * PDF passthrough they are written once into a form XObject that every page
+ * of a stamped copy references. Either way a page costs one transform and
+ * two fills however long the job is.
+ */
+final class JobStamp {
+
+    private static final Logger log = Log.get("JobStamp");
+
+    static final String FIELD_JOB_ID = "jobId";
+    static final String FIELD_FILE_NAME = "fileName";
+    static final String FIELD_QR = "qr";
+
+    // Label sizes in points
+    private static final float LABEL_FONT = 7f;
+    private static final double LABEL_QR = 36;
+    private static final double LABEL_PADDING = 3;
+    private static final int LABEL_MAX_NAME = 60;
+
+    // Separator sheet sizes in points
+    private static final float TITLE_FONT = 32f;
+    private static final float NAME_FONT = 14f;
+    private static final float DETAIL_FONT = 10f;
+    private static final double SEPARATOR_QR = 144;
+    private static final double SEPARATOR_PADDING = 12;
+
+    // Distance of the label from the page edge on stamped PDF pages, clear
+    // of most printers' unprintable margin
+    private static final double PDF_INSET = 18;
+
+    private static final DateTimeFormatter PRINTED_AT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final Overlay label;
+    private final Overlay separator;
+    private final int leadingPages;
+
+    private JobStamp(Overlay label, Overlay separator, boolean duplex) {
+        this.label = label;
+        this.separator = separator;
+        // A separator printed on both sides would carry the job's first page
+        // on its back, so it gets a blank back instead
+        this.leadingPages = separator == null ? 0 : (duplex ? 2 : 1);
+    }
+
+    /**
+     * Builds the overlays for a job, or returns null when neither stamping
+     * nor separator sheets are switched on.
+     *
+     * @param fields any of {@link #FIELD_JOB_ID}, {@link #FIELD_FILE_NAME}
+     *               and {@link #FIELD_QR}
+     */
+    static JobStamp forJob(PrintConfig config, List<String> fields, boolean separatorSheets,
+            QrCodeService qrCodeService) {
+        boolean jobId = fields.contains(FIELD_JOB_ID);
+        boolean fileName = fields.contains(FIELD_FILE_NAME);
+        boolean qr = fields.contains(FIELD_QR);
+        if (!jobId && !fileName && !qr && !separatorSheets) {
+            return null;
+        }
+
+        String id = jobLabel(config.getJobId());
+        String name = documentName(config);
+        Path2D qrShape = qr || separatorSheets ? qrCodeService.generateQrShape(id + " " + name) : null;
+
+        Overlay label = null;
+        if (jobId || fileName || qr) {
+            List<TextLine> lines = new ArrayList<>();
+            if (jobId || fileName) {
+                String text = jobId && fileName ? id + "  " + shorten(name)
+                        : jobId ? id : shorten(name);
+                lines.add(new TextLine(text, LABEL_FONT));
+            }
+            label = Overlay.layout(lines, qr ? qrShape : null, LABEL_QR, LABEL_PADDING);
+        }
+
+        Overlay separator = null;
+        if (separatorSheets) {
+            List<TextLine> lines = new ArrayList<>();
+            lines.add(new TextLine(id, TITLE_FONT));
+            lines.add(new TextLine(name, NAME_FONT));
+            lines.add(new TextLine(details(config), DETAIL_FONT));
+            separator = Overlay.layout(lines, qrShape, SEPARATOR_QR, SEPARATOR_PADDING);
+        }
+
+        return new JobStamp(label, separator, "Front and Back (Duplex)".equals(config.getSideOption()));
+    }
+
+    /**
+     * Wraps the pages of a job so the separator sheet comes first and every
+     * page carries the label.
+     */
+    Printable wrap(Printable printable) {
+        return new StampedPrintable(printable);
+    }
+
+    /**
+     * Writes a copy of the PDF with the label on every page and the
+     * separator sheet in front, for printers that take PDFs as they are.
+     * The caller deletes the copy.
+     */
+    File stampCopy(File file, File directory) throws IOException {
+        File copy = File.createTempFile("stamp-", ".pdf", directory);
+        try (PDDocument document = PDDocument.load(file, ResourceGovernor.get().pdfMemory(file))) {
+            // A stamped copy for the printer does not need the owner's restrictions
+            document.setAllSecurityToBeRemoved(true);
+
+            if (label != null) {
+                PDFormXObject form = label.toForm(document);
+                for (PDPage page : document.getPages()) {
+                    stampPage(document, page, form);
+                }
+            }
+            if (separator != null && document.getNumberOfPages() > 0) {
+                addSeparatorPages(document);
+            }
+            document.save(copy);
+        } catch (IOException | RuntimeException e) {
+            copy.delete();
+            throw e;
+        }
+        log.debug("Stamped copy of {} written to {}", file.getName(), copy.getName());
+        return copy;
+    }
+
+    // =============================
+    // PDF Passthrough
+    // =============================
+    private void stampPage(PDDocument document, PDPage page, PDFormXObject form) throws IOException {
+        PDRectangle box = page.getCropBox();
+        int rotation = ((page.getRotation() % 360) + 360) % 360;
+        boolean rotated = rotation % 180 != 0;
+        double width = rotated ? box.getHeight() : box.getWidth();
+        double scale = Math.min(1.0, (width - 2 * PDF_INSET) / label.width);
+        if (scale <= 0) {
+            return;
+        }
+
+        // Reset the page's own graphics state first so the label lands where
+        // expected whatever the page's content leaves behind
+        try (PDPageContentStream out = new PDPageContentStream(document, page,
+                PDPageContentStream.AppendMode.APPEND, true, true)) {
+            out.saveGraphicsState();
+            out.transform(displayMatrix(box, rotation));
+            out.transform(new Matrix((float) scale, 0, 0, (float) scale, (float) PDF_INSET, (float) PDF_INSET));
+            out.drawForm(form);
+            out.restoreGraphicsState();
+        }
+    }
+
+    private void addSeparatorPages(PDDocument document) throws IOException {
+        PDPage first = document.getPage(0);
+        PDRectangle box = first.getCropBox();
+        boolean rotated = first.getRotation() % 180 != 0;
+        float width = rotated ? box.getHeight() : box.getWidth();
+        float height = rotated ? box.getWidth() : box.getHeight();
+
+        PDPage sheet = new PDPage(new PDRectangle(width, height));
+        double scale = Math.min(1.0, Math.min((width - 2 * PDF_INSET) / separator.width,
+                (height - 2 * PDF_INSET) / separator.height));
+        try (PDPageContentStream out = new PDPageContentStream(document, sheet)) {
+            out.transform(new Matrix((float) scale, 0, 0, (float) scale,
+                    (float) ((width - separator.width * scale) / 2),
+                    (float) ((height - separator.height * scale) / 2)));
+            out.drawForm(separator.toForm(document));
+        }
+        document.getPages().insertBefore(sheet, first);
+        for (int i = 1; i < leadingPages; i++) {
+            document.getPages().insertBefore(new PDPage(new PDRectangle(width, height)), first);
+        }
+    }
+
+    /**
+     * Maps coordinates measured from the bottom left of the page as it is
+     * displayed (after /Rotate) into the page's own user space.
+     */
+    private static Matrix displayMatrix(PDRectangle box, int rotation) {
+        float x0 = box.getLowerLeftX();
+        float y0 = box.getLowerLeftY();
+        float x1 = box.getUpperRightX();
+        float y1 = box.getUpperRightY();
+        switch (rotation) {
+            case 90:
+                return new Matrix(0, 1, -1, 0, x1, y0);
+            case 180:
+                return new Matrix(-1, 0, 0, -1, x1, y1);
+            case 270:
+                return new Matrix(0, -1, 1, 0, x0, y1);
+            default:
+                return new Matrix(1, 0, 0, 1, x0, y0);
+        }
+    }
+
+    // =============================
+    // Rendered Pages
+    // =============================
+    private class StampedPrintable implements Printable {
+        private final Printable printable;
+
+        StampedPrintable(Printable printable) {
+            this.printable = printable;
+        }
+
+        @Override
+        public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
+            if (pageIndex < leadingPages) {
+                if (pageIndex == 0) {
+                    drawCentred((Graphics2D) graphics, pageFormat, separator);
+                }
+                return PAGE_EXISTS;
+            }
+
+            // Taken before the page is drawn, which may move the origin
+            Graphics2D overlay = label != null ? (Graphics2D) graphics.create() : null;
+            try {
+                int result = printable.print(graphics, pageFormat, pageIndex - leadingPages);
+                if (result == PAGE_EXISTS && overlay != null) {
+                    double scale = Math.min(1.0, pageFormat.getImageableWidth() / label.width);
+                    label.draw(overlay, pageFormat.getImageableX(),
+                            pageFormat.getImageableY() + pageFormat.getImageableHeight() - label.height * scale,
+                            scale);
+                }
+                return result;
+            } finally {
+                if (overlay != null) {
+                    overlay.dispose();
+                }
+            }
+        }
+
+        private void drawCentred(Graphics2D g2d, PageFormat pageFormat, Overlay overlay) {
+            double scale = Math.min(1.0, Math.min(pageFormat.getImageableWidth() / overlay.width,
+                    pageFormat.getImageableHeight() / overlay.height));
+            overlay.draw(g2d,
+                    pageFormat.getImageableX() + (pageFormat.getImageableWidth() - overlay.width * scale) / 2,
+                    pageFormat.getImageableY() + (pageFormat.getImageableHeight() - overlay.height * scale) / 2,
+                    scale);
+        }
+    }
+
+    // =============================
+    // Layout
+    // =============================
+    private static String jobLabel(int jobId) {
+        return jobId > 0 ? "Job " + jobId : "Local job " + (-jobId);
+    }
+
+    private static String documentName(PrintConfig config) {
+        if (config.getDocumentName() != null && !config.getDocumentName().isBlank()) {
+            return config.getDocumentName().trim();
+        }
+        return config.getFileToPrint() != null ? config.getFileToPrint().getName() : "";
+    }
+
+    private static String shorten(String name) {
+        return name.length() <= LABEL_MAX_NAME ? name
+                : name.substring(0, LABEL_MAX_NAME - 1) + "\u2026";
+    }
+
+    private static String details(PrintConfig config) {
+        int copies = Math.max(1, config.getCopies());
+        return (copies == 1 ? "1 copy" : copies + " copies") + " \u00b7 " + config.getColorMode()
+                + " \u00b7 " + config.getSideOption() + " \u00b7 " + LocalDateTime.now().format(PRINTED_AT);
+    }
+
+    private static final class TextLine {
+        final String text;
+        final float size;
+
+        TextLine(String text, float size) {
+            this.text = text;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A block of black shapes on a white background, measured in points
+     * from its top left corner.
+     */
+    private static final class Overlay {
+        private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+
+        final Shape background;
+        final Shape ink;
+        final double width;
+        final double height;
+
+        private Overlay(Shape ink, double width, double height) {
+            this.background = new Rectangle2D.Double(0, 0, width, height);
+            this.ink = ink;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Places the QR code, when there is one, left of the text lines.
+         */
+        static Overlay layout(List<TextLine> lines, Path2D qrShape, double qrSize, double padding) {
+            Path2D ink = new Path2D.Double(Path2D.WIND_NON_ZERO);
+            double x = padding;
+            double contentHeight = 0;
+
+            if (qrShape != null) {
+                Rectangle2D bounds = qrShape.getBounds2D();
+                // Two modules of quiet zone so scanners find the code's edge
+                double module = qrSize / (Math.max(bounds.getWidth(), bounds.getHeight()) + 4);
+                AffineTransform place = new AffineTransform();
+                place.translate(padding + 2 * module, padding + 2 * module);
+                place.scale(module, module);
+                place.translate(-bounds.getX(), -bounds.getY());
+                ink.append(qrShape.getPathIterator(place), false);
+                x += qrSize + padding;
+                contentHeight = qrSize;
+            }
+
+            List<GlyphVector> glyphs = new ArrayList<>();
+            double textWidth = 0;
+            double textHeight = 0;
+            for (TextLine line : lines) {
+                GlyphVector vector = new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont(line.size)
+                        .createGlyphVector(FRC, line.text);
+                glyphs.add(vector);
+                textWidth = Math.max(textWidth, vector.getLogicalBounds().getWidth());
+                textHeight += line.size * 1.25;
+            }
+
+            // Text is centred vertically against the QR code
+            double y = padding + Math.max(0, (contentHeight - textHeight) / 2);
+            for (int i = 0; i < lines.size(); i++) {
+                TextLine line = lines.get(i);
+                LineMetrics metrics = new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont(line.size)
+                        .getLineMetrics(line.text, FRC);
+                ink.append(glyphs.get(i).getOutline((float) x, (float) (y + metrics.getAscent())), false);
+                y += line.size * 1.25;
+            }
+
+            double width = x + textWidth + (lines.isEmpty() ? 0 : padding);
+            double height = Math.max(contentHeight, textHeight) + 2 * padding;
+            return new Overlay(ink, width, height);
+        }
+
+        void draw(Graphics2D g2d, double x, double y, double scale) {
+            AffineTransform saved = g2d.getTransform();
+            try {
+                g2d.translate(x, y);
+                g2d.scale(scale, scale);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2d.setColor(Color.WHITE);
+                g2d.fill(background);
+                g2d.setColor(Color.BLACK);
+                g2d.fill(ink);
+            } finally {
+                g2d.setTransform(saved);
+            }
+        }
+
+        /**
+         * Writes the overlay into a form XObject whose origin is its bottom
+         * left corner.
+         */
+        PDFormXObject toForm(PDDocument document) throws IOException {
+            PDFormXObject form = new PDFormXObject(document);
+            form.setBBox(new PDRectangle((float) width, (float) height));
+            try (OutputStream stream = form.getStream().createOutputStream(COSName.FLATE_DECODE);
+                    PDPageContentStream out = new PDPageContentStream(document, form, stream)) {
+                out.setNonStrokingColor(1f);
+                writePath(out, background);
+                out.fill();
+                out.setNonStrokingColor(0f);
+                writePath(out, ink);
+                out.fill();
+            }
+            return form;
+        }
+
+        private void writePath(PDPageContentStream out, Shape shape) throws IOException {
+            float[] c = new float[6];
+            float currentX = 0;
+            float currentY = 0;
+            float startX = 0;
+            float startY = 0;
+            float h = (float) height;
+            for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+                switch (it.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        out.moveTo(c[0], h - c[1]);
+                        currentX = startX = c[0];
+                        currentY = startY = c[1];
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        out.lineTo(c[0], h - c[1]);
+                        currentX = c[0];
+                        currentY = c[1];
+                        break;
+                    case PathIterator.SEG_QUADTO: {
+                        // PDF has no quadratic curves; raise to cubic
+                        float x1 = currentX + 2f / 3f * (c[0] - currentX);
+                        float y1 = currentY + 2f / 3f * (c[1] - currentY);
+                        float x2 = c[2] + 2f / 3f * (c[0] - c[2]);
+                        float y2 = c[3] + 2f / 3f * (c[1] - c[3]);
+                        out.curveTo(x1, h - y1, x2, h - y2, c[2], h - c[3]);
+                        currentX = c[2];
+                        currentY = c[3];
+                        break;
+                    }
+                    case PathIterator.SEG_CUBICTO:
+                        out.curveTo(c[0], h - c[1], c[2], h - c[3], c[4], h - c[5]);
+                        currentX = c[4];
+                        currentY = c[5];
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        out.closePath();
+                        currentX = startX;
+                        currentY = startY;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+}
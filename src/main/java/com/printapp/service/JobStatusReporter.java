@@ -0,0 +1,335 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.JobStatus;
+import com.printapp.model.JobStatusReport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells the backend what happened to each job (claimed, printing, printed,
+ * failed), so it can stop listing jobs that are done.
+ *
+ * Reports are collected for a short interval and sent together: over HTTP
+ * as one POST to {@code /order/status}, or as a STOMP SEND confirmed by a
+ * receipt. Only the latest transition per job is kept while waiting, so a
+ * job that is claimed and printed within one interval is reported once.
+ *
+ * Every report is appended to an outbox file in the data directory and
+ * synced to disk before it is sent, and the outbox is rewritten with what is
+ * left after each accepted batch. Both happen on the reporter's own thread,
+ * so callers on the FX thread never wait for the disk. Reports that could
+ * not be delivered are retried with backoff and survive restarts.
+ */
+public class JobStatusReporter {
+
+    private static final Logger log = Log.get("StatusReporter");
+
+    private static final String OUTBOX_FILE = "status-outbox.jsonl";
+    private static final String STATUS_DESTINATION = "/app/print-status";
+    private static final int MAX_BATCH = 200;
+    private static final int MAX_REASON_CHARS = 500;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final long RECEIPT_TIMEOUT_MS = 10_000;
+
+    private final ApiService apiService;
+    private final SettingsService settingsService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File outboxFile;
+    // Latest unsent report per job, in the order jobs were first reported
+    private final Map<Integer, JobStatusReport> pending = new LinkedHashMap<>();
+    // Reports not yet appended to the outbox; written by the sender thread
+    private final List<JobStatusReport> unwritten = new ArrayList<>();
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "status-reporter");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile WebSocketClientService webSocket;
+    private boolean flushScheduled;
+    private long backoffMs;
+
+    public JobStatusReporter(ApiService apiService, SettingsService settingsService) {
+        this(apiService, settingsService, AppPaths.resolve(OUTBOX_FILE));
+    }
+
+    public JobStatusReporter(ApiService apiService, SettingsService settingsService, File outboxFile) {
+        this.apiService = apiService;
+        this.settingsService = settingsService;
+        this.outboxFile = outboxFile;
+        loadOutbox();
+    }
+
+    public boolean isEnabled() {
+        return !"off".equalsIgnoreCase(settingsService.getStatusReporting());
+    }
+
+    /**
+     * Connection to use when reporting over STOMP. Until it is connected,
+     * reports go over HTTP instead.
+     */
+    public void useWebSocket(WebSocketClientService webSocket) {
+        this.webSocket = webSocket;
+    }
+
+    /**
+     * Sends whatever the outbox still holds from an earlier run.
+     */
+    public synchronized void start() {
+        if (!pending.isEmpty() && isEnabled()) {
+            log.info("Resending {} job status report(s) from the outbox.", pending.size());
+            scheduleFlush(0);
+        }
+    }
+
+    public void report(int jobId, JobStatus status) {
+        report(jobId, status, null);
+    }
+
+    /**
+     * Records a transition and schedules it to be sent. Returns straight
+     * away; the report reaches the outbox on disk before it is first sent.
+     */
+    public void report(int jobId, JobStatus status, String reason) {
+        // Local jobs, such as hot-folder files, have negative IDs the backend does not know
+        if (!isEnabled() || jobId <= 0) {
+            return;
+        }
+        if (reason != null && reason.length() > MAX_REASON_CHARS) {
+            reason = reason.substring(0, MAX_REASON_CHARS);
+        }
+        JobStatusReport report = new JobStatusReport(jobId, status, reason, System.currentTimeMillis());
+        synchronized (this) {
+            pending.put(jobId, report);
+            scheduleAppend(report);
+            scheduleFlush(settingsService.getStatusReportIntervalMs());
+        }
+    }
+
+    /**
+     * Reports a failed job with the error's message as the reason.
+     */
+    public void reportFailed(int jobId, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        report(jobId, JobStatus.FAILED, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops sending. Anything not yet accepted stays in the outbox for the
+     * next start.
+     */
+    public void shutdown() {
+        sender.shutdownNow();
+    }
+
+    // =============================
+    // Sending
+    // =============================
+
+    private void scheduleFlush(long delayMs) {
+        if (flushScheduled || sender.isShutdown()) {
+            return;
+        }
+        flushScheduled = true;
+        sender.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<JobStatusReport> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty() || !isEnabled()) {
+                return;
+            }
+            batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH));
+            for (JobStatusReport report : pending.values()) {
+                if (batch.size() == MAX_BATCH) {
+                    break;
+                }
+                batch.add(report);
+            }
+        }
+
+        boolean sent = send(batch);
+
+        synchronized (this) {
+            long interval = settingsService.getStatusReportIntervalMs();
+            if (sent) {
+                // A job reported again while the batch was in flight keeps its newer report
+                for (JobStatusReport report : batch) {
+                    pending.remove(report.getJobId(), report);
+                }
+                backoffMs = 0;
+                rewriteOutbox();
+                if (!pending.isEmpty()) {
+                    scheduleFlush(pending.size() >= MAX_BATCH ? 0 : interval);
+                }
+            } else {
+                backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs == 0 ? interval * 2 : backoffMs * 2);
+                log.info("{} job status report(s) not delivered, retrying in {} ms.", pending.size(), backoffMs);
+                scheduleFlush(backoffMs);
+            }
+        }
+    }
+
+    private boolean send(List<JobStatusReport> batch) {
+        WebSocketClientService stomp = webSocket;
+        if ("stomp".equalsIgnoreCase(settingsService.getStatusReporting()) && stomp != null && stomp.isConnected()) {
+            try {
+                String body = objectMapper.writeValueAsString(Map.of(
+                        "stationId", settingsService.getStationId(),
+                        "reports", batch));
+                CompletableFuture<Void> receipt = stomp.sendWithReceipt(STATUS_DESTINATION, "application/json", body);
+                try {
+                    receipt.get(RECEIPT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Stop waiting for it; cancelling drops it from the connection's pending receipts
+                    receipt.cancel(false);
+                    log.warn("No receipt for {} job status report(s) within {} ms.", batch.size(), RECEIPT_TIMEOUT_MS);
+                    return false;
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                log.warn("STOMP status report failed: {}", e.getMessage());
+                return false;
+            }
+        }
+        return apiService.postStatusReports(settingsService.getStationId(), batch);
+    }
+
+    // =============================
+    // Outbox
+    // =============================
+
+    private void loadOutbox() {
+        if (!outboxFile.isFile()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(outboxFile.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JobStatusReport report = objectMapper.readValue(line, JobStatusReport.class);
+                    pending.put(report.getJobId(), report);
+                } catch (IOException e) {
+                    // A line cut short by a crash; the rest are still good
+                    log.warn("Skipping unreadable outbox entry: {}", e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read {}: {}", outboxFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a report for the outbox. Runs ahead of any flush scheduled
+     * after it, since the sender is a single thread.
+     */
+    private void scheduleAppend(JobStatusReport report) {
+        unwritten.add(report);
+        if (unwritten.size() > 1 || sender.isShutdown()) {
+            return;
+        }
+        try {
+            sender.execute(this::appendToOutbox);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the report is lost with the rest of this run
+        }
+    }
+
+    private void appendToOutbox() {
+        StringBuilder lines = new StringBuilder();
+        synchronized (this) {
+            for (JobStatusReport report : unwritten) {
+                // Skip reports already delivered or replaced while waiting for the disk
+                if (pending.get(report.getJobId()) != report) {
+                    continue;
+                }
+                try {
+                    lines.append(objectMapper.writeValueAsString(report)).append('\n');
+                } catch (IOException e) {
+                    log.warn("Could not write job {} status to the outbox: {}", report.getJobId(), e.getMessage());
+                }
+            }
+            unwritten.clear();
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+        try {
+            write(outboxFile.toPath(), lines, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("Could not append to {}: {}", outboxFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the outbox with the reports still pending, so it does not
+     * grow with every report ever made.
+     */
+    private void rewriteOutbox() {
+        try {
+            if (pending.isEmpty()) {
+                Files.deleteIfExists(outboxFile.toPath());
+                return;
+            }
+            StringBuilder lines = new StringBuilder();
+            for (JobStatusReport report : pending.values()) {
+                lines.append(objectMapper.writeValueAsString(report)).append('\n');
+            }
+            File temp = new File(outboxFile.getPath() + ".tmp");
+            write(temp.toPath(), lines, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            Files.move(temp.toPath(), outboxFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not rewrite {}: {}", outboxFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes text and waits until it is on disk, so a report survives a
+     * power cut once it has been written.
+     */
+    private static void write(Path path, CharSequence text, OpenOption... options) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,722 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Small HTTP server on the station that lets phones on the same network
+ * send a file straight to the print queue, without the round trip through
+ * the cloud backend and its base64 encoding. Keeps working while the
+ * internet is down.
+ *
+ * The station's QR code carries {@code http://<lan-address>:<port>/?t=<token>}.
+ * The token is good for one scan: opening the page uses it up, the station
+ * shows a fresh code, and the page gets its own upload token that is valid
+ * for 15 minutes and one successful upload. Uploads are multipart forms
+ * (the page's form) or a raw body with a {@code name} query parameter;
+ * either way the file is streamed to disk as it arrives, chunked or not,
+ * and queued on the agent printer. Uploads get {@link LocalJobIds}.
+ *
+ * The server listens only on the advertised LAN address, and an upload that
+ * sends nothing for {@value #UPLOAD_IDLE_TIMEOUT_MS} ms is dropped, so a
+ * stalled phone does not hold a worker.
+ *
+ * Next to each queued spool file a {@code .json} ticket records its print
+ * settings. Spool files still on disk at start were accepted but not
+ * printed (queued, deferred or printing when the app stopped) and are
+ * submitted again from their tickets; ones without a ticket were still
+ * arriving and are deleted.
+ */
+public class LanUploadService {
+
+    private static final Logger log = Log.get("LanUpload");
+
+    private static final long PAGE_TOKEN_TTL_MS = 15 * 60_000L;
+    private static final int MAX_PAGE_TOKENS = 256;
+    private static final int MAX_FIELD_BYTES = 256;
+    private static final int COPY_BUFFER = 64 * 1024;
+    private static final int WORKER_THREADS = 4;
+    private static final long UPLOAD_IDLE_TIMEOUT_MS = 30_000;
+    private static final long IDLE_CHECK_MS = 5_000;
+    private static final String SPOOL_PREFIX = "lan-";
+    private static final String TICKET_SUFFIX = ".json";
+
+    private final SettingsService settingsService;
+    private final PrintScheduler printScheduler;
+    private final SecureRandom random = new SecureRandom();
+    // Upload token -> expiry time
+    private final Map<String, Long> pageTokens = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> scanUrlListeners = new CopyOnWriteArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lan-upload-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    // Spool files from before a restart, submitted as the queue has room;
+    // guarded by itself
+    private final Deque<File> recovered = new ArrayDeque<>();
+    private boolean recoveryDone;
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile String baseUrl;
+    private volatile String scanToken;
+    private boolean listening;
+
+    public LanUploadService(SettingsService settingsService, PrintScheduler printScheduler) {
+        this.settingsService = settingsService;
+        this.printScheduler = printScheduler;
+    }
+
+    /**
+     * Starts the server if "lanUpload" is on, and follows later changes to
+     * the LAN upload settings.
+     */
+    public synchronized void start() {
+        if (!recoveryDone) {
+            recoveryDone = true;
+            recoverSpool();
+        }
+        if (!listening) {
+            listening = true;
+            settingsService.addListener(changedKeys -> {
+                if (changedKeys.contains("lanUpload") || changedKeys.contains("lanUploadPort")
+                        || changedKeys.contains("lanUploadHost")) {
+                    restart();
+                }
+            });
+        }
+        restart();
+    }
+
+    public synchronized void stop() {
+        listening = false;
+        stopServer();
+    }
+
+    /**
+     * The URL the station's QR code should show, or null while the server
+     * is not running.
+     */
+    public String getScanUrl() {
+        String base = baseUrl;
+        return base != null ? base + "/?t=" + scanToken : null;
+    }
+
+    /**
+     * Called with the new scan URL whenever the token is used up or the
+     * server starts or stops (null), on a server or settings thread.
+     */
+    public void addScanUrlListener(Consumer<String> listener) {
+        scanUrlListeners.add(listener);
+    }
+
+    private synchronized void restart() {
+        stopServer();
+        if (!listening || !settingsService.isLanUploadEnabled()) {
+            notifyScanUrl();
+            return;
+        }
+        int port = settingsService.getLanUploadPort();
+        String host = settingsService.getLanUploadHost();
+        if (host == null) {
+            host = detectLanAddress();
+        }
+        try {
+            // Only on the address phones are sent to, not on every interface of the station
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(host), port), 32);
+        } catch (IOException e) {
+            log.warn("Cannot accept LAN uploads on {} port {}: {}", host, port, e.getMessage());
+            notifyScanUrl();
+            return;
+        }
+        executor = Executors.newFixedThreadPool(WORKER_THREADS, r -> {
+            Thread t = new Thread(r, "lan-upload");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handlePage);
+        server.createContext("/upload", this::handleUpload);
+        server.start();
+
+        baseUrl = "http://" + host + ":" + server.getAddress().getPort();
+        scanToken = newToken();
+        log.info("Accepting uploads at {}", baseUrl);
+        notifyScanUrl();
+    }
+
+    private void stopServer() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+            baseUrl = null;
+            pageTokens.clear();
+        }
+    }
+
+    private void notifyScanUrl() {
+        String url = getScanUrl();
+        for (Consumer<String> listener : scanUrlListeners) {
+            listener.accept(url);
+        }
+    }
+
+    /**
+     * Uses up the scan token if {@code token} is it, and shows a new one.
+     */
+    private boolean useScanToken(String token) {
+        synchronized (this) {
+            if (token == null || !token.equals(scanToken)) {
+                return false;
+            }
+            scanToken = newToken();
+        }
+        notifyScanUrl();
+        return true;
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // =============================
+    // Handlers
+    // =============================
+
+    private void handlePage(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().equals("/")) {
+                respond(exchange, 404, "Not found.");
+                return;
+            }
+            if (!useScanToken(queryParameters(exchange).get("t"))) {
+                respond(exchange, 403, "This code has already been used. Scan the code on the station again.");
+                return;
+            }
+            long now = System.currentTimeMillis();
+            pageTokens.values().removeIf(expiry -> expiry < now);
+            if (pageTokens.size() >= MAX_PAGE_TOKENS) {
+                respond(exchange, 503, "Too many open upload pages. Try again in a few minutes.");
+                return;
+            }
+            String pageToken = newToken();
+            pageTokens.put(pageToken, now + PAGE_TOKEN_TTL_MS);
+            send(exchange, 200, "text/html; charset=utf-8", uploadPage(pageToken));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleUpload(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                respond(exchange, 405, "Use POST to upload.");
+                return;
+            }
+            String token = queryParameters(exchange).get("t");
+            Long expiry = token != null ? pageTokens.remove(token) : null;
+            if (expiry == null || expiry < System.currentTimeMillis()) {
+                respond(exchange, 403, "This upload page has expired. Scan the code on the station again.");
+                return;
+            }
+            Queued queued = null;
+            try {
+                if (ResourceGovernor.get().pressure() == ResourceGovernor.Pressure.CRITICAL) {
+                    // Refused before the body is read
+                    throw new UploadRejected(503,
+                            "The station is short of memory or disk space. Try again in a minute.");
+                }
+                queued = receiveAndQueue(exchange);
+            } catch (UploadRejected e) {
+                respond(exchange, e.status, e.getMessage());
+            } catch (IOException e) {
+                log.warn("Upload from {} failed: {}", exchange.getRemoteAddress(), e.getMessage());
+                respond(exchange, 400, "The upload did not arrive completely. Please try again.");
+            } finally {
+                if (queued == null) {
+                    // Let the same page try again
+                    pageTokens.put(token, expiry);
+                }
+            }
+            if (queued != null) {
+                confirm(exchange, queued);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Streams the upload to disk and queues it.
+     */
+    private Queued receiveAndQueue(HttpExchange exchange) throws IOException {
+        Map<String, String> fields = queryParameters(exchange);
+        String boundary = MultipartReader.boundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+        String fileName = null;
+        File spool = null;
+        IdleGuard body = new IdleGuard(exchange.getRequestBody());
+        ScheduledFuture<?> check = watchdog.scheduleWithFixedDelay(body::check, IDLE_CHECK_MS, IDLE_CHECK_MS,
+                TimeUnit.MILLISECONDS);
+        try {
+            if (boundary != null) {
+                MultipartReader reader = new MultipartReader(body, boundary);
+                MultipartReader.Part part;
+                while ((part = reader.next()) != null) {
+                    if (part.fileName != null && !part.fileName.isEmpty()) {
+                        if (spool != null) {
+                            throw new UploadRejected(400, "Send one file per upload.");
+                        }
+                        fileName = baseName(part.fileName);
+                        spool = spool(part.body, fileName);
+                    } else if (part.name != null) {
+                        fields.put(part.name, part.text(MAX_FIELD_BYTES));
+                    }
+                }
+            } else {
+                String name = fields.get("name");
+                fileName = baseName(name != null ? name : exchange.getRequestHeaders().getFirst("X-File-Name"));
+                spool = spool(body, fileName);
+            }
+            disarm(body, check);
+            if (spool == null) {
+                throw new UploadRejected(400, "No file was uploaded.");
+            }
+            return queue(exchange, spool, fileName, fields);
+        } catch (IOException | RuntimeException e) {
+            if (spool != null) {
+                discard(spool);
+            }
+            if (body.expired()) {
+                throw new IOException("nothing arrived for " + UPLOAD_IDLE_TIMEOUT_MS / 1000 + " s", e);
+            }
+            throw e;
+        } finally {
+            disarm(body, check);
+        }
+    }
+
+    /**
+     * Stops watching an upload and clears an interrupt the watchdog may
+     * have left on this pooled worker.
+     */
+    private static void disarm(IdleGuard body, ScheduledFuture<?> check) {
+        check.cancel(false);
+        body.disarm();
+        Thread.interrupted();
+    }
+
+    private File spool(InputStream body, String fileName) throws IOException {
+        if (fileName == null || !HotFolderService.isPrintable(fileName)) {
+            throw new UploadRejected(415, "Only PDF files and images can be printed.");
+        }
+        String extension = fileName.substring(fileName.lastIndexOf('.')).toLowerCase(Locale.ROOT);
+        File spool = File.createTempFile(SPOOL_PREFIX, extension, AppPaths.resolve("uploads/"));
+        long maxBytes = settingsService.getLanUploadMaxBytes();
+        long total = 0;
+        try (OutputStream out = new FileOutputStream(spool)) {
+            byte[] buffer = new byte[COPY_BUFFER];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                total += read;
+                if (total > maxBytes) {
+                    throw new UploadRejected(413, "The file is larger than " + maxBytes / (1024 * 1024) + " MB.");
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            deleteQuietly(spool);
+            throw e;
+        }
+        return spool;
+    }
+
+    private Queued queue(HttpExchange exchange, File spool, String fileName, Map<String, String> fields)
+            throws IOException {
+        String printer = printer();
+        if (printer == null) {
+            throw new UploadRejected(503, "The station has no printer set up.");
+        }
+        PrintConfig config = PrintConfig.forJob(LocalJobIds.next(), intField(fields, "copies", 1, 1, 99),
+                isChecked(fields, "color") ? 10 : 0, isChecked(fields, "duplex") ? 2 : 1,
+                intField(fields, "pagesPerSheet", 1, 1, 4));
+        config.setSelectedPrinter(printer);
+        config.setFileToPrint(spool);
+        config.setDocumentName(fileName);
+        objectMapper.writeValue(ticketOf(spool), config);
+        try {
+            submit(config);
+        } catch (RejectedExecutionException e) {
+            throw new UploadRejected(503, "The printer queue is full. Try again in a minute.");
+        }
+        log.info("Queued upload {} ({} KB) from {} on {}", fileName, spool.length() / 1024,
+                exchange.getRemoteAddress().getAddress().getHostAddress(), printer);
+        return new Queued(config.getJobId(), fileName, printer, printScheduler.queuedJobs(printer));
+    }
+
+    /**
+     * Hands an upload to the scheduler; its spool file and ticket are
+     * deleted once it has printed or failed.
+     */
+    private void submit(PrintConfig config) {
+        File spool = config.getFileToPrint();
+        String fileName = config.getDocumentName();
+        String printer = config.getSelectedPrinter();
+        printScheduler.submit(config).whenComplete((report, error) -> {
+            discard(spool);
+            if (error == null) {
+                log.info("Printed upload {} on {}: {}", fileName, printer, report.summary());
+            } else {
+                log.warn("Upload {} failed to print: {}", fileName, error.getMessage());
+            }
+            submitRecovered();
+        });
+    }
+
+    // =============================
+    // Recovery
+    // =============================
+
+    private void recoverSpool() {
+        File[] files = AppPaths.resolve("uploads/").listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest upload first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        int partial = 0;
+        synchronized (recovered) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SPOOL_PREFIX)) {
+                    continue;
+                }
+                if (name.endsWith(TICKET_SUFFIX)) {
+                    String path = file.getPath();
+                    File spool = new File(path.substring(0, path.length() - TICKET_SUFFIX.length()));
+                    if (!spool.isFile()) {
+                        deleteQuietly(file);
+                    }
+                } else if (ticketOf(file).isFile()) {
+                    recovered.add(file);
+                } else {
+                    deleteQuietly(file);
+                    partial++;
+                }
+            }
+            if (partial > 0) {
+                log.info("Deleted {} upload(s) that had not arrived completely before the restart.", partial);
+            }
+            if (!recovered.isEmpty()) {
+                log.info("{} upload(s) from before the restart will be printed again.", recovered.size());
+            }
+        }
+        submitRecovered();
+    }
+
+    /**
+     * Submits recovered uploads while the printer's queue takes them. Called
+     * again whenever an upload finishes.
+     */
+    private void submitRecovered() {
+        synchronized (recovered) {
+            File spool;
+            while ((spool = recovered.peek()) != null) {
+                PrintConfig config;
+                try {
+                    config = objectMapper.readValue(ticketOf(spool), PrintConfig.class);
+                } catch (IOException e) {
+                    log.warn("Dropping upload {} with an unreadable ticket: {}", spool.getName(), e.getMessage());
+                    recovered.poll();
+                    discard(spool);
+                    continue;
+                }
+                String printer = printer();
+                if (printer == null) {
+                    return;
+                }
+                config.setJobId(LocalJobIds.next());
+                config.setSelectedPrinter(printer);
+                config.setFileToPrint(spool);
+                try {
+                    submit(config);
+                } catch (RejectedExecutionException e) {
+                    // Queue full; the next finished upload tries again
+                    return;
+                }
+                recovered.poll();
+                log.info("Queued upload {} again on {}", config.getDocumentName(), printer);
+            }
+        }
+    }
+
+    private static File ticketOf(File spool) {
+        return new File(spool.getPath() + TICKET_SUFFIX);
+    }
+
+    /**
+     * Deletes a spool file and its ticket.
+     */
+    private static void discard(File spool) {
+        deleteQuietly(ticketOf(spool));
+        deleteQuietly(spool);
+    }
+
+    private static void confirm(HttpExchange exchange, Queued queued) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        if (accept != null && accept.contains("application/json") && !accept.contains("text/html")) {
+            send(exchange, 200, "application/json", "{\"jobId\":" + queued.jobId + ",\"printer\":\""
+                    + jsonEscape(queued.printer) + "\",\"queued\":" + queued.ahead + "}");
+        } else {
+            respond(exchange, 200, "Sent " + queued.fileName + " to " + queued.printer + ". Jobs in its queue: "
+                    + queued.ahead + ".");
+        }
+    }
+
+    private String printer() {
+        String configured = settingsService.getAgentPrinter();
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        PrintService defaultService = PrintServiceLookup.lookupDefaultPrintService();
+        return defaultService != null ? defaultService.getName() : null;
+    }
+
+    // =============================
+    // HTTP Helpers
+    // =============================
+
+    private static String uploadPage(String pageToken) {
+        return "<!DOCTYPE html><html><head><meta charset=\"utf-8\">"
+                + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">"
+                + "<title>Elite Print</title><style>"
+                + "body{font-family:sans-serif;margin:24px;color:#1E293B}label{display:block;margin:12px 0}"
+                + "button{margin-top:16px;padding:12px 24px;font-size:16px}</style></head><body>"
+                + "<h2>Print on this station</h2>"
+                + "<form method=\"post\" enctype=\"multipart/form-data\" action=\"/upload?t=" + pageToken + "\">"
+                + "<label>Copies <input type=\"number\" name=\"copies\" value=\"1\" min=\"1\" max=\"99\"></label>"
+                + "<label><input type=\"checkbox\" name=\"color\"> Colour</label>"
+                + "<label><input type=\"checkbox\" name=\"duplex\"> Both sides</label>"
+                + "<label>Pages per sheet <select name=\"pagesPerSheet\"><option>1</option><option>2</option>"
+                + "<option>4</option></select></label>"
+                + "<label><input type=\"file\" name=\"file\" accept=\".pdf,image/*\" required></label>"
+                + "<button type=\"submit\">Print</button></form></body></html>";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/html; charset=utf-8",
+                "<!DOCTYPE html><html><head><meta charset=\"utf-8\">"
+                        + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">"
+                        + "<title>Elite Print</title></head><body style=\"font-family:sans-serif;margin:24px\">"
+                        + "<p>" + htmlEscape(message) + "</p></body></html>");
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return new HashMap<>();
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            try {
+                parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                // Malformed escape; ignore the parameter
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * File name without any directories; some browsers send the full
+     * client-side path.
+     */
+    private static String baseName(String fileName) {
+        return fileName != null
+                ? fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1)
+                : null;
+    }
+
+    private static int intField(Map<String, String> fields, String name, int defaultValue, int min, int max) {
+        try {
+            String value = fields.get(name);
+            return value != null ? Math.max(min, Math.min(max, Integer.parseInt(value.trim()))) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static boolean isChecked(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        return value != null && (value.equalsIgnoreCase("on") || value.equalsIgnoreCase("true") || value.equals("1"));
+    }
+
+    private static String htmlEscape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String jsonEscape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * First site-local IPv4 address of an interface that is up, which is
+     * what a phone on the same Wi-Fi can reach.
+     */
+    private static String detectLanAddress() {
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback() || networkInterface.isVirtual()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (IOException e) {
+            log.warn("Cannot determine the LAN address: {}", e.getMessage());
+            return "localhost";
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * An upload that made it into the print queue.
+     */
+    private static class Queued {
+        final int jobId;
+        final String fileName;
+        final String printer;
+        final int ahead;
+
+        Queued(int jobId, String fileName, String printer, int ahead) {
+            this.jobId = jobId;
+            this.fileName = fileName;
+            this.printer = printer;
+            this.ahead = ahead;
+        }
+    }
+
+    /**
+     * Request body that notices when the client stops sending. The worker
+     * reads from a blocking socket channel, so interrupting it closes the
+     * connection and ends the read.
+     */
+    private static class IdleGuard extends FilterInputStream {
+        private final Thread reader = Thread.currentThread();
+        private volatile long lastRead = System.currentTimeMillis();
+        private boolean armed = true;
+        private boolean expired;
+
+        IdleGuard(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            lastRead = System.currentTimeMillis();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            lastRead = System.currentTimeMillis();
+            return read;
+        }
+
+        synchronized void check() {
+            if (armed && System.currentTimeMillis() - lastRead > UPLOAD_IDLE_TIMEOUT_MS) {
+                armed = false;
+                expired = true;
+                reader.interrupt();
+            }
+        }
+
+        synchronized void disarm() {
+            armed = false;
+        }
+
+        synchronized boolean expired() {
+            return expired;
+        }
+    }
+
+    /**
+     * An upload turned away with a specific HTTP status.
+     */
+    private static class UploadRejected extends IOException {
+        final int status;
+
+        UploadRejected(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.printapp.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IDs for jobs that start on this station rather than at the backend, such
+ * as hot-folder files and LAN uploads. They are negative, so they never
+ * collide with backend job IDs and are never reported to the backend.
+ */
+public final class LocalJobIds {
+
+    private static final AtomicInteger LAST = new AtomicInteger();
+
+    private LocalJobIds() {
+    }
+
+    public static int next() {
+        return LAST.decrementAndGet();
+    }
+}
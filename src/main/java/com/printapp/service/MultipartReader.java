@@ -0,0 +1,259 @@
+package com.printapp.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Reads a multipart/form-data body part by part without holding any part in
+ * memory, so an upload can be streamed straight to disk.
+ *
+ * Each part's content is an {@link InputStream} that ends at the next
+ * boundary; calling {@link #next()} skips whatever of it was not read.
+ */
+final class MultipartReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LINE = 8192;
+
+    /**
+     * One part: its form field name, the file name if it is a file, and
+     * its content.
+     */
+    static final class Part {
+        final String name;
+        final String fileName;
+        final String contentType;
+        final InputStream body;
+
+        Part(String name, String fileName, String contentType, InputStream body) {
+            this.name = name;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        /**
+         * The content as text, for small form fields.
+         */
+        String text(int maxBytes) throws IOException {
+            byte[] bytes = body.readNBytes(maxBytes + 1);
+            if (bytes.length > maxBytes) {
+                throw new IOException("Form field " + name + " is too long");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean finished;
+    private PartStream current;
+
+    MultipartReader(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        // The first boundary has no CRLF before it; supply one so every
+        // boundary looks the same
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * The boundary parameter of a multipart Content-Type, or null.
+     */
+    static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String value = trimmed.substring(9);
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves to the next part, or returns null after the closing boundary.
+     *
+     * @throws IOException if the body is not well-formed multipart
+     */
+    Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // Skip the rest of the current part, or the preamble
+        PartStream skipped = current != null ? current : new PartStream();
+        while (skipped.skip(BUFFER_SIZE) > 0) {
+            // Discarding
+        }
+        current = null;
+
+        fill(2);
+        if (limit - pos >= 2 && buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        // Rest of the boundary line: optional whitespace, then CRLF
+        readLine();
+
+        String name = null;
+        String fileName = null;
+        String contentType = null;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String header = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (header.equals("content-disposition")) {
+                name = dispositionParameter(value, "name");
+                fileName = dispositionParameter(value, "filename");
+            } else if (header.equals("content-type")) {
+                contentType = value;
+            }
+        }
+        current = new PartStream();
+        return new Part(name, fileName, contentType, current);
+    }
+
+    private static String dispositionParameter(String disposition, String parameter) {
+        for (String item : disposition.split(";")) {
+            String trimmed = item.trim();
+            int equals = trimmed.indexOf('=');
+            if (equals < 0 || !trimmed.substring(0, equals).trim().equalsIgnoreCase(parameter)) {
+                continue;
+            }
+            String value = trimmed.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * Makes at least {@code wanted} bytes available unless the stream ends
+     * first.
+     */
+    private void fill(int wanted) throws IOException {
+        if (limit - pos >= wanted || eof) {
+            return;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < wanted && !eof) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        while (true) {
+            fill(1);
+            if (pos >= limit) {
+                throw new IOException("Upload ended inside a part header");
+            }
+            byte b = buffer[pos++];
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int end = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                // Browsers send file names as UTF-8
+                return new String(bytes, 0, end, StandardCharsets.UTF_8);
+            }
+            if (line.size() >= MAX_HEADER_LINE) {
+                throw new IOException("Part header line too long");
+            }
+            line.write(b);
+        }
+    }
+
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        outer:
+        for (int i = pos; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Content of one part, ending where the next boundary starts.
+     */
+    private final class PartStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            fill(delimiter.length);
+            int found = indexOfDelimiter();
+            if (found == pos) {
+                pos += delimiter.length;
+                done = true;
+                return -1;
+            }
+            int available;
+            if (found >= 0) {
+                available = found - pos;
+            } else if (eof) {
+                throw new IOException("Upload ended before the closing boundary");
+            } else {
+                // Hold back what could be the start of a boundary
+                available = limit - pos - delimiter.length + 1;
+            }
+            int count = Math.min(length, available);
+            if (target != null) {
+                System.arraycopy(buffer, pos, target, offset, count);
+            }
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // read() without a target only moves past the bytes
+            return Math.max(read(null, 0, (int) Math.min(n, BUFFER_SIZE)), 0);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A daily time window such as "19:00-07:00", which may run past midnight.
+ */
+final class OffPeakWindow {
+
+    private static final Logger log = Log.get("PrintScheduler");
+
+    private final LocalTime start;
+    private final LocalTime end;
+
+    private OffPeakWindow(LocalTime start, LocalTime end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses "HH:mm-HH:mm" entries, skipping ones that do not parse.
+     */
+    static List<OffPeakWindow> parse(List<String> specs) {
+        List<OffPeakWindow> windows = new ArrayList<>();
+        for (String spec : specs) {
+            if (spec == null) {
+                continue;
+            }
+            int dash = spec.indexOf('-');
+            try {
+                if (dash < 0) {
+                    throw new DateTimeParseException("Expected HH:mm-HH:mm", spec, 0);
+                }
+                windows.add(new OffPeakWindow(LocalTime.parse(spec.substring(0, dash).trim()),
+                        LocalTime.parse(spec.substring(dash + 1).trim())));
+            } catch (DateTimeParseException e) {
+                log.warn("Ignoring off-peak window \"{}\": {}", spec, e.getMessage());
+            }
+        }
+        return windows;
+    }
+
+    static boolean anyContains(List<OffPeakWindow> windows, LocalTime time) {
+        for (OffPeakWindow window : windows) {
+            if (window.contains(time)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a window opens within {@code lead} of {@code time}.
+     */
+    static boolean anyStartsWithin(List<OffPeakWindow> windows, LocalTime time, Duration lead) {
+        for (OffPeakWindow window : windows) {
+            long untilStart = Duration.between(time, window.start).toMinutes();
+            if (untilStart < 0) {
+                untilStart += 24 * 60;
+            }
+            if (untilStart <= lead.toMinutes()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean contains(LocalTime time) {
+        if (start.equals(end)) {
+            // All day
+            return true;
+        }
+        if (start.isBefore(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        return !time.isBefore(start) || time.isBefore(end);
+    }
+}
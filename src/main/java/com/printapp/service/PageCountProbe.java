@@ -0,0 +1,782 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Counts pages without rendering or fully loading a document.
+ *
+ * For PDFs only the objects that lead to the page count are read: the
+ * trailer named by {@code startxref}, the catalogue ({@code /Root}) and the
+ * root page tree node, whose {@code /Count} is the answer. Cross-reference
+ * sections are followed newest first through {@code /Prev}, so incremental
+ * updates count as the viewer would, and compressed cross-reference and
+ * object streams are inflated on the fly. Everything goes through positioned
+ * channel reads that are released when the probe returns; no mapping is left
+ * holding the file open. Only a file whose cross-reference data is damaged
+ * falls back to a PDFBox load backed by a temp file.
+ */
+public class PageCountProbe {
+
+    private static final Logger log = Log.get("PageCountProbe");
+
+    private static final int TAIL_BYTES = 2048;
+    // Guards against /Prev loops and runaway files
+    private static final int MAX_SECTIONS = 256;
+    private static final int MAX_STREAM_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Returns the number of pages (frames for multi-page images such as
+     * TIFF), or 1 if the file cannot be probed (so an unreadable job is never
+     * treated as free).
+     */
+    public int countPages(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.matches(".*\\.(tif|tiff)$")) {
+            return ImagePrintable.countFrames(file);
+        }
+        if (!name.endsWith(".pdf")) {
+            return 1;
+        }
+        try {
+            int count = pdfPageCount(file);
+            if (count > 0) {
+                return count;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Cross-reference data of {} unreadable: {}", file.getName(), e.getMessage());
+        }
+        try (PDDocument document = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly())) {
+            return Math.max(1, document.getNumberOfPages());
+        } catch (IOException e) {
+            log.warn("Cannot count pages of {}: {}", file.getName(), e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Page count from the catalogue, or -1 if the trailer has no catalogue.
+     */
+    int pdfPageCount(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new PdfStructure(new FileSource(channel)).pageCount();
+        }
+    }
+
+    // =============================
+    // Byte Sources
+    // =============================
+    private interface Source {
+        /**
+         * The unsigned byte at {@code pos}, or -1 past the end.
+         */
+        int at(long pos) throws IOException;
+
+        default byte[] read(long pos, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                int b = at(pos + i);
+                if (b < 0) {
+                    throw new IOException("Unexpected end of data");
+                }
+                bytes[i] = (byte) b;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Positioned reads through a small window, so scanning a token costs no
+     * system call per byte.
+     */
+    private static final class FileSource implements Source {
+        private final FileChannel channel;
+        private final long length;
+        private final ByteBuffer window = ByteBuffer.allocate(8192);
+        private long windowStart = -1;
+        private int windowLength;
+
+        FileSource(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+        }
+
+        @Override
+        public int at(long pos) throws IOException {
+            if (pos < 0 || pos >= length) {
+                return -1;
+            }
+            if (windowStart < 0 || pos < windowStart || pos >= windowStart + windowLength) {
+                window.clear();
+                while (window.hasRemaining() && channel.read(window, pos + window.position()) > 0) {
+                    // keep filling
+                }
+                windowStart = pos;
+                windowLength = window.position();
+            }
+            return window.get((int) (pos - windowStart)) & 0xFF;
+        }
+
+        @Override
+        public byte[] read(long pos, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, pos + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    private static final class ByteSource implements Source {
+        private final byte[] bytes;
+
+        ByteSource(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int at(long pos) {
+            return pos >= 0 && pos < bytes.length ? bytes[(int) pos] & 0xFF : -1;
+        }
+    }
+
+    // =============================
+    // Object Parser
+    // =============================
+    private static final class Ref {
+        final int number;
+
+        Ref(int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Reads just enough PDF syntax for dictionaries, arrays, names, numbers
+     * and references. Strings are skipped and come back empty.
+     */
+    private static final class Parser {
+        private final Source source;
+        long pos;
+        private int depth;
+
+        Parser(Source source, long pos) {
+            this.source = source;
+            this.pos = pos;
+        }
+
+        void skipSpace() throws IOException {
+            while (true) {
+                int c = source.at(pos);
+                if (isWhitespace(c)) {
+                    pos++;
+                } else if (c == '%') {
+                    while (c >= 0 && c != '\n' && c != '\r') {
+                        c = source.at(++pos);
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        String token() throws IOException {
+            skipSpace();
+            StringBuilder token = new StringBuilder();
+            int c;
+            while ((c = source.at(pos)) >= 0 && !isWhitespace(c) && !isDelimiter(c)) {
+                token.append((char) c);
+                pos++;
+            }
+            return token.toString();
+        }
+
+        long integer() throws IOException {
+            String token = token();
+            try {
+                return Long.parseLong(token);
+            } catch (NumberFormatException e) {
+                throw new IOException("Expected a number at " + pos + ", found \"" + token + "\"");
+            }
+        }
+
+        /**
+         * Skips "n g obj" at the current position.
+         */
+        void objectHeader() throws IOException {
+            integer();
+            integer();
+            if (!"obj".equals(token())) {
+                throw new IOException("No object at " + pos);
+            }
+        }
+
+        Object value() throws IOException {
+            skipSpace();
+            int c = source.at(pos);
+            if (c < 0) {
+                throw new IOException("Unexpected end of data");
+            }
+            if (++depth > MAX_DEPTH) {
+                throw new IOException("Objects nested too deeply");
+            }
+            try {
+                if (c == '/') {
+                    pos++;
+                    return "/" + token();
+                }
+                if (c == '<' && source.at(pos + 1) == '<') {
+                    return dictionary();
+                }
+                if (c == '<') {
+                    while ((c = source.at(++pos)) >= 0 && c != '>') {
+                        // hex string
+                    }
+                    pos++;
+                    return "";
+                }
+                if (c == '(') {
+                    skipLiteralString();
+                    return "";
+                }
+                if (c == '[') {
+                    pos++;
+                    List<Object> array = new ArrayList<>();
+                    while (true) {
+                        skipSpace();
+                        if (source.at(pos) == ']') {
+                            pos++;
+                            return array;
+                        }
+                        array.add(value());
+                    }
+                }
+                if ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.') {
+                    return number();
+                }
+                String keyword = token();
+                switch (keyword) {
+                    case "true":
+                        return Boolean.TRUE;
+                    case "false":
+                        return Boolean.FALSE;
+                    case "null":
+                        return null;
+                    default:
+                        throw new IOException("Unexpected \"" + keyword + "\" at " + pos);
+                }
+            } finally {
+                depth--;
+            }
+        }
+
+        private Map<String, Object> dictionary() throws IOException {
+            pos += 2;
+            Map<String, Object> dictionary = new HashMap<>();
+            while (true) {
+                skipSpace();
+                if (source.at(pos) == '>' && source.at(pos + 1) == '>') {
+                    pos += 2;
+                    return dictionary;
+                }
+                Object key = value();
+                if (!(key instanceof String) || !((String) key).startsWith("/")) {
+                    throw new IOException("Dictionary key expected at " + pos);
+                }
+                dictionary.put((String) key, value());
+            }
+        }
+
+        private Object number() throws IOException {
+            String token = token();
+            try {
+                if (token.indexOf('.') >= 0) {
+                    return Double.parseDouble(token);
+                }
+                long value = Long.parseLong(token);
+                // "n g R" is a reference
+                long afterNumber = pos;
+                skipSpace();
+                int c = source.at(pos);
+                if (c >= '0' && c <= '9') {
+                    token();
+                    skipSpace();
+                    int next = source.at(pos + 1);
+                    if (source.at(pos) == 'R' && (next < 0 || isWhitespace(next) || isDelimiter(next))) {
+                        pos++;
+                        return new Ref((int) value);
+                    }
+                }
+                pos = afterNumber;
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad number \"" + token + "\" at " + pos);
+            }
+        }
+
+        private void skipLiteralString() throws IOException {
+            int nesting = 0;
+            int c;
+            while ((c = source.at(pos++)) >= 0) {
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '(') {
+                    nesting++;
+                } else if (c == ')' && --nesting == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Moves past the "stream" keyword and its end of line to the data.
+         */
+        void streamStart() throws IOException {
+            if (!"stream".equals(token())) {
+                throw new IOException("No stream at " + pos);
+            }
+            if (source.at(pos) == '\r') {
+                pos++;
+            }
+            if (source.at(pos) == '\n') {
+                pos++;
+            }
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == 0 || c == 9 || c == 10 || c == 12 || c == 13 || c == 32;
+        }
+
+        private static boolean isDelimiter(int c) {
+            return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']' || c == '{' || c == '}'
+                    || c == '/' || c == '%';
+        }
+    }
+
+    // =============================
+    // Cross-Reference Sections
+    // =============================
+    private interface Section {
+        /**
+         * {type, field 2, field 3} as in a cross-reference stream (1 = at
+         * offset, 2 = in object stream), or null if this section does not
+         * define the object.
+         */
+        long[] lookup(int number) throws IOException;
+    }
+
+    /**
+     * A classic "xref" table. Entries are read on demand.
+     */
+    private static final class TableSection implements Section {
+        private final Source source;
+        private final List<long[]> subsections = new ArrayList<>();
+        Map<String, Object> trailer;
+
+        TableSection(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public long[] lookup(int number) throws IOException {
+            for (long[] subsection : subsections) {
+                long start = subsection[0];
+                if (number < start || number >= start + subsection[1]) {
+                    continue;
+                }
+                long entry = subsection[2] + (number - start) * subsection[3];
+                byte[] bytes = source.read(entry, 18);
+                String text = new String(bytes, StandardCharsets.US_ASCII);
+                if (text.charAt(17) != 'n') {
+                    return null;
+                }
+                return new long[] {1, Long.parseLong(text.substring(0, 10).trim()), 0};
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A compressed cross-reference stream, decoded in full.
+     */
+    private static final class StreamSection implements Section {
+        final Map<Integer, long[]> entries = new HashMap<>();
+        Map<String, Object> dictionary;
+
+        @Override
+        public long[] lookup(int number) {
+            long[] entry = entries.get(number);
+            return entry != null && entry[0] != 0 ? entry : null;
+        }
+    }
+
+    private static final class ObjectStream {
+        final ByteSource data;
+        final long first;
+        final int count;
+
+        ObjectStream(ByteSource data, long first, int count) {
+            this.data = data;
+            this.first = first;
+            this.count = count;
+        }
+    }
+
+    // =============================
+    // Document Structure
+    // =============================
+    private static final class PdfStructure {
+        private final FileSource file;
+        private final List<Section> sections = new ArrayList<>();
+        private final Map<Integer, ObjectStream> objectStreams = new HashMap<>();
+        private Map<String, Object> trailer;
+        private int resolving;
+
+        PdfStructure(FileSource file) throws IOException {
+            this.file = file;
+            readSections(startxref());
+        }
+
+        int pageCount() throws IOException {
+            if (trailer == null) {
+                return -1;
+            }
+            Map<String, Object> catalogue = dictionary(resolve(trailer.get("/Root")));
+            Map<String, Object> pages = dictionary(resolve(catalogue.get("/Pages")));
+            Object count = resolve(pages.get("/Count"));
+            if (!(count instanceof Number)) {
+                throw new IOException("Page tree has no /Count");
+            }
+            return Math.max(0, ((Number) count).intValue());
+        }
+
+        private long startxref() throws IOException {
+            long length = file.length;
+            int tail = (int) Math.min(length, TAIL_BYTES);
+            byte[] bytes = file.read(length - tail, tail);
+            String text = new String(bytes, StandardCharsets.ISO_8859_1);
+            int at = text.lastIndexOf("startxref");
+            if (at < 0) {
+                throw new IOException("No startxref");
+            }
+            return new Parser(new ByteSource(bytes), at + "startxref".length()).integer();
+        }
+
+        /**
+         * Collects sections newest first, so the first one that defines an
+         * object holds its current version.
+         */
+        private void readSections(long offset) throws IOException {
+            Set<Long> seen = new HashSet<>();
+            while (offset >= 0 && seen.add(offset) && sections.size() < MAX_SECTIONS) {
+                Parser parser = new Parser(file, offset);
+                parser.skipSpace();
+                Map<String, Object> dictionary;
+                if (file.at(parser.pos) == 'x') {
+                    TableSection table = readTable(parser);
+                    sections.add(table);
+                    dictionary = table.trailer;
+                    // Hybrid files list compressed objects in a stream beside the table
+                    Object hybrid = dictionary.get("/XRefStm");
+                    if (hybrid instanceof Number && seen.add(((Number) hybrid).longValue())) {
+                        sections.add(readStream(((Number) hybrid).longValue()));
+                    }
+                } else {
+                    StreamSection stream = readStream(offset);
+                    sections.add(stream);
+                    dictionary = stream.dictionary;
+                }
+                if (trailer == null && dictionary.containsKey("/Root")) {
+                    trailer = dictionary;
+                }
+                Object previous = dictionary.get("/Prev");
+                offset = previous instanceof Number ? ((Number) previous).longValue() : -1;
+            }
+        }
+
+        private TableSection readTable(Parser parser) throws IOException {
+            if (!"xref".equals(parser.token())) {
+                throw new IOException("No xref table at " + parser.pos);
+            }
+            TableSection table = new TableSection(file);
+            while (true) {
+                parser.skipSpace();
+                if (file.at(parser.pos) == 't') {
+                    if (!"trailer".equals(parser.token())) {
+                        throw new IOException("No trailer at " + parser.pos);
+                    }
+                    table.trailer = dictionary(parser.value());
+                    return table;
+                }
+                long start = parser.integer();
+                long count = parser.integer();
+                parser.skipSpace();
+                long entries = parser.pos;
+                // Entries are 20 bytes, but some writers end them with a
+                // single-byte end of line
+                int c18 = file.at(entries + 18);
+                int c19 = file.at(entries + 19);
+                int stride = count == 0 ? 20
+                        : (c18 == ' ' || c18 == '\r') && (c19 == '\n' || c19 == '\r') ? 20 : 19;
+                table.subsections.add(new long[] {start, count, entries, stride});
+                parser.pos = entries + count * stride;
+            }
+        }
+
+        private StreamSection readStream(long offset) throws IOException {
+            Parser parser = new Parser(file, offset);
+            parser.objectHeader();
+            Map<String, Object> dictionary = dictionary(parser.value());
+            if (!"/XRef".equals(dictionary.get("/Type"))) {
+                throw new IOException("No cross-reference stream at " + offset);
+            }
+            parser.streamStart();
+            byte[] data = decode(dictionary, file, parser.pos);
+
+            List<?> widths = (List<?>) dictionary.get("/W");
+            int[] w = new int[3];
+            for (int i = 0; i < 3; i++) {
+                w[i] = ((Number) widths.get(i)).intValue();
+            }
+            List<?> index = dictionary.get("/Index") instanceof List ? (List<?>) dictionary.get("/Index")
+                    : List.of(0L, dictionary.get("/Size"));
+
+            StreamSection section = new StreamSection();
+            section.dictionary = dictionary;
+            int at = 0;
+            int rowLength = w[0] + w[1] + w[2];
+            for (int i = 0; i + 1 < index.size(); i += 2) {
+                int first = ((Number) index.get(i)).intValue();
+                int count = ((Number) index.get(i + 1)).intValue();
+                for (int j = 0; j < count && at + rowLength <= data.length; j++) {
+                    long type = w[0] == 0 ? 1 : field(data, at, w[0]);
+                    long second = field(data, at + w[0], w[1]);
+                    long third = field(data, at + w[0] + w[1], w[2]);
+                    section.entries.putIfAbsent(first + j, new long[] {type, second, third});
+                    at += rowLength;
+                }
+            }
+            return section;
+        }
+
+        private Object resolve(Object value) throws IOException {
+            if (!(value instanceof Ref)) {
+                return value;
+            }
+            if (++resolving > MAX_DEPTH) {
+                throw new IOException("Reference chain too long");
+            }
+            try {
+                int number = ((Ref) value).number;
+                long[] entry = lookup(number);
+                if (entry == null) {
+                    throw new IOException("Object " + number + " not found");
+                }
+                if (entry[0] == 1) {
+                    Parser parser = new Parser(file, entry[1]);
+                    parser.objectHeader();
+                    return parser.value();
+                }
+                ObjectStream stream = objectStream((int) entry[1]);
+                Parser header = new Parser(stream.data, 0);
+                for (int i = 0; i < stream.count; i++) {
+                    long objectNumber = header.integer();
+                    long offset = header.integer();
+                    if (objectNumber == number) {
+                        return new Parser(stream.data, stream.first + offset).value();
+                    }
+                }
+                throw new IOException("Object " + number + " missing from its object stream");
+            } finally {
+                resolving--;
+            }
+        }
+
+        private long[] lookup(int number) throws IOException {
+            for (Section section : sections) {
+                long[] entry = section.lookup(number);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        private ObjectStream objectStream(int number) throws IOException {
+            ObjectStream stream = objectStreams.get(number);
+            if (stream != null) {
+                return stream;
+            }
+            long[] entry = lookup(number);
+            if (entry == null || entry[0] != 1) {
+                throw new IOException("Object stream " + number + " not found");
+            }
+            Parser parser = new Parser(file, entry[1]);
+            parser.objectHeader();
+            Map<String, Object> dictionary = dictionary(parser.value());
+            parser.streamStart();
+            long dataStart = parser.pos;
+            // Object streams may give their length indirectly
+            dictionary.put("/Length", resolve(dictionary.get("/Length")));
+            stream = new ObjectStream(new ByteSource(decode(dictionary, file, dataStart)),
+                    ((Number) dictionary.get("/First")).longValue(), ((Number) dictionary.get("/N")).intValue());
+            objectStreams.put(number, stream);
+            return stream;
+        }
+    }
+
+    // =============================
+    // Stream Decoding
+    // =============================
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> dictionary(Object value) throws IOException {
+        if (!(value instanceof Map)) {
+            throw new IOException("Dictionary expected");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static byte[] decode(Map<String, Object> dictionary, Source source, long dataStart) throws IOException {
+        Object lengthValue = dictionary.get("/Length");
+        if (!(lengthValue instanceof Number)) {
+            throw new IOException("Stream length unknown");
+        }
+        long length = ((Number) lengthValue).longValue();
+        if (length < 0 || length > MAX_STREAM_BYTES) {
+            throw new IOException("Stream too large: " + length);
+        }
+        byte[] raw = source.read(dataStart, (int) length);
+
+        Object filter = dictionary.get("/Filter");
+        if (filter instanceof List) {
+            List<?> filters = (List<?>) filter;
+            filter = filters.size() == 1 ? filters.get(0) : filters.isEmpty() ? null : "";
+        }
+        if (filter == null) {
+            return raw;
+        }
+        if (!"/FlateDecode".equals(filter)) {
+            throw new IOException("Unsupported filter " + filter);
+        }
+        byte[] inflated = inflate(raw);
+
+        Object parameters = dictionary.get("/DecodeParms");
+        if (parameters instanceof List) {
+            List<?> list = (List<?>) parameters;
+            parameters = list.isEmpty() ? null : list.get(0);
+        }
+        if (parameters instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) parameters;
+            int predictor = map.get("/Predictor") instanceof Number ? ((Number) map.get("/Predictor")).intValue() : 1;
+            int columns = map.get("/Columns") instanceof Number ? ((Number) map.get("/Columns")).intValue() : 1;
+            if (predictor >= 10) {
+                return unpredictPng(inflated, columns);
+            }
+            if (predictor != 1) {
+                throw new IOException("Unsupported predictor " + predictor);
+            }
+        }
+        return inflated;
+    }
+
+    private static byte[] inflate(byte[] raw) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(raw);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // Truncated streams are common; keep what was decoded
+                    break;
+                }
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_STREAM_BYTES) {
+                    throw new IOException("Decoded stream too large");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Bad compressed stream: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reverses PNG row filters for one byte per pixel, as cross-reference
+     * streams use them.
+     */
+    private static byte[] unpredictPng(byte[] data, int columns) {
+        int rowLength = columns + 1;
+        int rows = data.length / rowLength;
+        byte[] out = new byte[rows * columns];
+        for (int row = 0; row < rows; row++) {
+            int filter = data[row * rowLength] & 0xFF;
+            for (int i = 0; i < columns; i++) {
+                int raw = data[row * rowLength + 1 + i] & 0xFF;
+                int left = i > 0 ? out[row * columns + i - 1] & 0xFF : 0;
+                int up = row > 0 ? out[(row - 1) * columns + i] & 0xFF : 0;
+                int upLeft = row > 0 && i > 0 ? out[(row - 1) * columns + i - 1] & 0xFF : 0;
+                int value;
+                switch (filter) {
+                    case 1:
+                        value = raw + left;
+                        break;
+                    case 2:
+                        value = raw + up;
+                        break;
+                    case 3:
+                        value = raw + (left + up) / 2;
+                        break;
+                    case 4:
+                        value = raw + paeth(left, up, upLeft);
+                        break;
+                    default:
+                        value = raw;
+                        break;
+                }
+                out[row * columns + i] = (byte) value;
+            }
+        }
+        return out;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    private static long field(byte[] data, int at, int width) {
+        long value = 0;
+        for (int i = 0; i < width; i++) {
+            value = (value << 8) | (data[at + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,71 @@
+package com.printapp.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Paper;
+import java.awt.print.Printable;
+
+/**
+ * Renders the pages of a {@link Printable} into images, the way a printer
+ * driver would, for sinks that have no driver behind them.
+ */
+final class PageRasterizer {
+
+    /**
+     * Receives each rendered page. The image is reused for the next page.
+     */
+    interface PageHandler {
+        void page(int pageIndex, BufferedImage image) throws Exception;
+    }
+
+    // A4 with a quarter-inch unprintable margin, like most office printers
+    private static final double PAGE_WIDTH = 595.0;
+    private static final double PAGE_HEIGHT = 842.0;
+    private static final double MARGIN = 18.0;
+
+    private PageRasterizer() {
+    }
+
+    static PageFormat pageFormat() {
+        Paper paper = new Paper();
+        paper.setSize(PAGE_WIDTH, PAGE_HEIGHT);
+        paper.setImageableArea(MARGIN, MARGIN, PAGE_WIDTH - 2 * MARGIN, PAGE_HEIGHT - 2 * MARGIN);
+        PageFormat format = new PageFormat();
+        format.setPaper(paper);
+        return format;
+    }
+
+    /**
+     * Renders every page at {@code dpi} and returns how many there were.
+     */
+    static int render(Printable printable, int dpi, boolean mono, PageHandler handler) throws Exception {
+        PageFormat format = pageFormat();
+        double scale = dpi / 72.0;
+        BufferedImage image = new BufferedImage((int) Math.ceil(PAGE_WIDTH * scale),
+                (int) Math.ceil(PAGE_HEIGHT * scale),
+                mono ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+
+        int pageIndex = 0;
+        while (true) {
+            Graphics2D g = image.createGraphics();
+            int result;
+            try {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.scale(scale, scale);
+                result = printable.print(g, format, pageIndex);
+            } finally {
+                g.dispose();
+            }
+            if (result == Printable.NO_SUCH_PAGE) {
+                return pageIndex;
+            }
+            handler.page(pageIndex, image);
+            pageIndex++;
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.DeferredJob;
+import com.printapp.model.PreparedJob;
+import com.printapp.model.PrintConfig;
+import com.printapp.model.SpoolReport;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.JobTimeline;
+import com.printapp.trace.Span;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Queues print jobs per printer and sends the cheapest one first.
+ *
+ * Each printer has a bounded queue drained by its own worker thread; when
+ * the queue is full new submissions are rejected so work does not pile up
+ * on one device. The cost of a job is pages x copies, doubled for colour,
+ * with pages counted by {@link PageCountProbe}. Waiting lowers a job's
+ * effective cost over time, so a large job is only delayed, never starved.
+ *
+ * Bulk jobs, those flagged as such or costing at least
+ * {@link SettingsService#getBulkThresholdPages()}, do not enter a printer
+ * queue straight away. They wait in a deferred list, kept on disk, and are
+ * released in submission order during off-peak hours, or one at a time to
+ * a printer that has had no walk-up jobs for a while. The next bulk job is
+ * prepared shortly before it is likely to be released.
+ */
+public class PrintScheduler {
+
+    private static final Logger log = Log.get("PrintScheduler");
+
+    private static final int COLOR_WEIGHT = 2;
+
+    // Cost units forgiven per second of waiting: a 400-page job overtakes
+    // fresh one-page jobs after a little over a minute
+    private static final double AGING_UNITS_PER_SECOND = 5.0;
+
+    private static final String DEFERRED_FILE = "deferred-jobs.jsonl";
+    private static final long RELEASE_INTERVAL_MS = 5000;
+    private static final int MAX_DEFERRED_JOBS = 500;
+    // Bulk jobs are prepared this long before their off-peak window opens
+    private static final Duration PREPARE_LEAD = Duration.ofMinutes(10);
+    // Jobs restored after a restart are dropped if not submitted again by then
+    private static final long RESTORED_TTL_MS = 24L * 60 * 60 * 1000;
+    private static final int ESTIMATOR_THREADS = 2;
+
+    private final PrinterService printerService;
+    private final JobPreparationService jobPreparationService;
+    private final SettingsService settingsService;
+    private final PageCountProbe pageCountProbe = new PageCountProbe();
+    private final Map<String, PrinterQueue> queues = new ConcurrentHashMap<>();
+    private final List<IntConsumer> startListeners = new CopyOnWriteArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File deferredFile;
+    // In submission order; guarded by itself
+    private final List<Deferred> deferred = new ArrayList<>();
+    private final long startedAt = System.currentTimeMillis();
+    private final ScheduledExecutorService releaser;
+    // Counts pages off the caller's thread, which may be the FX thread
+    private final ExecutorService estimator;
+    private volatile JobLeaseService jobLeaseService;
+    private volatile boolean running = true;
+
+    public PrintScheduler(PrinterService printerService,
+            JobPreparationService jobPreparationService,
+            SettingsService settingsService) {
+        this(printerService, jobPreparationService, settingsService, AppPaths.resolve(DEFERRED_FILE));
+    }
+
+    public PrintScheduler(PrinterService printerService,
+            JobPreparationService jobPreparationService,
+            SettingsService settingsService,
+            File deferredFile) {
+        this.printerService = printerService;
+        this.jobPreparationService = jobPreparationService;
+        this.settingsService = settingsService;
+        this.deferredFile = deferredFile;
+        loadDeferred();
+        releaser = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulk-release");
+            t.setDaemon(true);
+            return t;
+        });
+        releaser.scheduleWithFixedDelay(this::releaseDeferred, RELEASE_INTERVAL_MS, RELEASE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        estimator = Executors.newFixedThreadPool(ESTIMATOR_THREADS, r -> {
+            Thread t = new Thread(r, "page-count");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues a job on its selected printer, or defers it if it is a bulk
+     * job. The returned future completes when the job has been spooled, on
+     * the printer's worker thread.
+     *
+     * A place in the printer's queue is reserved right away; the pages are
+     * counted on a background thread, after which the job takes that place
+     * or is deferred.
+     *
+     * @throws RejectedExecutionException if that printer's queue is full or
+     *         already holds the job. A full deferred list fails the future.
+     */
+    public CompletableFuture<SpoolReport> submit(PrintConfig config) {
+        if (!running) {
+            throw new RejectedExecutionException("Scheduler is shut down.");
+        }
+        PrinterQueue queue = queueFor(config);
+        queue.reserve(config.getJobId());
+        CompletableFuture<SpoolReport> result = new CompletableFuture<>();
+        try {
+            estimator.execute(() -> place(config, queue, result));
+        } catch (RejectedExecutionException e) {
+            queue.unreserve(config.getJobId());
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Second half of {@link #submit}: counts the pages, then queues or
+     * defers the job and relays its outcome to {@code result}.
+     */
+    private void place(PrintConfig config, PrinterQueue queue, CompletableFuture<SpoolReport> result) {
+        CompletableFuture<SpoolReport> placed = null;
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("Scheduler is shut down.");
+            }
+            long cost = estimateCost(config);
+            if (isBulk(config, cost)) {
+                placed = defer(config, cost);
+            }
+            if (placed != null) {
+                queue.unreserve(config.getJobId());
+            } else {
+                placed = enqueue(config, cost, false);
+            }
+        } catch (RuntimeException e) {
+            queue.unreserve(config.getJobId());
+            result.completeExceptionally(e);
+            return;
+        }
+        placed.whenComplete((report, error) -> {
+            if (error == null) {
+                result.complete(report);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    /**
+     * Lets deferred backend jobs give up their lease while they wait, so a
+     * peer station with spare time can take them, and claim it again when
+     * released. A job a peer took meanwhile fails with a
+     * {@link CancellationException} instead of printing.
+     */
+    public void setJobLeaseService(JobLeaseService jobLeaseService) {
+        this.jobLeaseService = jobLeaseService;
+    }
+
+    /**
+     * Called with the job ID when a job leaves its queue and starts printing,
+     * on the printer's worker thread.
+     */
+    public void addStartListener(IntConsumer listener) {
+        startListeners.add(listener);
+    }
+
+    /**
+     * Number of bulk jobs held back for a printer.
+     */
+    public int deferredJobs(String printerName) {
+        String key = printerKey(printerName);
+        int count = 0;
+        synchronized (deferred) {
+            for (Deferred held : deferred) {
+                if (!held.restored && printerKey(held.job.getConfig().getSelectedPrinter()).equals(key)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Whether a bulk job from before a restart is waiting to be submitted
+     * again, which keeps its place in the deferred list.
+     */
+    public boolean hasRestoredDeferral(int jobId) {
+        synchronized (deferred) {
+            for (Deferred held : deferred) {
+                if (held.restored && held.job.getConfig().getJobId() == jobId) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of jobs waiting or printing on a printer.
+     */
+    public int queuedJobs(String printerName) {
+        PrinterQueue queue = printerName != null ? queues.get(printerName.toLowerCase()) : null;
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Estimated cost of a job in page units: pages x copies x colour weight.
+     */
+    public long estimateCost(PrintConfig config) {
+        int pages = config.getFileToPrint() != null ? pageCountProbe.countPages(config.getFileToPrint()) : 1;
+        int copies = Math.max(1, config.getCopies());
+        int colour = "Color".equals(config.getColorMode()) ? COLOR_WEIGHT : 1;
+        return (long) pages * copies * colour;
+    }
+
+    public void shutdown() {
+        running = false;
+        // Deferred jobs stay on disk and are not failed; their sources submit
+        // them again after a restart
+        releaser.shutdownNow();
+        // Pending estimations still run and fail their jobs
+        estimator.shutdown();
+        for (PrinterQueue queue : queues.values()) {
+            queue.stop();
+        }
+    }
+
+    private CompletableFuture<SpoolReport> enqueue(PrintConfig config, long cost, boolean bulk) {
+        Ticket ticket = new Ticket(config, cost, bulk);
+        queueFor(config).offer(ticket);
+        return ticket.result;
+    }
+
+    private PrinterQueue queueFor(PrintConfig config) {
+        String printer = config.getSelectedPrinter() != null ? config.getSelectedPrinter() : "";
+        return queues.computeIfAbsent(printerKey(printer), k -> new PrinterQueue(printer));
+    }
+
+    private static String printerKey(String printerName) {
+        return printerName != null ? printerName.toLowerCase() : "";
+    }
+
+    private SpoolReport run(PrintConfig config) throws Exception {
+        try (PreparedJob prepared = jobPreparationService.take(config)) {
+            return printerService.print(config, prepared);
+        }
+    }
+
+    // =============================
+    // Bulk jobs
+    // =============================
+
+    private boolean isBulk(PrintConfig config, long cost) {
+        if (config.getBulk() != null) {
+            return config.getBulk();
+        }
+        int threshold = settingsService.getBulkThresholdPages();
+        return threshold > 0 && cost >= threshold;
+    }
+
+    /**
+     * Holds a bulk job back, or returns null if it may be queued right away
+     * because off-peak hours have started.
+     */
+    private CompletableFuture<SpoolReport> defer(PrintConfig config, long cost) {
+        int jobId = config.getJobId();
+        synchronized (deferred) {
+            for (Deferred held : deferred) {
+                if (held.job.getConfig().getJobId() != jobId || jobId <= 0) {
+                    continue;
+                }
+                if (!held.restored) {
+                    throw new RejectedExecutionException("Job " + jobId + " is already waiting for off-peak time.");
+                }
+                // Submitted again after a restart: keep its place
+                held.job.setConfig(config);
+                held.restored = false;
+                persistDeferred();
+                giveUpLease(jobId);
+                log.info("Job {} resumes its wait for off-peak time.", jobId);
+                return held.result;
+            }
+            if (OffPeakWindow.anyContains(OffPeakWindow.parse(settingsService.getOffPeakHours()), LocalTime.now())) {
+                return null;
+            }
+            if (deferred.size() >= MAX_DEFERRED_JOBS) {
+                throw new RejectedExecutionException("Too many bulk jobs are waiting for off-peak time ("
+                        + MAX_DEFERRED_JOBS + "). Try again later.");
+            }
+            Deferred held = new Deferred(new DeferredJob(config, cost, System.currentTimeMillis()), false);
+            deferred.add(held);
+            persistDeferred();
+            giveUpLease(jobId);
+            log.info("Job {} (cost {}) deferred as a bulk job for {}.", jobId, cost, config.getSelectedPrinter());
+            return held.result;
+        }
+    }
+
+    /**
+     * Moves bulk jobs into printer queues: as many as fit during off-peak
+     * hours, otherwise one at a time to a printer that is empty and has
+     * had no walk-up jobs for {@link SettingsService#getBulkIdleSeconds()}.
+     */
+    private void releaseDeferred() {
+        try {
+            long now = System.currentTimeMillis();
+            List<OffPeakWindow> windows = OffPeakWindow.parse(settingsService.getOffPeakHours());
+            LocalTime time = LocalTime.now();
+            boolean offPeak = OffPeakWindow.anyContains(windows, time);
+            boolean offPeakSoon = offPeak || OffPeakWindow.anyStartsWithin(windows, time, PREPARE_LEAD);
+            long quietMs = settingsService.getBulkIdleSeconds() * 1000L;
+            int capacity = settingsService.getPrinterQueueCapacity();
+
+            List<Deferred> released = new ArrayList<>();
+            synchronized (deferred) {
+                boolean changed = false;
+                Map<String, Integer> releasedPerPrinter = new HashMap<>();
+                Set<String> preparedPrinters = new HashSet<>();
+                Iterator<Deferred> it = deferred.iterator();
+                while (it.hasNext()) {
+                    Deferred held = it.next();
+                    if (held.restored) {
+                        if (now - held.job.getDeferredAt() > RESTORED_TTL_MS) {
+                            it.remove();
+                            changed = true;
+                        }
+                        continue;
+                    }
+                    String key = printerKey(held.job.getConfig().getSelectedPrinter());
+                    PrinterQueue queue = queues.get(key);
+                    int size = queue != null ? queue.size() : 0;
+                    long quietFor = queue != null ? queue.quietFor(now) : now - startedAt;
+                    int allowed = offPeak ? capacity - size : size == 0 && quietFor >= quietMs ? 1 : 0;
+                    int already = releasedPerPrinter.getOrDefault(key, 0);
+                    if (already < allowed) {
+                        releasedPerPrinter.put(key, already + 1);
+                        released.add(held);
+                        it.remove();
+                        changed = true;
+                    } else if (preparedPrinters.add(key) && !held.prepared
+                            && (offPeakSoon || size == 0 && quietFor >= quietMs / 2)) {
+                        // Next in line for this printer; parse it before its turn
+                        held.prepared = true;
+                        jobPreparationService.prepare(held.job.getConfig());
+                    }
+                }
+                if (changed) {
+                    persistDeferred();
+                }
+            }
+
+            for (Deferred held : released) {
+                release(held, offPeak);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Releasing bulk jobs failed: {}", e.getMessage());
+        }
+    }
+
+    private void release(Deferred held, boolean offPeak) {
+        DeferredJob job = held.job;
+        int jobId = job.getConfig().getJobId();
+        JobLeaseService leases = jobLeaseService;
+        if (leases != null && jobId > 0 && !leases.acquire(jobId)) {
+            log.info("Bulk job {} was taken by another station while it waited.", jobId);
+            jobPreparationService.invalidate(jobId);
+            held.result.completeExceptionally(
+                    new CancellationException("Job " + jobId + " was taken by another station."));
+            return;
+        }
+        try {
+            enqueue(job.getConfig(), job.getCost(), true).whenComplete((report, error) -> {
+                if (error != null) {
+                    held.result.completeExceptionally(error);
+                } else {
+                    held.result.complete(report);
+                }
+            });
+            log.info("Bulk job {} released to {} after {} s ({}).", job.getConfig().getJobId(),
+                    job.getConfig().getSelectedPrinter(), (System.currentTimeMillis() - job.getDeferredAt()) / 1000,
+                    offPeak ? "off-peak" : "printer idle");
+        } catch (RejectedExecutionException e) {
+            // Filled up meanwhile; try again on the next round
+            synchronized (deferred) {
+                deferred.add(0, held);
+                persistDeferred();
+            }
+            giveUpLease(jobId);
+        }
+    }
+
+    private void giveUpLease(int jobId) {
+        JobLeaseService leases = jobLeaseService;
+        if (leases != null && jobId > 0) {
+            leases.release(jobId);
+        }
+    }
+
+    private void loadDeferred() {
+        if (!deferredFile.isFile()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(deferredFile.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    deferred.add(new Deferred(objectMapper.readValue(line, DeferredJob.class), true));
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable deferred job: {}", e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read {}: {}", deferredFile, e.getMessage());
+        }
+        if (!deferred.isEmpty()) {
+            log.info("{} bulk job(s) from before the restart are waiting to be submitted again.", deferred.size());
+        }
+    }
+
+    /**
+     * Rewrites the deferred-jobs file. Jobs created on this station are not
+     * kept, since their local IDs do not survive a restart: hot folders put
+     * claimed files back and {@link LanUploadService} submits what is left in
+     * its spool directory again.
+     */
+    private void persistDeferred() {
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (Deferred held : deferred) {
+                if (held.job.getConfig().getJobId() > 0) {
+                    lines.append(objectMapper.writeValueAsString(held.job)).append('\n');
+                }
+            }
+            if (lines.length() == 0) {
+                Files.deleteIfExists(deferredFile.toPath());
+                return;
+            }
+            File temp = new File(deferredFile.getPath() + ".tmp");
+            Files.writeString(temp.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), deferredFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not rewrite {}: {}", deferredFile, e.getMessage());
+        }
+    }
+
+    /**
+     * A bulk job waiting for its turn. Restored ones came from the file and
+     * wait for their source to submit them again.
+     */
+    private static class Deferred {
+        final DeferredJob job;
+        final CompletableFuture<SpoolReport> result = new CompletableFuture<>();
+        boolean restored;
+        boolean prepared;
+
+        Deferred(DeferredJob job, boolean restored) {
+            this.job = job;
+            this.restored = restored;
+        }
+    }
+
+    private static class Ticket {
+        final PrintConfig config;
+        final long cost;
+        final boolean bulk;
+        final long enqueuedAt = System.currentTimeMillis();
+        final CompletableFuture<SpoolReport> result = new CompletableFuture<>();
+        final Span queueSpan;
+
+        Ticket(PrintConfig config, long cost, boolean bulk) {
+            this.config = config;
+            this.cost = cost;
+            this.bulk = bulk;
+            this.queueSpan = Span.begin(JobStage.QUEUE, config.getJobId()).printer(config.getSelectedPrinter());
+        }
+
+        double effectiveCost(long now) {
+            return cost - (now - enqueuedAt) / 1000.0 * AGING_UNITS_PER_SECOND;
+        }
+    }
+
+    private class PrinterQueue {
+        private final String printerName;
+        private final List<Ticket> waiting = new ArrayList<>();
+        // Jobs whose pages are still being counted; they hold a place
+        private final Set<Integer> reserved = new HashSet<>();
+        private final Thread worker;
+        private boolean busy;
+        private long lastInteractiveAt = System.currentTimeMillis();
+
+        PrinterQueue(String printerName) {
+            this.printerName = printerName;
+            this.worker = new Thread(this::drain, "print-queue-" + printerName);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        synchronized void reserve(int jobId) {
+            checkRoom(jobId);
+            reserved.add(jobId);
+        }
+
+        synchronized void unreserve(int jobId) {
+            reserved.remove(jobId);
+        }
+
+        synchronized void offer(Ticket ticket) {
+            if (!reserved.remove(ticket.config.getJobId())) {
+                checkRoom(ticket.config.getJobId());
+            }
+            waiting.add(ticket);
+            if (!ticket.bulk) {
+                lastInteractiveAt = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+
+        synchronized int size() {
+            return waiting.size() + reserved.size() + (busy ? 1 : 0);
+        }
+
+        private void checkRoom(int jobId) {
+            int capacity = settingsService.getPrinterQueueCapacity();
+            if (size() >= capacity) {
+                throw new RejectedExecutionException("The queue for " + printerName + " is full (" + capacity
+                        + " jobs). Try again when some have printed.");
+            }
+            boolean queued = reserved.contains(jobId);
+            for (Ticket ticket : waiting) {
+                queued |= ticket.config.getJobId() == jobId;
+            }
+            if (queued) {
+                throw new RejectedExecutionException("Job " + jobId + " is already queued on " + printerName + ".");
+            }
+        }
+
+        /**
+         * Time since a walk-up (not bulk) job was last queued or finished.
+         */
+        synchronized long quietFor(long now) {
+            return now - lastInteractiveAt;
+        }
+
+        private synchronized void finished(Ticket ticket) {
+            if (!ticket.bulk) {
+                lastInteractiveAt = System.currentTimeMillis();
+            }
+        }
+
+        synchronized void stop() {
+            for (Ticket ticket : waiting) {
+                ticket.result.completeExceptionally(new RejectedExecutionException("Scheduler is shut down."));
+            }
+            waiting.clear();
+            worker.interrupt();
+        }
+
+        private synchronized Ticket next() throws InterruptedException {
+            busy = false;
+            while (waiting.isEmpty()) {
+                wait();
+            }
+            long now = System.currentTimeMillis();
+            Ticket best = waiting.get(0);
+            for (Ticket ticket : waiting) {
+                if (ticket.effectiveCost(now) < best.effectiveCost(now)) {
+                    best = ticket;
+                }
+            }
+            waiting.remove(best);
+            busy = true;
+            return best;
+        }
+
+        private void drain() {
+            while (running) {
+                Ticket ticket;
+                try {
+                    // Jobs stay queued while the heap is critically full
+                    ResourceGovernor.get().awaitHeapRelief();
+                    ticket = next();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ticket.queueSpan.close();
+                long waitedMs = System.currentTimeMillis() - ticket.enqueuedAt;
+                log.info("Job {} (cost {}) starts on {} after {} ms in queue.", ticket.config.getJobId(),
+                        ticket.cost, printerName, waitedMs);
+                SpoolReport report;
+                try {
+                    for (IntConsumer listener : startListeners) {
+                        listener.accept(ticket.config.getJobId());
+                    }
+                    report = run(ticket.config);
+                } catch (Throwable e) {
+                    // Errors such as OutOfMemoryError fail this job, not the printer's worker
+                    JobTimeline.finish(ticket.config.getJobId());
+                    finished(ticket);
+                    ticket.result.completeExceptionally(e);
+                    continue;
+                }
+                JobTimeline.finish(ticket.config.getJobId());
+                finished(ticket);
+                try {
+                    // Sinks that follow the device keep the job open until it is
+                    // on paper, while the next one is already sent
+                    printerService.completion(ticket.config).whenComplete((done, error) -> {
+                        if (error == null) {
+                            ticket.result.complete(report);
+                        } else {
+                            ticket.result.completeExceptionally(error);
+                        }
+                    });
+                } catch (Throwable e) {
+                    ticket.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
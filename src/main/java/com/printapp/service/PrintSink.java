@@ -0,0 +1,59 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+
+import java.awt.print.Printable;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination for spooled output. {@link PrinterService} decides how a job
+ * goes out (the PDF as-is, or pages rendered through a {@link Printable})
+ * and hands it to the sink the selected printer name resolves to: an OS
+ * printer, a directory of output files or a simulated printer.
+ */
+public interface PrintSink extends AutoCloseable {
+
+    /**
+     * Name shown in the printer list and used in {@link PrintConfig#getSelectedPrinter()}.
+     */
+    String getName();
+
+    /**
+     * Highest resolution the sink prints at. Rasters are never built finer.
+     */
+    int maxDpi();
+
+    /**
+     * True if {@link #sendPdf} may be used for PDF files.
+     */
+    boolean acceptsPdf();
+
+    /**
+     * Sends a PDF file untouched; copies, sides and colour are applied by
+     * the device.
+     *
+     * @throws javax.print.PrintException if the device refuses the document,
+     *                                    so the caller can render it instead
+     */
+    void sendPdf(File file, PrintConfig config, String jobName) throws Exception;
+
+    /**
+     * Sends the pages of {@code printable}, asking for one page index after
+     * another until it answers {@link Printable#NO_SUCH_PAGE}.
+     */
+    void sendPages(Printable printable, PrintConfig config, String jobName) throws Exception;
+
+    /**
+     * Completes once what was sent for {@code jobId} has printed, or fails if
+     * the device aborted or cancelled it. Sinks that cannot follow a job past
+     * sending it complete right away.
+     */
+    default CompletableFuture<Void> completion(int jobId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,285 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrinterPool;
+import com.printapp.model.PrinterStatus;
+
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import javax.print.attribute.standard.ColorSupported;
+import javax.print.attribute.standard.PrinterIsAcceptingJobs;
+import javax.print.attribute.standard.QueuedJobCount;
+import javax.print.attribute.standard.Sides;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes jobs across the printer pools defined in settings.json.
+ *
+ * A background poller reads ColorSupported, Sides, QueuedJobCount and
+ * PrinterIsAcceptingJobs from every pool member. Routing picks the capable,
+ * accepting member with the lowest load, where load is the spooler queue
+ * plus the jobs this station has already assigned to that printer but not
+ * yet finished. When a member stops accepting jobs the registered listeners
+ * are notified so pending work can be moved to another member.
+ *
+ * Without any configured pools routing is disabled and {@link #route}
+ * returns null, leaving the choice to the operator.
+ */
+public class PrinterPoolService {
+
+    private static final Logger log = Log.get("PrinterPool");
+
+    private static final long POLL_INTERVAL_MS = 5000;
+
+    private final SettingsService settingsService;
+    private final Map<String, PrinterStatus> statuses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final List<Runnable> availabilityListeners = new CopyOnWriteArrayList<>();
+    private volatile List<PrinterPool> pools;
+    private ScheduledExecutorService poller;
+
+    public PrinterPoolService(SettingsService settingsService) {
+        this.settingsService = settingsService;
+        this.pools = settingsService.getPrinterPools();
+    }
+
+    /**
+     * Starts background polling of pool members. The first poll runs on the
+     * poller straight away rather than on the caller, which may be the FX
+     * thread; until it finishes, unpolled members count as available.
+     */
+    public void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "printer-pool-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    /**
+     * Registers a callback invoked (on the poller thread) whenever a pool
+     * member starts or stops accepting jobs.
+     */
+    public void addAvailabilityListener(Runnable listener) {
+        availabilityListeners.add(listener);
+    }
+
+    public List<PrinterPool> getPools() {
+        return pools;
+    }
+
+    public boolean hasPools() {
+        return !pools.isEmpty();
+    }
+
+    public PrinterStatus getStatus(String printerName) {
+        return printerName != null ? statuses.get(printerName.toLowerCase()) : null;
+    }
+
+    /**
+     * Returns true unless the last poll reported the printer as not accepting
+     * jobs. Printers that have never been polled are assumed available.
+     */
+    public boolean isAccepting(String printerName) {
+        PrinterStatus status = getStatus(printerName);
+        return status == null || status.isAcceptingJobs();
+    }
+
+    /**
+     * Picks the least loaded capable printer across all pools and records the
+     * assignment. Returns null when no pools are configured.
+     */
+    public String route(boolean needsColor, boolean needsDuplex) {
+        List<String> candidates = new ArrayList<>();
+        for (PrinterPool pool : pools) {
+            for (String member : pool.getPrinters()) {
+                if (!containsIgnoreCase(candidates, member)) {
+                    candidates.add(member);
+                }
+            }
+        }
+        return assign(pick(candidates, null, needsColor, needsDuplex));
+    }
+
+    /**
+     * Returns the printer a job should actually go to. The current choice is
+     * kept while it accepts jobs; otherwise the job fails over to another
+     * member of the same pool. Printers outside any pool are returned as-is.
+     * The assignment moves with the job.
+     */
+    public String resolve(String currentPrinter, boolean needsColor, boolean needsDuplex) {
+        if (isAccepting(currentPrinter)) {
+            return currentPrinter;
+        }
+        PrinterPool pool = findPool(currentPrinter);
+        if (pool == null) {
+            return currentPrinter;
+        }
+        String replacement = pick(pool.getPrinters(), currentPrinter, needsColor, needsDuplex);
+        if (replacement == null) {
+            return currentPrinter;
+        }
+        log.info("{} is not accepting jobs, failing over to {} (pool {})", currentPrinter, replacement,
+                pool.getName());
+        release(currentPrinter);
+        return assign(replacement);
+    }
+
+    /**
+     * Records that a job assigned to this printer has finished or was moved.
+     */
+    public void release(String printerName) {
+        if (printerName == null) {
+            return;
+        }
+        AtomicInteger count = pending.get(printerName.toLowerCase());
+        if (count != null) {
+            count.updateAndGet(v -> Math.max(0, v - 1));
+        }
+    }
+
+    /**
+     * Moves an assignment after the operator picks a different printer.
+     */
+    public void reassign(String fromPrinter, String toPrinter) {
+        release(fromPrinter);
+        assign(toPrinter);
+    }
+
+    /**
+     * Drops the assignments of printers that are no longer in any pool, e.g.
+     * after the pools in settings.json changed. Pool members keep theirs;
+     * jobs queued on them release them when they finish.
+     */
+    public void pruneAssignments() {
+        pending.keySet().removeIf(printer -> findPool(printer) == null);
+    }
+
+    public PrinterPool findPool(String printerName) {
+        for (PrinterPool pool : pools) {
+            if (pool.contains(printerName)) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    private String pick(List<String> members, String exclude, boolean needsColor, boolean needsDuplex) {
+        String best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        boolean bestCapable = false;
+
+        for (String member : members) {
+            if (member.equalsIgnoreCase(exclude) || !isAccepting(member)) {
+                continue;
+            }
+            PrinterStatus status = getStatus(member);
+            boolean capable = status == null
+                    || ((!needsColor || status.isColorSupported()) && (!needsDuplex || status.isDuplexSupported()));
+            int load = (status != null ? status.getQueuedJobCount() : 0) + pendingCount(member);
+
+            // A capable printer always beats an incapable one; load breaks ties
+            if (best == null || (capable && !bestCapable) || (capable == bestCapable && load < bestLoad)) {
+                best = member;
+                bestLoad = load;
+                bestCapable = capable;
+            }
+        }
+        return best;
+    }
+
+    private String assign(String printerName) {
+        if (printerName != null) {
+            pending.computeIfAbsent(printerName.toLowerCase(), k -> new AtomicInteger()).incrementAndGet();
+        }
+        return printerName;
+    }
+
+    private int pendingCount(String printerName) {
+        AtomicInteger count = pending.get(printerName.toLowerCase());
+        return count != null ? count.get() : 0;
+    }
+
+    private void poll() {
+        try {
+            List<PrinterPool> latestPools = settingsService.getPrinterPools();
+            pools = latestPools != null ? latestPools : Collections.emptyList();
+            if (pools.isEmpty()) {
+                return;
+            }
+
+            boolean availabilityChanged = false;
+            for (PrintService service : PrintServiceLookup.lookupPrintServices(null, null)) {
+                if (findPool(service.getName()) == null) {
+                    continue;
+                }
+                PrinterStatus status = readStatus(service);
+                PrinterStatus previous = statuses.put(service.getName().toLowerCase(), status);
+                if (previous != null && previous.isAcceptingJobs() != status.isAcceptingJobs()) {
+                    log.info("{} {}", service.getName(),
+                            status.isAcceptingJobs() ? "is accepting jobs again." : "stopped accepting jobs.");
+                    availabilityChanged = true;
+                }
+            }
+
+            if (availabilityChanged) {
+                for (Runnable listener : availabilityListeners) {
+                    listener.run();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Poll failed: {}", e.getMessage());
+        }
+    }
+
+    private PrinterStatus readStatus(PrintService service) {
+        PrinterIsAcceptingJobs accepting = service.getAttribute(PrinterIsAcceptingJobs.class);
+        QueuedJobCount queued = service.getAttribute(QueuedJobCount.class);
+        ColorSupported color = service.getAttribute(ColorSupported.class);
+
+        boolean duplex = false;
+        Object sides = service.getSupportedAttributeValues(Sides.class, null, null);
+        if (sides instanceof Sides[]) {
+            for (Sides side : (Sides[]) sides) {
+                if (side == Sides.DUPLEX || side == Sides.TWO_SIDED_LONG_EDGE || side == Sides.TWO_SIDED_SHORT_EDGE) {
+                    duplex = true;
+                    break;
+                }
+            }
+        }
+
+        return new PrinterStatus(
+                service.getName(),
+                accepting == null || accepting == PrinterIsAcceptingJobs.ACCEPTING_JOBS,
+                queued != null ? queued.getValue() : 0,
+                color == ColorSupported.SUPPORTED,
+                duplex,
+                System.currentTimeMillis());
+    }
+
+    private static boolean containsIgnoreCase(List<String> list, String value) {
+        for (String item : list) {
+            if (item.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
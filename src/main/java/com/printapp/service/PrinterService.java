@@ -1,25 +1,79 @@
 package com.printapp.service;
 
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PreparedJob;
 import com.printapp.model.PrintConfig;
+import com.printapp.model.PrintSinkConfig;
+import com.printapp.model.SpoolReport;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.printing.PDFPrintable;
-import org.apache.pdfbox.printing.Scaling;
 
-import javax.imageio.ImageIO;
+import javax.print.PrintException;
 import javax.print.PrintService;
 import javax.print.PrintServiceLookup;
-import java.awt.*;
-import java.awt.print.PrinterJob;
+import java.awt.image.BufferedImage;
 import java.awt.print.Printable;
 import java.io.File;
+import java.io.IOException;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import javax.print.attribute.HashPrintRequestAttributeSet;
-import javax.print.attribute.PrintRequestAttributeSet;
-import javax.print.attribute.standard.Chromaticity;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends jobs to printers. How a job goes out (PDF passthrough, optimized
+ * rendering, banded images) is decided here; where it goes is a
+ * {@link PrintSink}: an OS printer, or one of the file and virtual sinks
+ * configured under "printSinks" or registered with {@link #addSink}.
+ */
 public class PrinterService {
 
+    private static final Logger log = Log.get("PrinterService");
+
+    private final SpoolOptimizer spoolOptimizer = new SpoolOptimizer();
+    private final QrCodeService qrCodeService = new QrCodeService();
+    private final PageCountProbe pageCountProbe = new PageCountProbe();
+    private final SettingsService settingsService;
+    private final Map<String, PrintSink> registeredSinks = new ConcurrentHashMap<>();
+    private volatile Map<String, PrintSink> configuredSinks = Collections.emptyMap();
+
+    public PrinterService() {
+        this(null);
+    }
+
+    /**
+     * Also offers the sinks configured in settings, and rebuilds them when
+     * the configuration changes.
+     */
+    public PrinterService(SettingsService settingsService) {
+        this.settingsService = settingsService;
+        if (settingsService != null) {
+            loadConfiguredSinks();
+            settingsService.addListener(keys -> {
+                if (keys.contains("printSinks")) {
+                    loadConfiguredSinks();
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes a sink selectable by its name, ahead of OS printers and
+     * configured sinks of the same name.
+     */
+    public void addSink(PrintSink sink) {
+        PrintSink previous = registeredSinks.put(sink.getName().toLowerCase(), sink);
+        if (previous != null && previous != sink) {
+            previous.close();
+        }
+    }
+
     // =============================
     // Get Available Printers
     // =============================
@@ -32,6 +86,12 @@ public class PrinterService {
         for (PrintService service : printServices) {
             printerNames.add(service.getName());
         }
+        for (PrintSink sink : configuredSinks.values()) {
+            printerNames.add(sink.getName());
+        }
+        for (PrintSink sink : registeredSinks.values()) {
+            printerNames.add(sink.getName());
+        }
 
         if (printerNames.isEmpty()) {
             printerNames.add("No Printers Found");
@@ -43,78 +103,236 @@ public class PrinterService {
     // =============================
     // Main Print Method
     // =============================
-    public void print(PrintConfig config) throws Exception {
+    public SpoolReport print(PrintConfig config) throws Exception {
+        return print(config, null);
+    }
+
+    /**
+     * Prints a job, reusing its background-prepared form when one is given.
+     * The caller keeps ownership of {@code prepared}. Returns what spooling
+     * the job cost.
+     */
+    public SpoolReport print(PrintConfig config, PreparedJob prepared) throws Exception {
 
         if (config.getFileToPrint() == null) {
             throw new Exception("No file selected for printing.");
         }
 
+        if (prepared != null && !prepared.isValid()) {
+            throw new Exception(prepared.getError());
+        }
+
         String printerName = config.getSelectedPrinter();
-        PrintService selectedService = findPrinter(printerName);
+        PrintSink sink = findSink(printerName);
 
-        if (selectedService == null) {
+        if (sink == null) {
             throw new Exception("Selected printer not found.");
         }
 
         File file = config.getFileToPrint();
         String fileName = file.getName().toLowerCase();
+        SpoolReport report = new SpoolReport(config.getJobId(), sink.getName());
+        long start = System.currentTimeMillis();
+        // Built once here and reused for every page of the job
+        JobStamp stamp = settingsService != null
+                ? JobStamp.forJob(config, settingsService.getStampFields(), settingsService.isSeparatorSheets(),
+                        qrCodeService)
+                : null;
+
+        try (Span span = Span.begin(JobStage.SPOOL, config.getJobId()).printer(sink.getName())) {
+            if (fileName.endsWith(".pdf")) {
+                printPdf(file, sink, config, prepared, stamp, report);
+            } else if (ImagePrintable.IMAGE_FILE.matcher(fileName).matches()) {
+                printImage(file, sink, config, prepared, stamp, report);
+            } else {
+                throw new Exception("Unsupported file format. Only PDF and Images supported.");
+            }
+            span.bytes(report.getSpoolBytes()).detail(report.getMode());
+        }
 
-        if (fileName.endsWith(".pdf")) {
-            printPdf(file, selectedService, config);
-        } else if (fileName.matches(".*\\.(png|jpg|jpeg)$")) {
-            printImage(file, selectedService, config);
-        } else {
-            throw new Exception("Unsupported file format. Only PDF and Images supported.");
+        report.setDurationMs(System.currentTimeMillis() - start);
+        log.info("Spool report for {}: {}", file.getName(), report.summary());
+        return report;
+    }
+
+    /**
+     * Completes once the device reports the job printed, for sinks that
+     * follow their jobs (IPP), and right away for all others.
+     */
+    public CompletableFuture<Void> completion(PrintConfig config) {
+        String printerName = config.getSelectedPrinter();
+        PrintSink sink = printerName != null ? registeredSinks.get(printerName.toLowerCase()) : null;
+        if (sink == null && printerName != null) {
+            sink = configuredSinks.get(printerName.toLowerCase());
         }
+        return sink != null ? sink.completion(config.getJobId()) : CompletableFuture.completedFuture(null);
     }
 
     // =============================
     // Find Printer Helper
     // =============================
-    private PrintService findPrinter(String printerName) {
+    private PrintSink findSink(String printerName) {
+        if (printerName == null) {
+            return null;
+        }
+        PrintSink sink = registeredSinks.get(printerName.toLowerCase());
+        if (sink == null) {
+            sink = configuredSinks.get(printerName.toLowerCase());
+        }
+        if (sink != null) {
+            return sink;
+        }
 
         PrintService[] services = PrintServiceLookup.lookupPrintServices(null, null);
 
         for (PrintService service : services) {
             if (service.getName().equalsIgnoreCase(printerName)) {
-                return service;
+                return new SpoolerSink(service, spoolOptimizer);
             }
         }
 
         return null;
     }
 
+    private void loadConfiguredSinks() {
+        Map<String, PrintSink> sinks = new LinkedHashMap<>();
+        for (PrintSinkConfig sinkConfig : settingsService.getPrintSinks()) {
+            if (sinkConfig.getName() == null || sinkConfig.getName().isBlank()) {
+                continue;
+            }
+            try {
+                sinks.put(sinkConfig.getName().toLowerCase(), createSink(sinkConfig));
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring print sink {}: {}", sinkConfig.getName(), e.getMessage());
+            }
+        }
+        Map<String, PrintSink> previous = configuredSinks;
+        configuredSinks = sinks;
+        for (PrintSink sink : previous.values()) {
+            sink.close();
+        }
+        if (!sinks.isEmpty()) {
+            log.info("Print sinks: {}", sinks.keySet());
+        }
+    }
+
+    private static PrintSink createSink(PrintSinkConfig sinkConfig) {
+        String type = sinkConfig.getType() != null ? sinkConfig.getType().toLowerCase() : "";
+        switch (type) {
+            case "file": {
+                File directory = sinkConfig.getDirectory() != null && !sinkConfig.getDirectory().isBlank()
+                        ? new File(sinkConfig.getDirectory())
+                        : AppPaths.resolve("spool/");
+                return new FileSink(sinkConfig.getName(), directory, sinkConfig.getFormat(), sinkConfig.getDpi());
+            }
+            case "virtual":
+                return new VirtualPrinterSink(sinkConfig.getName(), sinkConfig.getPagesPerMinute(),
+                        sinkConfig.getWarmupMs(), sinkConfig.getSleepAfterMs(), sinkConfig.getQueueLimit(),
+                        sinkConfig.getDpi());
+            case "ipp":
+                if (sinkConfig.getUri() == null || sinkConfig.getUri().isBlank()) {
+                    throw new IllegalArgumentException("no uri");
+                }
+                return new IppSink(sinkConfig.getName(), URI.create(sinkConfig.getUri().trim()), sinkConfig.getDpi(),
+                        sinkConfig.getQueueLimit(), sinkConfig.getPipelineDepth());
+            default:
+                throw new IllegalArgumentException("unknown type " + sinkConfig.getType());
+        }
+    }
+
     // =============================
     // PDF Printing
     // =============================
     private void printPdf(File file,
-            PrintService service,
-            PrintConfig config) throws Exception {
-
-        try (PDDocument document = PDDocument.load(file)) {
-
-            PrinterJob job = PrinterJob.getPrinterJob();
-
-            job.setPrintService(service);
-            job.setJobName("Direct Print - " + file.getName());
-
-            // Copies
-            job.setCopies(config.getCopies());
+            PrintSink sink,
+            PrintConfig config,
+            PreparedJob prepared,
+            JobStamp stamp,
+            SpoolReport report) throws Exception {
+
+        // Prefer handing the file to the printer untouched; copies, sides and
+        // colour are then applied by the device instead of re-rendering
+        if (sink.acceptsPdf()) {
+            File spoolFile = file;
+            if (stamp != null) {
+                try {
+                    spoolFile = stamp.stampCopy(file, AppPaths.resolve("spool/"));
+                } catch (IOException e) {
+                    log.warn("Could not stamp {}, falling back to rendering: {}", file.getName(), e.getMessage());
+                    spoolFile = null;
+                }
+            }
+            if (spoolFile != null) {
+                try {
+                    printPdfDirect(file, spoolFile, sink, config, report);
+                    return;
+                } catch (PrintException e) {
+                    log.warn("PDF passthrough failed on {}, falling back to rendering: {}", sink.getName(),
+                            e.getMessage());
+                } finally {
+                    if (spoolFile != file) {
+                        spoolFile.delete();
+                    }
+                }
+            }
+        }
 
-            PDFPrintable printable = new PDFPrintable(document, Scaling.SHRINK_TO_FIT);
+        printPdfRendered(file, sink, config, prepared, stamp, report);
+    }
 
-            job.setPrintable(printable);
+    // =============================
+    // PDF Passthrough
+    // =============================
+    private void printPdfDirect(File file,
+            File spoolFile,
+            PrintSink sink,
+            PrintConfig config,
+            SpoolReport report) throws Exception {
+
+        sink.sendPdf(spoolFile, config, jobName(file));
+
+        report.setMode("passthrough");
+        // Nothing was rendered, so count the pages sent (separator sheet included) from the file
+        report.setPages(pageCountProbe.countPages(spoolFile));
+        report.setSpoolBytes(spoolFile.length());
+        report.setBaselineBytes(spoolFile.length() * Math.max(1, config.getCopies()));
+
+        log.info("Sent {} as native PDF to {} ({} printer-side copies)", file.getName(), sink.getName(),
+                config.getCopies());
+    }
 
-            // Color Mode
-            PrintRequestAttributeSet attr = new HashPrintRequestAttributeSet();
-            if ("Black & White".equals(config.getColorMode())) {
-                attr.add(Chromaticity.MONOCHROME);
-            } else if ("Color".equals(config.getColorMode())) {
-                attr.add(Chromaticity.COLOR);
+    // =============================
+    // PDF Rasterization (fallback)
+    // =============================
+    private void printPdfRendered(File file,
+            PrintSink sink,
+            PrintConfig config,
+            PreparedJob prepared,
+            JobStamp stamp,
+            SpoolReport report) throws Exception {
+
+        boolean preloaded = prepared != null && prepared.getDocument() != null;
+        PDDocument document;
+        if (preloaded) {
+            document = prepared.getDocument();
+        } else {
+            try (Span span = Span.begin(JobStage.LOAD, config.getJobId())) {
+                document = PDDocument.load(file, ResourceGovernor.get().pdfMemory(file));
+                span.bytes(file.length());
             }
+            SharedResourceCache.get().attach(document);
+        }
 
-            // Silent Print
-            job.print(attr);
+        try {
+            // Mono pages go out as grey or 1-bit rasters at a content-dependent
+            // resolution rather than as full colour at the driver's maximum
+            Printable printable = spoolOptimizer.pdfPrintable(document, config, sink.maxDpi(), report);
+            sink.sendPages(stamp != null ? stamp.wrap(printable) : printable, config, jobName(file));
+        } finally {
+            if (!preloaded) {
+                SharedResourceCache.get().release(document);
+                document.close();
+            }
         }
     }
 
@@ -122,52 +340,23 @@ public class PrinterService {
     // Image Printing
     // =============================
     private void printImage(File file,
-            PrintService service,
-            PrintConfig config) throws Exception {
-
-        PrinterJob job = PrinterJob.getPrinterJob();
-
-        job.setPrintService(service);
-        job.setCopies(config.getCopies());
-
-        job.setPrintable((graphics, pageFormat, pageIndex) -> {
-
-            if (pageIndex > 0)
-                return Printable.NO_SUCH_PAGE;
-
-            try {
-                Image image = ImageIO.read(file);
-
-                Graphics2D g2d = (Graphics2D) graphics;
-
-                double x = pageFormat.getImageableX();
-                double y = pageFormat.getImageableY();
-
-                double width = pageFormat.getImageableWidth();
-                double height = pageFormat.getImageableHeight();
-
-                g2d.drawImage(image,
-                        (int) x,
-                        (int) y,
-                        (int) width,
-                        (int) height,
-                        null);
-
-                return Printable.PAGE_EXISTS;
-
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
-
-        // Color Mode
-        PrintRequestAttributeSet attr = new HashPrintRequestAttributeSet();
-        if ("Black & White".equals(config.getColorMode())) {
-            attr.add(Chromaticity.MONOCHROME);
-        } else if ("Color".equals(config.getColorMode())) {
-            attr.add(Chromaticity.COLOR);
+            PrintSink sink,
+            PrintConfig config,
+            PreparedJob prepared,
+            JobStamp stamp,
+            SpoolReport report) throws Exception {
+
+        BufferedImage firstFrame = prepared != null ? prepared.getImage() : null;
+        boolean mono = spoolOptimizer.isMono(config);
+        int maxDpi = sink.maxDpi();
+
+        try (ImagePrintable printable = new ImagePrintable(file, firstFrame, spoolOptimizer, mono,
+                spoolOptimizer.photoDpi(maxDpi), maxDpi, report)) {
+            sink.sendPages(stamp != null ? stamp.wrap(printable) : printable, config, jobName(file));
         }
+    }
 
-        job.print(attr);
+    private static String jobName(File file) {
+        return "Direct Print - " + file.getName();
     }
 }
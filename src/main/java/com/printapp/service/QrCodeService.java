@@ -5,15 +5,22 @@ import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
 import javax.imageio.ImageIO;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,6 +29,8 @@ import java.util.Map;
  */
 public class QrCodeService {
 
+    private static final Logger log = Log.get("QrCodeService");
+
     private static final String BASE_MOBILE_URL = "https://deepakas9353.github.io/Mobile-web-app/"; // Hosted mobile app
                                                                                                     // URL
     private static final int DEFAULT_SIZE = 300;
@@ -44,16 +53,64 @@ public class QrCodeService {
      * Generates a QR code as a JavaFX WritableImage with custom size.
      */
     public WritableImage generateQrImage(String printerId, int size) {
-        String url = buildUrl(printerId);
+        return generateQrImageForUrl(buildUrl(printerId), size);
+    }
+
+    /**
+     * Generates a QR code for a station serving several printers: each ID
+     * is a {@code printerId} parameter, the first one first, so a reader
+     * that takes a single value still gets a printer of this station.
+     */
+    public WritableImage generateQrImage(List<String> printerIds, int size) {
+        return generateQrImageForUrl(buildUrl(printerIds), size);
+    }
+
+    /**
+     * Generates a QR code for an arbitrary URL, such as the station's own
+     * LAN upload address.
+     */
+    public WritableImage generateQrImageForUrl(String url, int size) {
         try {
             BitMatrix bitMatrix = createBitMatrix(url, size);
             return toWritableImage(bitMatrix);
         } catch (WriterException e) {
-            System.err.println("[QrCodeService] Failed to generate QR code: " + e.getMessage());
+            log.warn("Failed to generate QR code: {}", e.getMessage());
             return createErrorImage(size);
         }
     }
 
+    /**
+     * Generates a QR code as vector geometry: the dark modules of the code,
+     * one unit per module, merged into row runs. Callers scale it to any
+     * size without resampling. Returns null when the content cannot be
+     * encoded.
+     */
+    public Path2D generateQrShape(String content) {
+        try {
+            // Size 0 lets ZXing use one pixel per module
+            BitMatrix bitMatrix = createBitMatrix(content, 0);
+            Path2D shape = new Path2D.Float();
+            for (int y = 0; y < bitMatrix.getHeight(); y++) {
+                int x = 0;
+                while (x < bitMatrix.getWidth()) {
+                    if (!bitMatrix.get(x, y)) {
+                        x++;
+                        continue;
+                    }
+                    int start = x;
+                    while (x < bitMatrix.getWidth() && bitMatrix.get(x, y)) {
+                        x++;
+                    }
+                    shape.append(new Rectangle2D.Float(start, y, x - start, 1), false);
+                }
+            }
+            return shape;
+        } catch (WriterException e) {
+            log.warn("Failed to generate QR code: {}", e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Saves the QR code as a PNG file for download.
      *
@@ -74,10 +131,10 @@ public class QrCodeService {
             BitMatrix bitMatrix = createBitMatrix(url, size);
             BufferedImage bufferedImage = toBufferedImage(bitMatrix);
             ImageIO.write(bufferedImage, "PNG", file);
-            System.out.println("[QrCodeService] QR code saved to: " + file.getAbsolutePath());
+            log.info("QR code saved to: {}", file.getAbsolutePath());
             return true;
         } catch (WriterException | IOException e) {
-            System.err.println("[QrCodeService] Failed to save QR code: " + e.getMessage());
+            log.warn("Failed to save QR code: {}", e.getMessage());
             return false;
         }
     }
@@ -92,6 +149,22 @@ public class QrCodeService {
         return BASE_MOBILE_URL;
     }
 
+    /**
+     * Builds the mobile web URL with one printerId parameter per ID.
+     */
+    private String buildUrl(List<String> printerIds) {
+        StringBuilder url = new StringBuilder(BASE_MOBILE_URL);
+        char separator = '?';
+        for (String printerId : printerIds) {
+            if (printerId != null && !printerId.isBlank()) {
+                url.append(separator).append("printerId=")
+                        .append(URLEncoder.encode(printerId.trim(), StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+        return url.toString();
+    }
+
     /**
      * Creates a ZXing BitMatrix for the given URL.
      */
@@ -0,0 +1,371 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches heap and spool-disk headroom so a burst of large uploads slows
+ * the station down instead of crashing it.
+ *
+ * Heap pressure is judged on what is left after garbage collection: every
+ * GC notification reports the heap in use after the collection, and the
+ * old-generation pools carry a collection-usage threshold at the soft
+ * limit. Disk pressure is the free space under the data directory, checked
+ * every few seconds. Each is {@link Pressure#NORMAL}, {@link Pressure#ELEVATED}
+ * past the soft limit or {@link Pressure#CRITICAL} past the hard one.
+ *
+ * Under pressure the governor sheds registered caches in registration
+ * order, starting with the cheapest to rebuild; the services themselves
+ * hold back: speculative preparation stops, fetching and ingest pause, new
+ * print jobs wait for heap, and PDFs are loaded with disk-backed buffers.
+ *
+ * There is one governor per process, like the heap it watches.
+ */
+public final class ResourceGovernor {
+
+    private static final Logger log = Log.get("Governor");
+
+    public enum Pressure {
+        NORMAL, ELEVATED, CRITICAL
+    }
+
+    private static final ResourceGovernor INSTANCE = new ResourceGovernor();
+
+    private static final long CHECK_INTERVAL_MS = 5000;
+    // While pressure persists, caches are shed again at most this often
+    private static final long SHED_INTERVAL_MS = 3000;
+    // Pressure has to fall this far below a limit before it is lifted
+    private static final double HYSTERESIS = 0.05;
+    private static final long LARGE_PDF_BYTES = 32L * 1024 * 1024;
+    private static final long PDF_MAIN_MEMORY_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * A cache that can be emptied, and the pressure at which it should be.
+     */
+    private static final class Shedder {
+        final String name;
+        final Pressure level;
+        final Runnable shed;
+
+        Shedder(String name, Pressure level, Runnable shed) {
+            this.name = name;
+            this.level = level;
+            this.shed = shed;
+        }
+    }
+
+    private final List<Shedder> shedders = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Pressure>> listeners = new CopyOnWriteArrayList<>();
+    private final List<MemoryPoolMXBean> tenuredPools = new ArrayList<>();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener notificationListener = this::handleNotification;
+    private volatile Pressure heapPressure = Pressure.NORMAL;
+    private volatile Pressure diskPressure = Pressure.NORMAL;
+    private volatile double heapUsedAfterGc;
+    private volatile double softLimit = 0.70;
+    private volatile double hardLimit = 0.85;
+    private volatile long minFreeDiskBytes = 512L * 1024 * 1024;
+    private volatile long lastShedAt;
+    private volatile long lastGcAt;
+    private ScheduledExecutorService checker;
+
+    private ResourceGovernor() {
+    }
+
+    public static ResourceGovernor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts watching with the limits from settings. Until then pressure is
+     * always normal.
+     */
+    public synchronized void start(SettingsService settingsService) {
+        if (checker != null) {
+            return;
+        }
+        applySettings(settingsService);
+        settingsService.addListener(changedKeys -> {
+            if (changedKeys.contains("heapSoftPercent") || changedKeys.contains("heapHardPercent")
+                    || changedKeys.contains("minFreeDiskMb")) {
+                applySettings(settingsService);
+            }
+        });
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.isUsageThresholdSupported()) {
+                // Pools that take both thresholds are the old generation
+                tenuredPools.add(pool);
+            }
+        }
+        setThresholds();
+        listen(ManagementFactory.getMemoryMXBean());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            listen(collector);
+        }
+
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "resource-governor");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, 0, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        log.info("Watching heap ({}% / {}% of {} MB) and spool disk (min {} MB free)",
+                Math.round(softLimit * 100), Math.round(hardLimit * 100),
+                Runtime.getRuntime().maxMemory() / (1024 * 1024), minFreeDiskBytes / (1024 * 1024));
+    }
+
+    public synchronized void stop() {
+        if (checker == null) {
+            return;
+        }
+        checker.shutdownNow();
+        checker = null;
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(notificationListener);
+            } catch (Exception ignored) {
+                // Already gone
+            }
+        }
+        emitters.clear();
+        tenuredPools.clear();
+    }
+
+    // =============================
+    // Queries
+    // =============================
+
+    /**
+     * The worse of heap and disk pressure.
+     */
+    public Pressure pressure() {
+        Pressure heap = heapPressure;
+        Pressure disk = diskPressure;
+        return heap.compareTo(disk) >= 0 ? heap : disk;
+    }
+
+    public Pressure heapPressure() {
+        return heapPressure;
+    }
+
+    public Pressure diskPressure() {
+        return diskPressure;
+    }
+
+    /**
+     * Blocks while the heap is critically full. Work that needs a lot of
+     * memory, such as starting a print job, waits here.
+     */
+    public void awaitHeapRelief() throws InterruptedException {
+        if (heapPressure != Pressure.CRITICAL) {
+            return;
+        }
+        synchronized (this) {
+            while (heapPressure == Pressure.CRITICAL) {
+                wait(CHECK_INTERVAL_MS);
+            }
+        }
+    }
+
+    /**
+     * How PDFBox should buffer a PDF it loads: in memory normally, partly
+     * on disk for large files or while memory is short.
+     */
+    public MemoryUsageSetting pdfMemory(File file) {
+        if (heapPressure != Pressure.NORMAL || file.length() > LARGE_PDF_BYTES) {
+            return MemoryUsageSetting.setupMixed(PDF_MAIN_MEMORY_BYTES);
+        }
+        return MemoryUsageSetting.setupMainMemoryOnly();
+    }
+
+    /**
+     * Called with the overall pressure whenever it changes, on a monitoring
+     * thread.
+     */
+    public void addListener(Consumer<Pressure> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Registers a cache to empty once pressure reaches {@code level}.
+     * Caches are shed in the order they were registered.
+     */
+    public void addShedder(String name, Pressure level, Runnable shed) {
+        shedders.add(new Shedder(name, level, shed));
+    }
+
+    // =============================
+    // Monitoring
+    // =============================
+
+    private void applySettings(SettingsService settingsService) {
+        softLimit = settingsService.getHeapSoftPercent() / 100.0;
+        hardLimit = Math.max(softLimit, settingsService.getHeapHardPercent() / 100.0);
+        minFreeDiskBytes = settingsService.getMinFreeDiskMb() * 1024L * 1024L;
+        synchronized (this) {
+            setThresholds();
+        }
+    }
+
+    private void setThresholds() {
+        for (MemoryPoolMXBean pool : tenuredPools) {
+            long max = pool.getUsage().getMax();
+            if (max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * softLimit));
+            }
+        }
+    }
+
+    private void listen(Object bean) {
+        if (bean instanceof NotificationEmitter) {
+            NotificationEmitter emitter = (NotificationEmitter) bean;
+            emitter.addNotificationListener(notificationListener, null, null);
+            emitters.add(emitter);
+        }
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (type.equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                    .from((CompositeData) notification.getUserData());
+            lastGcAt = System.currentTimeMillis();
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (isHeapPool(pool.getKey())) {
+                    used += pool.getValue().getUsed();
+                }
+            }
+            updateHeap(used / (double) Runtime.getRuntime().maxMemory());
+        } else if (type.equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) {
+            MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+            updateHeap(Math.max(heapUsedAfterGc,
+                    info.getUsage().getUsed() / (double) Runtime.getRuntime().maxMemory()));
+        }
+    }
+
+    private static boolean isHeapPool(String name) {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().equals(name)) {
+                return pool.getType() == MemoryType.HEAP;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void updateHeap(double usedFraction) {
+        heapUsedAfterGc = usedFraction;
+        Pressure next = level(usedFraction, heapPressure);
+        if (next != heapPressure) {
+            log.info("Heap pressure {} -> {} ({}% in use after GC)", heapPressure, next,
+                    Math.round(usedFraction * 100));
+            heapPressure = next;
+            changed();
+        } else if (next != Pressure.NORMAL
+                && System.currentTimeMillis() - lastShedAt >= SHED_INTERVAL_MS) {
+            shed(next);
+        }
+    }
+
+    private Pressure level(double usedFraction, Pressure current) {
+        double soft = current == Pressure.NORMAL ? softLimit : softLimit - HYSTERESIS;
+        double hard = current == Pressure.CRITICAL ? hardLimit - HYSTERESIS : hardLimit;
+        if (usedFraction >= hard) {
+            return Pressure.CRITICAL;
+        }
+        return usedFraction >= soft ? Pressure.ELEVATED : Pressure.NORMAL;
+    }
+
+    private void check() {
+        checkDisk();
+        if (heapPressure == Pressure.CRITICAL && System.currentTimeMillis() - lastGcAt >= CHECK_INTERVAL_MS) {
+            // Work is held back until memory is freed, which may leave nothing
+            // allocating enough to start a collection; ask for one
+            System.gc();
+        }
+        if (heapPressure != Pressure.NORMAL) {
+            // An idle JVM may not collect again for a long time. Current use
+            // includes garbage, so once it is below a limit the live data is too
+            long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            double fraction = used / (double) Runtime.getRuntime().maxMemory();
+            if (level(fraction, heapPressure).compareTo(heapPressure) < 0) {
+                updateHeap(fraction);
+            }
+        }
+    }
+
+    private synchronized void checkDisk() {
+        long free = AppPaths.dataDir().getUsableSpace();
+        if (free <= 0) {
+            // Unknown
+            return;
+        }
+        // Disk limits are absolute; the elevated band is twice the minimum
+        Pressure next = free < minFreeDiskBytes ? Pressure.CRITICAL
+                : free < 2 * minFreeDiskBytes ? Pressure.ELEVATED
+                        : Pressure.NORMAL;
+        if (next != diskPressure) {
+            log.info("Disk pressure {} -> {} ({} MB free)", diskPressure, next, free / (1024 * 1024));
+            diskPressure = next;
+            changed();
+        }
+    }
+
+    private void changed() {
+        Pressure overall = pressure();
+        if (heapPressure != Pressure.NORMAL) {
+            shed(heapPressure);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        for (Consumer<Pressure> listener : listeners) {
+            try {
+                listener.accept(overall);
+            } catch (RuntimeException e) {
+                log.warn("Pressure listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Empties every cache registered for this level or below, cheapest
+     * first.
+     */
+    private void shed(Pressure level) {
+        lastShedAt = System.currentTimeMillis();
+        for (Shedder shedder : shedders) {
+            if (shedder.level.compareTo(level) <= 0) {
+                try {
+                    shedder.shed.run();
+                } catch (RuntimeException e) {
+                    log.warn("Shedding {} failed: {}", shedder.name, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -1,35 +1,321 @@
 package com.printapp.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.HotFolderRule;
+import com.printapp.model.PrintSinkConfig;
+import com.printapp.model.PrinterPool;
+
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Typed access to the app's settings. Values are held in memory by a
+ * {@link SettingsStore}; reads never touch the disk and writes are flushed
+ * in the background.
+ */
+public class SettingsService implements AutoCloseable {
+
+    private static final Logger log = Log.get("Settings");
+
+    private static final String LEGACY_SETTINGS_FILE = "settings.json";
+
+    private static final String DEFAULT_API_BASE_URL = "http://print-test-env-env.eba-9gvrcrjp.us-east-1.elasticbeanstalk.com";
+    private static final String DEFAULT_WEBSOCKET_URL = "ws://print-test-env-env.eba-9gvrcrjp.us-east-1.elasticbeanstalk.com/ws/print-events/websocket";
+
+    private static final TypeReference<List<PrinterPool>> POOL_LIST = new TypeReference<>() {
+    };
+    private static final TypeReference<List<PrintSinkConfig>> SINK_LIST = new TypeReference<>() {
+    };
+    private static final TypeReference<List<HotFolderRule>> HOT_FOLDER_LIST = new TypeReference<>() {
+    };
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {
+    };
+
+    private final SettingsStore store;
+
+    public SettingsService() {
+        this(AppPaths.settingsFile());
+    }
+
+    public SettingsService(File settingsFile) {
+        migrateLegacyFile(settingsFile);
+        this.store = new SettingsStore(settingsFile.toPath());
+        this.store.watch();
+    }
 
-public class SettingsService {
-    private static final String SETTINGS_FILE = "settings.json";
-    private final ObjectMapper mapper = new ObjectMapper();
+    public SettingsStore getStore() {
+        return store;
+    }
+
+    /**
+     * Notifies the listener with the changed keys after local writes and
+     * after external edits to settings.json.
+     */
+    public void addListener(Consumer<Set<String>> listener) {
+        store.addListener(listener);
+    }
 
     public void saveLastPrinter(String printerName) {
-        try {
-            Map<String, String> settings = new HashMap<>();
-            settings.put("lastPrinter", printerName);
-            mapper.writeValue(new File(SETTINGS_FILE), settings);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        store.set("lastPrinter", printerName);
     }
 
     public String getLastPrinter() {
-        File file = new File(SETTINGS_FILE);
-        if (file.exists()) {
-            try {
-                return mapper.readValue(file, new com.fasterxml.jackson.core.type.TypeReference<Map<String, String>>() {
-                }).get("lastPrinter");
-            } catch (IOException e) {
-                e.printStackTrace();
+        return store.getString("lastPrinter", null);
+    }
+
+    /**
+     * Returns the printer pools configured under "printerPools", or an empty
+     * list when none are defined.
+     */
+    public List<PrinterPool> getPrinterPools() {
+        return store.get("printerPools", POOL_LIST, Collections.emptyList());
+    }
+
+    /**
+     * Returns the file and virtual print sinks configured under
+     * "printSinks", or an empty list when none are defined.
+     */
+    public List<PrintSinkConfig> getPrintSinks() {
+        return store.get("printSinks", SINK_LIST, Collections.emptyList());
+    }
+
+    /**
+     * Watched folders whose files are printed unattended (key
+     * "hotFolders"), or an empty list.
+     */
+    public List<HotFolderRule> getHotFolders() {
+        return store.get("hotFolders", HOT_FOLDER_LIST, Collections.emptyList());
+    }
+
+    public String getApiBaseUrl() {
+        return trimTrailingSlash(store.getString("apiBaseUrl", DEFAULT_API_BASE_URL));
+    }
+
+    public String getWebSocketUrl() {
+        return store.getString("webSocketUrl", DEFAULT_WEBSOCKET_URL);
+    }
+
+    /**
+     * Printer IDs this station serves, as tagged on uploads by the QR code
+     * (key "printerIds"). Empty means the station takes every job.
+     */
+    public List<String> getPrinterIds() {
+        List<String> printerIds = new ArrayList<>();
+        for (String printerId : store.get("printerIds", STRING_LIST, Collections.<String>emptyList())) {
+            if (printerId != null && !printerId.isBlank() && !printerIds.contains(printerId.trim())) {
+                printerIds.add(printerId.trim());
             }
         }
-        return null;
+        return printerIds;
+    }
+
+    /**
+     * Stable identity of this print station, generated on first use.
+     */
+    public synchronized String getStationId() {
+        String stationId = store.getString("stationId", null);
+        if (stationId == null || stationId.isBlank()) {
+            stationId = "station-" + UUID.randomUUID().toString().substring(0, 8);
+            store.set("stationId", stationId);
+        }
+        return stationId;
+    }
+
+    /**
+     * Whether stations coordinate through job leases. Off by default because
+     * it needs backend support.
+     */
+    public boolean isLeasingEnabled() {
+        return store.getBoolean("leasing", false);
+    }
+
+    public int getLeaseTtlSeconds() {
+        return Math.max(10, store.getInt("leaseTtlSeconds", 60));
+    }
+
+    /**
+     * How many of the listed jobs this station prepares ahead of printing
+     * them while leasing is on. None are claimed until they print.
+     */
+    public int getMaxLeasedJobs() {
+        return Math.max(1, store.getInt("maxLeasedJobs", 4));
+    }
+
+    /**
+     * Maximum jobs waiting or printing per printer before new ones are
+     * turned away.
+     */
+    public int getPrinterQueueCapacity() {
+        return Math.max(1, store.getInt("printerQueueCapacity", 10));
+    }
+
+    /**
+     * Jobs costing at least this many pages (pages x copies, colour counted
+     * double) are bulk jobs and wait for off-peak or idle printer time.
+     * 0 leaves classification to the job's own bulk flag.
+     */
+    public int getBulkThresholdPages() {
+        return Math.max(0, store.getInt("bulkThresholdPages", 0));
+    }
+
+    /**
+     * Daily windows in which bulk jobs are released, as "HH:mm-HH:mm"
+     * (key "offPeakHours"). A window may run past midnight.
+     */
+    public List<String> getOffPeakHours() {
+        return store.get("offPeakHours", STRING_LIST, Collections.<String>emptyList());
+    }
+
+    /**
+     * Outside off-peak hours, a bulk job is released to a printer once it
+     * has had no walk-up jobs for this long.
+     */
+    public int getBulkIdleSeconds() {
+        return Math.max(10, store.getInt("bulkIdleSeconds", 120));
+    }
+
+    /**
+     * What is stamped on every printed page (key "stampFields"): any of
+     * "jobId", "fileName" and "qr". Empty, the default, leaves pages as they
+     * are.
+     */
+    public List<String> getStampFields() {
+        return store.get("stampFields", STRING_LIST, Collections.<String>emptyList());
+    }
+
+    /**
+     * Whether every job starts with a sheet naming it.
+     */
+    public boolean isSeparatorSheets() {
+        return store.getBoolean("separatorSheets", false);
+    }
+
+    /**
+     * Whether the job list is fetched without file content, with each file
+     * then downloaded from its {@code file_path}. Needs backend support.
+     */
+    public boolean isFilesByReference() {
+        return store.getBoolean("filesByReference", false);
+    }
+
+    /**
+     * How the job list is requested: "auto" (the default) asks for CBOR or
+     * Smile, with file content as raw bytes, and reads whatever the backend
+     * answers with; "json" asks for JSON only.
+     */
+    public String getWireFormat() {
+        return store.getString("wireFormat", "auto");
+    }
+
+    public int getMaxParallelDownloads() {
+        return Math.max(1, store.getInt("maxParallelDownloads", 3));
+    }
+
+    /**
+     * Printer the headless agent uses when no pool applies. Falls back to the
+     * last printer chosen in the desktop app.
+     */
+    public String getAgentPrinter() {
+        return store.getString("agentPrinter", getLastPrinter());
+    }
+
+    /**
+     * Whether the station accepts uploads from phones on the local network.
+     * Off by default.
+     */
+    public boolean isLanUploadEnabled() {
+        return store.getBoolean("lanUpload", false);
+    }
+
+    public int getLanUploadPort() {
+        return store.getInt("lanUploadPort", 8765);
+    }
+
+    /**
+     * Address phones should use to reach the station, when the detected
+     * LAN address is not the right one; null to detect it.
+     */
+    public String getLanUploadHost() {
+        String host = store.getString("lanUploadHost", null);
+        return host != null && !host.isBlank() ? host.trim() : null;
+    }
+
+    public long getLanUploadMaxBytes() {
+        return Math.max(1, store.getInt("lanUploadMaxMb", 200)) * 1024L * 1024L;
+    }
+
+    /**
+     * Share of the maximum heap, still in use after garbage collection,
+     * past which caches are shed and speculative work stops.
+     */
+    public int getHeapSoftPercent() {
+        return Math.min(95, Math.max(10, store.getInt("heapSoftPercent", 70)));
+    }
+
+    /**
+     * Share of the maximum heap past which new print jobs and downloads wait.
+     */
+    public int getHeapHardPercent() {
+        return Math.min(98, Math.max(10, store.getInt("heapHardPercent", 85)));
+    }
+
+    /**
+     * Free space the data directory must keep before downloads and uploads
+     * are refused.
+     */
+    public long getMinFreeDiskMb() {
+        return Math.max(0, store.getInt("minFreeDiskMb", 512));
+    }
+
+    /**
+     * How job status transitions reach the backend: "off", "http" (batched
+     * POST to /order/status) or "stomp" (SEND frames over the WebSocket).
+     * Off by default because it needs backend support.
+     */
+    public String getStatusReporting() {
+        return store.getString("statusReporting", "off");
+    }
+
+    /**
+     * How long reports are collected before being sent as one batch.
+     */
+    public long getStatusReportIntervalMs() {
+        return Math.max(200, store.getInt("statusReportIntervalMs", 2000));
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * Earlier versions kept settings.json in the working directory. Copy it
+     * into the data directory the first time we start without one there.
+     */
+    private static void migrateLegacyFile(File settingsFile) {
+        File legacy = new File(LEGACY_SETTINGS_FILE).getAbsoluteFile();
+        if (settingsFile.exists() || !legacy.isFile() || legacy.equals(settingsFile.getAbsoluteFile())) {
+            return;
+        }
+        try {
+            Files.copy(legacy.toPath(), settingsFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            log.info("Migrated {} to {}", legacy, settingsFile);
+        } catch (IOException e) {
+            log.warn("Failed to migrate {}: {}", legacy, e.getMessage());
+        }
+    }
+
+    private static String trimTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
     }
 }
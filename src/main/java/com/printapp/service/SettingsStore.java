@@ -0,0 +1,352 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * In-memory JSON settings with write-behind persistence.
+ *
+ * Reads come from an immutable snapshot and typed values are memoized per
+ * key, so repeated lookups on hot paths do no parsing or I/O. Writes replace
+ * the snapshot and schedule a single flush a short delay later; a burst of
+ * changes is written once, to a temp file that is atomically renamed over
+ * the real one. A {@link WatchService} picks up edits made to the file by
+ * hand and notifies listeners with the keys that changed; values set in the
+ * app but not yet written win over the file's.
+ */
+public class SettingsStore implements AutoCloseable {
+
+    private static final Logger log = Log.get("Settings");
+
+    private static final long FLUSH_DELAY_MS = 500;
+    private static final Object NULL = new Object();
+
+    private final Path file;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Object> decoded = new ConcurrentHashMap<>();
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService flusher;
+    private final Object writeLock = new Object();
+    // Values set since the last successful write (null for removed keys), guarded by this
+    private final Map<String, JsonNode> dirty = new HashMap<>();
+    private volatile ObjectNode snapshot;
+    private volatile byte[] lastPersisted = new byte[0];
+    private boolean flushScheduled;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public SettingsStore(Path file) {
+        this.file = file;
+        this.snapshot = mapper.createObjectNode();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "settings-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        load();
+    }
+
+    // =============================
+    // Reads
+    // =============================
+    public String getString(String key, String defaultValue) {
+        JsonNode node = snapshot.get(key);
+        return node != null && node.isValueNode() && !node.isNull() ? node.asText() : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        JsonNode node = snapshot.get(key);
+        return node != null && node.canConvertToInt() ? node.asInt() : defaultValue;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        JsonNode node = snapshot.get(key);
+        return node != null && node.isBoolean() ? node.asBoolean() : defaultValue;
+    }
+
+    /**
+     * Returns the value under {@code key} bound to the given type, or the
+     * default if it is missing or malformed. The bound value is cached until
+     * the key changes, so callers must not mutate it.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, TypeReference<T> type, T defaultValue) {
+        Object cached = decoded.get(key);
+        if (cached == null) {
+            // Under the lock set() invalidates with, so a value decoded from an older snapshot is never cached
+            synchronized (this) {
+                cached = decoded.get(key);
+                if (cached == null) {
+                    JsonNode node = snapshot.get(key);
+                    try {
+                        cached = node == null || node.isNull() ? NULL : mapper.convertValue(node, type);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Invalid value for {}: {}", key, e.getMessage());
+                        cached = NULL;
+                    }
+                    decoded.put(key, cached);
+                }
+            }
+        }
+        return cached == NULL ? defaultValue : (T) cached;
+    }
+
+    // =============================
+    // Writes
+    // =============================
+    /**
+     * Stores a value (any Jackson-serializable object, or null to remove the
+     * key) and schedules a flush. Setting an unchanged value does nothing.
+     */
+    public void set(String key, Object value) {
+        JsonNode node = value == null ? null : mapper.valueToTree(value);
+        synchronized (this) {
+            JsonNode current = snapshot.get(key);
+            if (node == null ? current == null : node.equals(current)) {
+                return;
+            }
+            ObjectNode next = snapshot.deepCopy();
+            if (node == null) {
+                next.remove(key);
+            } else {
+                next.set(key, node);
+            }
+            snapshot = next;
+            dirty.put(key, node);
+            decoded.remove(key);
+            scheduleFlush();
+        }
+        notifyListeners(Set.of(key));
+    }
+
+    /**
+     * Registers a listener called with the changed keys, both for local
+     * writes and for external edits to the file.
+     */
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Writes pending changes now.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            byte[] bytes;
+            Map<String, JsonNode> written;
+            synchronized (this) {
+                flushScheduled = false;
+                try {
+                    bytes = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(snapshot);
+                } catch (IOException e) {
+                    log.warn("Failed to serialize settings: {}", e.getMessage());
+                    return;
+                }
+                written = new HashMap<>(dirty);
+            }
+
+            if (!Arrays.equals(bytes, lastPersisted)) {
+                try {
+                    Files.createDirectories(file.getParent());
+                    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                    Files.write(tmp, bytes);
+                    try {
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (IOException e) {
+                    // Still dirty, so a reload keeps these values and the next set() tries again
+                    log.warn("Failed to write {}: {}", file, e.getMessage());
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                lastPersisted = bytes;
+                // Keys set again while writing stay dirty
+                written.forEach(dirty::remove);
+            }
+        }
+    }
+
+    // =============================
+    // External Edits
+    // =============================
+    /**
+     * Starts watching the settings file for changes made outside the app.
+     */
+    public void watch() {
+        try {
+            Files.createDirectories(file.getParent());
+            watchService = FileSystems.getDefault().newWatchService();
+            file.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.warn("Cannot watch {}: {}", file, e.getMessage());
+            return;
+        }
+
+        watchThread = new Thread(this::watchLoop, "settings-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && file.getFileName().equals(context)) {
+                        touched = true;
+                    }
+                }
+                if (touched) {
+                    reloadFromDisk();
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Store closed
+        }
+    }
+
+    private void reloadFromDisk() {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            return;
+        }
+        if (Arrays.equals(bytes, lastPersisted)) {
+            return; // our own write
+        }
+
+        ObjectNode loaded;
+        try {
+            JsonNode tree = mapper.readTree(bytes);
+            if (!(tree instanceof ObjectNode)) {
+                return;
+            }
+            loaded = (ObjectNode) tree;
+        } catch (IOException e) {
+            // Probably caught mid-edit; the next event will bring the rest
+            return;
+        }
+
+        Set<String> changed = new HashSet<>();
+        synchronized (this) {
+            // Values set here but not written yet were made after the file was read
+            for (Map.Entry<String, JsonNode> entry : dirty.entrySet()) {
+                if (entry.getValue() == null) {
+                    loaded.remove(entry.getKey());
+                } else {
+                    loaded.set(entry.getKey(), entry.getValue());
+                }
+            }
+            ObjectNode previous = snapshot;
+            for (Iterator<String> it = loaded.fieldNames(); it.hasNext();) {
+                String key = it.next();
+                if (!loaded.get(key).equals(previous.get(key))) {
+                    changed.add(key);
+                }
+            }
+            for (Iterator<String> it = previous.fieldNames(); it.hasNext();) {
+                String key = it.next();
+                if (!loaded.has(key)) {
+                    changed.add(key);
+                }
+            }
+            snapshot = loaded;
+            lastPersisted = bytes;
+            decoded.keySet().removeAll(changed);
+            if (!dirty.isEmpty()) {
+                scheduleFlush();
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            log.info("Reloaded external changes: {}", changed);
+            notifyListeners(changed);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+        flusher.shutdownNow();
+        flush();
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            JsonNode tree = mapper.readTree(bytes);
+            if (tree instanceof ObjectNode) {
+                snapshot = (ObjectNode) tree;
+                lastPersisted = bytes;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled && !flusher.isShutdown()) {
+            flushScheduled = true;
+            flusher.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void notifyListeners(Set<String> changedKeys) {
+        for (Consumer<Set<String>> listener : listeners) {
+            try {
+                listener.accept(changedKeys);
+            } catch (Exception e) {
+                log.warn("Listener failed: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontFactory;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import org.apache.pdfbox.pdmodel.graphics.shading.PDShading;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses parsed fonts, ICC colour spaces and decoded images across PDF
+ * documents, so a run of jobs made from the same template (tickets,
+ * invoices, forms) parses its fonts and decodes its logo once rather than
+ * once per job.
+ *
+ * Resources are keyed by a SHA-256 hash of their content, including the
+ * raw bytes of every stream they use. A hit is handed out as a copy built
+ * from detached in-memory streams, so it outlives the document it was
+ * first read from. PDFBox objects are not safe to use from two threads at
+ * once, so each resource is checked out by one document at a time and
+ * returned when that document is released; concurrent jobs using the same
+ * template each get their own instance, and up to a few idle instances
+ * per resource are kept. Idle instances are bounded in total size and
+ * dropped under memory pressure.
+ *
+ * Use {@link #attach(PDDocument)} after loading and
+ * {@link #release(PDDocument)} before closing.
+ */
+public final class SharedResourceCache {
+
+    private static final Logger log = Log.get("ResourceCache");
+
+    private static final SharedResourceCache INSTANCE = new SharedResourceCache();
+
+    private static final long MAX_IDLE_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_IDLE_PER_RESOURCE = 4;
+    // Deeper graphs are not worth hashing, and may be cyclic
+    private static final int MAX_DEPTH = 16;
+    private static final Set<COSName> DEFAULT_COLOR_SPACES = Set.of(COSName.DEFAULT_GRAY, COSName.DEFAULT_RGB,
+            COSName.DEFAULT_CMYK);
+    private static final Set<COSName> DEVICE_COLOR_SPACES = Set.of(COSName.DEVICEGRAY, COSName.DEVICERGB,
+            COSName.DEVICECMYK);
+
+    private enum Kind {
+        FONT, COLOR_SPACE, IMAGE
+    }
+
+    /**
+     * A detached resource and roughly how much memory it holds.
+     */
+    private static final class Pooled {
+        final Object resource;
+        final long bytes;
+
+        Pooled(Object resource, long bytes) {
+            this.resource = resource;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Map<String, Deque<Pooled>> idle = new LinkedHashMap<>(64, 0.75f, true);
+    private long idleBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private SharedResourceCache() {
+        ResourceGovernor.get().addShedder("shared PDF resources", ResourceGovernor.Pressure.ELEVATED, this::clear);
+    }
+
+    public static SharedResourceCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Makes a freshly loaded document look its resources up here.
+     */
+    public void attach(PDDocument document) {
+        document.setResourceCache(new View(!hasDefaultColorSpaces(document)));
+    }
+
+    /**
+     * Returns the document's shared resources for other documents to use.
+     * The document must not be rendered afterwards.
+     */
+    public void release(PDDocument document) {
+        if (document.getResourceCache() instanceof View) {
+            ((View) document.getResourceCache()).close();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    public synchronized void clear() {
+        if (idle.isEmpty()) {
+            return;
+        }
+        log.info("Dropping {} idle PDF resource(s), {} KB", idle.size(), idleBytes / 1024);
+        idle.clear();
+        idleBytes = 0;
+    }
+
+    // =============================
+    // Pool
+    // =============================
+
+    private synchronized Pooled take(String key) {
+        Deque<Pooled> instances = idle.get(key);
+        if (instances == null) {
+            return null;
+        }
+        Pooled pooled = instances.pollFirst();
+        if (instances.isEmpty()) {
+            idle.remove(key);
+        }
+        idleBytes -= pooled.bytes;
+        return pooled;
+    }
+
+    private synchronized void giveBack(String key, Pooled pooled) {
+        Deque<Pooled> instances = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+        if (instances.size() >= MAX_IDLE_PER_RESOURCE) {
+            evictions.incrementAndGet();
+            return;
+        }
+        instances.addFirst(pooled);
+        idleBytes += pooled.bytes;
+
+        // Least recently used resources go first
+        Iterator<Deque<Pooled>> it = idle.values().iterator();
+        while (idleBytes > MAX_IDLE_BYTES && it.hasNext()) {
+            for (Pooled evicted : it.next()) {
+                idleBytes -= evicted.bytes;
+                evictions.incrementAndGet();
+            }
+            it.remove();
+        }
+    }
+
+    // =============================
+    // Per-document view
+    // =============================
+
+    /**
+     * The resource cache of one document. Shared resources it has checked
+     * out stay with it until {@link #close()}; everything else is cached
+     * for this document only, as PDFBox does by default.
+     */
+    private final class View implements ResourceCache, Closeable {
+        private final ResourceCache local = new DefaultResourceCache();
+        private final boolean sharesImages;
+        // Null values mark objects that are not shared
+        private final Map<COSObject, Checkout> checkedOut = new IdentityHashMap<>();
+        private boolean closed;
+
+        View(boolean sharesImages) {
+            this.sharesImages = sharesImages;
+        }
+
+        @Override
+        public PDFont getFont(COSObject indirect) throws IOException {
+            Object shared = lookup(indirect, Kind.FONT);
+            return shared != null ? (PDFont) shared : local.getFont(indirect);
+        }
+
+        @Override
+        public PDColorSpace getColorSpace(COSObject indirect) throws IOException {
+            Object shared = lookup(indirect, Kind.COLOR_SPACE);
+            return shared != null ? (PDColorSpace) shared : local.getColorSpace(indirect);
+        }
+
+        @Override
+        public PDXObject getXObject(COSObject indirect) throws IOException {
+            Object shared = lookup(indirect, Kind.IMAGE);
+            return shared != null ? (PDXObject) shared : local.getXObject(indirect);
+        }
+
+        @Override
+        public PDExtendedGraphicsState getExtGState(COSObject indirect) {
+            return local.getExtGState(indirect);
+        }
+
+        @Override
+        public PDShading getShading(COSObject indirect) throws IOException {
+            return local.getShading(indirect);
+        }
+
+        @Override
+        public PDAbstractPattern getPattern(COSObject indirect) throws IOException {
+            return local.getPattern(indirect);
+        }
+
+        @Override
+        public PDPropertyList getProperties(COSObject indirect) {
+            return local.getProperties(indirect);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDFont font) throws IOException {
+            local.put(indirect, font);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDColorSpace colorSpace) throws IOException {
+            local.put(indirect, colorSpace);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDExtendedGraphicsState extGState) {
+            local.put(indirect, extGState);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDShading shading) throws IOException {
+            local.put(indirect, shading);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDAbstractPattern pattern) throws IOException {
+            local.put(indirect, pattern);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDPropertyList propertyList) {
+            local.put(indirect, propertyList);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDXObject xobject) throws IOException {
+            local.put(indirect, xobject);
+        }
+
+        private synchronized Object lookup(COSObject indirect, Kind kind) {
+            if (closed) {
+                return null;
+            }
+            if (checkedOut.containsKey(indirect)) {
+                Checkout checkout = checkedOut.get(indirect);
+                return checkout != null ? checkout.pooled.resource : null;
+            }
+            COSBase base = indirect.getObject();
+            Checkout checkout = null;
+            if (isShareable(kind, base)) {
+                try {
+                    String key = kind + ":" + contentHash(base);
+                    Pooled pooled = take(key);
+                    if (pooled != null) {
+                        hits.incrementAndGet();
+                    } else {
+                        pooled = build(kind, base);
+                        misses.incrementAndGet();
+                    }
+                    checkout = new Checkout(key, pooled);
+                } catch (IOException | RuntimeException e) {
+                    // PDFBox reads it the usual way and reports the problem itself
+                    log.debug("Not sharing {} {}: {}", kind, indirect, e.getMessage());
+                }
+            }
+            checkedOut.put(indirect, checkout);
+            return checkout != null ? checkout.pooled.resource : null;
+        }
+
+        private boolean isShareable(Kind kind, COSBase base) {
+            switch (kind) {
+                case FONT:
+                    // Type 3 glyphs are content streams with their own resources
+                    return base instanceof COSDictionary && !(base instanceof COSStream)
+                            && !COSName.TYPE3.equals(((COSDictionary) base).getCOSName(COSName.SUBTYPE));
+                case COLOR_SPACE:
+                    // Only ICC profiles are costly to set up
+                    return base instanceof COSStream || base instanceof COSArray
+                            && ((COSArray) base).size() == 2
+                            && COSName.ICCBASED.equals(((COSArray) base).getObject(0));
+                case IMAGE:
+                    if (!sharesImages || !(base instanceof COSStream)
+                            || !COSName.IMAGE.equals(((COSStream) base).getCOSName(COSName.SUBTYPE))) {
+                        return false;
+                    }
+                    // Named colour spaces other than the device ones live in the page resources
+                    COSBase colorSpace = ((COSStream) base).getDictionaryObject(COSName.COLORSPACE);
+                    return !(colorSpace instanceof COSName) || DEVICE_COLOR_SPACES.contains(colorSpace);
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            int returned = 0;
+            for (Checkout checkout : checkedOut.values()) {
+                if (checkout != null) {
+                    giveBack(checkout.key, checkout.pooled);
+                    returned++;
+                }
+            }
+            checkedOut.clear();
+            if (returned > 0) {
+                log.debug("Returned {} shared resource(s); {} hits, {} misses so far", returned, hits.get(),
+                        misses.get());
+            }
+        }
+    }
+
+    private static final class Checkout {
+        final String key;
+        final Pooled pooled;
+
+        Checkout(String key, Pooled pooled) {
+            this.key = key;
+            this.pooled = pooled;
+        }
+    }
+
+    // =============================
+    // Building detached resources
+    // =============================
+
+    private static Pooled build(Kind kind, COSBase base) throws IOException {
+        long[] streamBytes = new long[1];
+        COSBase copy = detach(base, new IdentityHashMap<>(), streamBytes, 0);
+        switch (kind) {
+            case FONT:
+                // Parsed font tables take about as much again as the font program
+                return new Pooled(PDFontFactory.createFont((COSDictionary) copy, null), streamBytes[0] * 2);
+            case COLOR_SPACE:
+                COSArray array;
+                if (copy instanceof COSStream) {
+                    // Looked up by the profile stream inside an [/ICCBased stream] array
+                    array = new COSArray();
+                    array.add(COSName.ICCBASED);
+                    array.add(copy);
+                } else {
+                    array = (COSArray) copy;
+                }
+                return new Pooled(PDColorSpace.create(array), streamBytes[0]);
+            case IMAGE:
+                PDImageXObject image = new PDImageXObject(new PDStream((COSStream) copy), null);
+                // The decoded raster is kept by the image once it has been drawn
+                return new Pooled(image, streamBytes[0] + 4L * image.getWidth() * image.getHeight());
+            default:
+                throw new IllegalArgumentException(kind.name());
+        }
+    }
+
+    /**
+     * Copies an object graph into memory, resolving indirect references, so
+     * that it no longer depends on the document it came from.
+     */
+    private static COSBase detach(COSBase base, Map<COSBase, COSBase> copies, long[] streamBytes, int depth)
+            throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (base == null) {
+            return COSNull.NULL;
+        }
+        if (!(base instanceof COSDictionary) && !(base instanceof COSArray)) {
+            // Names, numbers and strings are not modified while rendering
+            return base;
+        }
+        COSBase existing = copies.get(base);
+        if (existing != null) {
+            return existing;
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Resource is nested too deeply");
+        }
+
+        if (base instanceof COSArray) {
+            COSArray array = new COSArray();
+            copies.put(base, array);
+            for (COSBase item : (COSArray) base) {
+                array.add(detach(item, copies, streamBytes, depth + 1));
+            }
+            return array;
+        }
+        COSDictionary source = (COSDictionary) base;
+        COSDictionary dictionary = source instanceof COSStream ? new COSStream() : new COSDictionary();
+        copies.put(base, dictionary);
+        for (Map.Entry<COSName, COSBase> entry : source.entrySet()) {
+            if (!entry.getKey().equals(COSName.PARENT)) {
+                dictionary.setItem(entry.getKey(), detach(entry.getValue(), copies, streamBytes, depth + 1));
+            }
+        }
+        if (source instanceof COSStream) {
+            try (InputStream in = ((COSStream) source).createRawInputStream();
+                    OutputStream out = ((COSStream) dictionary).createRawOutputStream()) {
+                streamBytes[0] += in.transferTo(out);
+            }
+        }
+        return dictionary;
+    }
+
+    // =============================
+    // Content hashing
+    // =============================
+
+    private static String contentHash(COSBase base) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        hash(base, digest, Collections.newSetFromMap(new IdentityHashMap<>()), 0);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void hash(COSBase base, MessageDigest digest, Set<COSBase> seen, int depth) throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Resource is nested too deeply");
+        }
+        if (base == null || base instanceof COSNull) {
+            digest.update((byte) 'z');
+        } else if (base instanceof COSName) {
+            digest.update((byte) 'n');
+            update(digest, ((COSName) base).getName());
+        } else if (base instanceof COSString) {
+            digest.update((byte) 's');
+            byte[] bytes = ((COSString) base).getBytes();
+            update(digest, Integer.toString(bytes.length));
+            digest.update(bytes);
+        } else if (!(base instanceof COSDictionary) && !(base instanceof COSArray)) {
+            // Numbers and booleans
+            digest.update((byte) 'v');
+            update(digest, base.toString());
+        } else if (!seen.add(base)) {
+            // Shared or cyclic; the traversal order keeps this deterministic
+            digest.update((byte) '^');
+        } else if (base instanceof COSArray) {
+            COSArray array = (COSArray) base;
+            digest.update((byte) 'a');
+            update(digest, Integer.toString(array.size()));
+            for (COSBase item : array) {
+                hash(item, digest, seen, depth + 1);
+            }
+        } else {
+            COSDictionary dictionary = (COSDictionary) base;
+            digest.update((byte) (base instanceof COSStream ? 'S' : 'd'));
+            List<COSName> keys = new ArrayList<>(dictionary.keySet());
+            Collections.sort(keys);
+            for (COSName key : keys) {
+                if (!key.equals(COSName.PARENT)) {
+                    update(digest, key.getName());
+                    hash(dictionary.getItem(key), digest, seen, depth + 1);
+                }
+            }
+            if (base instanceof COSStream) {
+                byte[] buffer = new byte[8192];
+                try (InputStream in = ((COSStream) base).createRawInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    // =============================
+    // Colour space overrides
+    // =============================
+
+    /**
+     * Whether any page overrides a device colour space with /DefaultRGB
+     * and the like. Images in such documents are decoded against their
+     * page's resources, so they are not shared.
+     */
+    private static boolean hasDefaultColorSpaces(PDDocument document) {
+        for (PDPage page : document.getPages()) {
+            PDResources resources = page.getResources();
+            if (resources == null) {
+                continue;
+            }
+            if (declaresDefaults(resources.getCOSObject())) {
+                return true;
+            }
+            // Forms placed on the page have resources of their own
+            COSBase xobjects = resources.getCOSObject().getDictionaryObject(COSName.XOBJECT);
+            if (xobjects instanceof COSDictionary) {
+                for (COSBase xobject : ((COSDictionary) xobjects).getValues()) {
+                    COSBase form = xobject instanceof COSObject ? ((COSObject) xobject).getObject() : xobject;
+                    if (form instanceof COSStream) {
+                        COSBase formResources = ((COSStream) form).getDictionaryObject(COSName.RESOURCES);
+                        if (formResources instanceof COSDictionary && declaresDefaults((COSDictionary) formResources)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean declaresDefaults(COSDictionary resources) {
+        COSBase colorSpaces = resources.getDictionaryObject(COSName.COLORSPACE);
+        if (colorSpaces instanceof COSDictionary) {
+            for (COSName name : ((COSDictionary) colorSpaces).keySet()) {
+                if (DEFAULT_COLOR_SPACES.contains(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,235 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+import com.printapp.model.SpoolReport;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.print.PrintService;
+import javax.print.attribute.standard.PrinterResolution;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.io.IOException;
+
+/**
+ * Shrinks what the rendered print path hands to the spooler.
+ *
+ * Mono jobs are rasterized ourselves as 8-bit grey (photo pages) or 1-bit
+ * (text pages) instead of letting the driver spool 24-bit colour. The
+ * resolution is chosen per page from its content and capped at what the
+ * printer reports it can print. Colour text pages stay vector. Oversized
+ * images are downsampled to the target resolution before they are drawn.
+ */
+public class SpoolOptimizer {
+
+    private static final int MONO_TEXT_DPI = 600;
+    private static final int TEXT_DPI = 300;
+    private static final int PHOTO_DPI = 200;
+    private static final int DEFAULT_MAX_DPI = 600;
+
+    // Images smaller than this are logos or icons, not photos
+    private static final long PHOTO_MIN_PIXELS = 300L * 300L;
+
+    /**
+     * Highest resolution the printer reports, or a conservative default when
+     * it reports none.
+     */
+    public int maxDpi(PrintService service) {
+        Object supported = service.getSupportedAttributeValues(PrinterResolution.class, null, null);
+        int max = 0;
+        if (supported instanceof PrinterResolution[]) {
+            for (PrinterResolution resolution : (PrinterResolution[]) supported) {
+                max = Math.max(max, Math.min(resolution.getCrossFeedResolution(PrinterResolution.DPI),
+                        resolution.getFeedResolution(PrinterResolution.DPI)));
+            }
+        }
+        return max > 0 ? max : DEFAULT_MAX_DPI;
+    }
+
+    /**
+     * Returns true when the page draws at least one photo-sized image.
+     */
+    public boolean isPhotoPage(PDPage page) {
+        PDResources resources = page.getResources();
+        if (resources == null) {
+            return false;
+        }
+        try {
+            for (COSName name : resources.getXObjectNames()) {
+                if (!resources.isImageXObject(name)) {
+                    continue;
+                }
+                PDXObject xObject = resources.getXObject(name);
+                if (xObject instanceof PDImageXObject) {
+                    PDImageXObject image = (PDImageXObject) xObject;
+                    if ((long) image.getWidth() * image.getHeight() >= PHOTO_MIN_PIXELS) {
+                        return true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable resources: treat as photo so nothing is lost to 1-bit
+            return true;
+        }
+        return false;
+    }
+
+    public Printable pdfPrintable(PDDocument document, PrintConfig config, int maxDpi, SpoolReport report) {
+        return new OptimizedPdfPrintable(document, isMono(config), maxDpi, report);
+    }
+
+    /**
+     * Scales an image down so it has no more pixels than the target area
+     * needs at the target resolution, converting mono jobs to greyscale.
+     * Images that are already small enough are only converted.
+     */
+    public BufferedImage downsample(BufferedImage image, double widthPoints, double heightPoints, int dpi,
+            boolean mono) {
+        int maxWidth = (int) Math.ceil(widthPoints / 72.0 * dpi);
+        int maxHeight = (int) Math.ceil(heightPoints / 72.0 * dpi);
+        double scale = Math.min(1.0, Math.min((double) maxWidth / image.getWidth(),
+                (double) maxHeight / image.getHeight()));
+
+        if (scale >= 1.0 && (!mono || image.getType() == BufferedImage.TYPE_BYTE_GRAY)) {
+            return image;
+        }
+
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height,
+                mono ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, java.awt.Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    public int photoDpi(int maxDpi) {
+        return Math.min(PHOTO_DPI, maxDpi);
+    }
+
+    public boolean isMono(PrintConfig config) {
+        return "Black & White".equals(config.getColorMode());
+    }
+
+    /**
+     * Bytes a 24-bit page of this size would cost at the given resolution.
+     */
+    static long baselineBytes(double widthPoints, double heightPoints, int dpi) {
+        return (long) (widthPoints / 72.0 * dpi) * (long) (heightPoints / 72.0 * dpi) * 3L;
+    }
+
+    static long rasterBytes(BufferedImage image) {
+        int bits = image.getColorModel().getPixelSize();
+        return ((long) image.getWidth() * bits + 7) / 8 * image.getHeight();
+    }
+
+    /**
+     * Prints PDF pages with per-page raster settings, centred and shrunk to
+     * fit the imageable area like {@code Scaling.SHRINK_TO_FIT}.
+     */
+    private class OptimizedPdfPrintable implements Printable {
+        private final PDDocument document;
+        private final PDFRenderer renderer;
+        private final boolean mono;
+        private final int maxDpi;
+        private final SpoolReport report;
+
+        // The print system may ask for the same page more than once
+        private int lastPageIndex = -1;
+        private BufferedImage lastImage;
+        private int lastDpi;
+
+        OptimizedPdfPrintable(PDDocument document, boolean mono, int maxDpi, SpoolReport report) {
+            this.document = document;
+            this.renderer = new PDFRenderer(document);
+            this.renderer.setSubsamplingAllowed(true);
+            this.mono = mono;
+            this.maxDpi = maxDpi;
+            this.report = report;
+        }
+
+        @Override
+        public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
+            if (pageIndex < 0 || pageIndex >= document.getNumberOfPages()) {
+                return NO_SUCH_PAGE;
+            }
+
+            try {
+                PDPage page = document.getPage(pageIndex);
+                PDRectangle box = page.getCropBox();
+                boolean rotated = page.getRotation() % 180 != 0;
+                double pageWidth = rotated ? box.getHeight() : box.getWidth();
+                double pageHeight = rotated ? box.getWidth() : box.getHeight();
+
+                double scale = Math.min(1.0, Math.min(pageFormat.getImageableWidth() / pageWidth,
+                        pageFormat.getImageableHeight() / pageHeight));
+                double x = pageFormat.getImageableX() + (pageFormat.getImageableWidth() - pageWidth * scale) / 2;
+                double y = pageFormat.getImageableY() + (pageFormat.getImageableHeight() - pageHeight * scale) / 2;
+
+                boolean firstPass = pageIndex != lastPageIndex;
+                boolean photo = isPhotoPage(page);
+                Graphics2D g2d = (Graphics2D) graphics;
+
+                if (!mono && !photo) {
+                    // Colour text stays vector; the spooler gets drawing commands
+                    g2d.translate(x, y);
+                    try (Span span = Span.begin(JobStage.RENDER, report.getJobId())) {
+                        span.detail("vector");
+                        renderer.renderPageToGraphics(pageIndex, g2d, (float) scale);
+                    }
+                    if (firstPass) {
+                        lastPageIndex = pageIndex;
+                        lastImage = null;
+                        report.addVectorPage(baselineBytes(pageWidth * scale, pageHeight * scale, maxDpi));
+                    }
+                    return PAGE_EXISTS;
+                }
+
+                if (firstPass) {
+                    int dpi = Math.min(maxDpi, mono ? (photo ? PHOTO_DPI : MONO_TEXT_DPI) : PHOTO_DPI);
+                    ImageType type = !mono ? ImageType.RGB : (photo ? ImageType.GRAY : ImageType.BINARY);
+                    // Render at the size the page will actually occupy on paper
+                    try (Span span = Span.begin(JobStage.RENDER, report.getJobId()).detail(type.name())) {
+                        lastImage = renderer.renderImageWithDPI(pageIndex, (float) (dpi * scale), type);
+                        span.bytes(rasterBytes(lastImage));
+                    }
+                    lastPageIndex = pageIndex;
+                    lastDpi = dpi;
+                    report.setDpi(dpi);
+                    report.setImageType(type.name());
+                    report.addRasterPage(rasterBytes(lastImage),
+                            baselineBytes(pageWidth * scale, pageHeight * scale, maxDpi));
+                }
+
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.drawImage(lastImage, (int) Math.round(x), (int) Math.round(y),
+                        (int) Math.round(lastImage.getWidth() * 72.0 / lastDpi),
+                        (int) Math.round(lastImage.getHeight() * 72.0 / lastDpi), null);
+                return PAGE_EXISTS;
+
+            } catch (IOException e) {
+                throw new PrinterException("Failed to render page " + (pageIndex + 1) + ": " + e.getMessage());
+            }
+        }
+    }
+}
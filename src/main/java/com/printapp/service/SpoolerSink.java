@@ -0,0 +1,140 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+
+import javax.print.DocFlavor;
+import javax.print.DocPrintJob;
+import javax.print.PrintService;
+import javax.print.SimpleDoc;
+import javax.print.attribute.Attribute;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.standard.Chromaticity;
+import javax.print.attribute.standard.Copies;
+import javax.print.attribute.standard.JobName;
+import javax.print.attribute.standard.NumberUp;
+import javax.print.attribute.standard.Sides;
+import java.awt.print.PrinterJob;
+import java.awt.print.Printable;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * An OS printer reached through {@code javax.print}: the spooler path the
+ * app has always used.
+ */
+class SpoolerSink implements PrintSink {
+
+    private final PrintService service;
+    private final SpoolOptimizer spoolOptimizer;
+
+    SpoolerSink(PrintService service, SpoolOptimizer spoolOptimizer) {
+        this.service = service;
+        this.spoolOptimizer = spoolOptimizer;
+    }
+
+    @Override
+    public String getName() {
+        return service.getName();
+    }
+
+    @Override
+    public int maxDpi() {
+        return spoolOptimizer.maxDpi(service);
+    }
+
+    @Override
+    public boolean acceptsPdf() {
+        return service.isDocFlavorSupported(DocFlavor.INPUT_STREAM.PDF);
+    }
+
+    @Override
+    public void sendPdf(File file, PrintConfig config, String jobName) throws Exception {
+        DocFlavor flavor = DocFlavor.INPUT_STREAM.PDF;
+        PrintRequestAttributeSet attr = buildAttributes(config, flavor, jobName);
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            DocPrintJob job = service.createPrintJob();
+            job.print(new SimpleDoc(in, flavor, null), attr);
+        }
+    }
+
+    @Override
+    public void sendPages(Printable printable, PrintConfig config, String jobName) throws Exception {
+        PrinterJob job = PrinterJob.getPrinterJob();
+
+        job.setPrintService(service);
+        job.setJobName(jobName);
+        job.setPrintable(printable);
+
+        // Copies, sides and colour travel as request attributes so the
+        // driver can collate instead of re-rendering every copy
+        PrintRequestAttributeSet attr = buildAttributes(config, null, jobName);
+
+        // Silent Print
+        job.print(attr);
+    }
+
+    // =============================
+    // Request Attributes
+    // =============================
+    private PrintRequestAttributeSet buildAttributes(PrintConfig config, DocFlavor flavor, String jobName) {
+
+        PrintRequestAttributeSet attr = new HashPrintRequestAttributeSet();
+        attr.add(new JobName(jobName, null));
+
+        // Copies
+        attr.add(new Copies(Math.max(1, config.getCopies())));
+
+        // Color Mode
+        if ("Black & White".equals(config.getColorMode())) {
+            addIfSupported(attr, flavor, Chromaticity.MONOCHROME);
+        } else if ("Color".equals(config.getColorMode())) {
+            addIfSupported(attr, flavor, Chromaticity.COLOR);
+        }
+
+        // Sides
+        if ("Front and Back (Duplex)".equals(config.getSideOption())) {
+            addIfSupported(attr, flavor, Sides.DUPLEX);
+        } else {
+            addIfSupported(attr, flavor, Sides.ONE_SIDED);
+        }
+
+        // Pages per sheet, only where the device can impose them itself
+        int pagesPerSheet = pagesPerSheet(config.getLayout());
+        if (pagesPerSheet > 1) {
+            NumberUp numberUp = new NumberUp(pagesPerSheet);
+            if (service.isAttributeValueSupported(numberUp, flavor, null)) {
+                attr.add(numberUp);
+            }
+        }
+
+        return attr;
+    }
+
+    /**
+     * Document print jobs reject attributes the device does not support, so
+     * for passthrough each optional attribute is checked first. The rendered
+     * path leaves that decision to the driver, as before.
+     */
+    private void addIfSupported(PrintRequestAttributeSet attr, DocFlavor flavor, Attribute value) {
+        if (flavor == null || service.isAttributeValueSupported(value, flavor, null)) {
+            attr.add(value);
+        }
+    }
+
+    private static int pagesPerSheet(String layout) {
+        if (layout == null) {
+            return 1;
+        }
+        if (layout.startsWith("4")) {
+            return 4;
+        }
+        if (layout.startsWith("2")) {
+            return 2;
+        }
+        return 1;
+    }
+}
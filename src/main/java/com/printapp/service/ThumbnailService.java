@@ -0,0 +1,257 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small first-page previews of job files for the queue table.
+ *
+ * PDFs are rendered with PDFBox at just the resolution the thumbnail needs;
+ * images are decoded with source subsampling so a large photo is never read
+ * in full. Rendering runs on low-priority threads and the most recent
+ * request goes first, so rows scrolled into view are served before rows
+ * that have already scrolled away.
+ *
+ * Thumbnails are kept in memory in an LRU capped by pixel bytes, and on
+ * disk as PNGs keyed by the SHA-256 of the file's contents, so a thumbnail
+ * is rendered once per file even when the same upload is decoded to a new
+ * temp file on every refresh, and across restarts. Disk entries unused for
+ * {@value #DISK_CACHE_DAYS} days are removed at startup.
+ */
+public class ThumbnailService {
+
+    private static final Logger log = Log.get("Thumbnail");
+
+    public static final int THUMBNAIL_SIZE = 64;
+
+    private static final long MAX_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final int THREADS = 2;
+    private static final int DISK_CACHE_DAYS = 30;
+
+    private final File cacheDir = AppPaths.resolve("thumbs/");
+    private final Map<String, CompletableFuture<Image>> inFlight = new HashMap<>();
+    private final Map<String, Image> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes;
+    private final ThreadPoolExecutor executor;
+
+    public ThumbnailService() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new LifoQueue(), r -> {
+            Thread t = new Thread(r, "thumbnail-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.execute(this::pruneDiskCache);
+        // Thumbnails come back from the disk cache, so they go first
+        ResourceGovernor.get().addShedder("thumbnails", ResourceGovernor.Pressure.ELEVATED, this::clearMemoryCache);
+    }
+
+    /**
+     * Returns the thumbnail if it is already in memory, without queueing
+     * any work.
+     */
+    public synchronized Image getCached(File file) {
+        return cache.get(key(file));
+    }
+
+    /**
+     * Returns the file's thumbnail, rendering it in the background if it is
+     * not cached. Completes with null if the file cannot be previewed.
+     */
+    public synchronized CompletableFuture<Image> thumbnail(File file) {
+        String key = key(file);
+        Image cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Image> pending = inFlight.get(key);
+        if (pending != null) {
+            return pending;
+        }
+
+        CompletableFuture<Image> future = CompletableFuture.supplyAsync(() -> load(file), executor);
+        inFlight.put(key, future);
+        future.whenComplete((image, error) -> store(key, image));
+        return future;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void clearMemoryCache() {
+        cache.clear();
+        cacheBytes = 0;
+    }
+
+    private synchronized void store(String key, Image image) {
+        inFlight.remove(key);
+        if (image == null) {
+            return;
+        }
+        if (cache.put(key, image) == null) {
+            cacheBytes += pixelBytes(image);
+        }
+        Iterator<Image> it = cache.values().iterator();
+        while (cacheBytes > MAX_CACHE_BYTES && it.hasNext()) {
+            cacheBytes -= pixelBytes(it.next());
+            it.remove();
+        }
+    }
+
+    private Image load(File file) {
+        try {
+            File cached = new File(cacheDir, contentKey(file) + ".png");
+            BufferedImage image = cached.isFile() ? ImageIO.read(cached) : null;
+            if (image != null && !cached.setLastModified(System.currentTimeMillis())) {
+                log.warn("Could not touch {}", cached.getName());
+            }
+            if (image == null) {
+                image = render(file);
+                if (image == null) {
+                    return null;
+                }
+                ImageIO.write(image, "png", cached);
+            }
+            return toFxImage(image);
+        } catch (Exception e) {
+            log.warn("Could not preview {}: {}", file.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private BufferedImage render(File file) throws IOException {
+        String fileName = file.getName().toLowerCase();
+        if (fileName.endsWith(".pdf")) {
+            try (PDDocument document = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly())) {
+                if (document.getNumberOfPages() == 0) {
+                    return null;
+                }
+                PDRectangle box = document.getPage(0).getCropBox();
+                float scale = THUMBNAIL_SIZE / Math.max(box.getWidth(), box.getHeight());
+                PDFRenderer renderer = new PDFRenderer(document);
+                renderer.setSubsamplingAllowed(true);
+                return renderer.renderImage(0, scale, ImageType.RGB);
+            }
+        }
+        return readSubsampled(file);
+    }
+
+    /**
+     * Decodes only every n-th pixel of the first image in the file, so the
+     * result is at most about twice the thumbnail size, then scales it down.
+     */
+    private BufferedImage readSubsampled(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longest / (THUMBNAIL_SIZE * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scaleToFit(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scaleToFit(BufferedImage image) {
+        double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, java.awt.Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static Image toFxImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        WritableImage fxImage = new WritableImage(width, height);
+        fxImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return fxImage;
+    }
+
+    private static long pixelBytes(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4L;
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * SHA-256 of the whole file. Files from one template share their first
+     * bytes and often their length, so nothing less tells them apart.
+     */
+    private static String contentKey(File file) throws IOException {
+        return JobFileService.sha256(file);
+    }
+
+    private void pruneDiskCache() {
+        File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(DISK_CACHE_DAYS);
+        for (File file : files) {
+            if (file.lastModified() < cutoff && !file.delete()) {
+                log.warn("Could not delete {}", file.getName());
+            }
+        }
+    }
+
+    /**
+     * Work queue that hands out the newest task first.
+     */
+    private static class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable task) {
+            return offerFirst(task);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.printapp.service;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.model.PrintConfig;
+
+import javax.print.PrintException;
+import java.awt.print.Printable;
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simulated printer for measuring the print path without hardware.
+ *
+ * Rendered jobs are rasterized at the configured resolution, as a driver
+ * would, so rendering cost is real. The device itself is modelled: it holds
+ * at most {@code queueLimit} jobs (further submissions wait, like a full
+ * spooler), needs {@code warmupMs} to start after being idle for
+ * {@code sleepAfterMs}, and then prints at {@code pagesPerMinute}. Counters
+ * and {@link #awaitIdle(long)} let a harness submit a workload and read the
+ * throughput back.
+ */
+public class VirtualPrinterSink implements PrintSink {
+
+    private static final Logger log = Log.get("VirtualPrinter");
+
+    private static final long IDLE_POLL_MS = 200;
+
+    private final String name;
+    private final int pagesPerMinute;
+    private final long warmupMs;
+    private final long sleepAfterMs;
+    private final int dpi;
+    private final BlockingQueue<DeviceJob> queue;
+    private final PageCountProbe pageCountProbe = new PageCountProbe();
+    private final Thread engine;
+
+    private final AtomicInteger jobsPrinted = new AtomicInteger();
+    private final AtomicLong pagesPrinted = new AtomicLong();
+    private final AtomicInteger warmups = new AtomicInteger();
+    // Accepted and not yet printed, including a job waiting for queue space
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile long firstAcceptedAt;
+    private volatile long lastPrintedAt;
+    private volatile boolean closed;
+
+    public VirtualPrinterSink(String name, int pagesPerMinute, long warmupMs, long sleepAfterMs, int queueLimit,
+            int dpi) {
+        this.name = name;
+        this.pagesPerMinute = Math.max(1, pagesPerMinute);
+        this.warmupMs = Math.max(0, warmupMs);
+        this.sleepAfterMs = Math.max(0, sleepAfterMs);
+        this.dpi = dpi > 0 ? dpi : 300;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueLimit));
+        this.engine = new Thread(this::run, "virtual-printer-" + name);
+        this.engine.setDaemon(true);
+        this.engine.start();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int maxDpi() {
+        return dpi;
+    }
+
+    @Override
+    public boolean acceptsPdf() {
+        return true;
+    }
+
+    @Override
+    public void sendPdf(File file, PrintConfig config, String jobName) throws Exception {
+        accept(config, pageCountProbe.countPages(file));
+    }
+
+    @Override
+    public void sendPages(Printable printable, PrintConfig config, String jobName) throws Exception {
+        int pages = PageRasterizer.render(printable, dpi, "Black & White".equals(config.getColorMode()),
+                (pageIndex, image) -> {
+                });
+        accept(config, pages);
+    }
+
+    /**
+     * Jobs waiting in the device plus the one printing.
+     */
+    public int queuedJobs() {
+        return outstanding.get();
+    }
+
+    public int getJobsPrinted() {
+        return jobsPrinted.get();
+    }
+
+    public long getPagesPrinted() {
+        return pagesPrinted.get();
+    }
+
+    public int getWarmups() {
+        return warmups.get();
+    }
+
+    /**
+     * Pages printed per minute from the first accepted job to the last
+     * printed one, or 0 before anything has printed.
+     */
+    public double pagesPerMinute() {
+        long elapsed = lastPrintedAt - firstAcceptedAt;
+        return elapsed > 0 ? pagesPrinted.get() * 60_000.0 / elapsed : 0;
+    }
+
+    /**
+     * Waits until every accepted job has printed. Returns false on timeout.
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (queuedJobs() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(Math.min(remaining, IDLE_POLL_MS));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops taking jobs. Jobs already accepted still print.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void accept(PrintConfig config, int pages) throws Exception {
+        if (closed) {
+            throw new PrintException(name + " is closed");
+        }
+        int impressions = Math.max(1, pages) * Math.max(1, config.getCopies());
+        outstanding.incrementAndGet();
+        try {
+            // Blocks while the device queue is full, as a real spooler would
+            queue.put(new DeviceJob(config.getJobId(), impressions));
+        } catch (InterruptedException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+        if (firstAcceptedAt == 0) {
+            firstAcceptedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                DeviceJob job = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (job == null) {
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                if (lastPrintedAt == 0 || start - lastPrintedAt > sleepAfterMs) {
+                    warmups.incrementAndGet();
+                    Thread.sleep(warmupMs);
+                }
+                Thread.sleep(job.pages * 60_000L / pagesPerMinute);
+
+                pagesPrinted.addAndGet(job.pages);
+                jobsPrinted.incrementAndGet();
+                lastPrintedAt = System.currentTimeMillis();
+                outstanding.decrementAndGet();
+                log.info("{} printed job {} ({} page(s)) in {} ms", name, job.jobId, job.pages,
+                        lastPrintedAt - start);
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class DeviceJob {
+        final int jobId;
+        final int pages;
+
+        DeviceJob(int jobId, int pages) {
+            this.jobId = jobId;
+            this.pages = pages;
+        }
+    }
+}
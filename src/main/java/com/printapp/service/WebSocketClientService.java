@@ -1,39 +1,84 @@
 package com.printapp.service;
 
+import com.printapp.log.Level;
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import com.printapp.stomp.StompFrame;
+import com.printapp.stomp.StompFrames;
+import com.printapp.stomp.StompParser;
+import com.printapp.trace.JobStage;
+import com.printapp.trace.Span;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * WebSocket client that connects to a Spring Boot STOMP WebSocket endpoint.
- * Subscribes to /topic/print-config and triggers a callback when
- * "NEW_PRINT_CONFIG" message is received.
+ * Subscribes to the print-config topics this station serves and triggers a
+ * callback when "NEW_PRINT_CONFIG" message is received.
+ *
+ * Without configured printer IDs the station listens on the fleet-wide
+ * /topic/print-config. With them it listens only on
+ * /topic/print-config/station/{stationId} and one
+ * /topic/print-config/printer/{printerId} per ID, each under its own
+ * subscription id, so it wakes up for its own jobs only. Changing the
+ * printer IDs subscribes and unsubscribes on the open connection.
  *
  * Features:
  * - Auto-reconnect on disconnect (every 5 seconds)
- * - STOMP protocol framing over raw WebSocket
+ * - STOMP 1.2 framing over raw WebSocket via {@link StompParser}, with heart-beats
+ * - SEND frames confirmed by server receipts
+ * - Several subscriptions per connection, kept in line with the settings
  * - Thread-safe (caller must use Platform.runLater for UI updates)
  */
 public class WebSocketClientService {
 
-    private static final String WS_URL = "ws://print-test-env-env.eba-9gvrcrjp.us-east-1.elasticbeanstalk.com/ws/print-events/websocket";
+    private static final Logger log = Log.get("WebSocket");
+
     private static final String STOMP_TOPIC = "/topic/print-config";
     private static final long RECONNECT_DELAY_MS = 5000;
+    private static final long HEARTBEAT_MS = 10000;
+    private static final String STATION_TOPIC_PREFIX = STOMP_TOPIC + "/station/";
+    private static final String PRINTER_TOPIC_PREFIX = STOMP_TOPIC + "/printer/";
 
-    private WebSocketClient client;
+    private volatile WebSocketClient client;
+    private final SettingsService settingsService;
     private final Runnable onNewPrintConfig;
     private Timer reconnectTimer;
+    private Timer heartbeatTimer;
     private volatile boolean shouldReconnect = true;
+    private volatile boolean stompConnected;
+    private final AtomicLong receiptCounter = new AtomicLong();
+    private final Map<String, CompletableFuture<Void>> awaitingReceipts = new ConcurrentHashMap<>();
+    // Destination -> subscription id on the current STOMP session
+    private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong subscriptionCounter = new AtomicLong();
 
     /**
+     * @param settingsService  source of the WebSocket endpoint URL.
      * @param onNewPrintConfig callback to invoke when "NEW_PRINT_CONFIG" is received.
      *                         The caller is responsible for wrapping UI calls in Platform.runLater().
      */
-    public WebSocketClientService(Runnable onNewPrintConfig) {
+    public WebSocketClientService(SettingsService settingsService, Runnable onNewPrintConfig) {
+        this.settingsService = settingsService;
         this.onNewPrintConfig = onNewPrintConfig;
+        settingsService.addListener(changedKeys -> {
+            if (changedKeys.contains("printerIds") || changedKeys.contains("stationId")) {
+                updateSubscriptions();
+            }
+        });
     }
 
     /**
@@ -46,91 +91,248 @@ public class WebSocketClientService {
 
     private void createAndConnect() {
         try {
-            URI serverUri = URI.create(WS_URL);
+            URI serverUri = URI.create(settingsService.getWebSocketUrl());
             client = new WebSocketClient(serverUri) {
 
+                private final StompParser parser = new StompParser();
+
                 @Override
                 public void onOpen(ServerHandshake handshake) {
-                    System.out.println("[WebSocket] Connected to server.");
-
-                    // Send STOMP CONNECT frame
-                    String connectFrame = "CONNECT\n"
-                            + "accept-version:1.1,1.2\n"
-                            + "heart-beat:10000,10000\n"
-                            + "\n"
-                            + "\u0000";
-                    send(connectFrame);
+                    log.info("Connected to server.");
+                    send(StompFrames.connect(serverUri.getHost(), HEARTBEAT_MS, HEARTBEAT_MS));
                 }
 
                 @Override
                 public void onMessage(String message) {
-                    System.out.println("[WebSocket] Raw message: " + message);
-
-                    // Handle STOMP CONNECTED frame → subscribe to topic
-                    if (message.startsWith("CONNECTED")) {
-                        System.out.println("[WebSocket] STOMP connected. Subscribing to " + STOMP_TOPIC);
-                        String subscribeFrame = "SUBSCRIBE\n"
-                                + "id:sub-0\n"
-                                + "destination:" + STOMP_TOPIC + "\n"
-                                + "\n"
-                                + "\u0000";
-                        send(subscribeFrame);
+                    try (Span span = Span.begin(JobStage.WEBSOCKET, 0)) {
+                        span.bytes(message.length());
+                        log.payload(Level.DEBUG, "Raw message: {}", message);
+                        parser.feed(message, this::handleFrame);
+                    } catch (StompParser.MalformedFrameException e) {
+                        log.warn("Dropped malformed STOMP data: {}", e.getMessage());
+                    } catch (IllegalArgumentException e) {
+                        // e.g. a bad escape in a header; the frames after it are still parsed next time
+                        log.warn("Could not handle STOMP frame: {}", e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onMessage(ByteBuffer bytes) {
+                    try (Span span = Span.begin(JobStage.WEBSOCKET, 0)) {
+                        span.bytes(bytes.remaining());
+                        parser.feed(bytes, this::handleFrame);
+                    } catch (StompParser.MalformedFrameException e) {
+                        log.warn("Dropped malformed STOMP data: {}", e.getMessage());
+                    } catch (IllegalArgumentException e) {
+                        // e.g. a bad escape in a header; the frames after it are still parsed next time
+                        log.warn("Could not handle STOMP frame: {}", e.getMessage());
+                    }
+                }
+
+                private void handleFrame(StompFrame frame) {
+                    // CONNECTED: start heart-beats and subscribe to our topics
+                    if (frame.is("CONNECTED")) {
+                        stompConnected = true;
+                        startHeartbeat(this, frame.header("heart-beat"));
+                        subscriptions.clear();
+                        updateSubscriptions();
                         return;
                     }
 
-                    // Handle STOMP MESSAGE frame
-                    if (message.startsWith("MESSAGE")) {
-                        // Extract the body after the blank line in STOMP frame
-                        String body = extractStompBody(message);
-                        System.out.println("[WebSocket] STOMP message body: " + body);
+                    if (frame.is("MESSAGE")) {
+                        log.payload(Level.DEBUG, "STOMP message body: {}", frame.body());
 
-                        if ("NEW_PRINT_CONFIG".equals(body.trim())) {
-                            System.out.println("[WebSocket] NEW_PRINT_CONFIG received → refreshing grid.");
+                        // Stragglers for a subscription we just dropped
+                        CharSequence subscription = frame.header("subscription");
+                        if (subscription != null && !subscriptions.containsValue(subscription.toString())) {
+                            return;
+                        }
+
+                        if (frame.bodyEquals("NEW_PRINT_CONFIG")) {
+                            log.info("NEW_PRINT_CONFIG received → refreshing grid.");
                             if (onNewPrintConfig != null) {
                                 onNewPrintConfig.run();
                             }
                         }
+                        return;
+                    }
+
+                    if (frame.is("RECEIPT")) {
+                        CharSequence receiptId = frame.header("receipt-id");
+                        CompletableFuture<Void> receipt = receiptId != null
+                                ? awaitingReceipts.remove(receiptId.toString())
+                                : null;
+                        if (receipt != null) {
+                            receipt.complete(null);
+                        }
+                        return;
+                    }
+
+                    if (frame.is("ERROR")) {
+                        CharSequence message = frame.header("message");
+                        log.warn("STOMP error from server: {}", message != null ? message.toString() : "(no message)");
                     }
                 }
 
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
-                    System.out.println("[WebSocket] Disconnected. Code: " + code + ", Reason: " + reason);
+                    log.info("Disconnected. Code: {}, Reason: {}", code, reason);
+                    stompConnected = false;
+                    subscriptions.clear();
+                    stopHeartbeat();
+                    failAwaitingReceipts();
                     scheduleReconnect();
                 }
 
                 @Override
                 public void onError(Exception ex) {
-                    System.err.println("[WebSocket] Error: " + ex.getMessage());
+                    log.warn("Error: {}", ex.getMessage());
                     // onClose will be called after this, which handles reconnect
                 }
             };
 
-            System.out.println("[WebSocket] Connecting to " + WS_URL + " ...");
+            log.info("Connecting to {} ...", serverUri);
             client.connect();
 
         } catch (Exception e) {
-            System.err.println("[WebSocket] Failed to create client: " + e.getMessage());
+            log.warn("Failed to create client: {}", e.getMessage());
             scheduleReconnect();
         }
     }
 
     /**
-     * Extracts the body from a STOMP frame.
-     * STOMP format: COMMAND\nheader1:value1\n...\n\nbody\u0000
+     * True once the STOMP session is established, until the connection drops.
      */
-    private String extractStompBody(String frame) {
-        // The body starts after the first blank line (\n\n) in the STOMP frame
-        int bodyStart = frame.indexOf("\n\n");
-        if (bodyStart == -1) {
-            return "";
+    public boolean isConnected() {
+        return stompConnected;
+    }
+
+    /**
+     * Sends a message to a server destination. The future completes when the
+     * server's RECEIPT arrives and fails if the connection drops first; the
+     * caller decides how long to wait, and cancels the future when it gives
+     * up so the receipt is no longer tracked.
+     */
+    public CompletableFuture<Void> sendWithReceipt(String destination, String contentType, String body) {
+        WebSocketClient connection = client;
+        if (!stompConnected || connection == null || !connection.isOpen()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("STOMP session is not connected"));
+        }
+        String receiptId = "r-" + receiptCounter.incrementAndGet();
+        CompletableFuture<Void> receipt = new CompletableFuture<>();
+        receipt.whenComplete((ignored, error) -> awaitingReceipts.remove(receiptId));
+        awaitingReceipts.put(receiptId, receipt);
+        try {
+            connection.send(StompFrames.send(destination, contentType, body, receiptId));
+        } catch (Exception e) {
+            receipt.completeExceptionally(e);
         }
-        String body = frame.substring(bodyStart + 2);
-        // Remove trailing null character
-        if (body.endsWith("\u0000")) {
-            body = body.substring(0, body.length() - 1);
+        return receipt;
+    }
+
+    /**
+     * Destinations subscribed to on the current session.
+     */
+    public Set<String> getSubscriptions() {
+        return new TreeSet<>(subscriptions.keySet());
+    }
+
+    /**
+     * Where this station should listen, derived from the configured printer
+     * IDs; the fleet-wide topic when there are none.
+     */
+    private Set<String> wantedDestinations() {
+        List<String> printerIds = settingsService.getPrinterIds();
+        Set<String> destinations = new LinkedHashSet<>();
+        if (printerIds.isEmpty()) {
+            destinations.add(STOMP_TOPIC);
+            return destinations;
+        }
+        destinations.add(STATION_TOPIC_PREFIX + settingsService.getStationId());
+        for (String printerId : printerIds) {
+            destinations.add(PRINTER_TOPIC_PREFIX + printerId);
+        }
+        return destinations;
+    }
+
+    /**
+     * Brings the session's subscriptions in line with the settings:
+     * SUBSCRIBE for new destinations, UNSUBSCRIBE for dropped ones. Does
+     * nothing while disconnected; CONNECTED subscribes from scratch.
+     */
+    private synchronized void updateSubscriptions() {
+        WebSocketClient connection = client;
+        if (!stompConnected || connection == null || !connection.isOpen()) {
+            return;
+        }
+        Set<String> wanted = wantedDestinations();
+        try {
+            for (Map.Entry<String, String> subscription : subscriptions.entrySet()) {
+                if (!wanted.contains(subscription.getKey())) {
+                    connection.send(StompFrames.unsubscribe(subscription.getValue()));
+                    subscriptions.remove(subscription.getKey());
+                    log.info("Unsubscribed from {}", subscription.getKey());
+                }
+            }
+            for (String destination : wanted) {
+                if (!subscriptions.containsKey(destination)) {
+                    String subscriptionId = "sub-" + subscriptionCounter.getAndIncrement();
+                    connection.send(StompFrames.subscribe(subscriptionId, destination, "auto"));
+                    subscriptions.put(destination, subscriptionId);
+                    log.info("Subscribed to {} as {}", destination, subscriptionId);
+                }
+            }
+        } catch (Exception e) {
+            // The connection dropped; onClose reconnects and subscribes again
+            log.warn("Could not update subscriptions: {}", e.getMessage());
+        }
+    }
+
+    private void failAwaitingReceipts() {
+        for (String receiptId : awaitingReceipts.keySet()) {
+            CompletableFuture<Void> receipt = awaitingReceipts.remove(receiptId);
+            if (receipt != null) {
+                receipt.completeExceptionally(new IllegalStateException("Connection closed before receipt"));
+            }
+        }
+    }
+
+    /**
+     * Sends heart-beat EOLs as often as both sides agreed in CONNECT and
+     * CONNECTED: the slower of what we offered and what the server wants.
+     */
+    private void startHeartbeat(WebSocketClient connection, CharSequence serverHeartbeat) {
+        stopHeartbeat();
+        long serverWants = 0;
+        if (serverHeartbeat != null) {
+            String value = serverHeartbeat.toString();
+            int comma = value.indexOf(',');
+            try {
+                serverWants = Long.parseLong(value.substring(comma + 1).trim());
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                log.warn("Ignoring invalid heart-beat header: {}", value);
+            }
+        }
+        if (serverWants <= 0) {
+            return;
+        }
+        long interval = Math.max(HEARTBEAT_MS, serverWants);
+        heartbeatTimer = new Timer("ws-heartbeat", true);
+        heartbeatTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (connection.isOpen()) {
+                    connection.send(StompFrames.HEARTBEAT);
+                }
+            }
+        }, interval, interval);
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeatTimer != null) {
+            heartbeatTimer.cancel();
+            heartbeatTimer = null;
         }
-        return body;
     }
 
     /**
@@ -147,7 +349,7 @@ public class WebSocketClientService {
             @Override
             public void run() {
                 if (shouldReconnect) {
-                    System.out.println("[WebSocket] Attempting reconnect...");
+                    log.info("Attempting reconnect...");
                     createAndConnect();
                 }
             }
@@ -166,20 +368,19 @@ public class WebSocketClientService {
      */
     public void disconnect() {
         shouldReconnect = false;
+        stompConnected = false;
+        subscriptions.clear();
         cancelReconnectTimer();
+        stopHeartbeat();
+        failAwaitingReceipts();
         if (client != null && !client.isClosed()) {
             try {
-                // Send STOMP DISCONNECT frame
-                String disconnectFrame = "DISCONNECT\n"
-                        + "receipt:exit\n"
-                        + "\n"
-                        + "\u0000";
-                client.send(disconnectFrame);
+                client.send(StompFrames.DISCONNECT);
             } catch (Exception ignored) {
                 // Connection may already be broken
             }
             client.close();
-            System.out.println("[WebSocket] Disconnected gracefully.");
+            log.info("Disconnected gracefully.");
         }
     }
 }
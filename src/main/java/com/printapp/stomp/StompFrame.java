@@ -0,0 +1,180 @@
+package com.printapp.stomp;
+
+import java.nio.CharBuffer;
+
+/**
+ * One parsed STOMP frame, as views into the text it was parsed from.
+ *
+ * Nothing is copied while parsing: the command, header names and values and
+ * the body are all returned as {@link CharSequence} windows over the source.
+ * The only exception is a header value containing STOMP escape sequences,
+ * which is unescaped into a new string when it is read. The parser reuses
+ * this object, so a frame and its views are only valid inside the callback
+ * that received it; call {@code toString()} on anything that must be kept.
+ */
+public final class StompFrame {
+
+    private CharSequence source;
+    private int commandStart;
+    private int commandEnd;
+    // name start, name end, value start, value end for each header
+    private int[] headers = new int[32];
+    private int headerCount;
+    private int bodyStart;
+    private int bodyEnd;
+    private boolean escaped;
+
+    StompFrame() {
+    }
+
+    void reset(CharSequence source, int commandStart, int commandEnd) {
+        this.source = source;
+        this.commandStart = commandStart;
+        this.commandEnd = commandEnd;
+        this.headerCount = 0;
+        // CONNECT and CONNECTED headers are not escaped (STOMP 1.2)
+        this.escaped = !is("CONNECT") && !is("CONNECTED");
+    }
+
+    void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int at = headerCount * 4;
+        if (at + 4 > headers.length) {
+            int[] grown = new int[headers.length * 2];
+            System.arraycopy(headers, 0, grown, 0, headers.length);
+            headers = grown;
+        }
+        headers[at] = nameStart;
+        headers[at + 1] = nameEnd;
+        headers[at + 2] = valueStart;
+        headers[at + 3] = valueEnd;
+        headerCount++;
+    }
+
+    void setBody(int start, int end) {
+        this.bodyStart = start;
+        this.bodyEnd = end;
+    }
+
+    public CharSequence command() {
+        return CharBuffer.wrap(source, commandStart, commandEnd);
+    }
+
+    /**
+     * Compares the command without creating a view.
+     */
+    public boolean is(String command) {
+        return regionEquals(source, commandStart, commandEnd, command);
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    public CharSequence headerName(int index) {
+        return CharBuffer.wrap(source, headers[index * 4], headers[index * 4 + 1]);
+    }
+
+    public CharSequence headerValue(int index) {
+        int start = headers[index * 4 + 2];
+        int end = headers[index * 4 + 3];
+        if (escaped && indexOf(source, '\\', start, end) >= 0) {
+            return unescape(source, start, end);
+        }
+        return CharBuffer.wrap(source, start, end);
+    }
+
+    /**
+     * Value of the first header with this name, or null. Repeated headers
+     * after the first are ignored, as the spec requires.
+     */
+    public CharSequence header(String name) {
+        int index = indexOfHeader(name);
+        return index >= 0 ? headerValue(index) : null;
+    }
+
+    public CharSequence body() {
+        return CharBuffer.wrap(source, bodyStart, bodyEnd);
+    }
+
+    public int bodyLength() {
+        return bodyEnd - bodyStart;
+    }
+
+    /**
+     * True if the body is {@code text}, ignoring surrounding whitespace.
+     */
+    public boolean bodyEquals(String text) {
+        int start = bodyStart;
+        int end = bodyEnd;
+        while (start < end && Character.isWhitespace(source.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(source.charAt(end - 1))) {
+            end--;
+        }
+        return regionEquals(source, start, end, text);
+    }
+
+    int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEquals(source, headers[i * 4], headers[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return source.subSequence(commandStart, bodyEnd).toString();
+    }
+
+    static boolean regionEquals(CharSequence source, int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        if (source instanceof String) {
+            return ((String) source).startsWith(text, start);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(CharSequence source, char c, int from, int to) {
+        if (source instanceof String) {
+            // Intrinsified scan for the common case of a single-message frame
+            int at = ((String) source).indexOf(c, from);
+            return at >= 0 && at < to ? at : -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String unescape(CharSequence source, int start, int end) {
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c != '\\' || i + 1 == end) {
+                value.append(c);
+                continue;
+            }
+            char next = source.charAt(++i);
+            switch (next) {
+                case 'r' -> value.append('\r');
+                case 'n' -> value.append('\n');
+                case 'c' -> value.append(':');
+                case '\\' -> value.append('\\');
+                default -> throw new IllegalArgumentException("Undefined escape \\" + next + " in STOMP header");
+            }
+        }
+        return value.toString();
+    }
+}
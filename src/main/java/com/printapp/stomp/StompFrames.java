@@ -0,0 +1,141 @@
+package com.printapp.stomp;
+
+/**
+ * Encodes the client frames we send. Frames that never change are constants;
+ * the others are built from pre-encoded prefixes into a single exactly-sized
+ * builder, with header values escaped as STOMP 1.2 requires.
+ */
+public final class StompFrames {
+
+    /** A heart-beat is a bare EOL. */
+    public static final String HEARTBEAT = "\n";
+
+    public static final String DISCONNECT = "DISCONNECT\nreceipt:exit\n\n\0";
+
+    private static final String CONNECT_PREFIX = "CONNECT\naccept-version:1.1,1.2\nhost:";
+    private static final String HEART_BEAT_HEADER = "\nheart-beat:";
+    private static final String SUBSCRIBE_PREFIX = "SUBSCRIBE\nid:";
+    private static final String UNSUBSCRIBE_PREFIX = "UNSUBSCRIBE\nid:";
+    private static final String DESTINATION_HEADER = "\ndestination:";
+    private static final String ACK_HEADER = "\nack:";
+    private static final String ACK_PREFIX = "ACK\nid:";
+    private static final String NACK_PREFIX = "NACK\nid:";
+    private static final String SEND_PREFIX = "SEND\ndestination:";
+    private static final String CONTENT_TYPE_HEADER = "\ncontent-type:";
+    private static final String CONTENT_LENGTH_HEADER = "\ncontent-length:";
+    private static final String RECEIPT_HEADER = "\nreceipt:";
+    private static final String END_OF_HEADERS = "\n\n";
+    private static final String END_OF_FRAME = "\n\n\0";
+
+    private StompFrames() {
+    }
+
+    /**
+     * CONNECT frame offering heart-beats in both directions. CONNECT headers
+     * are sent unescaped.
+     */
+    public static String connect(String host, long sendEveryMs, long expectEveryMs) {
+        return new StringBuilder(CONNECT_PREFIX.length() + host.length() + 40)
+                .append(CONNECT_PREFIX).append(host)
+                .append(HEART_BEAT_HEADER).append(sendEveryMs).append(',').append(expectEveryMs)
+                .append(END_OF_FRAME)
+                .toString();
+    }
+
+    /**
+     * @param ackMode "auto", "client" or "client-individual"
+     */
+    public static String subscribe(String id, String destination, String ackMode) {
+        StringBuilder frame = new StringBuilder(SUBSCRIBE_PREFIX.length() + id.length() + destination.length()
+                + ackMode.length() + 24);
+        frame.append(SUBSCRIBE_PREFIX);
+        appendEscaped(frame, id);
+        frame.append(DESTINATION_HEADER);
+        appendEscaped(frame, destination);
+        frame.append(ACK_HEADER).append(ackMode);
+        return frame.append(END_OF_FRAME).toString();
+    }
+
+    /**
+     * Ends the subscription that was opened with {@code id}.
+     */
+    public static String unsubscribe(String id) {
+        return withId(UNSUBSCRIBE_PREFIX, id);
+    }
+
+    /**
+     * Acknowledges a MESSAGE by the value of its {@code ack} header.
+     */
+    public static String ack(CharSequence ackId) {
+        return withId(ACK_PREFIX, ackId);
+    }
+
+    public static String nack(CharSequence ackId) {
+        return withId(NACK_PREFIX, ackId);
+    }
+
+    /**
+     * SEND frame with an explicit content-length, so the body may contain
+     * any characters.
+     */
+    public static String send(String destination, String contentType, CharSequence body) {
+        return send(destination, contentType, body, null);
+    }
+
+    /**
+     * SEND frame that asks the server to confirm it with a RECEIPT frame
+     * carrying {@code receiptId}; no receipt is requested if it is null.
+     */
+    public static String send(String destination, String contentType, CharSequence body, String receiptId) {
+        StringBuilder frame = new StringBuilder(SEND_PREFIX.length() + destination.length() + contentType.length()
+                + body.length() + (receiptId != null ? receiptId.length() + 9 : 0) + 48);
+        frame.append(SEND_PREFIX);
+        appendEscaped(frame, destination);
+        frame.append(CONTENT_TYPE_HEADER);
+        appendEscaped(frame, contentType);
+        frame.append(CONTENT_LENGTH_HEADER).append(utf8Length(body));
+        if (receiptId != null) {
+            frame.append(RECEIPT_HEADER);
+            appendEscaped(frame, receiptId);
+        }
+        return frame.append(END_OF_HEADERS).append(body).append('\0').toString();
+    }
+
+    private static String withId(String prefix, CharSequence id) {
+        StringBuilder frame = new StringBuilder(prefix.length() + id.length() + 4);
+        frame.append(prefix);
+        appendEscaped(frame, id);
+        return frame.append(END_OF_FRAME).toString();
+    }
+
+    private static void appendEscaped(StringBuilder frame, CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\r' -> frame.append("\\r");
+                case '\n' -> frame.append("\\n");
+                case ':' -> frame.append("\\c");
+                case '\\' -> frame.append("\\\\");
+                default -> frame.append(c);
+            }
+        }
+    }
+
+    static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,260 @@
+package com.printapp.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Incremental STOMP 1.2 frame parser.
+ *
+ * Feed it WebSocket messages as they arrive; every complete frame is handed
+ * to the sink as a {@link StompFrame} of views over the input. A message may
+ * hold several frames, or only part of one: the unparsed tail is kept and
+ * parsing resumes with the next message. Heart-beat EOLs between frames are
+ * skipped. A {@code content-length} header (in UTF-8 octets) is honoured, so
+ * bodies may contain NUL characters.
+ *
+ * Input is only copied when a frame spans several messages. Not thread-safe;
+ * one parser per connection.
+ */
+public final class StompParser {
+
+    // Refuse to buffer more than this while waiting for the end of a frame
+    private static final int MAX_FRAME_CHARS = 16 * 1024 * 1024;
+
+    private static final int INCOMPLETE = -1;
+
+    private final StompFrame frame = new StompFrame();
+    private final StringBuilder pending = new StringBuilder();
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // Bytes of a character split across binary messages
+    private final ByteBuffer partialChar = ByteBuffer.allocate(8);
+
+    /**
+     * Parses a text WebSocket message. Exceptions thrown by the sink are
+     * passed on; frames after the failing one are kept for the next call.
+     *
+     * @throws MalformedFrameException if a frame is malformed; buffered
+     *                                 input is discarded so the next
+     *                                 message starts clean
+     */
+    public void feed(CharSequence chunk, Consumer<StompFrame> sink) {
+        CharSequence source;
+        if (pending.length() == 0) {
+            source = chunk;
+        } else {
+            pending.append(chunk);
+            source = pending;
+        }
+
+        int pos = 0;
+        boolean malformed = false;
+        try {
+            int length = source.length();
+            while (pos < length) {
+                char c = source.charAt(pos);
+                if (c == '\n') {
+                    pos++;
+                    continue;
+                }
+                if (c == '\r') {
+                    if (pos + 1 == length) {
+                        break;
+                    }
+                    if (source.charAt(pos + 1) == '\n') {
+                        pos += 2;
+                        continue;
+                    }
+                }
+                int end;
+                try {
+                    end = parseFrame(source, pos);
+                } catch (MalformedFrameException e) {
+                    malformed = true;
+                    throw e;
+                }
+                if (end == INCOMPLETE) {
+                    break;
+                }
+                pos = end;
+                sink.accept(frame);
+            }
+        } finally {
+            if (malformed) {
+                reset();
+            } else if (source == pending) {
+                pending.delete(0, pos);
+            } else if (pos < chunk.length()) {
+                pending.append(chunk, pos, chunk.length());
+            }
+        }
+        if (pending.length() > MAX_FRAME_CHARS) {
+            reset();
+            throw new MalformedFrameException("STOMP frame exceeds " + MAX_FRAME_CHARS + " characters");
+        }
+    }
+
+    /**
+     * Parses a binary WebSocket message carrying UTF-8 frames. A character
+     * split between two messages is decoded once its remaining bytes arrive.
+     */
+    public void feed(ByteBuffer chunk, Consumer<StompFrame> sink) {
+        CharBuffer chars = CharBuffer.allocate(chunk.remaining() + partialChar.position() + 1);
+        if (partialChar.position() > 0) {
+            // Complete the split character byte by byte, then decode the rest straight from the chunk
+            while (partialChar.position() > 0 && chunk.hasRemaining()) {
+                partialChar.put(chunk.get());
+                partialChar.flip();
+                decoder.decode(partialChar, chars, false);
+                partialChar.compact();
+            }
+        }
+        if (partialChar.position() == 0) {
+            decoder.decode(chunk, chars, false);
+            partialChar.put(chunk);
+        }
+        chars.flip();
+        feed(chars, sink);
+    }
+
+    /**
+     * Number of characters buffered from an incomplete frame.
+     */
+    public int pendingLength() {
+        return pending.length();
+    }
+
+    public void reset() {
+        pending.setLength(0);
+        partialChar.clear();
+        decoder.reset();
+    }
+
+    /**
+     * Parses the frame starting at {@code start} into {@link #frame}.
+     * Returns the index just past its terminating NUL, or
+     * {@link #INCOMPLETE} if the frame has not fully arrived.
+     */
+    private int parseFrame(CharSequence source, int start) {
+        int length = source.length();
+        int eol = StompFrame.indexOf(source, '\n', start, length);
+        if (eol < 0) {
+            return INCOMPLETE;
+        }
+        int commandEnd = lineEnd(source, start, eol);
+        if (commandEnd == start) {
+            throw new MalformedFrameException("STOMP frame without a command");
+        }
+        frame.reset(source, start, commandEnd);
+
+        int contentLength = -1;
+        int lineStart = eol + 1;
+        while (true) {
+            eol = StompFrame.indexOf(source, '\n', lineStart, length);
+            if (eol < 0) {
+                return INCOMPLETE;
+            }
+            int lineEnd = lineEnd(source, lineStart, eol);
+            if (lineEnd == lineStart) {
+                break;
+            }
+            int colon = StompFrame.indexOf(source, ':', lineStart, lineEnd);
+            if (colon < 0) {
+                throw new MalformedFrameException("STOMP header without a colon: "
+                        + source.subSequence(lineStart, Math.min(lineEnd, lineStart + 64)));
+            }
+            frame.addHeader(lineStart, colon, colon + 1, lineEnd);
+            if (contentLength < 0 && StompFrame.regionEquals(source, lineStart, colon, "content-length")) {
+                contentLength = parseLength(source, colon + 1, lineEnd);
+            }
+            lineStart = eol + 1;
+        }
+
+        int bodyStart = eol + 1;
+        int bodyEnd;
+        if (contentLength >= 0) {
+            bodyEnd = skipUtf8Bytes(source, bodyStart, contentLength);
+            if (bodyEnd < 0 || bodyEnd >= length) {
+                return INCOMPLETE;
+            }
+            if (source.charAt(bodyEnd) != '\0') {
+                throw new MalformedFrameException("STOMP body longer than its content-length of " + contentLength);
+            }
+        } else {
+            bodyEnd = StompFrame.indexOf(source, '\0', bodyStart, length);
+            if (bodyEnd < 0) {
+                return INCOMPLETE;
+            }
+        }
+        frame.setBody(bodyStart, bodyEnd);
+        return bodyEnd + 1;
+    }
+
+    private static int lineEnd(CharSequence source, int lineStart, int eol) {
+        return eol > lineStart && source.charAt(eol - 1) == '\r' ? eol - 1 : eol;
+    }
+
+    private static int parseLength(CharSequence source, int start, int end) {
+        if (start == end || end - start > 10) {
+            throw new MalformedFrameException("Invalid STOMP content-length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new MalformedFrameException("Invalid STOMP content-length");
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (value > MAX_FRAME_CHARS * 4L) {
+            throw new MalformedFrameException("STOMP content-length " + value + " is too large");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the char index reached after {@code bytes} UTF-8 octets from
+     * {@code start}, or -1 if the text ends first.
+     */
+    private static int skipUtf8Bytes(CharSequence source, int start, int bytes) {
+        int i = start;
+        int remaining = bytes;
+        int length = source.length();
+        while (remaining > 0) {
+            if (i >= length) {
+                return -1;
+            }
+            char c = source.charAt(i);
+            if (c < 0x80) {
+                remaining -= 1;
+            } else if (c < 0x800) {
+                remaining -= 2;
+            } else if (Character.isHighSurrogate(c)) {
+                remaining -= 4;
+                i++;
+            } else {
+                remaining -= 3;
+            }
+            i++;
+        }
+        if (remaining < 0) {
+            throw new MalformedFrameException("STOMP content-length ends inside a character");
+        }
+        return i;
+    }
+
+    /**
+     * Thrown for input that is not valid STOMP, as opposed to errors raised
+     * by the sink while handling a frame.
+     */
+    public static final class MalformedFrameException extends IllegalArgumentException {
+        MalformedFrameException(String message) {
+            super(message);
+        }
+    }
+}
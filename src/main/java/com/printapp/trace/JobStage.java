@@ -0,0 +1,31 @@
+package com.printapp.trace;
+
+/**
+ * The steps a job goes through between the WebSocket ping and the printer.
+ * WEBSOCKET and FETCH happen once per refresh and are shared by every job
+ * that refresh brings in.
+ */
+public enum JobStage {
+    WEBSOCKET("ws"),
+    FETCH("fetch"),
+    DECODE("decode"),
+    PREPARE("prepare"),
+    QUEUE("queue"),
+    LOAD("load"),
+    RENDER("render"),
+    SPOOL("spool");
+
+    private final String label;
+
+    JobStage(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public boolean isShared() {
+        return this == WEBSOCKET || this == FETCH;
+    }
+}
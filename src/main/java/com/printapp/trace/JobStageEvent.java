@@ -0,0 +1,93 @@
+package com.printapp.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events, one type per {@link JobStage}. They carry no
+ * stack traces and are only written while a recording has them enabled,
+ * so they can stay in production builds.
+ */
+@Category({ "Elite Print", "Job" })
+@StackTrace(false)
+public abstract class JobStageEvent extends Event {
+
+    @Label("Job ID")
+    public int jobId;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Printer")
+    public String printer;
+
+    @Label("Detail")
+    public String detail;
+
+    static JobStageEvent forStage(JobStage stage) {
+        return switch (stage) {
+            case WEBSOCKET -> new WebSocketMessage();
+            case FETCH -> new Fetch();
+            case DECODE -> new Decode();
+            case PREPARE -> new Prepare();
+            case QUEUE -> new Queue();
+            case LOAD -> new Load();
+            case RENDER -> new Render();
+            case SPOOL -> new Spool();
+        };
+    }
+
+    @Name("com.printapp.WebSocketMessage")
+    @Label("WebSocket Message")
+    @Description("STOMP frame received from the print backend")
+    public static class WebSocketMessage extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Fetch")
+    @Label("Job List Fetch")
+    @Description("REST call that downloads the pending job list")
+    public static class Fetch extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Decode")
+    @Label("File Decode")
+    @Description("Job file decoded and written to the spool directory")
+    public static class Decode extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Prepare")
+    @Label("Job Preparation")
+    @Description("Background parsing and warm-up of a job before PRINT")
+    public static class Prepare extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Queue")
+    @Label("Queue Wait")
+    @Description("Time a job waited in its printer queue")
+    public static class Queue extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Load")
+    @Label("Document Load")
+    @Description("PDDocument.load at print time for jobs that were not prepared")
+    public static class Load extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Render")
+    @Label("Page Render")
+    @Description("One page rasterized for the spooler")
+    public static class Render extends JobStageEvent {
+    }
+
+    @Name("com.printapp.Spool")
+    @Label("Spool")
+    @Description("Job handed to the printer, including rendering done by the print system")
+    public static class Spool extends JobStageEvent {
+    }
+}
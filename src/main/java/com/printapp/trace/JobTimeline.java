@@ -0,0 +1,125 @@
+package com.printapp.trace;
+
+import com.printapp.log.Log;
+import com.printapp.log.Logger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-job stage durations, reconstructed from {@link Span}s without needing
+ * a flight recording. When a job finishes its timeline is logged as one
+ * line, e.g.
+ *
+ * <pre>
+ * [Timeline] Job 42: ws 3 ms, fetch 180 ms, decode 12 ms, prepare 95 ms, queue 4 ms, spool 1210 ms (render 640 ms / 3 pages)
+ * </pre>
+ *
+ * Shared stages (WebSocket message, list fetch) are copied into a job's
+ * timeline when the job is first seen. A stage that runs again, e.g. when a
+ * job is prepared anew after its settings changed, replaces its earlier
+ * time; render times add up over the pages of the latest spool only. Only
+ * the most recent jobs are kept.
+ */
+public final class JobTimeline {
+
+    private static final Logger log = Log.get("Timeline");
+
+    private static final int MAX_JOBS = 256;
+    private static final int STAGES = JobStage.values().length;
+
+    private static final long[] SHARED_NANOS = new long[STAGES];
+    private static final Map<Integer, JobTimeline> TIMELINES = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, JobTimeline> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    private final long[] nanos = new long[STAGES];
+    private final int[] counts = new int[STAGES];
+    // End of the last spool, after which a render belongs to a new attempt
+    private long spoolEndNanos;
+
+    private JobTimeline() {
+        for (JobStage stage : JobStage.values()) {
+            if (stage.isShared() && SHARED_NANOS[stage.ordinal()] > 0) {
+                nanos[stage.ordinal()] = SHARED_NANOS[stage.ordinal()];
+                counts[stage.ordinal()] = 1;
+            }
+        }
+    }
+
+    static synchronized void record(int jobId, JobStage stage, long startNanos, long endNanos) {
+        long duration = Math.max(0, endNanos - startNanos);
+        if (jobId == 0 || stage.isShared()) {
+            SHARED_NANOS[stage.ordinal()] = duration;
+            return;
+        }
+        JobTimeline timeline = TIMELINES.computeIfAbsent(jobId, id -> new JobTimeline());
+        int i = stage.ordinal();
+        if (stage == JobStage.RENDER) {
+            if (timeline.spoolEndNanos != 0 && startNanos > timeline.spoolEndNanos) {
+                timeline.nanos[i] = 0;
+                timeline.counts[i] = 0;
+                timeline.spoolEndNanos = 0;
+            }
+            timeline.nanos[i] += duration;
+            timeline.counts[i]++;
+            return;
+        }
+        timeline.nanos[i] = duration;
+        timeline.counts[i] = 1;
+        if (stage == JobStage.SPOOL) {
+            timeline.spoolEndNanos = endNanos;
+        }
+    }
+
+    /**
+     * Starts a job's timeline with the latest WebSocket and fetch timings,
+     * unless it already has one.
+     */
+    public static synchronized void attachShared(int jobId) {
+        TIMELINES.computeIfAbsent(jobId, id -> new JobTimeline());
+    }
+
+    /**
+     * Returns the job's stage durations as one line, or null if nothing was
+     * recorded for it.
+     */
+    public static synchronized String describe(int jobId) {
+        JobTimeline timeline = TIMELINES.get(jobId);
+        if (timeline == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("Job ").append(jobId).append(':');
+        String separator = " ";
+        for (JobStage stage : JobStage.values()) {
+            int i = stage.ordinal();
+            if (stage == JobStage.RENDER || timeline.counts[i] == 0) {
+                continue;
+            }
+            sb.append(separator).append(stage.label()).append(' ').append(timeline.nanos[i] / 1_000_000).append(" ms");
+            separator = ", ";
+        }
+        int render = JobStage.RENDER.ordinal();
+        if (timeline.counts[render] > 0) {
+            sb.append(" (render ").append(timeline.nanos[render] / 1_000_000).append(" ms / ")
+                    .append(timeline.counts[render]).append(" pages)");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Logs and forgets the job's timeline once it has printed or failed.
+     */
+    public static String finish(int jobId) {
+        String line = describe(jobId);
+        synchronized (JobTimeline.class) {
+            TIMELINES.remove(jobId);
+        }
+        if (line != null) {
+            log.info("{}", line);
+        }
+        return line;
+    }
+}
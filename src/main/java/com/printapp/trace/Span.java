@@ -0,0 +1,64 @@
+package com.printapp.trace;
+
+/**
+ * Times one stage of one job. Closing the span commits the matching JFR
+ * event and adds the duration to the job's {@link JobTimeline}.
+ *
+ * <pre>
+ * try (Span span = Span.begin(JobStage.LOAD, jobId)) {
+ *     document = PDDocument.load(file);
+ *     span.bytes(file.length());
+ * }
+ * </pre>
+ */
+public final class Span implements AutoCloseable {
+
+    private final JobStage stage;
+    private final int jobId;
+    private final long startNanos = System.nanoTime();
+    private final JobStageEvent event;
+    private boolean closed;
+
+    private Span(JobStage stage, int jobId) {
+        this.stage = stage;
+        this.jobId = jobId;
+        this.event = JobStageEvent.forStage(stage);
+        this.event.begin();
+    }
+
+    /**
+     * Starts timing a stage. Use job ID 0 for shared stages.
+     */
+    public static Span begin(JobStage stage, int jobId) {
+        return new Span(stage, jobId);
+    }
+
+    public Span bytes(long bytes) {
+        event.bytes = bytes;
+        return this;
+    }
+
+    public Span printer(String printer) {
+        event.printer = printer;
+        return this;
+    }
+
+    public Span detail(String detail) {
+        event.detail = detail;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        event.end();
+        if (event.shouldCommit()) {
+            event.jobId = jobId;
+            event.commit();
+        }
+        JobTimeline.record(jobId, stage, startNanos, System.nanoTime());
+    }
+}
@@ -0,0 +1,123 @@
+package com.printapp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Boots the agent in the JVM against a local stand-in backend that lists
+ * one job, with a {@code file} print sink as its printer, and waits for the
+ * job to land in the sink's directory.
+ */
+class HeadlessAgentTest {
+
+    private static final String HOME_PROPERTY = "eliteprint.home";
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private String previousHome;
+
+    @BeforeEach
+    void startBackend() throws IOException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.addPage(new PDPage());
+            document.save(pdf);
+        }
+        Map<String, Object> job = new LinkedHashMap<>();
+        job.put("id", 41);
+        job.put("copies", 1);
+        job.put("color_mode", 0);
+        job.put("sides", 1);
+        job.put("pages_per_sheet", 1);
+        job.put("file_name", "report.pdf");
+        job.put("file_base64", "data:application/pdf;base64,"
+                + Base64.getEncoder().encodeToString(pdf.toByteArray()));
+        byte[] jobs = new ObjectMapper().writeValueAsBytes(List.of(job));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/order/get-config", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, jobs.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(jobs);
+            }
+        });
+        server.start();
+
+        // A data directory of its own, so no job is remembered as printed from an earlier run
+        previousHome = System.getProperty(HOME_PROPERTY);
+        System.setProperty(HOME_PROPERTY, dir.resolve("home").toString());
+    }
+
+    @AfterEach
+    void stopBackend() {
+        server.stop(0);
+        if (previousHome != null) {
+            System.setProperty(HOME_PROPERTY, previousHome);
+        } else {
+            System.clearProperty(HOME_PROPERTY);
+        }
+    }
+
+    @Test
+    void printsAListedJobToAFileSink() throws Exception {
+        File spool = dir.resolve("spool").toFile();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        File settings = dir.resolve("home/settings.json").toFile();
+        settings.getParentFile().mkdirs();
+        Files.writeString(settings.toPath(), "{\"apiBaseUrl\": \"" + base + "\","
+                + " \"webSocketUrl\": \"ws://127.0.0.1:" + server.getAddress().getPort() + "/ws\","
+                + " \"agentPrinter\": \"To Disk\","
+                + " \"printSinks\": [{\"name\": \"To Disk\", \"type\": \"file\", \"format\": \"pdf\","
+                + " \"directory\": " + new ObjectMapper().writeValueAsString(spool.getPath()) + "}]}");
+
+        HeadlessAgent agent = new HeadlessAgent();
+        try {
+            agent.start();
+
+            File printed = dir.resolve("home/printed-jobs.txt").toFile();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!printed.isFile() && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(printed.isFile(), "job 41 was not printed");
+            assertEquals("41", Files.readString(printed.toPath(), StandardCharsets.UTF_8).trim());
+        } finally {
+            agent.stop();
+        }
+
+        File[] written = spool.listFiles();
+        assertNotNull(written);
+        assertEquals(1, written.length);
+        try (PDDocument document = PDDocument.load(written[0])) {
+            assertEquals(2, document.getNumberOfPages());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.printapp.ipp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link IppConnection} and {@link IppMessage} against a local HTTP
+ * server standing in for a printer.
+ */
+class IppConnectionTest {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private final CountDownLatch answer = new CountDownLatch(1);
+    private final AtomicInteger received = new AtomicInteger();
+    private volatile IppMessage lastRequest;
+    private volatile byte[] lastDocument;
+
+    @BeforeEach
+    void startPrinter() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/ipp/print", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopPrinter() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void sendsAttributesFollowedByTheDocument() throws Exception {
+        answer.countDown();
+        File document = dir.resolve("doc.pdf").toFile();
+        byte[] content = "%PDF-1.4 not really a PDF".getBytes(StandardCharsets.US_ASCII);
+        Files.write(document.toPath(), content);
+
+        try (IppConnection connection = new IppConnection(printerUri(), 4)) {
+            IppMessage response = connection.send(printJob(7), document).get(10, TimeUnit.SECONDS);
+
+            assertTrue(response.isSuccess());
+            assertEquals(7, response.getRequestId());
+            assertEquals(IppMessage.PRINT_JOB, lastRequest.getCode());
+            assertEquals("job 7", lastRequest.value(IppMessage.OPERATION_ATTRIBUTES, "job-name"));
+            assertEquals(List.of("one-sided", "two-sided-long-edge"),
+                    lastRequest.values(IppMessage.JOB_ATTRIBUTES, "sides"));
+            assertEquals(2, lastRequest.intValue(IppMessage.JOB_ATTRIBUTES, "copies", -1));
+            assertArrayEquals(content, lastDocument);
+            assertEquals(5, response.intValue(IppMessage.JOB_ATTRIBUTES, "job-state", -1));
+        }
+    }
+
+    @Test
+    void pipelinesUpToItsDepthAndMatchesAnswersInOrder() throws Exception {
+        int depth = 3;
+        IppConnection connection = new IppConnection(printerUri(), depth);
+        List<CompletableFuture<IppMessage>> responses = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch allSent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 1; i <= depth + 2; i++) {
+                    responses.add(connection.send(printJob(i), null));
+                }
+                allSent.countDown();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        sender.start();
+
+        // The printer holds its first answer; only depth requests may go out unanswered
+        assertTrue(waitFor(() -> responses.size() == depth));
+        assertEquals(1, received.get());
+        Thread.sleep(200);
+        assertEquals(depth, responses.size());
+
+        answer.countDown();
+        assertTrue(allSent.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals(i + 1, responses.get(i).get(10, TimeUnit.SECONDS).getRequestId());
+        }
+        assertEquals(depth + 2, received.get());
+        connection.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        received.incrementAndGet();
+        IppMessage request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = IppMessage.decode(in);
+            lastDocument = in.readAllBytes();
+        }
+        lastRequest = request;
+        try {
+            answer.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = new IppMessage(request.getVersion(), 0x0000, request.getRequestId())
+                .beginGroup(IppMessage.OPERATION_ATTRIBUTES)
+                .add(IppMessage.CHARSET, "attributes-charset", "utf-8")
+                .beginGroup(IppMessage.JOB_ATTRIBUTES)
+                .add(IppMessage.INTEGER, "job-id", 100 + request.getRequestId())
+                .add(IppMessage.ENUM, "job-state", 5)
+                .encode();
+        exchange.getResponseHeaders().set("Content-Type", "application/ipp");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private URI printerUri() {
+        return URI.create("ipp://127.0.0.1:" + server.getAddress().getPort() + "/ipp/print");
+    }
+
+    private static IppMessage printJob(int requestId) {
+        return new IppMessage(IppMessage.VERSION_2_0, IppMessage.PRINT_JOB, requestId)
+                .beginGroup(IppMessage.OPERATION_ATTRIBUTES)
+                .add(IppMessage.CHARSET, "attributes-charset", "utf-8")
+                .add(IppMessage.NAME, "job-name", "job " + requestId)
+                .beginGroup(IppMessage.JOB_ATTRIBUTES)
+                .add(IppMessage.INTEGER, "copies", 2)
+                .add(IppMessage.KEYWORD, "sides", "one-sided", "two-sided-long-edge");
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
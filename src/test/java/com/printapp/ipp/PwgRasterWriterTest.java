@@ -0,0 +1,163 @@
+package com.printapp.ipp;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PwgRasterWriterTest {
+
+    private static final int HEADER_BYTES = 1796;
+
+    @Test
+    void roundTripsGrayPagesWithRunsAndLiterals() throws IOException {
+        BufferedImage image = new BufferedImage(301, 40, BufferedImage.TYPE_BYTE_GRAY);
+        Random random = new Random(7);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                // Long runs, short runs, single pixels and noise
+                int value = y % 4 == 0 ? 255 : x < 150 ? (x / 3) * 5 : random.nextInt(256);
+                image.getRaster().setSample(x, y, 0, value);
+            }
+        }
+        assertDecodesTo(image);
+    }
+
+    @Test
+    void roundTripsRgbPages() throws IOException {
+        BufferedImage image = new BufferedImage(257, 20, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(11);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, y < 5 ? 0xFFFFFF : x % 7 == 0 ? random.nextInt(0x1000000) : 0x336699);
+            }
+        }
+        assertDecodesTo(image);
+    }
+
+    @Test
+    void roundTripsSinglePixelLines() throws IOException {
+        BufferedImage image = new BufferedImage(1, 3, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSample(0, 1, 0, 9);
+        assertDecodesTo(image);
+    }
+
+    @Test
+    void keepsBlankPagesSmall() throws IOException {
+        // 600 blank lines of 1000 pixels: three line groups (256 + 256 + 88) of eight runs each
+        BufferedImage image = new BufferedImage(1000, 600, BufferedImage.TYPE_BYTE_GRAY);
+        Arrays.fill(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), (byte) 0xFF);
+        byte[] written = write(image, 300);
+
+        assertEquals(4 + HEADER_BYTES + 3 * (1 + 8 * 2), written.length);
+        assertDecodesTo(image);
+    }
+
+    @Test
+    void writesThePageHeader() throws IOException {
+        BufferedImage image = new BufferedImage(10, 20, BufferedImage.TYPE_INT_RGB);
+        byte[] written = write(image, 300);
+        ByteBuffer header = ByteBuffer.wrap(written, 4, HEADER_BYTES).slice();
+
+        assertEquals("RaS2", new String(written, 0, 4, StandardCharsets.US_ASCII));
+        assertEquals("PwgRaster", string(header, 0));
+        assertEquals(1, header.getInt(272));
+        assertEquals(300, header.getInt(276));
+        assertEquals(2, header.getInt(340));
+        assertEquals(595, header.getInt(352));
+        assertEquals(10, header.getInt(372));
+        assertEquals(20, header.getInt(376));
+        assertEquals(24, header.getInt(388));
+        assertEquals(30, header.getInt(392));
+        assertEquals(19, header.getInt(400));
+        assertEquals("iso_a4_210x297mm", string(header, 1732));
+    }
+
+    private static void assertDecodesTo(BufferedImage image) throws IOException {
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        int bytesPerPixel = gray ? 1 : 3;
+        byte[] written = write(image, 72);
+        byte[] pixels = decode(written, 4 + HEADER_BYTES, image.getWidth() * bytesPerPixel, image.getHeight(),
+                bytesPerPixel);
+
+        byte[] expected = new byte[pixels.length];
+        for (int y = 0, i = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (gray) {
+                    expected[i++] = (byte) image.getRaster().getSample(x, y, 0);
+                } else {
+                    int rgb = image.getRGB(x, y);
+                    expected[i++] = (byte) (rgb >> 16);
+                    expected[i++] = (byte) (rgb >> 8);
+                    expected[i++] = (byte) rgb;
+                }
+            }
+        }
+        assertArrayEquals(expected, pixels);
+    }
+
+    private static byte[] write(BufferedImage image, int dpi) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PwgRasterWriter writer = new PwgRasterWriter(out)) {
+            writer.writePage(image, dpi, 595.28, 841.89, 2, true, "iso_a4_210x297mm");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reference decoder for PWG Raster line groups, written from the spec
+     * rather than from the writer.
+     */
+    private static byte[] decode(byte[] data, int offset, int bytesPerLine, int lines, int bytesPerPixel) {
+        byte[] pixels = new byte[bytesPerLine * lines];
+        int in = offset;
+        int y = 0;
+        while (y < lines) {
+            int repeat = (data[in++] & 0xFF) + 1;
+            byte[] line = new byte[bytesPerLine];
+            int filled = 0;
+            while (filled < bytesPerLine) {
+                int count = data[in++] & 0xFF;
+                if (count < 128) {
+                    for (int n = 0; n <= count; n++) {
+                        System.arraycopy(data, in, line, filled, bytesPerPixel);
+                        filled += bytesPerPixel;
+                    }
+                    in += bytesPerPixel;
+                } else {
+                    int literal = (257 - count) * bytesPerPixel;
+                    System.arraycopy(data, in, line, filled, literal);
+                    filled += literal;
+                    in += literal;
+                }
+                assertTrue(filled <= bytesPerLine, "run past the end of line " + y);
+            }
+            for (int n = 0; n < repeat; n++) {
+                System.arraycopy(line, 0, pixels, (y + n) * bytesPerLine, bytesPerLine);
+            }
+            y += repeat;
+        }
+        assertEquals(data.length, in, "trailing bytes after the last line");
+        return pixels;
+    }
+
+    private static String string(ByteBuffer header, int at) {
+        int end = at;
+        while (header.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - at];
+        header.get(at, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
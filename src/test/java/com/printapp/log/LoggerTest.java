@@ -0,0 +1,65 @@
+package com.printapp.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class LoggerTest {
+
+    private static final Logger log = Log.get("LoggerTest");
+
+    @Test
+    void logsMutableArgumentsAsTheyWereAtTheCall() throws Exception {
+        String marker = UUID.randomUUID().toString();
+        StringBuilder text = new StringBuilder("before");
+        List<Integer> list = new ArrayList<>(List.of(1, 2));
+
+        log.info("{} {} {}", marker, text, list);
+        // Changed before the writer thread gets to the event
+        text.setLength(0);
+        text.append("after");
+        list.clear();
+
+        String line = awaitLine(marker);
+        assertTrue(line.contains(marker + " before [1, 2]"), line);
+    }
+
+    @Test
+    void cutsLongPayloadsOnTheCallingThread() throws Exception {
+        String marker = UUID.randomUUID().toString();
+        // The first payload of a logger is written in full, the second is cut
+        log.payload(Level.INFO, "first {}", marker);
+        StringBuilder payload = new StringBuilder(marker);
+        payload.append("x".repeat(500));
+        log.payload(Level.INFO, "second {}", payload);
+        payload.setLength(0);
+
+        String line = awaitLine("second " + marker);
+        assertTrue(line.contains("x... (" + (marker.length() + 500) + " chars)"), line);
+    }
+
+    private static String awaitLine(String marker) throws IOException, InterruptedException {
+        File file = new File(System.getProperty("eliteprint.home"), "logs/elite-print.log");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (file.isFile()) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.contains(marker)) {
+                        return line;
+                    }
+                }
+            }
+            Thread.sleep(20);
+        }
+        return fail("No log line with " + marker);
+    }
+}
@@ -0,0 +1,73 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void copiesPdfsAsTheyAre() throws Exception {
+        File source = dir.resolve("source.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.save(source);
+        }
+        File out = dir.resolve("out").toFile();
+        new FileSink("To Disk", out, "pdf", 72).sendPdf(source, PrintConfig.forJob(1, 1, 0, 1, 1), "job 1");
+
+        File[] written = out.listFiles();
+        assertNotNull(written);
+        assertEquals(1, written.length);
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(written[0].toPath()));
+    }
+
+    @Test
+    void writesRenderedPagesAsOnePdf() throws Exception {
+        File out = dir.resolve("out").toFile();
+        FileSink sink = new FileSink("To Disk", out, "pdf", 72);
+        long start = System.nanoTime();
+        sink.sendPages(VirtualPrinterSinkTest.pages(20), PrintConfig.forJob(2, 1, 10, 1, 1), "job 2");
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        File[] written = out.listFiles();
+        assertNotNull(written);
+        assertEquals(1, written.length);
+        try (PDDocument document = PDDocument.load(written[0])) {
+            assertEquals(20, document.getNumberOfPages());
+        }
+        // 20 A4 pages at 72 dpi are small; this only catches a pathological slowdown
+        assertTrue(elapsedMs < 20_000, "took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void writesOnePngPerPage() throws Exception {
+        File out = dir.resolve("out").toFile();
+        new FileSink("To Disk", out, "png", 72).sendPages(VirtualPrinterSinkTest.pages(3),
+                PrintConfig.forJob(3, 1, 0, 1, 1), "job 3");
+
+        File[] written = out.listFiles((d, name) -> name.endsWith(".png"));
+        assertNotNull(written);
+        assertEquals(3, written.length);
+    }
+
+    @Test
+    void refusesUnknownFormats() {
+        assertThrows(IllegalArgumentException.class, () -> new FileSink("To Disk", dir.toFile(), "tiff", 72));
+    }
+}
@@ -0,0 +1,178 @@
+package com.printapp.service;
+
+import com.printapp.ipp.IppMessage;
+import com.printapp.model.PrintConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives {@link IppSink} against a local HTTP server that stands in for a
+ * printer: it decodes Print-Job requests, keeps a job-state per job and
+ * answers Get-Job-Attributes with it.
+ */
+class IppSinkTest {
+
+    private static final int PROCESSING = 5;
+    private static final int ABORTED = 8;
+    private static final int COMPLETED = 9;
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private final AtomicInteger ippJobIds = new AtomicInteger(100);
+    // IPP job ID -> job-state the printer reports
+    private final Map<Integer, Integer> jobStates = new ConcurrentHashMap<>();
+    private final List<IppMessage> printJobs = new CopyOnWriteArrayList<>();
+    private final List<byte[]> documents = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startPrinter() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ipp/print", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopPrinter() {
+        server.stop(0);
+    }
+
+    @Test
+    void completesOnceThePrinterReportsTheJobCompleted() throws Exception {
+        File pdf = pdf("a.pdf");
+        try (IppSink sink = sink(2)) {
+            sink.sendPdf(pdf, PrintConfig.forJob(1, 3, 10, 2, 1), "job 1");
+
+            IppMessage request = printJobs.get(0);
+            assertEquals("job 1", request.value(IppMessage.OPERATION_ATTRIBUTES, "job-name"));
+            assertEquals("application/pdf", request.value(IppMessage.OPERATION_ATTRIBUTES, "document-format"));
+            assertEquals(3, request.intValue(IppMessage.JOB_ATTRIBUTES, "copies", -1));
+            assertEquals("two-sided-long-edge", request.value(IppMessage.JOB_ATTRIBUTES, "sides"));
+            assertArrayEquals(Files.readAllBytes(pdf.toPath()), documents.get(0));
+
+            CompletableFuture<Void> completion = sink.completion(1);
+            assertEquals(1, sink.activeJobs());
+            Thread.sleep(2500);
+            // Polled at least once while still processing
+            assertFalse(completion.isDone());
+
+            jobStates.put(101, COMPLETED);
+            completion.get(10, TimeUnit.SECONDS);
+            assertEquals(0, sink.activeJobs());
+        }
+    }
+
+    @Test
+    void failsTheCompletionWhenThePrinterAbortsTheJob() throws Exception {
+        try (IppSink sink = sink(2)) {
+            sink.sendPdf(pdf("a.pdf"), PrintConfig.forJob(1, 1, 0, 1, 1), "job 1");
+            CompletableFuture<Void> completion = sink.completion(1);
+
+            jobStates.put(101, ABORTED);
+            ExecutionException error = assertThrows(ExecutionException.class,
+                    () -> completion.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, error.getCause());
+        }
+    }
+
+    @Test
+    void holdsFurtherJobsBackAtTheQueueLimit() throws Exception {
+        File pdf = pdf("a.pdf");
+        try (IppSink sink = sink(1)) {
+            sink.sendPdf(pdf, PrintConfig.forJob(1, 1, 0, 1, 1), "job 1");
+
+            CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {
+                try {
+                    sink.sendPdf(pdf, PrintConfig.forJob(2, 1, 0, 1, 1), "job 2");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(500);
+            assertFalse(second.isDone());
+            assertEquals(1, printJobs.size());
+
+            // Room frees up once the poller sees the first job finish
+            jobStates.put(101, COMPLETED);
+            second.get(10, TimeUnit.SECONDS);
+            assertEquals(2, printJobs.size());
+            assertTrue(sink.completion(1).isDone());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        IppMessage request;
+        byte[] document;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = IppMessage.decode(in);
+            document = in.readAllBytes();
+        }
+        IppMessage response = new IppMessage(request.getVersion(), 0x0000, request.getRequestId())
+                .beginGroup(IppMessage.OPERATION_ATTRIBUTES)
+                .add(IppMessage.CHARSET, "attributes-charset", "utf-8");
+        if (request.getCode() == IppMessage.PRINT_JOB) {
+            int ippJobId = ippJobIds.incrementAndGet();
+            jobStates.put(ippJobId, PROCESSING);
+            printJobs.add(request);
+            documents.add(document);
+            response.beginGroup(IppMessage.JOB_ATTRIBUTES)
+                    .add(IppMessage.INTEGER, "job-id", ippJobId)
+                    .add(IppMessage.ENUM, "job-state", PROCESSING);
+        } else if (request.getCode() == IppMessage.GET_JOB_ATTRIBUTES) {
+            int ippJobId = request.intValue(IppMessage.OPERATION_ATTRIBUTES, "job-id", -1);
+            response.beginGroup(IppMessage.JOB_ATTRIBUTES)
+                    .add(IppMessage.ENUM, "job-state", jobStates.getOrDefault(ippJobId, PROCESSING))
+                    .add(IppMessage.KEYWORD, "job-state-reasons", "none");
+        } else {
+            response.beginGroup(IppMessage.PRINTER_ATTRIBUTES)
+                    .add(IppMessage.MIME_MEDIA_TYPE, "document-format-supported", "application/pdf");
+        }
+        byte[] body = response.encode();
+        exchange.getResponseHeaders().set("Content-Type", "application/ipp");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private IppSink sink(int queueLimit) {
+        URI uri = URI.create("ipp://127.0.0.1:" + server.getAddress().getPort() + "/ipp/print");
+        return new IppSink("Office IPP", uri, 300, queueLimit, 4);
+    }
+
+    private File pdf(String name) throws IOException {
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), "%PDF-1.4 stand-in".getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
@@ -0,0 +1,112 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintJobDto;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Downloads of referenced job files from a local stand-in backend, with
+ * files left in the download directory by an earlier run.
+ */
+class JobFileServiceTest {
+
+    private static final String HOME_PROPERTY = "eliteprint.home";
+    private static final String CURRENT = "%PDF-1.4 current version";
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private String previousHome;
+    private SettingsService settings;
+    private JobFileService files;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/files/doc.pdf", exchange -> {
+            requests.incrementAndGet();
+            byte[] body = CURRENT.getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        // A download directory of its own
+        previousHome = System.getProperty(HOME_PROPERTY);
+        System.setProperty(HOME_PROPERTY, dir.toString());
+        Files.writeString(AppPaths.settingsFile().toPath(),
+                "{\"apiBaseUrl\": \"http://127.0.0.1:" + server.getAddress().getPort() + "\"}");
+        settings = new SettingsService();
+        files = new JobFileService(new ApiService(settings), settings);
+    }
+
+    @AfterEach
+    void stop() {
+        files.shutdown();
+        settings.close();
+        server.stop(0);
+        if (previousHome != null) {
+            System.setProperty(HOME_PROPERTY, previousHome);
+        } else {
+            System.clearProperty(HOME_PROPERTY);
+        }
+    }
+
+    @Test
+    void downloadsAgainWhenALeftoverCannotBeChecked() throws Exception {
+        PrintJobDto dto = job();
+        leftover("job-9-doc.pdf", "%PDF-1.4 older version, longer than the current one");
+        leftover("job-9-doc.pdf.part", "%PDF-1.4 older");
+
+        File file = files.fetch(dto).get(10, TimeUnit.SECONDS);
+
+        assertEquals(CURRENT, Files.readString(file.toPath(), StandardCharsets.US_ASCII));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void reusesALeftoverThatMatchesTheAnnouncedChecksum() throws Exception {
+        PrintJobDto dto = job();
+        File kept = leftover("job-9-doc.pdf", CURRENT);
+        dto.setFileSize(kept.length());
+        dto.setFileSha256(JobFileService.sha256(kept));
+
+        File file = files.fetch(dto).get(10, TimeUnit.SECONDS);
+
+        assertEquals(kept, file);
+        assertEquals(0, requests.get());
+    }
+
+    private static PrintJobDto job() {
+        PrintJobDto dto = new PrintJobDto();
+        dto.setId(9);
+        dto.setFileName("doc.pdf");
+        dto.setFilePath("/files/doc.pdf");
+        return dto;
+    }
+
+    private File leftover(String name, String content) throws IOException {
+        File file = new File(AppPaths.resolve("downloads/"), name);
+        Files.writeString(file.toPath(), content, StandardCharsets.US_ASCII);
+        return file;
+    }
+}
@@ -0,0 +1,135 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link JobLeaseService} against a local stand-in backend that keeps
+ * one holder per job and answers 409 to everyone else.
+ */
+class JobLeaseServiceTest {
+
+    private static final String STATION = "station-here";
+    private static final String PEER = "station-peer";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Job ID -> station holding its lease on the stand-in backend
+    private final Map<Integer, String> holders = new ConcurrentHashMap<>();
+    private final AtomicInteger renewals = new AtomicInteger();
+    private HttpServer server;
+    private SettingsService settings;
+    private JobLeaseService leases;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/order/lease", this::handle);
+        server.start();
+
+        File file = AppPaths.settingsFile();
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), "{\"apiBaseUrl\": \"http://127.0.0.1:" + server.getAddress().getPort()
+                + "\", \"leasing\": true, \"leaseTtlSeconds\": 10, \"stationId\": \"" + STATION + "\"}");
+        settings = new SettingsService();
+        leases = new JobLeaseService(new ApiService(settings), settings);
+    }
+
+    @AfterEach
+    void stop() {
+        leases.shutdown();
+        settings.close();
+        server.stop(0);
+    }
+
+    @Test
+    void doesNotClaimAJobAPeerHolds() {
+        holders.put(5, PEER);
+
+        assertFalse(leases.acquire(5));
+        assertFalse(leases.holds(5));
+        assertTrue(leases.acquire(6));
+        assertTrue(leases.holds(6));
+        assertEquals(STATION, holders.get(6));
+        assertEquals(1, leases.heldCount());
+    }
+
+    @Test
+    void renewsTheLeaseUntilAPeerTakesIt() throws Exception {
+        assertTrue(leases.acquire(7));
+
+        // A 10 s TTL is renewed every 3 s
+        assertTrue(waitFor(() -> renewals.get() >= 1));
+        assertTrue(leases.holds(7));
+
+        holders.put(7, PEER);
+        assertTrue(waitFor(() -> !leases.holds(7)));
+        assertEquals(0, leases.heldCount());
+    }
+
+    @Test
+    void releasesTheLeaseWhenPrintingFails() throws Exception {
+        assertTrue(leases.acquire(8));
+
+        leases.release(8);
+        assertFalse(leases.holds(8));
+        assertTrue(waitFor(() -> !holders.containsKey(8)));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonNode body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = objectMapper.readTree(in);
+        }
+        int jobId = body.get("jobId").asInt();
+        String station = body.get("stationId").asText();
+        String action = exchange.getRequestURI().getPath().substring("/order/lease".length());
+        String holder = holders.get(jobId);
+
+        int status;
+        if (action.equals("/release")) {
+            holders.remove(jobId, station);
+            status = 200;
+        } else if (action.equals("/renew")) {
+            renewals.incrementAndGet();
+            status = station.equals(holder) ? 200 : 409;
+        } else if (holder == null || holder.equals(station)) {
+            holders.put(jobId, station);
+            status = 200;
+        } else {
+            status = 409;
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.printapp.model.JobStatus;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link JobStatusReporter} over HTTP against a local stand-in backend
+ * that can be told to answer 503 to the first requests.
+ */
+class JobStatusReporterTest {
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    // Arrival time and body of every POST, accepted or not
+    private final List<Long> arrivals = new CopyOnWriteArrayList<>();
+    private final List<JsonNode> batches = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private SettingsService settings;
+    private File outbox;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/order/status", this::handle);
+        server.start();
+
+        File file = AppPaths.settingsFile();
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), "{\"apiBaseUrl\": \"http://127.0.0.1:" + server.getAddress().getPort()
+                + "\", \"statusReporting\": \"http\", \"statusReportIntervalMs\": 200}");
+        settings = new SettingsService();
+        outbox = dir.resolve("status-outbox.jsonl").toFile();
+    }
+
+    @AfterEach
+    void stop() {
+        settings.close();
+        server.stop(0);
+    }
+
+    @Test
+    void sendsOnlyTheLatestTransitionPerJobInOneBatch() throws Exception {
+        JobStatusReporter reporter = new JobStatusReporter(new ApiService(settings), settings, outbox);
+        reporter.report(2, JobStatus.CLAIMED);
+        reporter.report(2, JobStatus.PRINTING);
+        reporter.report(3, JobStatus.PRINTED);
+
+        assertTrue(waitFor(() -> reporter.pendingCount() == 0));
+        assertEquals(1, batches.size());
+        JsonNode reports = batches.get(0).get("reports");
+        assertEquals(2, reports.size());
+        assertEquals("printing", reports.get(0).get("status").asText());
+        assertEquals(3, reports.get(1).get("jobId").asInt());
+        // Rewritten under the same lock that empties pending
+        assertFalse(outbox.exists());
+        reporter.shutdown();
+    }
+
+    @Test
+    void retriesWithGrowingBackoffOnServerErrors() throws Exception {
+        failuresLeft.set(3);
+        JobStatusReporter reporter = new JobStatusReporter(new ApiService(settings), settings, outbox);
+        reporter.report(1, JobStatus.PRINTED);
+
+        assertTrue(waitFor(() -> arrivals.size() >= 1));
+        // Kept on disk while the backend refuses it
+        assertTrue(waitFor(() -> outbox.isFile()));
+        assertTrue(Files.readString(outbox.toPath()).contains("printed"));
+
+        assertTrue(waitFor(() -> reporter.pendingCount() == 0));
+        assertEquals(4, arrivals.size());
+        // Backoff starts at twice the 200 ms interval and doubles: 400, 800, 1600 ms
+        long first = arrivals.get(1) - arrivals.get(0);
+        long second = arrivals.get(2) - arrivals.get(1);
+        long third = arrivals.get(3) - arrivals.get(2);
+        assertTrue(first >= 350, "first retry after " + first + " ms");
+        assertTrue(second >= 750 && second > first, "second retry after " + second + " ms");
+        assertTrue(third >= 1550 && third > second, "third retry after " + third + " ms");
+        assertFalse(outbox.exists());
+        reporter.shutdown();
+    }
+
+    @Test
+    void resendsTheOutboxAfterARestart() throws Exception {
+        failuresLeft.set(Integer.MAX_VALUE);
+        JobStatusReporter first = new JobStatusReporter(new ApiService(settings), settings, outbox);
+        first.report(4, JobStatus.FAILED, "paper jam");
+        assertTrue(waitFor(() -> arrivals.size() >= 1 && outbox.isFile()));
+        first.shutdown();
+
+        failuresLeft.set(0);
+        JobStatusReporter second = new JobStatusReporter(new ApiService(settings), settings, outbox);
+        assertEquals(1, second.pendingCount());
+        second.start();
+
+        assertTrue(waitFor(() -> second.pendingCount() == 0));
+        JsonNode report = batches.get(batches.size() - 1).get("reports").get(0);
+        assertEquals(4, report.get("jobId").asInt());
+        assertEquals("paper jam", report.get("reason").asText());
+        assertFalse(outbox.exists());
+        second.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        arrivals.add(System.nanoTime() / 1_000_000);
+        JsonNode body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = objectMapper.readTree(in);
+        }
+        int status = 200;
+        if (failuresLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+            status = 503;
+        } else {
+            batches.add(body);
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+}
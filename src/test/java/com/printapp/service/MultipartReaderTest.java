@@ -0,0 +1,145 @@
+package com.printapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MultipartReaderTest {
+
+    private static final String BOUNDARY = "----form7MA4YWxk";
+
+    @Test
+    void readsTheBoundaryFromTheContentType() {
+        assertEquals("abc", MultipartReader.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartReader.boundary("Multipart/Form-Data;charset=utf-8; BOUNDARY=\"a b\""));
+        assertNull(MultipartReader.boundary("application/pdf"));
+        assertNull(MultipartReader.boundary("multipart/form-data"));
+        assertNull(MultipartReader.boundary(null));
+    }
+
+    @Test
+    void readsFieldsAndFiles() throws IOException {
+        byte[] body = body("preamble\r\n",
+                field("copies", "2"),
+                filePart("file", "caf\u00e9 menu.pdf", "%PDF-1.4 body".getBytes(StandardCharsets.ISO_8859_1)));
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(body), BOUNDARY);
+
+        MultipartReader.Part copies = reader.next();
+        assertEquals("copies", copies.name);
+        assertNull(copies.fileName);
+        assertEquals("2", copies.text(16));
+
+        MultipartReader.Part file = reader.next();
+        assertEquals("file", file.name);
+        assertEquals("caf\u00e9 menu.pdf", file.fileName);
+        assertEquals("application/octet-stream", file.contentType);
+        assertEquals("%PDF-1.4 body", new String(file.body.readAllBytes(), StandardCharsets.ISO_8859_1));
+
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void streamsLargeBinaryContentArrivingInSmallReads() throws IOException {
+        byte[] content = new byte[300_000];
+        new Random(42).nextBytes(content);
+        // Near misses of the delimiter must pass through as content
+        byte[] nearMiss = ("\r\n--" + BOUNDARY.substring(0, 10)).getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(nearMiss, 0, content, 70_000, nearMiss.length);
+        System.arraycopy(nearMiss, 0, content, content.length - nearMiss.length, nearMiss.length);
+
+        byte[] body = body("", filePart("file", "scan.bin", content));
+        MultipartReader reader = new MultipartReader(new Trickle(new ByteArrayInputStream(body), 997), BOUNDARY);
+
+        MultipartReader.Part file = reader.next();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        file.body.transferTo(copy);
+        assertArrayEquals(content, copy.toByteArray());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void skipsPartsThatWereNotRead() throws IOException {
+        byte[] body = body("", filePart("ignored", "a.bin", new byte[200_000]), field("copies", "3"));
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(body), BOUNDARY);
+
+        reader.next();
+        MultipartReader.Part copies = reader.next();
+        assertEquals("copies", copies.name);
+        assertEquals("3", copies.text(16));
+    }
+
+    @Test
+    void failsOnATruncatedUpload() throws IOException {
+        byte[] body = body("", filePart("file", "a.pdf", new byte[1000]));
+        byte[] truncated = new byte[body.length - 100];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(truncated), BOUNDARY);
+
+        MultipartReader.Part file = reader.next();
+        assertThrows(IOException.class, () -> file.body.readAllBytes());
+    }
+
+    @Test
+    void refusesOverlongFields() throws IOException {
+        byte[] body = body("", field("copies", "12345678901234567890"));
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(body), BOUNDARY);
+
+        MultipartReader.Part copies = reader.next();
+        assertThrows(IOException.class, () -> copies.text(16));
+    }
+
+    private static byte[] field(String name, String value) {
+        return ("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] filePart(String name, String fileName, byte[] content) {
+        byte[] head = ("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] part = new byte[head.length + content.length];
+        System.arraycopy(head, 0, part, 0, head.length);
+        System.arraycopy(content, 0, part, head.length, content.length);
+        return part;
+    }
+
+    private static byte[] body(String preamble, byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(preamble.getBytes(StandardCharsets.ISO_8859_1));
+        for (byte[] part : parts) {
+            out.writeBytes(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.writeBytes(part);
+            out.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    /**
+     * Hands out at most {@code chunk} bytes per read, like a slow socket.
+     */
+    private static final class Trickle extends FilterInputStream {
+        private final int chunk;
+
+        Trickle(InputStream in, int chunk) {
+            super(in);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
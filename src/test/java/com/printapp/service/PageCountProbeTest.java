@@ -0,0 +1,273 @@
+package com.printapp.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCountProbeTest {
+
+    @TempDir
+    Path dir;
+
+    private final PageCountProbe probe = new PageCountProbe();
+
+    @Test
+    void countsClassicCrossReferenceTables() throws Exception {
+        File pdf = dir.resolve("classic.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < 4; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(pdf);
+        }
+        assertTrue(contains(pdf, "\nxref"), "expected a classic xref table");
+
+        assertFastPathMatchesPdfBox(pdf, 4);
+    }
+
+    @Test
+    void countsCrossReferenceStreamsAndObjectStreams() throws Exception {
+        File pdf = dir.resolve("xref-stream.pdf").toFile();
+        Files.write(pdf.toPath(), xrefStreamPdf(3));
+
+        assertFastPathMatchesPdfBox(pdf, 3);
+    }
+
+    @Test
+    void followsIncrementalUpdatesNewestFirst() throws Exception {
+        File original = dir.resolve("original.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.addPage(new PDPage());
+            document.save(original);
+        }
+        File updated = appendPages(original, dir.resolve("updated.pdf").toFile(), 3);
+
+        assertTrue(contains(updated, "/Prev"), "expected an incremental update");
+        assertEquals(2, probe.pdfPageCount(original));
+        assertFastPathMatchesPdfBox(updated, 5);
+    }
+
+    @Test
+    void followsIncrementalUpdatesOfCrossReferenceStreams() throws Exception {
+        File original = dir.resolve("xref-stream.pdf").toFile();
+        Files.write(original.toPath(), xrefStreamPdf(2));
+        File updated = appendPages(original, dir.resolve("xref-stream-updated.pdf").toFile(), 1);
+        assertTrue(contains(updated, "/Prev"), "expected an incremental update");
+
+        assertFastPathMatchesPdfBox(updated, 3);
+    }
+
+    @Test
+    void fallsBackToPdfBoxForATruncatedFile() throws Exception {
+        File pdf = dir.resolve("whole.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < 6; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(pdf);
+        }
+        // Cut inside the cross-reference table: no trailer, no startxref
+        byte[] bytes = Files.readAllBytes(pdf.toPath());
+        int xref = indexOf(bytes, "\nxref") + 30;
+        File truncated = dir.resolve("truncated.pdf").toFile();
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, xref));
+
+        assertFallsBack(truncated);
+        assertEquals(pdfBoxCount(truncated), probe.countPages(truncated));
+        assertEquals(6, probe.countPages(truncated));
+    }
+
+    @Test
+    void fallsBackToPdfBoxForABadStartxref() throws Exception {
+        File pdf = dir.resolve("whole.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < 3; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(pdf);
+        }
+        String text = new String(Files.readAllBytes(pdf.toPath()), StandardCharsets.ISO_8859_1);
+        int at = text.lastIndexOf("startxref") + "startxref".length();
+        int end = text.indexOf("%%EOF", at);
+        File corrupt = dir.resolve("corrupt.pdf").toFile();
+        Files.write(corrupt.toPath(), (text.substring(0, at) + "\n17\n" + text.substring(end))
+                .getBytes(StandardCharsets.ISO_8859_1));
+
+        assertFallsBack(corrupt);
+        assertEquals(pdfBoxCount(corrupt), probe.countPages(corrupt));
+        assertEquals(3, probe.countPages(corrupt));
+    }
+
+    @Test
+    void countsUnreadableFilesAsOnePage() throws Exception {
+        File garbage = dir.resolve("garbage.pdf").toFile();
+        Files.write(garbage.toPath(), "not a pdf at all".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(1, probe.countPages(garbage));
+    }
+
+    private void assertFastPathMatchesPdfBox(File pdf, int expected) throws IOException {
+        assertEquals(expected, pdfBoxCount(pdf));
+        // Read from the cross-reference data, not through the fallback
+        assertEquals(expected, probe.pdfPageCount(pdf));
+        assertEquals(expected, probe.countPages(pdf));
+    }
+
+    private void assertFallsBack(File pdf) {
+        int fast;
+        try {
+            fast = probe.pdfPageCount(pdf);
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        assertTrue(fast <= 0, "expected the fast path to give up, got " + fast);
+    }
+
+    private static int pdfBoxCount(File pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    /**
+     * Copies {@code original} and appends an incremental update adding
+     * {@code pages} pages.
+     */
+    private static File appendPages(File original, File target, int pages) throws IOException {
+        Files.copy(original.toPath(), target.toPath());
+        try (PDDocument document = PDDocument.load(original);
+             OutputStream out = new FileOutputStream(target, true)) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage();
+                page.getCOSObject().setNeedToBeUpdated(true);
+                document.addPage(page);
+            }
+            document.getPages().getCOSObject().setNeedToBeUpdated(true);
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            ByteArrayOutputStream update = new ByteArrayOutputStream();
+            document.saveIncremental(update);
+            // saveIncremental writes the original followed by the update
+            byte[] bytes = update.toByteArray();
+            out.write(bytes, (int) original.length(), bytes.length - (int) original.length());
+        }
+        return target;
+    }
+
+    /**
+     * A PDF 1.5 file whose catalogue, page tree and pages all live in a
+     * Flate-compressed object stream, indexed by a cross-reference stream
+     * with the PNG Up predictor.
+     */
+    static byte[] xrefStreamPdf(int pages) throws IOException {
+        int first = 3;
+        int objectStream = first + pages;
+        int xrefStream = objectStream + 1;
+
+        String[] objects = new String[pages + 2];
+        objects[0] = "<< /Type /Catalog /Pages 2 0 R >>";
+        StringBuilder kids = new StringBuilder();
+        for (int i = 0; i < pages; i++) {
+            kids.append(first + i).append(" 0 R ");
+            objects[2 + i] = "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>";
+        }
+        objects[1] = "<< /Type /Pages /Kids [" + kids + "] /Count " + pages + " >>";
+
+        StringBuilder header = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < objects.length; i++) {
+            header.append(i + 1).append(' ').append(body.length()).append(' ');
+            body.append(objects[i]).append('\n');
+        }
+        byte[] streamData = deflate((header.toString() + body).getBytes(StandardCharsets.US_ASCII));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "%PDF-1.5\n%\u00e2\u00e3\u00cf\u00d3\n");
+        long objectStreamOffset = out.size();
+        write(out, objectStream + " 0 obj\n<< /Type /ObjStm /N " + objects.length + " /First "
+                + header.length() + " /Filter /FlateDecode /Length " + streamData.length + " >>\nstream\n");
+        out.write(streamData);
+        write(out, "\nendstream\nendobj\n");
+
+        // Rows of /W [1 4 2]: type, offset or object stream number, generation or index
+        int size = xrefStream + 1;
+        long xrefOffset = out.size();
+        byte[][] rows = new byte[size][];
+        rows[0] = row(0, 0, 0xFFFF);
+        for (int i = 0; i < objects.length; i++) {
+            rows[1 + i] = row(2, objectStream, i);
+        }
+        rows[objectStream] = row(1, objectStreamOffset, 0);
+        rows[xrefStream] = row(1, xrefOffset, 0);
+        byte[] xrefData = deflate(pngUp(rows));
+
+        write(out, xrefStream + " 0 obj\n<< /Type /XRef /Size " + size + " /W [1 4 2] /Root 1 0 R"
+                + " /Filter /FlateDecode /DecodeParms << /Predictor 12 /Columns 7 >> /Length " + xrefData.length
+                + " >>\nstream\n");
+        out.write(xrefData);
+        write(out, "\nendstream\nendobj\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+        return out.toByteArray();
+    }
+
+    private static byte[] row(int type, long field2, int field3) {
+        return new byte[] {(byte) type, (byte) (field2 >> 24), (byte) (field2 >> 16), (byte) (field2 >> 8),
+                (byte) field2, (byte) (field3 >> 8), (byte) field3};
+    }
+
+    /**
+     * PNG "Up" filter: each row becomes a filter-type byte of 2 followed by
+     * its difference to the row above.
+     */
+    private static byte[] pngUp(byte[][] rows) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] previous = new byte[rows[0].length];
+        for (byte[] row : rows) {
+            out.write(2);
+            for (int i = 0; i < row.length; i++) {
+                out.write(row[i] - previous[i]);
+            }
+            previous = row;
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean contains(File file, String text) throws IOException {
+        return indexOf(Files.readAllBytes(file.toPath()), text) >= 0;
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        return new String(bytes, StandardCharsets.ISO_8859_1).indexOf(text);
+    }
+}
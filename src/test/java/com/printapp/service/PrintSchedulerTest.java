@@ -0,0 +1,121 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+import com.printapp.model.SpoolReport;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.print.Printable;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PrintSchedulerTest {
+
+    @TempDir
+    Path dir;
+
+    private final SettingsService settings = new SettingsService();
+    private final PrinterService printerService = new PrinterService();
+    private final JobPreparationService preparation = new JobPreparationService();
+    private PrintScheduler scheduler;
+
+    @AfterEach
+    void shutDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        preparation.shutdown();
+        settings.close();
+    }
+
+    @Test
+    void keepsPrintingAfterAJobFailsWithAnError() throws Exception {
+        List<Integer> printed = new CopyOnWriteArrayList<>();
+        printerService.addSink(new RecordingSink("Flaky", printed, 1));
+        scheduler = new PrintScheduler(printerService, preparation, settings, dir.resolve("deferred.jsonl").toFile());
+        File pdf = pdf();
+
+        CompletableFuture<SpoolReport> first = scheduler.submit(config(1, pdf));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(OutOfMemoryError.class, failure.getCause());
+
+        // The printer's worker survived and takes the next job
+        SpoolReport report = scheduler.submit(config(2, pdf)).get(10, TimeUnit.SECONDS);
+        assertEquals(2, report.getJobId());
+        assertEquals(List.of(2), printed);
+        assertEquals(0, scheduler.queuedJobs("Flaky"));
+    }
+
+    private File pdf() throws Exception {
+        File file = dir.resolve("one.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.save(file);
+        }
+        return file;
+    }
+
+    private static PrintConfig config(int jobId, File file) {
+        PrintConfig config = PrintConfig.forJob(jobId, 1, 0, 1, 1);
+        config.setSelectedPrinter("Flaky");
+        config.setFileToPrint(file);
+        config.setBulk(false);
+        return config;
+    }
+
+    /**
+     * Takes PDFs as-is and records their job IDs; the job {@code failing}
+     * runs out of memory.
+     */
+    private static final class RecordingSink implements PrintSink {
+        private final String name;
+        private final List<Integer> printed;
+        private final int failing;
+
+        RecordingSink(String name, List<Integer> printed, int failing) {
+            this.name = name;
+            this.printed = printed;
+            this.failing = failing;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int maxDpi() {
+            return 72;
+        }
+
+        @Override
+        public boolean acceptsPdf() {
+            return true;
+        }
+
+        @Override
+        public void sendPdf(File file, PrintConfig config, String jobName) {
+            if (config.getJobId() == failing) {
+                throw new OutOfMemoryError("Java heap space");
+            }
+            printed.add(config.getJobId());
+        }
+
+        @Override
+        public void sendPages(Printable printable, PrintConfig config, String jobName) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+import com.printapp.model.SpoolReport;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrinterServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reportsPagesAndSizeOfPassthroughJobs() throws Exception {
+        File pdf = dir.resolve("three.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < 3; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(pdf);
+        }
+        PrinterService printerService = new PrinterService();
+        try (VirtualPrinterSink sink = new VirtualPrinterSink("Virtual", 6000, 0, 60_000, 4, 72)) {
+            printerService.addSink(sink);
+            SpoolReport report = printerService.print(config(pdf, sink));
+
+            assertEquals("passthrough", report.getMode());
+            assertEquals(3, report.getPages());
+            assertEquals(pdf.length(), report.getSpoolBytes());
+            assertTrue(report.isSpoolBytesMeasured());
+            assertTrue(report.summary().contains("3 page(s)"), report.summary());
+            assertTrue(report.summary().contains(" KB spooled"), report.summary());
+        }
+    }
+
+    @Test
+    void labelsRenderedSizesAsEstimates() throws Exception {
+        File png = dir.resolve("photo.png").toFile();
+        ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), "png", png);
+        PrinterService printerService = new PrinterService();
+        try (VirtualPrinterSink sink = new VirtualPrinterSink("Virtual", 6000, 0, 60_000, 4, 72)) {
+            printerService.addSink(sink);
+            SpoolReport report = printerService.print(config(png, sink));
+
+            assertEquals(1, report.getPages());
+            assertFalse(report.isSpoolBytesMeasured());
+            assertTrue(report.summary().contains("KB raster (estimated)"), report.summary());
+            assertFalse(report.summary().contains("spooled"), report.summary());
+        }
+    }
+
+    private static PrintConfig config(File file, VirtualPrinterSink sink) {
+        PrintConfig config = PrintConfig.forJob(1, 1, 10, 1, 1);
+        config.setSelectedPrinter(sink.getName());
+        config.setFileToPrint(file);
+        return config;
+    }
+}
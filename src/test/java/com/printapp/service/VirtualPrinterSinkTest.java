@@ -0,0 +1,98 @@
+package com.printapp.service;
+
+import com.printapp.model.PrintConfig;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.print.Printable;
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VirtualPrinterSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void printsAtTheConfiguredSpeed() throws Exception {
+        // 600 pages per minute: 100 ms a page, 1.2 s for the whole workload
+        try (VirtualPrinterSink sink = new VirtualPrinterSink("Virtual", 600, 0, 60_000, 4, 72)) {
+            File pdf = pdf(3);
+            for (int jobId = 1; jobId <= 4; jobId++) {
+                sink.sendPdf(pdf, PrintConfig.forJob(jobId, 1, 0, 1, 1), "job " + jobId);
+            }
+            assertTrue(sink.awaitIdle(10_000));
+
+            assertEquals(4, sink.getJobsPrinted());
+            assertEquals(12, sink.getPagesPrinted());
+            assertEquals(1, sink.getWarmups());
+            assertTrue(sink.pagesPerMinute() > 400 && sink.pagesPerMinute() <= 600, "ppm " + sink.pagesPerMinute());
+        }
+    }
+
+    @Test
+    void countsRenderedPagesTimesCopies() throws Exception {
+        try (VirtualPrinterSink sink = new VirtualPrinterSink("Virtual", 6000, 0, 60_000, 2, 36)) {
+            sink.sendPages(pages(5), PrintConfig.forJob(1, 2, 0, 1, 1), "job 1");
+            assertTrue(sink.awaitIdle(10_000));
+
+            assertEquals(10, sink.getPagesPrinted());
+        }
+    }
+
+    @Test
+    void warmsUpAgainAfterSleeping() throws Exception {
+        try (VirtualPrinterSink sink = new VirtualPrinterSink("Virtual", 6000, 50, 100, 2, 72)) {
+            File pdf = pdf(1);
+            sink.sendPdf(pdf, PrintConfig.forJob(1, 1, 0, 1, 1), "job 1");
+            assertTrue(sink.awaitIdle(10_000));
+            Thread.sleep(300);
+            sink.sendPdf(pdf, PrintConfig.forJob(2, 1, 0, 1, 1), "job 2");
+            assertTrue(sink.awaitIdle(10_000));
+
+            assertEquals(2, sink.getWarmups());
+        }
+    }
+
+    @Test
+    void blocksWhileTheDeviceQueueIsFull() throws Exception {
+        // 60 pages per minute: each job holds the device for a second
+        try (VirtualPrinterSink sink = new VirtualPrinterSink("Virtual", 60, 0, 60_000, 1, 72)) {
+            File pdf = pdf(1);
+            long start = System.currentTimeMillis();
+            for (int jobId = 1; jobId <= 3; jobId++) {
+                sink.sendPdf(pdf, PrintConfig.forJob(jobId, 1, 0, 1, 1), "job " + jobId);
+            }
+            // One printing, one queued: the third waits for the first to finish
+            assertTrue(System.currentTimeMillis() - start >= 900);
+            assertTrue(sink.queuedJobs() >= 2);
+            assertTrue(sink.awaitIdle(10_000));
+        }
+    }
+
+    private File pdf(int pages) throws Exception {
+        File file = dir.resolve("pages-" + pages + ".pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(file);
+        }
+        return file;
+    }
+
+    static Printable pages(int count) {
+        return (graphics, format, pageIndex) -> {
+            if (pageIndex >= count) {
+                return Printable.NO_SUCH_PAGE;
+            }
+            graphics.drawString("Page " + (pageIndex + 1), 72, 72);
+            return Printable.PAGE_EXISTS;
+        };
+    }
+}
@@ -0,0 +1,188 @@
+package com.printapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.printapp.model.PrintJobDto;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Fetches the same job list as JSON, CBOR and Smile from a local stand-in
+ * backend. The smoke test checks all three give the same jobs and files;
+ * {@code mvn test -Dbenchmark=true -Dtest=WireFormatBenchmarkTest} also
+ * prints fetch time and allocation per format.
+ */
+class WireFormatBenchmarkTest {
+
+    private static final String[] FORMATS = {"json", "cbor", "smile"};
+
+    private static HttpServer server;
+    private static volatile byte[] body;
+    private static volatile String contentType;
+
+    @BeforeAll
+    static void startBackend() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/order/get-config", exchange -> {
+            byte[] served = body;
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, served.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(served);
+            }
+        });
+        server.start();
+    }
+
+    @AfterAll
+    static void stopBackend() {
+        server.stop(0);
+    }
+
+    @Test
+    void allFormatsGiveTheSameJobs() throws Exception {
+        byte[] pdf = content(50_000);
+        for (String format : FORMATS) {
+            serve(format, 5, pdf);
+            SettingsService settings = settings(format);
+            ApiService api = new ApiService(settings);
+            JobFileService files = new JobFileService(api, settings);
+            try {
+                List<PrintJobDto> jobs = api.fetchPrintConfigs(jobId -> jobId == 5);
+                assertEquals(5, jobs.size(), format);
+                for (PrintJobDto job : jobs.subList(0, 4)) {
+                    assertEquals("doc" + job.getId() + ".pdf", job.getFileName(), format);
+                    assertArrayEquals(pdf, Files.readAllBytes(files.fetch(job).join().toPath()), format);
+                }
+                // Known jobs come without their content
+                assertNull(jobs.get(4).getInlineFile(), format);
+                assertNull(jobs.get(4).getFileBase64(), format);
+            } finally {
+                files.retainOnly(Collections.emptyList());
+                files.shutdown();
+                settings.close();
+            }
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void compareFormats() throws Exception {
+        int jobCount = Integer.getInteger("benchmark.jobs", 20);
+        byte[] pdf = content(Integer.getInteger("benchmark.bytes", 2_000_000));
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (String format : FORMATS) {
+            int wireBytes = serve(format, jobCount, pdf);
+            SettingsService settings = settings(format);
+            ApiService api = new ApiService(settings);
+            JobFileService files = new JobFileService(api, settings);
+            long best = Long.MAX_VALUE;
+            long allocated = 0;
+            try {
+                for (int round = 0; round < 15; round++) {
+                    long allocatedBefore = allocatedBytes(threads);
+                    long start = System.nanoTime();
+                    for (PrintJobDto job : api.fetchPrintConfigs()) {
+                        File file = files.fetch(job).join();
+                        assertEquals(pdf.length, file.length(), format);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    // The first rounds warm up the JIT
+                    if (round >= 5 && elapsed < best) {
+                        best = elapsed;
+                        allocated = allocatedBytes(threads) - allocatedBefore;
+                    }
+                    files.retainOnly(Collections.emptyList());
+                }
+            } finally {
+                files.shutdown();
+                settings.close();
+            }
+            System.out.printf("%-5s  wire %8d KB  fetch + files %7.1f ms  allocated %8d KB%n", format,
+                    wireBytes / 1024, best / 1e6, allocated / 1024);
+        }
+    }
+
+    /**
+     * Serves {@code count} jobs in {@code format}: base64 data URIs in JSON,
+     * byte strings in CBOR and Smile. Returns the size of the body.
+     */
+    private static int serve(String format, int count, byte[] pdf) throws IOException {
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        for (int id = 1; id <= count; id++) {
+            Map<String, Object> job = new LinkedHashMap<>();
+            job.put("id", id);
+            job.put("copies", 1);
+            job.put("color_mode", 10);
+            job.put("sides", 1);
+            job.put("pages_per_sheet", 1);
+            job.put("file_name", "doc" + id + ".pdf");
+            if (format.equals("json")) {
+                job.put("file_base64", "data:application/pdf;base64," + Base64.getEncoder().encodeToString(pdf));
+            } else {
+                job.put("file_content", pdf);
+            }
+            jobs.add(job);
+        }
+        ObjectMapper mapper = switch (format) {
+            case "cbor" -> new CBORMapper();
+            case "smile" -> new SmileMapper();
+            default -> new ObjectMapper();
+        };
+        contentType = switch (format) {
+            case "cbor" -> "application/cbor";
+            case "smile" -> "application/x-jackson-smile";
+            default -> "application/json";
+        };
+        body = mapper.writeValueAsBytes(jobs);
+        return body.length;
+    }
+
+    private static SettingsService settings(String format) throws IOException {
+        File file = AppPaths.settingsFile();
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), "{\"apiBaseUrl\": \"http://127.0.0.1:" + server.getAddress().getPort()
+                + "\", \"wireFormat\": \"" + (format.equals("json") ? "json" : "auto") + "\"}");
+        return new SettingsService();
+    }
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long id : threads.getAllThreadIds()) {
+            long allocated = threads.getThreadAllocatedBytes(id);
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,290 @@
+package com.printapp.stomp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Fixed cases, a randomized round trip and, with
+ * {@code mvn test -Dbenchmark=true -Dtest=StompParserTest}, a throughput
+ * benchmark.
+ */
+class StompParserTest {
+
+    // Header and body characters: ASCII, two-, three- and four-byte UTF-8
+    private static final String[] ALPHABET = {"a", "Z", "7", " ", "{", "\"", "\u00e9", "\u20ac", "\ud83d\ude00"};
+
+    private final StompParser parser = new StompParser();
+    private final List<String> commands = new ArrayList<>();
+    private final List<String> bodies = new ArrayList<>();
+    // Frames are views over the input, so copy them while they are valid
+    private final Consumer<StompFrame> sink = frame -> {
+        commands.add(frame.command().toString());
+        bodies.add(frame.body().toString());
+    };
+
+    @Test
+    void parsesSeveralFramesFromOneMessage() {
+        parser.feed("MESSAGE\ndestination:/topic/a\n\none\0\nMESSAGE\ndestination:/topic/b\n\ntwo\0", sink);
+
+        assertEquals(List.of("MESSAGE", "MESSAGE"), commands);
+        assertEquals(List.of("one", "two"), bodies);
+        assertEquals(0, parser.pendingLength());
+    }
+
+    @Test
+    void resumesAFrameSplitAcrossMessagesAtEveryPosition() {
+        String frame = "MESSAGE\r\ndestination:/topic/a\r\n\r\nhello\0";
+        for (int split = 1; split < frame.length(); split++) {
+            StompParser fresh = new StompParser();
+            List<String> received = new ArrayList<>();
+            fresh.feed(frame.substring(0, split), f -> received.add(f.body().toString()));
+            fresh.feed(frame.substring(split), f -> received.add(f.body().toString()));
+
+            assertEquals(List.of("hello"), received, "split at " + split);
+            assertEquals(0, fresh.pendingLength());
+        }
+    }
+
+    @Test
+    void readsBodiesWithNulsByContentLength() {
+        // content-length counts UTF-8 octets: "a\0" plus a two-byte character
+        String body = "a\0\u00e9";
+        parser.feed("MESSAGE\ncontent-length:4\n\n" + body + "\0", sink);
+
+        assertEquals(List.of(body), bodies);
+    }
+
+    @Test
+    void waitsForTheRestOfAContentLengthBody() {
+        parser.feed("MESSAGE\ncontent-length:5\n\nab\0", sink);
+        assertEquals(List.of(), bodies);
+
+        parser.feed("de\0", sink);
+        assertEquals(List.of("ab\0de"), bodies);
+    }
+
+    @Test
+    void decodesAMultibyteCharacterSplitAcrossBinaryMessages() {
+        byte[] bytes = "MESSAGE\n\n\u20ac\ud83d\ude00\0".getBytes(StandardCharsets.UTF_8);
+        for (int split = 1; split < bytes.length; split++) {
+            StompParser fresh = new StompParser();
+            List<String> received = new ArrayList<>();
+            fresh.feed(ByteBuffer.wrap(bytes, 0, split), f -> received.add(f.body().toString()));
+            fresh.feed(ByteBuffer.wrap(bytes, split, bytes.length - split), f -> received.add(f.body().toString()));
+
+            assertEquals(List.of("\u20ac\ud83d\ude00"), received, "split at byte " + split);
+        }
+    }
+
+    @Test
+    void decodesACharacterSpreadOverThreeBinaryMessages() {
+        byte[] bytes = "MESSAGE\n\n\u20ac\0".getBytes(StandardCharsets.UTF_8);
+        int euro = bytes.length - 4;
+        parser.feed(ByteBuffer.wrap(bytes, 0, euro + 1), sink);
+        parser.feed(ByteBuffer.wrap(bytes, euro + 1, 1), sink);
+        parser.feed(ByteBuffer.wrap(bytes, euro + 2, bytes.length - euro - 2), sink);
+
+        assertEquals(List.of("\u20ac"), bodies);
+    }
+
+    @Test
+    void skipsHeartBeats() {
+        parser.feed("\n\r\n\n", sink);
+        parser.feed("CONNECTED\nversion:1.2\n\n\0\n", sink);
+
+        assertEquals(List.of("CONNECTED"), commands);
+        assertEquals(0, parser.pendingLength());
+    }
+
+    @Test
+    void keepsFramesAfterOneTheSinkFailedOn() {
+        Consumer<StompFrame> failOnFirst = frame -> {
+            if (frame.bodyEquals("bad")) {
+                throw new IllegalStateException("sink failed");
+            }
+            sink.accept(frame);
+        };
+        assertThrows(IllegalStateException.class,
+                () -> parser.feed("MESSAGE\n\nbad\0MESSAGE\n\ngood\0", failOnFirst));
+        assertEquals(List.of(), bodies);
+
+        // The failed frame is not delivered again, the one after it is delivered once
+        parser.feed("", failOnFirst);
+        assertEquals(List.of("good"), bodies);
+        assertEquals(0, parser.pendingLength());
+    }
+
+    @Test
+    void dropsBufferedInputOnAMalformedFrame() {
+        parser.feed("MESSAGE\n\npart", sink);
+        assertThrows(StompParser.MalformedFrameException.class, () -> parser.feed("\0CMD\nnocolon\n\n\0", sink));
+        assertEquals(0, parser.pendingLength());
+
+        parser.feed("MESSAGE\n\nnext\0", sink);
+        assertEquals(List.of("part", "next"), bodies);
+    }
+
+    @Test
+    void rejectsInvalidContentLengths() {
+        assertThrows(StompParser.MalformedFrameException.class,
+                () -> parser.feed("MESSAGE\ncontent-length:x\n\n\0", sink));
+        assertThrows(StompParser.MalformedFrameException.class,
+                () -> parser.feed("MESSAGE\ncontent-length:1\n\nab\0", sink));
+    }
+    @Test
+    void roundTripsRandomFramesSplitAtRandomBytes() {
+        Random random = new Random(20261019);
+        for (int round = 0; round < 2000; round++) {
+            List<String> expected = new ArrayList<>();
+            String wire = randomFrames(random, expected);
+            byte[] bytes = wire.getBytes(StandardCharsets.UTF_8);
+
+            // Cut points anywhere: inside headers, multibyte characters, bodies, NULs and heart-beat EOLs
+            TreeSet<Integer> cuts = new TreeSet<>();
+            int pieces = random.nextInt(Math.min(bytes.length, 12));
+            for (int i = 0; i < pieces; i++) {
+                cuts.add(1 + random.nextInt(bytes.length - 1));
+            }
+            cuts.add(bytes.length);
+
+            StompParser binary = new StompParser();
+            List<String> received = new ArrayList<>();
+            int from = 0;
+            for (int cut : cuts) {
+                binary.feed(ByteBuffer.wrap(bytes, from, cut - from), frame -> received.add(describe(frame)));
+                from = cut;
+            }
+            assertEquals(expected, received, "round " + round + ", cuts " + cuts);
+            assertEquals(0, binary.pendingLength(), "round " + round);
+
+            StompParser text = new StompParser();
+            List<String> receivedText = new ArrayList<>();
+            int start = 0;
+            while (start < wire.length()) {
+                int end = Math.min(wire.length(), start + 1 + random.nextInt(40));
+                text.feed(wire.substring(start, end), frame -> receivedText.add(describe(frame)));
+                start = end;
+            }
+            assertEquals(expected, receivedText, "round " + round + " as text");
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkParsing() {
+        int frames = Integer.getInteger("benchmark.frames", 200_000);
+        String frame = "MESSAGE\ndestination:/topic/print-config/printer/P-1\nmessage-id:123-456\n"
+                + "subscription:sub-0\ncontent-type:application/json\ncontent-length:58\n\n"
+                + "{\"type\":\"NEW_PRINT_CONFIG\",\"jobId\":4242,\"printerId\":\"P-1\"}\0\n";
+        byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int[] seen = new int[1];
+        Consumer<StompFrame> count = f -> {
+            if (f.is("MESSAGE")) {
+                seen[0]++;
+            }
+        };
+
+        for (String mode : new String[] {"text", "binary", "binary split"}) {
+            long best = Long.MAX_VALUE;
+            long allocated = 0;
+            for (int round = 0; round < 8; round++) {
+                StompParser parser = new StompParser();
+                seen[0] = 0;
+                long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    switch (mode) {
+                        case "text" -> parser.feed(frame, count);
+                        case "binary" -> parser.feed(ByteBuffer.wrap(bytes), count);
+                        default -> {
+                            // Every frame arrives in two messages, cut inside the body
+                            parser.feed(ByteBuffer.wrap(bytes, 0, 150), count);
+                            parser.feed(ByteBuffer.wrap(bytes, 150, bytes.length - 150), count);
+                        }
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                assertEquals(frames, seen[0]);
+                // The first rounds warm up the JIT
+                if (round >= 3 && elapsed < best) {
+                    best = elapsed;
+                    allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                }
+            }
+            System.out.printf("%-12s  %8.0f frames/ms  %6.1f ns/frame  %6d B allocated/frame%n", mode,
+                    frames / (best / 1e6), (double) best / frames, allocated / frames);
+        }
+    }
+
+    /**
+     * Appends 1 to 5 random frames, with heart-beats between them, to a wire
+     * string; records what the parser should report for each.
+     */
+    private static String randomFrames(Random random, List<String> expected) {
+        StringBuilder wire = new StringBuilder();
+        int count = 1 + random.nextInt(5);
+        for (int f = 0; f < count; f++) {
+            for (int beats = random.nextInt(3); beats > 0; beats--) {
+                wire.append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+            String eol = random.nextBoolean() ? "\n" : "\r\n";
+            String command = random.nextBoolean() ? "MESSAGE" : "RECEIPT";
+            StringBuilder description = new StringBuilder(command).append('|');
+            wire.append(command).append(eol);
+            for (int h = random.nextInt(4); h > 0; h--) {
+                String name = "h" + random.nextInt(10);
+                String value = randomText(random, 12, false);
+                wire.append(name).append(':').append(value).append(eol);
+                description.append(name).append('=').append(value).append(';');
+            }
+            boolean withLength = random.nextBoolean();
+            String body = randomText(random, 60, withLength);
+            if (withLength) {
+                int length = body.getBytes(StandardCharsets.UTF_8).length;
+                wire.append("content-length:").append(length).append(eol);
+                description.append("content-length=").append(length).append(';');
+            }
+            wire.append(eol).append(body).append('\0');
+            expected.add(description.append('|').append(body).toString());
+        }
+        if (random.nextBoolean()) {
+            wire.append("\n");
+        }
+        return wire.toString();
+    }
+
+    private static String randomText(Random random, int maxLength, boolean nulsAllowed) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            if (nulsAllowed && random.nextInt(8) == 0) {
+                text.append(random.nextBoolean() ? '\0' : '\n');
+            } else {
+                text.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+        }
+        return text.toString();
+    }
+
+    private static String describe(StompFrame frame) {
+        StringBuilder description = new StringBuilder(frame.command()).append('|');
+        for (int i = 0; i < frame.headerCount(); i++) {
+            description.append(frame.headerName(i)).append('=').append(frame.headerValue(i)).append(';');
+        }
+        return description.append('|').append(frame.body()).toString();
+    }
+}